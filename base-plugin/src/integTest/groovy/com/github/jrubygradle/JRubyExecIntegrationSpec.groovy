@@ -159,6 +159,50 @@ class JRubyExecIntegrationSpec extends IntegrationSpecification {
         result.output =~ /No examples found./
     }
 
+    void "Running a script in a worker daemon"() {
+        setup:
+        useScript(HELLO_WORLD)
+        withJRubyExecConfig 'useWorkerDaemon = true'
+
+        when:
+        BuildResult result = build()
+
+        then:
+        result.output =~ /Hello, World/
+    }
+
+    void "The exit status of a script run in a worker daemon is propagated"() {
+        setup:
+        new File(projectDir, 'exit.rb').text = 'exit 3'
+        withJRubyExecConfig """
+            useWorkerDaemon = true
+            script 'exit.rb'
+        """
+
+        when:
+        writeBuildFile()
+        BuildResult result = gradleRunner(DEFAULT_TASK_NAME, '-i').buildAndFail()
+
+        then:
+        result.output.contains('JRuby worker finished with non-zero exit value 3')
+    }
+
+    void "A non-zero exit status of a script run in a worker daemon can be ignored"() {
+        setup:
+        new File(projectDir, 'exit.rb').text = 'exit 3'
+        withJRubyExecConfig """
+            useWorkerDaemon = true
+            script 'exit.rb'
+            ignoreExitValue = true
+        """
+
+        when:
+        BuildResult result = build()
+
+        then:
+        !result.output.contains('non-zero exit value')
+    }
+
     @Override
     void useScript(final String name, final String relativePath = null) {
         super.useScript(name, relativePath)
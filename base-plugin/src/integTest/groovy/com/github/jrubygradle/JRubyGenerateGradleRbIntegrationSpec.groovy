@@ -23,6 +23,7 @@
  */
 package com.github.jrubygradle
 
+import com.github.jrubygradle.api.core.JRubyStartup
 import com.github.jrubygradle.testhelper.IntegrationSpecification
 import org.ysb33r.grolifant.api.core.OperatingSystem
 import spock.lang.IgnoreIf
@@ -67,6 +68,34 @@ class JRubyGenerateGradleRbIntegrationSpec extends IntegrationSpecification {
 
         and: "The java command invoked with the -cp flag"
         // with this test setup it is just jrubyExec.asPath
-        content.contains "-cp ${flatRepoLocation.absolutePath}"
+        content.contains "-cp \"${flatRepoLocation.absolutePath}"
+
+        and: "No class data sharing archive of Gradle's JDK is baked in"
+        !content.contains('SharedArchiveFile')
+
+        and: "The JIT settings of jruby --dev are not applied by default"
+        content.contains('exec java  -cp')
+    }
+
+    @IgnoreIf({ OperatingSystem.current().isWindows() })
+    def "Generate gradle.rb with the JIT settings of jruby --dev"() {
+        given:
+        buildFile.text = """
+            import com.github.jrubygradle.GenerateGradleRb
+
+            ${projectWithRubyGemsRepo}
+
+            task ${DEFAULT_TASK_NAME} (type: GenerateGradleRb)  {
+                gemInstallDir 'build/gems'
+                devMode true
+            }
+        """
+
+        when:
+        gradleRunner(DEFAULT_TASK_NAME, '-i', '-s').build()
+        String content = new File(projectDir, 'gradle.rb').text
+
+        then:
+        content.contains("exec java ${JRubyStartup.DEV_MODE_JVM_ARGS.join(' ')} -cp")
     }
 }
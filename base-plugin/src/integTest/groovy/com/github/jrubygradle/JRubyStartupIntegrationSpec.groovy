@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle
+
+import com.github.jrubygradle.testhelper.IntegrationSpecification
+import org.gradle.testkit.runner.BuildResult
+
+class JRubyStartupIntegrationSpec extends IntegrationSpecification {
+
+    static final String TASK_NAME = 'helloWorld'
+
+    void setup() {
+        useScript(HELLO_WORLD)
+        buildFile.text = """
+        ${projectWithRubyGemsRepo}
+
+        task ${TASK_NAME}(type: com.github.jrubygradle.JRubyExec) {
+            script '${HELLO_WORLD}'
+            finalizedBy 'listArchives'
+        }
+
+        task listArchives {
+            doLast {
+                File cds = new File(gradle.gradleUserHomeDir, 'jruby-cds')
+                List<String> archives = (cds.listFiles() ?: []).findAll { it.name.endsWith('.jsa') }*.name
+                println "CDS archives: \${archives.size()}"
+            }
+        }
+        """
+    }
+
+    void "Scripts run with start-up tuning"() {
+        when:
+        BuildResult result = gradleRunner(TASK_NAME, '-Dcom.github.jrubygradle.fast-startup=true', '-i').build()
+
+        then:
+        result.output =~ /Hello, World/
+
+        and: 'a class data sharing archive is created on JDKs which support dynamic archives'
+        javaMajorVersion() < 13 || !(result.output =~ /CDS archives: 0\b/)
+        result.output =~ /CDS archives: \d+/
+    }
+
+    void "Scripts run without start-up tuning"() {
+        when:
+        BuildResult result = gradleRunner(TASK_NAME, '-Dcom.github.jrubygradle.fast-startup=false', '-i').build()
+
+        then:
+        result.output =~ /Hello, World/
+        !result.output.contains('Creating JRuby class data sharing archive')
+    }
+
+    private static int javaMajorVersion() {
+        String version = System.getProperty('java.specification.version')
+        version.startsWith('1.') ? version.substring(2).toInteger() : version.toInteger()
+    }
+}
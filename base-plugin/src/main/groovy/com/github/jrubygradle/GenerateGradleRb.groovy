@@ -24,6 +24,7 @@
 package com.github.jrubygradle
 
 import com.github.jrubygradle.api.core.JRubyAwareTask
+import com.github.jrubygradle.api.core.JRubyStartup
 import groovy.transform.CompileDynamic
 import groovy.transform.CompileStatic
 import org.apache.tools.ant.filters.ReplaceTokens
@@ -100,6 +101,45 @@ class GenerateGradleRb extends DefaultTask implements JRubyAwareTask {
         getGemInstallDir().absolutePath
     }
 
+    /** Start the generated launcher with the JIT settings of {@code jruby --dev}.
+     *
+     * These settings make scripts start faster, but make long-running scripts slower. They are not applied unless
+     * this is switched on.
+     *
+     * @param dev {@code true} to add {@link JRubyStartup#DEV_MODE_JVM_ARGS} to the launcher.
+     *
+     * @since 2.1.0
+     */
+    void devMode(boolean dev) {
+        this.devMode = dev
+    }
+
+    /** Whether the generated launcher is started with the JIT settings of {@code jruby --dev}.
+     *
+     * @return {@code true} if {@link #devMode} has been switched on. The default is {@code false}.
+     *
+     * @since 2.1.0
+     */
+    @Input
+    boolean getDevMode() {
+        this.devMode
+    }
+
+    /** JVM options of the generated launcher.
+     *
+     * The launcher runs whichever {@code java} is on the path, so it never gets a class data sharing archive of
+     * the JDK Gradle is running on.
+     *
+     * @return {@link JRubyStartup#DEV_MODE_JVM_ARGS} if {@link #devMode} has been switched on and start-up tuning
+     *   is not disabled, otherwise no options.
+     *
+     * @since 2.1.0
+     */
+    @Input
+    protected List<String> getJvmOptions() {
+        getDevMode() && JRubyStartup.enabled ? JRubyStartup.DEV_MODE_JVM_ARGS : []
+    }
+
     @TaskAction
     @CompileDynamic
     @SuppressWarnings('DuplicateStringLiteral')
@@ -107,6 +147,7 @@ class GenerateGradleRb extends DefaultTask implements JRubyAwareTask {
         Object source = getSourceFromResource()
         File destination = destinationFile().parentFile
         String path = classpathFromConfiguration(jruby.jrubyConfiguration).join(File.pathSeparator)
+        String jvmOpts = getJvmOptions().join(' ')
         String gemDir = getGemInstallDirPath()
         String bootstrapName = getBaseName()
         String bootstrapTemplate = BOOTSTRAP_TEMPLATE
@@ -128,7 +169,7 @@ class GenerateGradleRb extends DefaultTask implements JRubyAwareTask {
                 }
 
                 filter ReplaceTokens, beginToken: '%%', endToken: '%%',
-                    tokens: [GEMFOLDER: gemDir, JRUBYEXEC_CLASSPATH: path]
+                    tokens: [GEMFOLDER: gemDir, JRUBYEXEC_CLASSPATH: path, JVM_OPTS: jvmOpts]
             }
         }
     }
@@ -162,6 +203,7 @@ class GenerateGradleRb extends DefaultTask implements JRubyAwareTask {
     private Object baseName = 'gradle.rb'
     private Object destinationDir = project.projectDir
     private Object gemInstallDir
+    private boolean devMode = false
     private final JRubyPluginExtension jruby
     private final ProjectOperations projectOperations
 }
@@ -25,7 +25,10 @@ package com.github.jrubygradle
 
 import com.github.jrubygradle.api.core.JRubyAwareTask
 import com.github.jrubygradle.api.core.JRubyExecSpec
+import com.github.jrubygradle.api.core.JRubyStartup
 import com.github.jrubygradle.internal.JRubyExecUtils
+import com.github.jrubygradle.internal.JRubyWorkerExec
+import com.github.jrubygradle.internal.core.PhaseTrace
 import groovy.transform.CompileStatic
 import org.gradle.api.Task
 import org.gradle.api.artifacts.Configuration
@@ -38,9 +41,11 @@ import org.gradle.api.tasks.LocalState
 import org.gradle.api.tasks.TaskContainer
 import org.gradle.process.JavaExecSpec
 import org.gradle.util.GradleVersion
+import org.gradle.workers.WorkerExecutor
 import org.ysb33r.grolifant.api.core.OperatingSystem
 import org.ysb33r.grolifant.api.core.ProjectOperations
 
+import javax.inject.Inject
 import java.util.concurrent.Callable
 
 import static com.github.jrubygradle.internal.JRubyExecUtils.prepareJRubyEnvironment
@@ -67,12 +72,26 @@ class JRubyExec extends JavaExec implements JRubyAwareTask, JRubyExecSpec {
     @Input
     boolean inheritRubyEnv = false
 
+    /**
+     * Run the script in a warm JRuby worker daemon rather than forking a new JVM.
+     *
+     * Daemons are reused by all executions with the same JRuby classpath and GEM directory. Custom standard
+     * streams are not supported in this mode.
+     *
+     * Defaults to the value of the system property {@code com.github.jrubygradle.worker-daemon}.
+     *
+     * @since 2.1.0
+     */
+    @Internal
+    boolean useWorkerDaemon = JRubyWorkerExec.workerDaemonDefault
+
     JRubyExec() {
         super()
         super.setMain(MAIN_CLASS)
         this.jruby = extensions.create(JRubyPluginExtension.NAME, JRubyPluginExtension, this)
         this.projectOperations = ProjectOperations.create(project)
         this.tasks = project.tasks
+        this.gradleUserHomeDir = project.gradle.gradleUserHomeDir
         this.inputs.property 'script-path', { scr ->
             File f = resolveScript(projectOperations, scr)
             if (!f) {
@@ -284,7 +303,31 @@ class JRubyExec extends JavaExec implements JRubyAwareTask, JRubyExecSpec {
         setEnvironment prepareJRubyEnvironment(this.environment, this.inheritRubyEnv, gemDir)
         super.classpath(jruby.jrubyConfiguration)
         super.setArgs(getArgs())
-        super.exec()
+        long start = System.nanoTime()
+        if (useWorkerDaemon) {
+            JRubyWorkerExec.exec(getWorkerExecutor(), this, new File(temporaryDir, 'jruby-worker.status'))
+        } else {
+            if (JRubyExecUtils.isCurrentJvm(getExecutable())) {
+                Configuration cfg = jruby.jrubyConfiguration
+                List<String> startupArgs = JRubyStartup.jvmArgs(
+                    projectOperations, gradleUserHomeDir, JRubyExecUtils.jrubyJar(cfg), cfg.files
+                )
+                setJvmArgs(startupArgs + getJvmArgs())
+            }
+            super.exec()
+        }
+        PhaseTrace.complete(
+            PhaseTrace.EXEC, path, start, System.nanoTime() - start, [workerDaemon: useWorkerDaemon]
+        )
+    }
+
+    /** Gradle worker executor, injected by Gradle.
+     *
+     * @since 2.1.0
+     */
+    @Inject
+    protected WorkerExecutor getWorkerExecutor() {
+        throw new UnsupportedOperationException()
     }
 
     /** getArgs gets overridden in order to add JRuby options, script name and script arguments in the correct order.
@@ -347,5 +390,6 @@ class JRubyExec extends JavaExec implements JRubyAwareTask, JRubyExecSpec {
     private final ProjectOperations projectOperations
     private final TaskContainer tasks
     private final Provider<File> gemWorkDir
+    private final File gradleUserHomeDir
 
 }
@@ -23,6 +23,7 @@
  */
 package com.github.jrubygradle
 
+import com.github.jrubygradle.api.core.GenerateGemLock
 import com.github.jrubygradle.api.core.JRubyCorePlugin
 import com.github.jrubygradle.internal.JRubyExecDelegate
 import groovy.transform.CompileStatic
@@ -66,6 +67,12 @@ class JRubyPlugin implements Plugin<Project> {
             'generateGradleRb',
             GenerateGradleRb
         ).configure(generateGradleRbConfiguration(project))
+
+        registerTask(
+            project.tasks,
+            'generateGemLock',
+            GenerateGemLock
+        ).configure(generateGemLockConfiguration())
     }
 
     private Action<? super Task> generateGradleRbConfiguration(Project project) {
@@ -81,4 +88,17 @@ class JRubyPlugin implements Plugin<Project> {
             }
         } as Action<? super Task>
     }
+
+    private Action<? super Task> generateGemLockConfiguration() {
+        new Action<GenerateGemLock>() {
+            @Override
+            void execute(GenerateGemLock lock) {
+                lock.with {
+                    group = TASK_GROUP_NAME
+                    description = 'Write the resolved GEM and JAR versions to a lock file'
+                    configurations DEFAULT_CONFIGURATION
+                }
+            }
+        } as Action<? super Task>
+    }
 }
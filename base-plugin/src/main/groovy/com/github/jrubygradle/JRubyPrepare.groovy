@@ -27,6 +27,7 @@ import com.github.jrubygradle.api.core.AbstractJRubyPrepare
 import com.github.jrubygradle.internal.JRubyExecUtils
 import groovy.transform.CompileStatic
 import org.gradle.api.provider.Provider
+import org.gradle.api.tasks.CacheableTask
 
 import java.util.concurrent.Callable
 
@@ -36,6 +37,7 @@ import java.util.concurrent.Callable
  * @author R Tyler Croy
  * @author Christian Meier
  */
+@CacheableTask
 @CompileStatic
 class JRubyPrepare extends AbstractJRubyPrepare {
 
@@ -26,9 +26,11 @@ package com.github.jrubygradle.internal
 import com.github.jrubygradle.JRubyPluginExtension
 import com.github.jrubygradle.JRubyPrepare
 import com.github.jrubygradle.api.core.JRubyExecSpec
+import com.github.jrubygradle.api.core.JRubyStartup
 import groovy.transform.CompileStatic
 import org.gradle.api.Action
 import org.gradle.api.Project
+import org.gradle.api.artifacts.Configuration
 import org.gradle.api.file.FileCollection
 import org.gradle.api.plugins.ExtensionContainer
 import org.gradle.api.tasks.TaskContainer
@@ -39,11 +41,17 @@ import org.ysb33r.grolifant.api.v4.ClosureUtils
 
 import static com.github.jrubygradle.JRubyExec.MAIN_CLASS
 import static com.github.jrubygradle.internal.JRubyExecUtils.buildArgs
+import static com.github.jrubygradle.internal.JRubyExecUtils.isCurrentJvm
+import static com.github.jrubygradle.internal.JRubyExecUtils.jrubyJar
 import static com.github.jrubygradle.internal.JRubyExecUtils.prepareJRubyEnvironment
 import static com.github.jrubygradle.internal.JRubyExecUtils.resolveScript
 import static org.ysb33r.grolifant.api.v4.StringUtils.stringize
 
 /** Delegate for running JRuby using {@code project.jrubyexec}.
+ *
+ * Calls always fork a new JVM, even if worker daemons are the default for {@code JRubyExec} tasks. A worker
+ * needs a {@link JavaExecSpec} which is configured without being executed, and Gradle only offers that through
+ * its internal services.
  *
  * @author Schalk W. Cronjé
  * @author R Tyler Croy
@@ -74,6 +82,7 @@ class JRubyExecDelegate {
             ExecSpec execSpec = new ExecSpec(projectOperations, javaExecSpec)
             ClosureUtils.configureItem(execSpec, cfg)
             finaliseJavaExecConfiguration(execSpec, javaExecSpec)
+            applyStartupJvmArgs(javaExecSpec)
         }
     }
 
@@ -82,6 +91,7 @@ class JRubyExecDelegate {
             ExecSpec execSpec = new ExecSpec(projectOperations, javaExecSpec)
             cfg.execute(execSpec)
             finaliseJavaExecConfiguration(execSpec, javaExecSpec)
+            applyStartupJvmArgs(javaExecSpec)
         }
     }
 
@@ -105,13 +115,24 @@ class JRubyExecDelegate {
         }
     }
 
+    private void applyStartupJvmArgs(JavaExecSpec javaExecSpec) {
+        if (isCurrentJvm(javaExecSpec.executable)) {
+            Configuration cfg = extensions.getByType(JRubyPluginExtension).jrubyConfiguration
+            javaExecSpec.jvmArgs = JRubyStartup.jvmArgs(
+                projectOperations, gradleUserHomeDir, jrubyJar(cfg), cfg.files
+            ) + javaExecSpec.jvmArgs
+        }
+    }
+
     private JRubyExecDelegate(Project project) {
         this.projectOperations = ProjectOperations.find(project)
         this.tasks = project.tasks
         this.extensions = project.extensions
+        this.gradleUserHomeDir = project.gradle.gradleUserHomeDir
     }
 
     private final ProjectOperations projectOperations
+    private final File gradleUserHomeDir
     private final TaskContainer tasks
     private final ExtensionContainer extensions
 
@@ -254,6 +254,23 @@ class JRubyExecUtils {
 //        )
 //    }
 
+    /** Whether a Java executable belongs to the JDK Gradle is running on.
+     *
+     * JVM start-up tuning is only applied in that case, as shared class archives are specific to a JDK.
+     *
+     * @param executable Path to a Java executable. {@code null} means the default executable.
+     * @return {@code true} if the executable is the one of the current JDK.
+     *
+     * @since 2.1.0
+     */
+    static boolean isCurrentJvm(String executable) {
+        File java = new File(
+            System.getProperty('java.home'),
+            OperatingSystem.current().windows ? 'bin/java.exe' : 'bin/java'
+        )
+        executable == null || new File(executable).canonicalFile == java.canonicalFile
+    }
+
     /** Prepare en environment which can be used to execute JRuby.
      *
      * @param presetEnvironment Preset envrionment to use.
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal
+
+import groovy.transform.CompileStatic
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.provider.Property
+import org.gradle.workers.WorkAction
+import org.gradle.workers.WorkParameters
+
+/** Runs JRuby inside a Gradle worker daemon on Gradle 5.6 and later.
+ *
+ * This only carries the parameters of a {@link JRubyWorkerAction}, which does the actual work. It must not be
+ * loaded on older versions of Gradle.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+@SuppressWarnings('AbstractClassWithoutAbstractMethod')
+abstract class JRubyWorkAction implements WorkAction<Parameters> {
+
+    /** Parameters of a JRuby execution.
+     *
+     */
+    static interface Parameters extends WorkParameters {
+        ListProperty<String> getArgs()
+
+        MapProperty<String, String> getEnvironment()
+
+        Property<File> getWorkingDir()
+
+        Property<File> getStatusFile()
+    }
+
+    @Override
+    void execute() {
+        new JRubyWorkerAction(
+            parameters.args.get(),
+            parameters.environment.get(),
+            parameters.workingDir.get(),
+            parameters.statusFile.get()
+        ).run()
+    }
+}
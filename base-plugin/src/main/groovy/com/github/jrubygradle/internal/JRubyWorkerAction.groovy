@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal
+
+import groovy.transform.CompileDynamic
+import groovy.transform.CompileStatic
+
+import javax.inject.Inject
+
+/** Runs JRuby inside a Gradle worker daemon.
+ *
+ * Every invocation creates a new Ruby runtime from a fresh {@code RubyInstanceConfig}, so scripts do not share
+ * state, whilst the JVM and the loaded JRuby classes are kept warm between invocations.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class JRubyWorkerAction implements Runnable {
+
+    @Inject
+    JRubyWorkerAction(List<String> args, Map<String, String> environment, File workingDir, File statusFile) {
+        this.args = args
+        this.environment = environment
+        this.workingDir = workingDir
+        this.statusFile = statusFile
+    }
+
+    @Override
+    void run() {
+        statusFile.text = runJRuby().toString()
+    }
+
+    /** JRuby is only on the classpath of the worker, therefore it is called dynamically.
+     *
+     * @return Exit status of the Ruby script.
+     */
+    @CompileDynamic
+    private int runJRuby() {
+        ClassLoader loader = this.class.classLoader
+        def config = loader.loadClass('org.jruby.RubyInstanceConfig').newInstance()
+        config.loader = loader
+        config.hardExit = false
+        config.environment = environment
+        config.currentDirectory = workingDir.absolutePath
+
+        def main = loader.loadClass('org.jruby.Main').newInstance(config)
+        main.run(args as String[]).status
+    }
+
+    private final List<String> args
+    private final Map<String, String> environment
+    private final File workingDir
+    private final File statusFile
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal
+
+import groovy.transform.CompileDynamic
+import groovy.transform.CompileStatic
+import org.gradle.api.Action
+import org.gradle.api.GradleException
+import org.gradle.process.ExecResult
+import org.gradle.process.JavaExecSpec
+import org.gradle.process.JavaForkOptions
+import org.gradle.workers.IsolationMode
+import org.gradle.workers.WorkerConfiguration
+import org.gradle.workers.WorkerExecutor
+import org.ysb33r.grolifant.api.core.LegacyLevel
+
+import static org.ysb33r.grolifant.api.v4.StringUtils.stringize
+
+/** Executes JRuby in warm worker daemons rather than forking a new JVM for every execution.
+ *
+ * Gradle reuses a worker daemon for every submission with the same classpath and fork options. As the classpath
+ * contains the {@code jruby-complete} jar and the fork options carry the GEM environment, a daemon is effectively
+ * kept per JRuby version and GEM_HOME.
+ *
+ * On Gradle 5.6 and later the work is submitted to a process isolated work queue. Older versions of Gradle use the
+ * submission API which has since been deprecated.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class JRubyWorkerExec {
+
+    /** Environment keys which are set on the worker daemon itself and therefore select the daemon.
+     *
+     */
+    public static final List<String> DAEMON_ENV_KEYS = [
+        'GEM_HOME', 'GEM_PATH', 'JARS_HOME', 'JARS_LOCK', 'JBUNDLE_SKIP', 'JARS_SKIP'
+    ].asImmutable()
+
+    /** Whether JRuby should be run in worker daemons by default.
+     *
+     * Set the system property {@code com.github.jrubygradle.worker-daemon} to {@code true} to run all
+     * {@code JRubyExec} tasks in worker daemons.
+     *
+     * @return {@code true} if worker daemons are used by default.
+     */
+    static boolean isWorkerDaemonDefault() {
+        System.getProperty('com.github.jrubygradle.worker-daemon', 'false').toBoolean()
+    }
+
+    /** Runs JRuby in a worker daemon and waits for the result.
+     *
+     * @param workerExecutor Gradle worker executor.
+     * @param spec Fully configured execution specification. The classpath, arguments, environment, working
+     *   directory and JVM settings are taken from here. Custom standard streams are not supported.
+     * @param statusFile File the worker uses to report the exit status.
+     * @return Result of the execution.
+     */
+    static ExecResult exec(
+        WorkerExecutor workerExecutor,
+        JavaExecSpec spec,
+        File statusFile
+    ) {
+        final Map<String, String> env = [:]
+        spec.environment.each { String key, Object value ->
+            env.put(key, stringize(value))
+        }
+        final List<String> args = stringize(spec.args)
+        final File workingDir = spec.workingDir
+        statusFile.delete()
+
+        if (LegacyLevel.PRE_5_6) {
+            submitLegacy(workerExecutor, spec, args, env, workingDir, statusFile)
+        } else {
+            submit(workerExecutor, spec, args, env, workingDir, statusFile)
+        }
+        workerExecutor.await()
+
+        Result result = new Result(statusFile.text.trim().toInteger())
+        statusFile.delete()
+        if (!spec.ignoreExitValue) {
+            result.assertNormalExitValue()
+        }
+        result
+    }
+
+    /** Submits to a queue of worker daemons, which is only available since Gradle 5.6.
+     */
+    @CompileDynamic
+    @SuppressWarnings('ParameterCount')
+    private static void submit(
+        WorkerExecutor workerExecutor,
+        JavaExecSpec spec,
+        List<String> args,
+        Map<String, String> env,
+        File workingDir,
+        File statusFile
+    ) {
+        workerExecutor.processIsolation({ processSpec ->
+            processSpec.classpath.from(spec.classpath)
+            processSpec.forkOptions(forkOptions(spec, env))
+        } as Action).submit(JRubyWorkAction, { parameters ->
+            parameters.args.set(args)
+            parameters.environment.set(env)
+            parameters.workingDir.set(workingDir)
+            parameters.statusFile.set(statusFile)
+        } as Action)
+    }
+
+    /** Submits with the API which has been deprecated since Gradle 5.6.
+     */
+    @SuppressWarnings('ParameterCount')
+    private static void submitLegacy(
+        WorkerExecutor workerExecutor,
+        JavaExecSpec spec,
+        List<String> args,
+        Map<String, String> env,
+        File workingDir,
+        File statusFile
+    ) {
+        workerExecutor.submit(JRubyWorkerAction, { WorkerConfiguration wc ->
+            wc.isolationMode = IsolationMode.PROCESS
+            wc.displayName = "JRuby ${args.join(' ')}"
+            wc.classpath(spec.classpath)
+            wc.forkOptions(forkOptions(spec, env))
+            wc.params(args, env, workingDir, statusFile)
+        } as Action<WorkerConfiguration>)
+    }
+
+    /** The environment that selects the daemon, and the JVM settings of the daemon.
+     */
+    private static Action<JavaForkOptions> forkOptions(JavaExecSpec spec, Map<String, String> env) {
+        return { JavaForkOptions fork ->
+            fork.environment(env.subMap(DAEMON_ENV_KEYS))
+            fork.jvmArgs(spec.jvmArgs)
+            fork.systemProperties(spec.systemProperties)
+            if (spec.maxHeapSize) {
+                fork.maxHeapSize = spec.maxHeapSize
+            }
+            if (spec.minHeapSize) {
+                fork.minHeapSize = spec.minHeapSize
+            }
+        } as Action<JavaForkOptions>
+    }
+
+    private static class Result implements ExecResult {
+        Result(int exitValue) {
+            this.exitValue = exitValue
+        }
+
+        @Override
+        int getExitValue() {
+            this.exitValue
+        }
+
+        @Override
+        ExecResult assertNormalExitValue() {
+            if (exitValue != 0) {
+                throw new GradleException("JRuby worker finished with non-zero exit value ${exitValue}")
+            }
+            this
+        }
+
+        @Override
+        ExecResult rethrowFailure() {
+            this
+        }
+
+        private final int exitValue
+    }
+}
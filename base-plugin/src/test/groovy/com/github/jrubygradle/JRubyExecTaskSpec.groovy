@@ -179,4 +179,17 @@ class JRubyExecTaskSpec extends Specification {
         then:
         execTask.jruby.gemConfiguration.name == customConfig.name
     }
+
+    void "Worker daemons are opt-in"() {
+        expect: 'forked JVMs by default'
+        !execTask.useWorkerDaemon
+
+        when: 'the task is configured'
+        project.configure(execTask) {
+            useWorkerDaemon = true
+        }
+
+        then:
+        execTask.useWorkerDaemon
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.api.gems
+
+import groovy.transform.CompileStatic
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+import java.util.concurrent.TimeUnit
+
+import static com.github.jrubygradle.api.gems.GemVersion.gemVersionFromGemRequirement
+import static com.github.jrubygradle.api.gems.GemVersion.gemVersionFromGradleIvyRequirement
+import static com.github.jrubygradle.api.gems.GemVersion.singleGemVersionFromMultipleGemRequirements
+
+/** Measures the operations which {@code GemVersionResolver} and the GEM proxy perform on every dependency.
+ *
+ * The requirements are typical of what is found in the runtime dependencies of popular GEMs and in the
+ * {@code ivy.xml} descriptors generated from them.
+ */
+@CompileStatic
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+class GemVersionBenchmark {
+
+    @Setup
+    void setup() {
+        ranges = IVY_REQUIREMENTS.collect { String it -> gemVersionFromGradleIvyRequirement(it) } as GemVersion[]
+        intersections = new GemVersion[ranges.length * ranges.length]
+        int i = 0
+        for (GemVersion lhs : ranges) {
+            for (GemVersion rhs : ranges) {
+                intersections[i++] = lhs.intersect(rhs)
+            }
+        }
+    }
+
+    @Benchmark
+    void parseGemRequirement(Blackhole blackhole) {
+        for (String it : GEM_REQUIREMENTS) {
+            blackhole.consume(gemVersionFromGemRequirement(it))
+        }
+    }
+
+    @Benchmark
+    void parseMultipleGemRequirements(Blackhole blackhole) {
+        for (String it : MULTIPLE_GEM_REQUIREMENTS) {
+            blackhole.consume(singleGemVersionFromMultipleGemRequirements(it))
+        }
+    }
+
+    @Benchmark
+    void parseGradleIvyRequirement(Blackhole blackhole) {
+        for (String it : IVY_REQUIREMENTS) {
+            blackhole.consume(gemVersionFromGradleIvyRequirement(it))
+        }
+    }
+
+    @Benchmark
+    void intersect(Blackhole blackhole) {
+        for (GemVersion lhs : ranges) {
+            for (GemVersion rhs : ranges) {
+                blackhole.consume(lhs.intersect(rhs))
+            }
+        }
+    }
+
+    @Benchmark
+    void intersectWithRequirement(Blackhole blackhole) {
+        for (GemVersion lhs : ranges) {
+            for (String rhs : IVY_REQUIREMENTS) {
+                blackhole.consume(lhs.intersect(rhs))
+            }
+        }
+    }
+
+    @Benchmark
+    void conflict(Blackhole blackhole) {
+        for (GemVersion it : intersections) {
+            blackhole.consume(it.conflict())
+        }
+    }
+
+    private GemVersion[] ranges
+    private GemVersion[] intersections
+
+    private static final List<String> GEM_REQUIREMENTS = [
+        '= 7.0.4', '>= 1.15.0', '~> 1.4', '~> 2.0', '~> 1.6.0', '>= 0', '< 3', '>= 1.2', '~> 0.14.0',
+        '<= 2.0', '> 1.0', '~> 3.12', '~> 1.2.3.4', '!= 1.5.0'
+    ].asImmutable()
+
+    private static final List<String> MULTIPLE_GEM_REQUIREMENTS = [
+        '~> 2.2, >= 2.2.1', '>= 3.0, < 4.0', '< 3, >= 1.2', '~> 1.4', '>= 1.13.10, < 2', '~> 5.0, >= 5.0.1'
+    ].asImmutable()
+
+    private static final List<String> IVY_REQUIREMENTS = [
+        '7.0.4', '[1.15.0,)', '[1.4.0,2.0[', '[2.0.0,3.0[', '[1.6.0,1.7.0[', '[0,)', '(,3[', '[1.2,)',
+        '[0.14.0,0.15.0[', '1.2.+', '1.2.3+', '+', '[1.2.1.0.pre.0,1.2.4]', ']2.5.1.1,99999]'
+    ].asImmutable()
+}
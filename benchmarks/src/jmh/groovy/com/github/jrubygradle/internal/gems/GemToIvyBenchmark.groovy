@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import com.github.jrubygradle.api.gems.GemInfo
+import com.github.jrubygradle.internal.core.RubyGemsJson
+import groovy.json.JsonSlurper
+import groovy.transform.CompileStatic
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+import java.security.DigestOutputStream
+import java.security.MessageDigest
+import java.util.concurrent.TimeUnit
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/** Compares the streaming Ivy descriptor generation against the former {@code MarkupBuilder} implementation.
+ *
+ * Both variants produce the descriptor as UTF-8 bytes together with its SHA-1 checksum, which is what the GEM
+ * proxy needs on a cache miss. The fixtures are responses from the RubyGems {@code v2} API.
+ */
+@CompileStatic
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class GemToIvyBenchmark {
+
+    @Param(['rails-7.0.4', 'nokogiri-1.13.10-java', 'jruby-openssl-0.14.0-java'])
+    String fixture
+
+    @Setup
+    void setup() {
+        String json = GemToIvyBenchmark.getResource("/rubygems/${fixture}.json").getText(UTF_8.name())
+        gem = RubyGemsJson.extractMetadata(new JsonSlurper().parseText(json))
+        streaming = new GemToIvy(SERVER)
+        markupBuilder = new MarkupBuilderGemToIvy('rubygems')
+    }
+
+    @Benchmark
+    String streaming() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_SIZE)
+        streaming.writeTo(out, gem)
+    }
+
+    @Benchmark
+    String markupBuilder() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_SIZE)
+        DigestOutputStream digest = new DigestOutputStream(out, MessageDigest.getInstance('SHA-1'))
+        Writer writer = new OutputStreamWriter(digest, UTF_8)
+        markupBuilder.writeTo(writer, gem)
+        writer.flush()
+        digest.messageDigest.digest().encodeHex().toString()
+    }
+
+    private GemInfo gem
+    private GemToIvy streaming
+    private MarkupBuilderGemToIvy markupBuilder
+
+    private static final URI SERVER = 'https://rubygems.org'.toURI()
+    private static final int INITIAL_SIZE = 2048
+}
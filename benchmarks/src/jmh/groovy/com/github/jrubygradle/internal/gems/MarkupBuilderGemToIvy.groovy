@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import com.github.jrubygradle.api.gems.GemInfo
+import groovy.transform.CompileDynamic
+import groovy.transform.CompileStatic
+import groovy.xml.MarkupBuilder
+
+import static com.github.jrubygradle.api.gems.GemVersion.singleGemVersionFromMultipleGemRequirements
+
+/** The {@link MarkupBuilder}-based Ivy descriptor generator which {@link GemToIvy} used to be.
+ *
+ * Kept only as the baseline for {@link GemToIvyBenchmark}.
+ */
+@CompileStatic
+class MarkupBuilderGemToIvy {
+
+    MarkupBuilderGemToIvy(String org) {
+        this.org = org
+    }
+
+    @CompileDynamic
+    @SuppressWarnings('NoDef')
+    Writer writeTo(Writer writer, GemInfo gem) {
+        def xml = new MarkupBuilder(writer)
+
+        final Map artifactAttributes = [
+            type: 'gem', url: gem.gemUri
+        ]
+
+        if (gem.platform == GemToIvy.JAVA_PLATFORM) {
+            artifactAttributes['e:classifier'] = GemToIvy.JAVA_PLATFORM
+        }
+
+        xml.'ivy-module'(
+            'xmlns:xsi': 'http://www.w3.org/2001/XMLSchema-instance',
+            'xsi:noNamespaceSchemaLocation': 'http://ant.apache.org/ivy/schemas/ivy.xsd',
+            'xmlns:e': 'http://ant.apache.org/ivy/extra',
+            version: '2.0'
+        ) {
+            info(organisation: this.org, module: gem.name, revision: gem.version) {
+                if (gem.description || gem.homepageUri) {
+                    if (gem.homepageUri) {
+                        description(homepage: gem.homepageUri) {
+                            gem.description ?: ''
+                        }
+                    } else {
+                        description {
+                            gem.description ?: ''
+                        }
+                    }
+                }
+            }
+
+            publications {
+                artifact(artifactAttributes)
+            }
+
+            if (gem.dependencies || gem.jarRequirements) {
+                dependencies {
+                    gem.dependencies.each { dep ->
+                        dependency(
+                            org: this.org,
+                            name: dep.name,
+                            rev: singleGemVersionFromMultipleGemRequirements(dep.requirements).toString()
+                        )
+                    }
+                    gem.jarRequirements.each { dep ->
+                        if (dep.group) {
+                            dependency(
+                                org: dep.group,
+                                name: dep.name,
+                                rev: singleGemVersionFromMultipleGemRequirements(dep.requirements).toString()
+                            )
+                        } else {
+                            dependency(
+                                name: dep.name,
+                                rev: singleGemVersionFromMultipleGemRequirements(dep.requirements).toString()
+                            )
+                        }
+                    }
+                }
+            }
+        }
+
+        writer
+    }
+
+    private final String org
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.jar.internal
+
+import groovy.transform.CompileStatic
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+import java.util.concurrent.TimeUnit
+import java.util.function.BiConsumer
+
+/** Measures building the {@code .jrubydir} files for a JRuby jar.
+ *
+ * The paths are laid out like an installed GEM home in which every GEM has a few levels of {@code lib}
+ * directories. They are added in a shuffled order, as the order in which a copy action visits files is not sorted.
+ */
+@CompileStatic
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+class JRubyDirInfoBenchmark {
+
+    @Param(['50', '500'])
+    int gems
+
+    @Setup
+    void setup() {
+        List<String[]> generated = []
+        for (int gem = 0; gem < gems; gem++) {
+            String gemDir = "synthetic-${gem}-1.0.0"
+            generated.add(['specifications', "${gemDir}.gemspec".toString()] as String[])
+            generated.add(['gems', gemDir, 'README.md'] as String[])
+            for (int dir = 0; dir < DIRECTORIES_PER_GEM; dir++) {
+                for (int file = 0; file < FILES_PER_DIRECTORY; file++) {
+                    generated.add([
+                        'gems', gemDir, 'lib', "synthetic_${gem}".toString(), "part${dir}".toString(),
+                        "file${file}.rb".toString()
+                    ] as String[])
+                }
+            }
+        }
+        Collections.shuffle(generated, new Random(SEED))
+        paths = generated
+    }
+
+    @Benchmark
+    void build(Blackhole blackhole) {
+        JRubyDirInfo info = new JRubyDirInfo()
+        for (String[] it : paths) {
+            info.add(it)
+        }
+        info.each({ String path, String content ->
+            blackhole.consume(path)
+            blackhole.consume(content)
+        } as BiConsumer<String, String>)
+    }
+
+    private List<String[]> paths
+
+    private static final int DIRECTORIES_PER_GEM = 4
+    private static final int FILES_PER_DIRECTORY = 10
+    private static final long SEED = 1234L
+}
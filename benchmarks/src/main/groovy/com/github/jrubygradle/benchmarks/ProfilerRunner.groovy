@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.benchmarks
+
+import groovy.transform.CompileStatic
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/** Runs a command, usually {@code gradle-profiler}, whilst a {@link StubRubyGemsServer} is serving a fixture.
+ *
+ * The address of the stub server is written as the {@code stubRubyGemsUrl} property to the
+ * {@code gradle.properties} file of the project that is being profiled.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class ProfilerRunner {
+
+    /** Entry point.
+     *
+     * @param args Directory laid out by {@link RubyGemsFixture}, directory of the profiled project, followed by
+     *   the command line to run.
+     */
+    static void main(String[] args) {
+        if (args.length < 3) {
+            throw new IllegalArgumentException('Usage: ProfilerRunner FIXTURE_DIR PROJECT_DIR COMMAND [ARGS...]')
+        }
+
+        int exitValue
+        new StubRubyGemsServer(new File(args[0])).withCloseable { StubRubyGemsServer server ->
+            setStubAddress(new File(args[1], 'gradle.properties'), server.address)
+            exitValue = new ProcessBuilder(args.toList().subList(2, args.length)).inheritIO().start().waitFor()
+        }
+        System.exit(exitValue)
+    }
+
+    private static void setStubAddress(File gradleProperties, URI address) {
+        Properties props = new Properties()
+        if (gradleProperties.exists()) {
+            gradleProperties.withReader(UTF_8.name()) { Reader reader -> props.load(reader) }
+        }
+        props.setProperty('stubRubyGemsUrl', address.toString())
+        gradleProperties.withWriter(UTF_8.name()) { Writer writer -> props.store(writer, null) }
+    }
+}
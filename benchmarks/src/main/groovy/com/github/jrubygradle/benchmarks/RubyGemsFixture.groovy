@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.benchmarks
+
+import groovy.transform.CompileDynamic
+import groovy.transform.CompileStatic
+import groovy.util.slurpersupport.GPathResult
+
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
+import static groovy.json.JsonOutput.toJson
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/** Lays out the responses of a RubyGems server as static files.
+ *
+ * The tree contains the {@code api/v1} and {@code api/v2} JSON documents which the GEM proxy queries, and the
+ * {@code .gem} files below {@code downloads}. Absolute URLs in the documents start with {@link #SERVER_TOKEN},
+ * which {@link StubRubyGemsServer} replaces with its own address.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class RubyGemsFixture {
+
+    public static final String SERVER_TOKEN = '%%SERVER%%'
+
+    /** Name of the root of the synthetic GEM tree.
+     *
+     */
+    public static final String SYNTHETIC_ROOT = syntheticName(0)
+
+    /** Creates a fixture with the integration test GEMs and a tree of synthetic GEMs.
+     *
+     * @param args Output directory, Maven repository with GEMs, number of synthetic GEMs and number of library
+     *   files per synthetic GEM.
+     */
+    static void main(String[] args) {
+        RubyGemsFixture fixture = new RubyGemsFixture(new File(args[0]))
+        fixture.addMavenRepository(new File(args[1]))
+        fixture.addSyntheticGems(args[2].toInteger(), args[3].toInteger())
+        fixture.write()
+    }
+
+    /** Creates an empty fixture.
+     *
+     * @param root Directory in which the files will be laid out.
+     */
+    RubyGemsFixture(File root) {
+        this.root = root
+    }
+
+    /** Adds the GEMs from a Maven repository layout such as the one used by the integration tests.
+     *
+     * Runtime dependencies are taken from the POM files, with Maven version ranges translated back to GEM
+     * requirements.
+     *
+     * @param repository Root of the repository. GEMs are expected in the {@code rubygems} group.
+     */
+    void addMavenRepository(File repository) {
+        new File(repository, GROUP).eachDir { File gemDir ->
+            gemDir.eachDir { File versionDir ->
+                String prefix = "${gemDir.name}-${versionDir.name}"
+                File pom = new File(versionDir, "${prefix}.pom")
+                File gem = new File(versionDir, "${prefix}.gem")
+                if (pom.exists() && gem.exists()) {
+                    add(gemDir.name, versionDir.name, runtimeDependencies(pom), gem)
+                }
+            }
+        }
+    }
+
+    /** Adds a binary tree of synthetic GEMs.
+     *
+     * GEM {@code n} depends on GEMs {@code 2n+1} and {@code 2n+2}, so that resolving {@link #SYNTHETIC_ROOT}
+     * pulls in all of them. Every GEM is published in two versions.
+     *
+     * @param count Number of GEMs.
+     * @param files Number of library files per GEM.
+     */
+    void addSyntheticGems(int count, int files) {
+        for (int i = 0; i < count; i++) {
+            Map<String, String> dependencies = [:]
+            for (int child : [2 * i + 1, 2 * i + 2]) {
+                if (child < count) {
+                    dependencies.put(syntheticName(child), SYNTHETIC_REQUIREMENT)
+                }
+            }
+            for (String version : SYNTHETIC_VERSIONS) {
+                File gem = new File(root, "downloads/${syntheticName(i)}-${version}.gem")
+                new SyntheticGem(syntheticName(i), version, dependencies, files).writeTo(gem)
+                add(syntheticName(i), version, dependencies, gem)
+            }
+        }
+    }
+
+    /** Writes the JSON documents for all GEMs that have been added.
+     *
+     */
+    void write() {
+        gems.each { String name, SortedMap<String, Map<String, String>> versions ->
+            List<String> descending = versions.keySet().toSorted(VERSION_ORDER).reverse()
+            writeJson("api/v1/versions/${name}.json", descending.collect { String version ->
+                [number: version, platform: RUBY_PLATFORM, prerelease: isPrerelease(version)]
+            })
+            writeJson("api/v1/versions/${name}/latest.json", [
+                version: descending.find { String version -> !isPrerelease(version) } ?: 'unknown'
+            ])
+            versions.each { String version, Map<String, String> dependencies ->
+                writeJson("api/v2/rubygems/${name}/versions/${version}.json", metadata(name, version, dependencies))
+            }
+        }
+    }
+
+    /** Translates a Maven version range as found in the POM files of GEMs into a GEM requirement.
+     *
+     * @param range Version range such as {@code [1.4,1.99999]}.
+     * @return Requirement such as {@code >= 1.4, <= 1.99999}.
+     */
+    static String gemRequirement(String range) {
+        Matcher matcher = MAVEN_RANGE.matcher(range.trim())
+        if (!matcher.matches()) {
+            return "= ${range.trim()}"
+        }
+
+        List<String> requirements = []
+        if (matcher.group(2)) {
+            requirements.add("${matcher.group(1) == '[' ? '>=' : '>'} ${matcher.group(2)}".toString())
+        }
+        if (matcher.group(3)) {
+            requirements.add("${matcher.group(4) == ']' ? '<=' : '<'} ${matcher.group(3)}".toString())
+        }
+        requirements ? requirements.join(', ') : '>= 0'
+    }
+
+    /** Name of a synthetic GEM.
+     *
+     * @param index Position in the tree.
+     * @return GEM name.
+     */
+    static String syntheticName(int index) {
+        String.format('synthetic-%04d', index)
+    }
+
+    private void add(String name, String version, Map<String, String> dependencies, File gem) {
+        File download = new File(root, "downloads/${name}-${version}.gem")
+        if (gem.canonicalFile != download.canonicalFile) {
+            download.parentFile.mkdirs()
+            Files.copy(gem.toPath(), download.toPath(), StandardCopyOption.REPLACE_EXISTING)
+        }
+
+        SortedMap<String, Map<String, String>> versions = gems.get(name)
+        if (versions == null) {
+            versions = new TreeMap<String, Map<String, String>>()
+            gems.put(name, versions)
+        }
+        versions.put(version, dependencies)
+    }
+
+    private Map<String, Object> metadata(String name, String version, Map<String, String> dependencies) {
+        String gemFile = "${name}-${version}.gem"
+        [
+            name: name,
+            version: version,
+            platform: RUBY_PLATFORM,
+            authors: 'JRuby/Gradle',
+            summary: "Benchmark fixture ${name}",
+            description: "Benchmark fixture ${name}",
+            sha: sha256(new File(root, "downloads/${gemFile}")),
+            prerelease: isPrerelease(version),
+            project_uri: "${SERVER_TOKEN}/gems/${name}",
+            gem_uri: "${SERVER_TOKEN}/downloads/${gemFile}",
+            dependencies: [
+                runtime: dependencies.collect { String dependency, String requirements ->
+                    [name: dependency, requirements: requirements]
+                },
+                development: []
+            ]
+        ] as Map<String, Object>
+    }
+
+    private void writeJson(String path, Object content) {
+        File file = new File(root, path)
+        file.parentFile.mkdirs()
+        file.setText(toJson(content), UTF_8.name())
+    }
+
+    @CompileDynamic
+    private static Map<String, String> runtimeDependencies(File pom) {
+        GPathResult project = new XmlSlurper().parse(pom)
+        Map<String, String> dependencies = [:]
+        project.dependencies.dependency.findAll { dependency ->
+            dependency.groupId.text() == GROUP && dependency.type.text() == 'gem' &&
+                !(dependency.scope.text() in ['test', 'provided'])
+        }.each { dependency ->
+            dependencies.put(dependency.artifactId.text(), gemRequirement(dependency.version.text()))
+        }
+        dependencies
+    }
+
+    private static boolean isPrerelease(String version) {
+        version.find(/[A-Za-z]/) != null
+    }
+
+    private static String sha256(File file) {
+        MessageDigest digest = MessageDigest.getInstance('SHA-256')
+        file.eachByte(BUFFER_SIZE) { byte[] buffer, Integer length ->
+            digest.update(buffer, 0, length)
+        }
+        digest.digest().encodeHex().toString()
+    }
+
+    private static int compareVersions(String lhs, String rhs) {
+        String[] left = lhs.split(/\./)
+        String[] right = rhs.split(/\./)
+        for (int i = 0; i < Math.min(left.length, right.length); i++) {
+            int result = left[i].isInteger() && right[i].isInteger() ?
+                left[i].toInteger() <=> right[i].toInteger() : left[i] <=> right[i]
+            if (result != 0) {
+                return result
+            }
+        }
+        left.length <=> right.length
+    }
+
+    static private final String GROUP = 'rubygems'
+    static private final String RUBY_PLATFORM = 'ruby'
+    static private final String SYNTHETIC_REQUIREMENT = '~> 1.0'
+    static private final List<String> SYNTHETIC_VERSIONS = ['1.0.0', '1.1.0'].asImmutable()
+    static private final Pattern MAVEN_RANGE = ~/^([\[(])([^,]*),([^\])]*)([\])])$/
+    static private final Comparator<String> VERSION_ORDER = { String lhs, String rhs ->
+        compareVersions(lhs, rhs)
+    } as Comparator<String>
+    static private final int BUFFER_SIZE = 65536
+
+    private final File root
+    private final Map<String, SortedMap<String, Map<String, String>>> gems = new TreeMap<>()
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.benchmarks
+
+import groovy.transform.CompileStatic
+import ratpack.handling.Chain
+import ratpack.handling.Context
+import ratpack.server.RatpackServer
+import ratpack.server.RatpackServerSpec
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+import static java.nio.charset.StandardCharsets.UTF_8
+import static ratpack.server.ServerConfig.embedded
+
+/** Serves a {@link RubyGemsFixture} as if it were a RubyGems server.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class StubRubyGemsServer implements Closeable {
+
+    /** Starts a server on a free port.
+     *
+     * @param root Directory laid out by {@link RubyGemsFixture}.
+     */
+    StubRubyGemsServer(File root) {
+        this.root = root.toPath().toAbsolutePath()
+        this.server = RatpackServer.start { RatpackServerSpec spec ->
+            spec.serverConfig(embedded().port(0).baseDir(this.root)).handlers { Chain chain ->
+                chain.prefix('api') { Chain api ->
+                    api.all { Context ctx -> serveJson(ctx) }
+                }.files()
+            }
+        }
+    }
+
+    /** Address of the server.
+     *
+     * @return URI without a trailing slash.
+     */
+    URI getAddress() {
+        "http://localhost:${server.bindPort}".toURI()
+    }
+
+    /** Stops the server.
+     *
+     */
+    @Override
+    void close() {
+        server.stop()
+    }
+
+    private void serveJson(Context ctx) {
+        Path file = root.resolve(ctx.request.path).normalize()
+        if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+            ctx.clientError(NOT_FOUND)
+            return
+        }
+
+        String json = new String(Files.readAllBytes(file), UTF_8)
+            .replace(RubyGemsFixture.SERVER_TOKEN, address.toString())
+        ctx.response.contentType('application/json').send(json)
+    }
+
+    static private final int NOT_FOUND = 404
+
+    private final Path root
+    private final RatpackServer server
+}
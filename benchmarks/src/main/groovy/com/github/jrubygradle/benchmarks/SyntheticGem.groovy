@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.benchmarks
+
+import groovy.transform.CompileStatic
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+
+import java.util.zip.GZIPOutputStream
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/** Writes a pure Ruby {@code .gem} file with generated library sources.
+ *
+ * The main library file requires all of the other files of the GEM as well as the main library files of the
+ * GEMs it depends on, so that loading one GEM loads everything below it. The content only depends on the
+ * arguments, so that regenerated GEMs have the same checksums.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class SyntheticGem {
+
+    /** Describes a GEM.
+     *
+     * @param name GEM name.
+     * @param version GEM version.
+     * @param dependencies Runtime dependencies. The keys are GEM names, the values single requirements such as
+     *   {@code ~> 1.0}.
+     * @param files Number of library files in addition to the main library file.
+     */
+    SyntheticGem(String name, String version, Map<String, String> dependencies, int files) {
+        this.name = name
+        this.version = version
+        this.dependencies = dependencies
+        this.files = files
+    }
+
+    /** Writes the GEM.
+     *
+     * @param gem Location of the {@code .gem} file.
+     */
+    void writeTo(File gem) {
+        gem.parentFile.mkdirs()
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(gem))
+        new TarArchiveOutputStream(out).withCloseable { TarArchiveOutputStream tar ->
+            tar.longFileMode = TarArchiveOutputStream.LONGFILE_POSIX
+            add(tar, 'metadata.gz', gzip(gemspec.getBytes(UTF_8)))
+            add(tar, 'data.tar.gz', gzip(data()))
+        }
+    }
+
+    /** The specification in the YAML format that RubyGems stores in {@code metadata.gz}.
+     *
+     * @return Specification.
+     */
+    String getGemspec() {
+        StringBuilder yaml = new StringBuilder()
+        yaml.append("""--- !ruby/object:Gem::Specification
+name: ${name}
+version: !ruby/object:Gem::Version
+  version: ${version}
+platform: ruby
+authors:
+- JRuby/Gradle
+autorequire:
+bindir: bin
+cert_chain: []
+date: 2023-01-01 00:00:00.000000000 Z
+dependencies:
+""")
+        dependencies.each { String dependency, String requirement ->
+            String[] parts = requirement.split(' ', 2)
+            String constraint = """
+    requirements:
+    - - "${parts[0]}"
+      - !ruby/object:Gem::Version
+        version: '${parts[1]}'"""
+            yaml.append("""- !ruby/object:Gem::Dependency
+  name: ${dependency}
+  requirement: !ruby/object:Gem::Requirement${constraint}
+  type: :runtime
+  prerelease: false
+  version_requirements: !ruby/object:Gem::Requirement${constraint}
+""")
+        }
+        yaml.append("""description: Generated GEM for benchmarking the JRuby/Gradle plugins.
+email:
+executables: []
+extensions: []
+extra_rdoc_files: []
+files:
+""")
+        for (String path : paths) {
+            yaml.append("- ${path}\n")
+        }
+        yaml.append("""homepage:
+licenses:
+- MIT
+metadata: {}
+post_install_message:
+rdoc_options: []
+require_paths:
+- lib
+required_ruby_version: !ruby/object:Gem::Requirement
+  requirements:
+  - - ">="
+    - !ruby/object:Gem::Version
+      version: '0'
+required_rubygems_version: !ruby/object:Gem::Requirement
+  requirements:
+  - - ">="
+    - !ruby/object:Gem::Version
+      version: '0'
+requirements: []
+rubygems_version: 3.3.26
+signing_key:
+specification_version: 4
+summary: Generated GEM for benchmarks
+test_files: []
+""")
+        yaml.toString()
+    }
+
+    private byte[] data() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream()
+        new TarArchiveOutputStream(buffer).withCloseable { TarArchiveOutputStream tar ->
+            tar.longFileMode = TarArchiveOutputStream.LONGFILE_POSIX
+            List<String> libraryFiles = paths.tail()
+            add(tar, paths.head(), mainFile(libraryFiles).getBytes(UTF_8))
+            libraryFiles.eachWithIndex { String path, int index ->
+                add(tar, path, libraryFile(index).getBytes(UTF_8))
+            }
+        }
+        buffer.toByteArray()
+    }
+
+    private List<String> getPaths() {
+        List<String> result = ["lib/${feature}.rb".toString()]
+        for (int i = 0; i < files; i++) {
+            result.add("lib/${feature}/part${i % DIRECTORIES}/file${i}.rb".toString())
+        }
+        result
+    }
+
+    private String mainFile(List<String> libraryFiles) {
+        StringBuilder source = new StringBuilder()
+        for (String dependency : dependencies.keySet()) {
+            source.append("require '${featureOf(dependency)}'\n")
+        }
+        for (String path : libraryFiles) {
+            source.append("require '${path.substring(LIB.length(), path.length() - RB.length())}'\n")
+        }
+        source.append("\nmodule ${moduleName}\n  VERSION = '${version}'\nend\n")
+        source.toString()
+    }
+
+    private String libraryFile(int index) {
+        StringBuilder source = new StringBuilder("module ${moduleName}\n  class Part${index}\n")
+        for (int i = 0; i < METHODS_PER_FILE; i++) {
+            source.append("""    def method${i}(value)
+      value.to_s.each_char.map { |c| c.ord + ${i} }.sum
+    end
+
+""")
+        }
+        source.append('  end\nend\n').toString()
+    }
+
+    private String getFeature() {
+        featureOf(name)
+    }
+
+    private String getModuleName() {
+        feature.split('_').collect { String it -> it.capitalize() }.join('')
+    }
+
+    private static String featureOf(String gemName) {
+        gemName.replace('-', '_')
+    }
+
+    private static void add(TarArchiveOutputStream tar, String path, byte[] content) {
+        TarArchiveEntry entry = new TarArchiveEntry(path)
+        entry.size = content.length
+        entry.mode = FILE_MODE
+        entry.modTime = MODIFIED
+        tar.putArchiveEntry(entry)
+        tar.write(content)
+        tar.closeArchiveEntry()
+    }
+
+    private static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream()
+        new GZIPOutputStream(buffer).withCloseable { GZIPOutputStream out ->
+            out.write(content)
+        }
+        buffer.toByteArray()
+    }
+
+    static private final int DIRECTORIES = 4
+    static private final int METHODS_PER_FILE = 20
+    static private final int FILE_MODE = 0644
+    static private final long MODIFIED = 1672531200000L
+    static private final String LIB = 'lib/'
+    static private final String RB = '.rb'
+
+    private final String name
+    private final String version
+    private final Map<String, String> dependencies
+    private final int files
+}
@@ -0,0 +1,4 @@
+require 'sinatra/base'
+require 'synthetic_0000'
+
+puts Synthetic0000::VERSION
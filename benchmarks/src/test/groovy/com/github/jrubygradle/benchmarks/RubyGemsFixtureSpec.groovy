@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.benchmarks
+
+import groovy.json.JsonSlurper
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.zip.GZIPInputStream
+
+class RubyGemsFixtureSpec extends Specification {
+
+    @Rule
+    TemporaryFolder temporaryFolder
+
+    @Unroll
+    void 'Maven range #range becomes GEM requirement #requirement'() {
+        expect:
+        RubyGemsFixture.gemRequirement(range) == requirement
+
+        where:
+        range               || requirement
+        '[1.4,1.99999]'     || '>= 1.4, <= 1.99999'
+        '[0,)'              || '>= 0'
+        '(1.0,2.0)'         || '> 1.0, < 2.0'
+        '1.5.3'             || '= 1.5.3'
+    }
+
+    void 'GEMs from the integration test repository are laid out with their runtime dependencies'() {
+        given:
+        File root = temporaryFolder.root
+        RubyGemsFixture fixture = new RubyGemsFixture(root)
+
+        when:
+        fixture.addMavenRepository(new File(System.getProperty('MAVEN_REPO')))
+        fixture.write()
+        def sinatra = json(root, 'api/v2/rubygems/sinatra/versions/1.4.5.json')
+        def versions = json(root, 'api/v1/versions/jar-dependencies.json')
+        def latest = json(root, 'api/v1/versions/jar-dependencies/latest.json')
+
+        then:
+        sinatra.gem_uri == "${RubyGemsFixture.SERVER_TOKEN}/downloads/sinatra-1.4.5.gem"
+        sinatra.dependencies.runtime*.name.toSet() == ['rack', 'rack-protection'].toSet()
+        versions*.number == ['0.1.16.pre', '0.1.15']
+        latest.version == '0.1.15'
+        new File(root, 'downloads/sinatra-1.4.5.gem').exists()
+    }
+
+    void 'Synthetic GEMs form a tree below the root GEM'() {
+        given:
+        File root = temporaryFolder.root
+        RubyGemsFixture fixture = new RubyGemsFixture(root)
+
+        when:
+        fixture.addSyntheticGems(3, 2)
+        fixture.write()
+        def rootGem = json(root, "api/v2/rubygems/${RubyGemsFixture.SYNTHETIC_ROOT}/versions/1.1.0.json")
+        def leaf = json(root, 'api/v2/rubygems/synthetic-0002/versions/1.0.0.json')
+        String gemspec = metadata(new File(root, 'downloads/synthetic-0001-1.0.0.gem'))
+
+        then:
+        rootGem.dependencies.runtime == [
+            [name: 'synthetic-0001', requirements: '~> 1.0'],
+            [name: 'synthetic-0002', requirements: '~> 1.0']
+        ]
+        leaf.dependencies.runtime.empty
+        gemspec.startsWith('--- !ruby/object:Gem::Specification\nname: synthetic-0001\n')
+        gemspec.contains('- lib/synthetic_0001/part1/file1.rb\n')
+    }
+
+    private static Object json(File root, String path) {
+        new JsonSlurper().parse(new File(root, path))
+    }
+
+    private static String metadata(File gem) {
+        String metadata = null
+        gem.withInputStream { InputStream input ->
+            TarArchiveInputStream tar = new TarArchiveInputStream(input)
+            TarArchiveEntry entry
+            while ((entry = tar.nextTarEntry) != null) {
+                if (entry.name == 'metadata.gz') {
+                    metadata = new GZIPInputStream(tar).getText('UTF-8')
+                }
+            }
+        }
+        metadata
+    }
+}
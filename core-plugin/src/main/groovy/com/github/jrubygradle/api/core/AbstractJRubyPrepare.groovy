@@ -23,8 +23,8 @@
  */
 package com.github.jrubygradle.api.core
 
-import com.github.jrubygradle.api.gems.GemOverwriteAction
 import com.github.jrubygradle.api.gems.GemUtils
+import com.github.jrubygradle.internal.gems.GemHomeManifest
 import groovy.transform.CompileStatic
 import org.gradle.api.DefaultTask
 import org.gradle.api.artifacts.Configuration
@@ -38,10 +38,12 @@ import org.gradle.api.tasks.PathSensitive
 import org.gradle.api.tasks.TaskAction
 import org.ysb33r.grolifant.api.core.ProjectOperations
 
+import static com.github.jrubygradle.api.gems.GemOverwriteAction.OVERWRITE
 import static com.github.jrubygradle.api.gems.GemOverwriteAction.SKIP
 import static com.github.jrubygradle.api.gems.GemUtils.extractGems
+import static com.github.jrubygradle.api.gems.GemUtils.jarLayout
 import static com.github.jrubygradle.api.gems.GemUtils.setupJars
-import static org.gradle.api.tasks.PathSensitivity.ABSOLUTE
+import static org.gradle.api.tasks.PathSensitivity.NAME_ONLY
 
 /** Abstract base class for building custom tasks for preparing GEMs.
  *
@@ -56,10 +58,11 @@ abstract class AbstractJRubyPrepare extends DefaultTask implements JRubyAwareTas
 
     protected AbstractJRubyPrepare() {
         this.projectOperations = ProjectOperations.find(project)
+        this.gradleUserHomeDir = project.gradle.gradleUserHomeDir
         this.outputDir = {
             ProjectOperations projectOperations -> projectOperations.buildDirDescendant('.gems')
         }.curry(this.projectOperations)
-        outputs.dir({ AbstractJRubyPrepare t -> new File(t.getOutputDir(), 'gems') }.curry(this))
+        outputs.dir({ AbstractJRubyPrepare t -> t.getOutputDir() }.curry(this))
     }
 
     /** Target directory for GEMs. Extracted GEMs will end up in {@code outputDir + "/gems"}
@@ -104,7 +107,7 @@ abstract class AbstractJRubyPrepare extends DefaultTask implements JRubyAwareTas
      * @since 2.1.0
      */
     @InputFiles
-    @PathSensitive(ABSOLUTE)
+    @PathSensitive(NAME_ONLY)
     FileCollection getGemsAsFileCollection() {
         GemUtils.getGems(projectOperations.files(this.dependencies))
     }
@@ -149,20 +152,44 @@ abstract class AbstractJRubyPrepare extends DefaultTask implements JRubyAwareTas
     @Optional
     abstract protected String getProposedJRubyVersion()
 
+    /** Brings the output directory in line with the GEMs and JARs that are required.
+     *
+     * A manifest of what has been installed is kept in the output directory. Only GEMs which are new or have changed
+     * are installed and GEMs and JARs which are no longer required are removed. Everything else is left alone.
+     */
     @TaskAction
     void exec() {
         File out = getOutputDir()
-        File jrubyJar = jrubyJarLocation.get()
-        extractGems(projectOperations, jrubyJar, gemsAsFileCollection(), out, SKIP)
-
-        dependencies.findAll {
+        List<Configuration> configurations = dependencies.findAll {
             it instanceof Configuration
-        }.each {
-            setupJars((Configuration) it, out, GemOverwriteAction.SKIP)
+        } as List<Configuration>
+        Map<String, File> jars = [:]
+        configurations.each { jars.putAll(jarLayout(it)) }
+
+        GemHomeManifest previous = GemHomeManifest.load(out)
+        GemHomeManifest current = GemHomeManifest.create(gemsAsFileCollection.files, jars, previous)
+        current.removeStale(previous, out)
+
+        List<File> gems = current.gemsToInstall(previous, out)
+        if (!gems.empty) {
+            extractGems(
+                projectOperations,
+                jrubyJarLocation.get(),
+                projectOperations.files(gems),
+                out,
+                previous.present ? OVERWRITE : SKIP,
+                gradleUserHomeDir
+            )
+        }
+
+        configurations.each {
+            setupJars(it, out, SKIP)
         }
+        current.save(out)
     }
 
     private Object outputDir
     private final ProjectOperations projectOperations
+    private final File gradleUserHomeDir
 }
 
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.api.core;
+
+import com.github.jrubygradle.api.gems.GemInfo;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/** Interface for querying a service that conforms to the RubyGem API without blocking the caller.
+ *
+ * Failures are reported by completing the returned future exceptionally with an {@link ApiException}.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ *
+ * @see RubyGemQueryRestApi
+ */
+public interface AsyncRubyGemQueryRestApi {
+
+    /**
+     * Return all published versions for a specific GEM
+     *
+     * @param gemName Name of GEM.
+     * @param includePrelease Whether pre-release versions should be included.
+     * @return Future list of versions. Can be empty if the GEM does not have any versions. Never {@code null}.
+     */
+    CompletableFuture<List<String>> allVersions(String gemName, boolean includePrelease);
+
+    /**
+     * Return latest published version of GEM.
+     *
+     * @param gemName Name of GEM.
+     * @param allowPrerelease Whether a prereleased version can be considered a latest version.
+     * @return Future version of GEM.
+     */
+    CompletableFuture<String> latestVersion(String gemName, boolean allowPrerelease);
+
+    /** Returns the basic metadata for a GEM.
+     *
+     * @param gemName Name of GEM.
+     * @param version Version of GEM.
+     * @return Future metadata for GEM.
+     */
+    CompletableFuture<GemInfo> metadata(String gemName, String version);
+}
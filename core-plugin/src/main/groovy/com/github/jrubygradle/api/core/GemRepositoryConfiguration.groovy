@@ -38,4 +38,31 @@ class GemRepositoryConfiguration {
      *
      */
     boolean prerelease = false
+
+    /** Maximum number of GEM metadata requests that the proxy will send to the remote GEM server at the same time.
+     *
+     * Concurrent requests for the same GEM name and revision are always coalesced into a single remote request.
+     * Setting this to {@code 1} will process cache misses one at a time.
+     *
+     * @since 2.1.0
+     */
+    int maxConcurrentRequests = 8
+
+    /** Maximum number of requests per second that the proxy will send to the remote GEM server.
+     *
+     * Requests that would exceed the rate are delayed rather than rejected. {@code 0} does not limit the rate.
+     *
+     * @since 2.1.0
+     */
+    int maxRequestsPerSecond = 0
+
+    /** Whether the proxy should fetch metadata for the runtime dependencies of a GEM as soon as
+     * the GEM itself is requested.
+     *
+     * This allows the transitive dependencies to be retrieved in parallel rather than waiting for Gradle to
+     * ask for them one level at a time.
+     *
+     * @since 2.1.0
+     */
+    boolean prefetchDependencies = true
 }
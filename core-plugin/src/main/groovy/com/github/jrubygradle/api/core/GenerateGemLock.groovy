@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.api.core
+
+import com.github.jrubygradle.api.gems.GemLock
+import com.github.jrubygradle.api.gems.GemResolverStrategy
+import com.github.jrubygradle.internal.gems.GemLockFile
+import groovy.transform.CompileStatic
+import org.gradle.api.Action
+import org.gradle.api.DefaultTask
+import org.gradle.api.Task
+import org.gradle.api.artifacts.Configuration
+import org.gradle.api.artifacts.ConfigurationContainer
+import org.gradle.api.artifacts.DependencyResolveDetails
+import org.gradle.api.artifacts.component.ComponentIdentifier
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier
+import org.gradle.api.artifacts.dsl.DependencyHandler
+import org.gradle.api.artifacts.result.ArtifactResult
+import org.gradle.api.artifacts.result.ComponentArtifactsResult
+import org.gradle.api.artifacts.result.ResolvedArtifactResult
+import org.gradle.api.artifacts.result.ResolvedComponentResult
+import org.gradle.api.specs.Spec
+import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.Optional
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.TaskAction
+import org.gradle.ivy.IvyDescriptorArtifact
+import org.gradle.ivy.IvyModule
+import org.ysb33r.grolifant.api.core.ProjectOperations
+
+import static java.nio.charset.StandardCharsets.UTF_8
+import static org.gradle.api.tasks.PathSensitivity.NONE
+
+/** Resolves configurations and writes the selected GEM and JAR versions to a lock file.
+ *
+ * Once the lock file exists, configurations are resolved from it as described in {@link GemLock}. Run this task
+ * again to update the locked versions.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class GenerateGemLock extends DefaultTask {
+
+    GenerateGemLock() {
+        this.projectOperations = ProjectOperations.find(project)
+        this.configurationContainer = project.configurations
+        this.dependencyHandler = project.dependencies
+        this.gemLock = project.extensions.getByType(GemLock)
+        this.gemResolverStrategy = project.extensions.getByType(GemResolverStrategy)
+        outputs.upToDateWhen(new Spec<Task>() {
+            @Override
+            boolean isSatisfiedBy(Task task) {
+                false
+            }
+        })
+    }
+
+    /** Configurations which should be locked.
+     *
+     */
+    @Internal
+    final List<Object> configurations = []
+
+    /** Adds configurations which should be locked.
+     *
+     * @param configs One or more configurations or configuration names.
+     */
+    void configurations(Object... configs) {
+        this.configurations.addAll(configs.toList())
+    }
+
+    /** Bundler lock file from which GEM versions should be imported.
+     *
+     * @return Location of {@code Gemfile.lock} or {@code null} if GEM versions should be resolved as usual.
+     */
+    @Optional
+    @InputFile
+    @PathSensitive(NONE)
+    File getGemfileLock() {
+        this.gemfileLock == null ? null : projectOperations.file(this.gemfileLock)
+    }
+
+    /** Sets a Bundler lock file from which GEM versions should be imported.
+     *
+     * @param file Anything that can be resolved to a file.
+     */
+    void setGemfileLock(Object file) {
+        this.gemfileLock = file
+    }
+
+    /** Sets a Bundler lock file from which GEM versions should be imported.
+     *
+     * @param file Anything that can be resolved to a file.
+     */
+    void gemfileLock(Object file) {
+        this.gemfileLock = file
+    }
+
+    /** Lock file that will be written.
+     *
+     * @return Lock file. The default is the lock file of the {@code gemLock} extension.
+     */
+    @OutputFile
+    File getLockFile() {
+        this.lockFile == null ? gemLock.lockFile : projectOperations.file(this.lockFile)
+    }
+
+    /** Sets the lock file that will be written.
+     *
+     * @param file Anything that can be resolved to a file.
+     */
+    void setLockFile(Object file) {
+        this.lockFile = file
+    }
+
+    /** Sets the lock file that will be written.
+     *
+     * @param file Anything that can be resolved to a file.
+     */
+    void lockFile(Object file) {
+        this.lockFile = file
+    }
+
+    @TaskAction
+    void exec() {
+        File gemfile = getGemfileLock()
+        Map<String, String> gemfileVersions = gemfile == null ? [:] : GemLockFile.readGemfileLock(gemfile)
+        GemLockFile lock = new GemLockFile()
+        Set<ModuleComponentIdentifier> gems = []
+
+        gemLock.writing = true
+        try {
+            resolvableConfigurations.each { Configuration cfg ->
+                Configuration copy = cfg.copyRecursive()
+                if (!gemfileVersions.isEmpty()) {
+                    pinGemVersions(copy, gemfileVersions)
+                }
+                copy.incoming.resolutionResult.allComponents.each { ResolvedComponentResult component ->
+                    ComponentIdentifier id = component.id
+                    if (id instanceof ModuleComponentIdentifier) {
+                        ModuleComponentIdentifier module = (ModuleComponentIdentifier) id
+                        lock.lockVersion(cfg.name, module.group, module.module, module.version)
+                        if (gemResolverStrategy.isGemGroup(module.group)) {
+                            gems.add(module)
+                        }
+                    }
+                }
+            }
+        } finally {
+            gemLock.writing = false
+        }
+
+        addDescriptors(lock, gems)
+        lock.write(getLockFile())
+    }
+
+    private List<Configuration> getResolvableConfigurations() {
+        configurations.collect { Object cfg ->
+            cfg instanceof Configuration ? (Configuration) cfg : configurationContainer.getByName(cfg.toString())
+        }
+    }
+
+    private void pinGemVersions(Configuration configuration, Map<String, String> versions) {
+        configuration.resolutionStrategy.eachDependency(new Action<DependencyResolveDetails>() {
+            @Override
+            void execute(DependencyResolveDetails details) {
+                String version = versions[details.requested.name]
+                if (version != null && gemResolverStrategy.isGemGroup(details.requested.group)) {
+                    details.useVersion(version)
+                }
+            }
+        })
+    }
+
+    private void addDescriptors(GemLockFile lock, Set<ModuleComponentIdentifier> gems) {
+        if (gems.isEmpty()) {
+            return
+        }
+        Set<ComponentArtifactsResult> results = dependencyHandler.createArtifactResolutionQuery()
+            .forComponents(gems as Set<ComponentIdentifier>)
+            .withArtifacts(IvyModule, IvyDescriptorArtifact)
+            .execute()
+            .resolvedComponents
+        results.each { ComponentArtifactsResult result ->
+            ModuleComponentIdentifier module = (ModuleComponentIdentifier) result.id
+            result.getArtifacts(IvyDescriptorArtifact).each { ArtifactResult artifact ->
+                if (artifact instanceof ResolvedArtifactResult) {
+                    lock.addDescriptor(
+                        module.group,
+                        module.module,
+                        module.version,
+                        ((ResolvedArtifactResult) artifact).file.getText(UTF_8.name())
+                    )
+                }
+            }
+        }
+    }
+
+    private final ProjectOperations projectOperations
+    private final ConfigurationContainer configurationContainer
+    private final DependencyHandler dependencyHandler
+    private final GemLock gemLock
+    private final GemResolverStrategy gemResolverStrategy
+    private Object gemfileLock
+    private Object lockFile
+}
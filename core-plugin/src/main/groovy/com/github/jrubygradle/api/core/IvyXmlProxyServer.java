@@ -50,7 +50,10 @@ public interface IvyXmlProxyServer extends Runnable {
      * @param name Name of GEM.
      * @param revision Verison of GEM.
      * @return Location of cached file (even if file does not exist yet).
+     * @deprecated Since 2.1.0 descriptors are kept in a single store inside the cache directory and are
+     *   no longer written to this location.
      */
+    @Deprecated
     Path ivyFile(String group, String name, String revision);
 
     /** Set proxy service to refresh dependencies on a subsequent run.
@@ -58,4 +61,12 @@ public interface IvyXmlProxyServer extends Runnable {
      * @param refresh {@code true} if service should refresh dependencies.
      */
     void setRefreshDependencies(boolean refresh);
+
+    /** Set proxy service to only serve metadata that has already been cached.
+     *
+     * @param offline {@code true} if service should never contact the remote GEM server.
+     *
+     * @since 2.1.0
+     */
+    void setOffline(boolean offline);
 }
@@ -23,7 +23,9 @@
  */
 package com.github.jrubygradle.api.core
 
+import com.github.jrubygradle.api.gems.GemLock
 import com.github.jrubygradle.api.gems.GemResolverStrategy
+import com.github.jrubygradle.internal.core.PhaseTrace
 import com.github.jrubygradle.internal.gems.GemVersionResolver
 import groovy.transform.CompileStatic
 import org.gradle.api.Plugin
@@ -44,7 +46,9 @@ class JRubyCorePlugin implements Plugin<Project> {
     @Override
     void apply(Project project) {
         ProjectOperations.maybeCreateExtension(project)
+        PhaseTrace.writeAtEndOfBuild(project.gradle)
         GemResolverStrategy gemGroups = project.extensions.create(GemResolverStrategy.NAME, GemResolverStrategy)
+        GemLock gemLock = project.extensions.create(GemLock.NAME, GemLock, project)
 
         ((ExtensionAware) project.repositories).extensions.create(
             RepositoryHandlerExtension.NAME,
@@ -54,6 +58,7 @@ class JRubyCorePlugin implements Plugin<Project> {
 
         project.configurations.all { Configuration cfg ->
             GemVersionResolver.addGemResolver(cfg, gemGroups, new GemVersionResolver(gemGroups, project.logger, cfg))
+            gemLock.applyTo(cfg)
         }
     }
 }
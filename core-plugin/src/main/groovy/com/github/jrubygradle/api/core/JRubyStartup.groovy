@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.api.core
+
+import groovy.transform.CompileDynamic
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+import org.gradle.process.ExecResult
+import org.gradle.process.JavaExecSpec
+import org.ysb33r.grolifant.api.core.LegacyLevel
+import org.ysb33r.grolifant.api.core.ProjectOperations
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+
+/** Reduces the start-up time of JVMs which run {@code jruby-complete}.
+ *
+ * Start-up is shortened in two ways:
+ * <ul>
+ *   <li>On JDK 13 and later an AppCDS archive of the classes which JRuby loads at start-up is created once per
+ *     {@code jruby-complete} jar and JDK. The archive is kept in {@code jruby-cds} in the Gradle user home.</li>
+ *   <li>Short-lived launches, such as installing GEMs, can also have the JIT settings of JRuby's {@code --dev}
+ *     mode applied. These make long-running scripts slower, so they are not used by default.</li>
+ * </ul>
+ *
+ * Set the system property {@code com.github.jrubygradle.fast-startup} to {@code false} to launch JRuby with
+ * default JVM settings.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+@Slf4j
+class JRubyStartup {
+
+    /** JVM arguments which are equivalent to {@code jruby --dev}.
+     *
+     */
+    public static final List<String> DEV_MODE_JVM_ARGS = [
+        '-XX:+TieredCompilation',
+        '-XX:TieredStopAtLevel=1',
+        '-Djruby.compile.mode=OFF',
+        '-Djruby.compile.invokedynamic=false'
+    ].asImmutable()
+
+    /** Whether JRuby launches should be tuned for start-up time.
+     *
+     * @return {@code true} unless {@code com.github.jrubygradle.fast-startup} is set to {@code false}.
+     */
+    static boolean isEnabled() {
+        System.getProperty('com.github.jrubygradle.fast-startup', 'true').toBoolean()
+    }
+
+    /** JVM arguments for launching {@code jruby-complete} with the JDK Gradle is running on.
+     *
+     * The shared archive is only used if the classpath consists of the {@code jruby-complete} jar alone, as the
+     * JVM rejects archives which were created with a different classpath.
+     *
+     * @param projectOperations Used to run the training run when the archive does not exist yet.
+     * @param gradleUserHomeDir Gradle user home. If {@code null}, no archive is used.
+     * @param jrubyJar {@code jruby-complete} jar.
+     * @param classpath Classpath of the JVM that will be launched.
+     * @return JVM arguments. Empty if start-up tuning is disabled.
+     */
+    static List<String> jvmArgs(
+        ProjectOperations projectOperations,
+        File gradleUserHomeDir,
+        File jrubyJar,
+        Collection<File> classpath
+    ) {
+        jvmArgs(projectOperations, gradleUserHomeDir, jrubyJar, classpath, false)
+    }
+
+    /** JVM arguments for launching {@code jruby-complete} with the JDK Gradle is running on.
+     *
+     * @param projectOperations Used to run the training run when the archive does not exist yet.
+     * @param gradleUserHomeDir Gradle user home. If {@code null}, no archive is used.
+     * @param jrubyJar {@code jruby-complete} jar.
+     * @param classpath Classpath of the JVM that will be launched.
+     * @param devMode Whether to add {@link #DEV_MODE_JVM_ARGS}. Only use this for launches which are known to be
+     *   short-lived.
+     * @return JVM arguments. Empty if start-up tuning is disabled.
+     */
+    static List<String> jvmArgs(
+        ProjectOperations projectOperations,
+        File gradleUserHomeDir,
+        File jrubyJar,
+        Collection<File> classpath,
+        boolean devMode
+    ) {
+        if (!enabled) {
+            return []
+        }
+
+        List<String> args = []
+        if (devMode) {
+            args.addAll(DEV_MODE_JVM_ARGS)
+        }
+
+        if (gradleUserHomeDir != null && jrubyJar != null && classpath.toList() == [jrubyJar]) {
+            File archive = sharedArchive(projectOperations, gradleUserHomeDir, jrubyJar)
+            if (archive != null) {
+                args.add('-Xshare:auto')
+                args.add("-XX:SharedArchiveFile=${archive.absolutePath}".toString())
+            }
+        }
+        args
+    }
+
+    /** Returns the AppCDS archive for a {@code jruby-complete} jar, creating it if required.
+     *
+     * The archive is created by a training run of {@code gem env} with {@code -rjars/setup}, which loads the
+     * classes that are needed by every JRuby launch of the plugin. If the training run fails, it is not retried
+     * for the same jar and JDK.
+     *
+     * @param projectOperations Used to run the training run.
+     * @param gradleUserHomeDir Gradle user home.
+     * @param jrubyJar {@code jruby-complete} jar.
+     * @return Location of archive or {@code null} if the running JDK cannot create dynamic archives.
+     */
+    static File sharedArchive(ProjectOperations projectOperations, File gradleUserHomeDir, File jrubyJar) {
+        if (javaMajorVersion() < DYNAMIC_ARCHIVE_JAVA_VERSION) {
+            return null
+        }
+
+        File root = new File(gradleUserHomeDir, CACHE_DIR)
+        String key = archiveKey(jrubyJar)
+        File archive = new File(root, "${key}.jsa")
+        File failed = new File(root, "${key}.failed")
+
+        ARCHIVES.computeIfAbsent(archive.absolutePath) { String path ->
+            if (!archive.exists() && !failed.exists()) {
+                train(projectOperations, jrubyJar, archive, failed)
+            }
+            Boolean.valueOf(archive.exists())
+        } ? archive : null
+    }
+
+    private static void train(ProjectOperations projectOperations, File jrubyJar, File archive, File failed) {
+        Path root = archive.parentFile.toPath()
+        Files.createDirectories(root)
+        Path tmpDir = Files.createTempDirectory(root, '.training-')
+        File tmpArchive = new File(tmpDir.toFile(), archive.name)
+
+        try {
+            log.info("Creating JRuby class data sharing archive ${archive}")
+            ExecResult result = projectOperations.javaexec { JavaExecSpec spec ->
+                applyMainClassName(spec, 'org.jruby.Main')
+                spec.classpath(jrubyJar)
+                spec.jvmArgs("-XX:ArchiveClassesAtExit=${tmpArchive.absolutePath}".toString())
+                spec.args('-rjars/setup', '-S', 'gem', 'env')
+                spec.environment(
+                    JBUNDLE_SKIP: true,
+                    JARS_SKIP: true,
+                    GEM_HOME: tmpDir.toFile().absolutePath,
+                    GEM_PATH: tmpDir.toFile().absolutePath
+                )
+                spec.ignoreExitValue = true
+                spec.standardOutput = new ByteArrayOutputStream()
+                spec.errorOutput = new ByteArrayOutputStream()
+            }
+
+            if (result.exitValue == 0 && tmpArchive.exists()) {
+                Files.move(tmpArchive.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE)
+            } else {
+                log.info("Training run for ${archive.name} failed. JRuby will start without a shared archive.")
+                failed.text = ''
+            }
+        } finally {
+            tmpDir.toFile().deleteDir()
+        }
+    }
+
+    private static String archiveKey(File jrubyJar) {
+        MessageDigest md = MessageDigest.getInstance('SHA-256')
+        [
+            System.getProperty('java.home'),
+            System.getProperty('java.vm.version'),
+            jrubyJar.absolutePath,
+            jrubyJar.length().toString(),
+            jrubyJar.lastModified().toString()
+        ].each { String part ->
+            md.update(part.getBytes('UTF-8'))
+            md.update((byte) 0)
+        }
+        "${jrubyJar.name - ~/\.jar$/}-${md.digest().encodeHex().toString().take(KEY_LENGTH)}"
+    }
+
+    private static int javaMajorVersion() {
+        String version = System.getProperty('java.specification.version')
+        version.startsWith('1.') ? version.substring(2).toInteger() : version.toInteger()
+    }
+
+    @CompileDynamic
+    private static void applyMainClassName(JavaExecSpec spec, String mainClassName) {
+        if (LegacyLevel.PRE_7_0) {
+            spec.main = mainClassName
+        } else {
+            spec.mainClass = mainClassName
+        }
+    }
+
+    private static final String CACHE_DIR = 'jruby-cds'
+    private static final int DYNAMIC_ARCHIVE_JAVA_VERSION = 13
+    private static final int KEY_LENGTH = 16
+    private static final ConcurrentMap<String, Boolean> ARCHIVES = new ConcurrentHashMap<String, Boolean>()
+}
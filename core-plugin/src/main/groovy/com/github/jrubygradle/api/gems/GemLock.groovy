@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.api.gems
+
+import com.github.jrubygradle.api.core.IvyXmlProxyServer
+import com.github.jrubygradle.internal.core.AbstractIvyXmlProxyServer
+import com.github.jrubygradle.internal.gems.GemLockFile
+import groovy.transform.CompileStatic
+import org.gradle.api.Action
+import org.gradle.api.Project
+import org.gradle.api.artifacts.Configuration
+import org.gradle.api.artifacts.DependencyResolveDetails
+import org.gradle.api.artifacts.ResolvableDependencies
+import org.gradle.api.logging.Logger
+import org.ysb33r.grolifant.api.core.ProjectOperations
+
+/** Resolves GEMs and JARs from a lock file instead of querying version ranges.
+ *
+ * When the lock file exists, every module that it lists for a configuration is resolved to the locked version, so
+ * Gradle has no version ranges to look up. The {@code ivy.xml} descriptors in the lock file are handed to the GEM
+ * proxy, which then serves locked GEMs without contacting the remote GEM server. Modules that are not in the lock
+ * file are resolved as usual.
+ *
+ * The lock file is written by {@link com.github.jrubygradle.api.core.GenerateGemLock}.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class GemLock {
+
+    public static final String NAME = 'gemLock'
+    public static final String DEFAULT_LOCK_FILE = 'gems.lockfile'
+
+    /** Creates the extension.
+     *
+     * @param project Project the extension is associated with.
+     */
+    GemLock(Project project) {
+        this.projectOperations = ProjectOperations.find(project)
+        this.logger = project.logger
+    }
+
+    /** Whether the lock file should be used if it exists.
+     *
+     * The default is {@code true}.
+     */
+    boolean enabled = true
+
+    /** Location of the lock file.
+     *
+     * @return Lock file. The default is {@code gems.lockfile} in the project directory.
+     */
+    File getLockFile() {
+        projectOperations.file(this.lockFile)
+    }
+
+    /** Sets the location of the lock file.
+     *
+     * @param file Anything that can be resolved to a file.
+     */
+    void setLockFile(Object file) {
+        this.lockFile = file
+    }
+
+    /** Sets the location of the lock file.
+     *
+     * @param file Anything that can be resolved to a file.
+     */
+    void lockFile(Object file) {
+        this.lockFile = file
+    }
+
+    /** Whether modules are currently resolved from the lock file.
+     *
+     * @return {@code true} if locking is enabled, the lock file exists and it is not being written.
+     */
+    boolean isActive() {
+        enabled && !writing && getLockFile().exists()
+    }
+
+    /** Version that has been locked for a module.
+     *
+     * @param configurationName Name of the configuration that is being resolved.
+     * @param group Group of the module.
+     * @param module Name of the module.
+     * @return Locked version or {@code null} if the module is not locked or locking is not active.
+     */
+    String lockedVersion(String configurationName, String group, String module) {
+        active ? load().lockedVersion(configurationName, group, module) : null
+    }
+
+    /** Resolves the modules of a configuration to the versions in the lock file.
+     *
+     * @param configuration Configuration to lock.
+     */
+    void applyTo(Configuration configuration) {
+        final String configurationName = configuration.name
+        configuration.resolutionStrategy.eachDependency(new Action<DependencyResolveDetails>() {
+            @Override
+            void execute(DependencyResolveDetails details) {
+                String version = lockedVersion(configurationName, details.requested.group, details.requested.name)
+                if (version != null) {
+                    details.useVersion(version)
+                }
+            }
+        })
+        configuration.incoming.beforeResolve(new Action<ResolvableDependencies>() {
+            @Override
+            void execute(ResolvableDependencies resolvableDependencies) {
+                preloadProxies()
+            }
+        })
+    }
+
+    /** Registers a GEM proxy which should serve the descriptors in the lock file.
+     *
+     * This is called by the repository handler extension and is not meant to be called from build scripts.
+     *
+     * @param group Group associated with the proxy.
+     * @param proxy Proxy server.
+     */
+    void addProxy(String group, IvyXmlProxyServer proxy) {
+        if (proxy instanceof AbstractIvyXmlProxyServer) {
+            synchronized (proxies) {
+                proxies.add(new GroupProxy(group, (AbstractIvyXmlProxyServer) proxy))
+            }
+        }
+    }
+
+    /** Temporarily stops modules from being resolved from the lock file whilst a new lock file is generated.
+     *
+     * @param writing {@code true} whilst a lock file is being generated.
+     */
+    void setWriting(boolean writing) {
+        this.writing = writing
+    }
+
+    /** Hands the descriptors in the lock file to all GEM proxies that have not received them yet.
+     */
+    private void preloadProxies() {
+        if (!active) {
+            return
+        }
+        List<GroupProxy> pending
+        synchronized (proxies) {
+            pending = proxies.findAll { GroupProxy candidate -> !candidate.preloaded }
+            pending.each { GroupProxy candidate -> candidate.preloaded = true }
+        }
+        GemLockFile lock = load()
+        for (GroupProxy groupProxy : pending) {
+            AbstractIvyXmlProxyServer proxy = groupProxy.proxy
+            lock.eachDescriptor(groupProxy.group) { String name, String revision, byte[] ivyXml ->
+                proxy.addLockedIvyXml(name, revision, ivyXml)
+            }
+        }
+    }
+
+    private synchronized GemLockFile load() {
+        File file = getLockFile()
+        if (loaded == null || loadedFrom != file || loadedAt != file.lastModified()) {
+            logger.info("Resolving GEMs from ${file}")
+            loaded = GemLockFile.read(file)
+            loadedFrom = file
+            loadedAt = file.lastModified()
+        }
+        loaded
+    }
+
+    private static class GroupProxy {
+        final String group
+        final AbstractIvyXmlProxyServer proxy
+        boolean preloaded = false
+
+        GroupProxy(String group, AbstractIvyXmlProxyServer proxy) {
+            this.group = group
+            this.proxy = proxy
+        }
+    }
+
+    private final ProjectOperations projectOperations
+    private final Logger logger
+    private final List<GroupProxy> proxies = []
+    private Object lockFile = DEFAULT_LOCK_FILE
+    private volatile boolean writing = false
+    private GemLockFile loaded
+    private File loadedFrom
+    private long loadedAt
+}
@@ -23,6 +23,11 @@
  */
 package com.github.jrubygradle.api.gems
 
+import com.github.jrubygradle.api.core.JRubyStartup
+import com.github.jrubygradle.internal.core.PhaseTrace
+import com.github.jrubygradle.internal.core.PluginMetadata
+import com.github.jrubygradle.internal.gems.GemInstaller
+import com.github.jrubygradle.internal.gems.InstalledGemStore
 import groovy.transform.CompileDynamic
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
@@ -129,6 +134,9 @@ class GemUtils {
     }
 
     /** Extracts and install a collection of GEMs.
+     *
+     * GEMs are unpacked directly where possible. Only those that need RubyGems for installation are installed by
+     * running JRuby. See {@link #isInProcessInstall}.
      *
      * @param project {@link ProjectOperations} instance.
      * @param jRubyClasspath The path to the {@code jruby-complete} jar.
@@ -138,13 +146,38 @@ class GemUtils {
      *
      * @since 2.1.0
      */
-    @SuppressWarnings('DuplicateStringLiteral')
     static void extractGems(
         ProjectOperations project,
         File jRubyClasspath,
         FileCollection gems,
         File destDir,
         GemOverwriteAction overwrite
+    ) {
+        extractGems(project, jRubyClasspath, gems, destDir, overwrite, null)
+    }
+
+    /** Extracts and install a collection of GEMs, sharing unpacked GEMs between GEM homes.
+     *
+     * GEMs which are unpacked directly are kept in a store under {@code gradleUserHomeDir} and are hard linked into
+     * {@code destDir}, so that a GEM is only unpacked once per user. See {@link #isSharedGemStore}.
+     *
+     * @param project {@link ProjectOperations} instance.
+     * @param jRubyClasspath The path to the {@code jruby-complete} jar.
+     * @param gems GEMs to install.
+     * @param destDir Directory to extract to.
+     * @param overwrite Allow overwrite of an existing gem folder.
+     * @param gradleUserHomeDir Gradle user home. Can be {@code null} to not use the shared store.
+     *
+     * @since 2.1.0
+     */
+    @SuppressWarnings('DuplicateStringLiteral')
+    static void extractGems(
+        ProjectOperations project,
+        File jRubyClasspath,
+        FileCollection gems,
+        File destDir,
+        GemOverwriteAction overwrite,
+        File gradleUserHomeDir
     ) {
         Set<File> gemsToProcess = []
         Set<File> deletes = []
@@ -178,11 +211,35 @@ class GemUtils {
             deletes.each { project.delete(it) }
             destDir.mkdirs()
 
-            log.info("Installing ${gemsToProcess*.name.join(',')}")
+            List<File> requireRubyGems = gemsToProcess.toList()
+            if (inProcessInstall) {
+                log.info("Unpacking ${gemsToProcess*.name.join(',')}")
+                InstalledGemStore store = gradleUserHomeDir != null && sharedGemStore ?
+                    new InstalledGemStore(gemStoreDir(gradleUserHomeDir)) : null
+                GemInstaller installer = new GemInstaller(destDir, Runtime.runtime.availableProcessors(), store)
+                PhaseTrace.Span span = PhaseTrace.start(PhaseTrace.GEMS, 'unpack').arg('gems', requireRubyGems.size())
+                try {
+                    requireRubyGems = installer.install(requireRubyGems)
+                    span.arg('viaRubyGems', requireRubyGems.size())
+                } finally {
+                    span.close()
+                }
+            }
+
+            if (requireRubyGems.empty) {
+                return
+            }
+
+            log.info("Installing ${requireRubyGems*.name.join(',')}")
 
+            List<String> startupJvmArgs = JRubyStartup.jvmArgs(
+                project, gradleUserHomeDir, jRubyClasspath, [jRubyClasspath], true
+            )
+            long start = System.nanoTime()
             project.javaexec { JavaExecSpec spec ->
                 applyMainClassName(spec, JRUBY_MAINCLASS)
                 spec.with {
+                    jvmArgs startupJvmArgs
                     // Setting these environment variables will ensure that
                     // jbundler and/or jar-dependencies will not attempt to invoke
                     // Maven on a gem's behalf to install a Java dependency that we
@@ -211,7 +268,7 @@ class GemUtils {
                      * See:
                      * https://github.com/jruby-gradle/jruby-gradle-plugin/issues/341
                      */
-                    gemsToProcess.toList().reverse().each { File gem ->
+                    requireRubyGems.reverse().each { File gem ->
                         args gem
                     }
 
@@ -233,9 +290,49 @@ class GemUtils {
                     systemProperties 'file.encoding': 'utf-8'
                 }
             }
+            PhaseTrace.complete(
+                PhaseTrace.GEMS, 'gem install', start, System.nanoTime() - start, [gems: requireRubyGems.size()]
+            )
         }
     }
 
+    /** Whether GEMs are unpacked directly rather than by running {@code gem install} in JRuby.
+     *
+     * GEMs with native extensions are always installed by RubyGems. Set the system property
+     * {@code com.github.jrubygradle.in-process-gem-install} to {@code false} to install all GEMs via RubyGems.
+     *
+     * @return {@code true} if GEMs are unpacked in-process where possible.
+     *
+     * @since 2.1.0
+     */
+    static boolean isInProcessInstall() {
+        System.getProperty('com.github.jrubygradle.in-process-gem-install', 'true').toBoolean()
+    }
+
+    /** Whether GEMs which are unpacked directly are shared between projects via a store in the Gradle user home.
+     *
+     * Set the system property {@code com.github.jrubygradle.shared-gem-store} to {@code false} to unpack GEMs into
+     * every GEM home separately.
+     *
+     * @return {@code true} if the shared store is used.
+     *
+     * @since 2.1.0
+     */
+    static boolean isSharedGemStore() {
+        System.getProperty('com.github.jrubygradle.shared-gem-store', 'true').toBoolean()
+    }
+
+    /** Location of the shared store of unpacked GEMs.
+     *
+     * @param gradleUserHomeDir Gradle user home.
+     * @return Store directory.
+     *
+     * @since 2.1.0
+     */
+    static File gemStoreDir(File gradleUserHomeDir) {
+        new File(gradleUserHomeDir, "rubygems-install-cache/${PluginMetadata.version()}")
+    }
+
     /** Extract Gems from a given configuration.
      *
      * @param project Project instance
@@ -377,12 +474,40 @@ class GemUtils {
         }
 
         // create Jars.lock file used by jar-dependencies
+        long start = System.nanoTime()
         writeJarsLock(new File(destDir, 'Jars.lock'), coordinates)
 
         rewriteJarDependencies(new File(destDir, 'jars'),
             files,
             fileRenameMap,
             overwrite)
+        if (PhaseTrace.enabled) {
+            PhaseTrace.complete(PhaseTrace.JARS, 'setup jars', start, System.nanoTime() - start, [
+                jars : files.size(),
+                bytes: files.sum(0L) { File file -> file.length() }
+            ])
+        }
+    }
+
+    /** The JARs of a configuration as {@link #setupJars} lays them out.
+     *
+     * @param config Configuration to resolve.
+     * @return JAR files keyed by their path relative to the {@code jars} directory.
+     *
+     * @since 2.1.0
+     */
+    static Map<String, File> jarLayout(Configuration config) {
+        Map<String, File> layout = [:]
+        config.resolvedConfiguration.resolvedArtifacts.each { ResolvedArtifact dependency ->
+            String name = dependency.file.name
+            if (name.toLowerCase().endsWith('.jar') && !name.startsWith(JRUBY_ARCHIVE_NAME)) {
+                String groupAsPath = dependency.moduleVersion.id.group.replace('.', '/')
+                String version = dependency.moduleVersion.id.version
+                layout["${groupAsPath}/${dependency.name}/${version}/${dependency.name}-${version}.${dependency.type}"
+                    .toString()] = dependency.file
+            }
+        }
+        layout
     }
 
     /** Take the given .gem filename (e.g. rake-10.3.2.gem) and just return the
@@ -439,6 +564,7 @@ class GemUtils {
                             include EVERYTHING
                             // TODO have some standard which is bin/*, gems/**
                             // specifications/*
+                            exclude '.jruby-gradle/**'
                             if (!fullGem) {
                                 exclude 'cache/**'
                                 exclude 'gems/*/test/**'
@@ -23,12 +23,13 @@
  */
 package com.github.jrubygradle.api.gems
 
+import com.github.jrubygradle.internal.core.BoundedCache
 import com.github.jrubygradle.internal.core.Transform
-import groovy.transform.CompileDynamic
+import com.github.jrubygradle.internal.gems.VersionSegments
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 
-import java.util.regex.MatchResult
+import java.util.regex.Matcher
 import java.util.regex.Pattern
 
 import static com.github.jrubygradle.api.gems.GemVersion.Boundary.EXCLUSIVE
@@ -60,6 +61,9 @@ import static com.github.jrubygradle.api.gems.GemVersion.Boundary.OPEN_ENDED
  * 1.2+ to [1.2, 1.99999] or 1.+ to [1.0, 1.99999] following the gemspec-to-pom
  * pattern.
  *
+ * Parsed requirements are cached and the boundary versions are kept in tokenised form, so that resolving large
+ * dependency graphs does not repeatedly parse the same strings.
+ *
  * @author Christian Meier
  * @author Schalk W. Cronjé
  * @author Guillaume Grossetie
@@ -135,10 +139,20 @@ class GemVersion implements Comparable<GemVersion> {
 
     private static final String NOT_GEM_REQ = 'This does not look like a standard GEM version requirement'
 
+    private static final int MAX_CACHED_REQUIREMENTS = 4096
+    private static final BoundedCache<String, GemVersion> GRADLE_REQUIREMENTS =
+        new BoundedCache<String, GemVersion>(MAX_CACHED_REQUIREMENTS)
+    private static final BoundedCache<String, GemVersion> GEM_REQUIREMENTS =
+        new BoundedCache<String, GemVersion>(MAX_CACHED_REQUIREMENTS)
+    private static final BoundedCache<String, GemVersion> MULTIPLE_GEM_REQUIREMENTS =
+        new BoundedCache<String, GemVersion>(MAX_CACHED_REQUIREMENTS)
+
     final String low
     final String high
     private final Boundary lowBoundary
     private final Boundary highBoundary
+    private final VersionSegments lowSegments
+    private final VersionSegments highSegments
 
     /** Create a Gem version instance from a Gradle version requirement.
      *
@@ -148,7 +162,9 @@ class GemVersion implements Comparable<GemVersion> {
      * @since 2.0
      */
     static GemVersion gemVersionFromGradleIvyRequirement(String singleRequirement) {
-        new GemVersion(singleRequirement)
+        GRADLE_REQUIREMENTS.get(singleRequirement) { String it ->
+            parseGradleIvyRequirement(it)
+        }
     }
 
     /** Takes a GEM requirement list and creates a list of GEM versions
@@ -171,14 +187,16 @@ class GemVersion implements Comparable<GemVersion> {
      * @return Unioned GEM
      */
     static GemVersion singleGemVersionFromMultipleGemRequirements(String multipleRequirements) {
-        List<GemVersion> gemVersions = gemVersionsFromMultipleGemRequirements(multipleRequirements)
-        if (gemVersions.empty) {
-            EVERYTHING
-        } else if (gemVersions.size() == 1) {
-            gemVersions.first()
-        } else {
-            gemVersions[1..-1].inject(gemVersions.first()) { range, value ->
-                range.intersect(value)
+        MULTIPLE_GEM_REQUIREMENTS.get(multipleRequirements) { String it ->
+            List<GemVersion> gemVersions = gemVersionsFromMultipleGemRequirements(it)
+            if (gemVersions.empty) {
+                EVERYTHING
+            } else if (gemVersions.size() == 1) {
+                gemVersions.first()
+            } else {
+                gemVersions[1..-1].inject(gemVersions.first()) { GemVersion range, GemVersion value ->
+                    range.intersect(value)
+                }
             }
         }
     }
@@ -191,58 +209,9 @@ class GemVersion implements Comparable<GemVersion> {
      *
      * @since 2.0
      */
-    @SuppressWarnings('DuplicateStringLiteral')
     static GemVersion gemVersionFromGemRequirement(String singleRequirement) {
-        if (singleRequirement.matches(GREATER_EQUAL)) {
-            new GemVersion(
-                INCLUSIVE,
-                getVersionFromRequirement(singleRequirement, GREATER_EQUAL),
-                null,
-                OPEN_ENDED
-            )
-        } else if (singleRequirement.matches(GREATER)) {
-            new GemVersion(
-                EXCLUSIVE,
-                getVersionFromRequirement(singleRequirement, GREATER),
-                null,
-                OPEN_ENDED
-            )
-        } else if (singleRequirement.matches(EQUAL)) {
-            String exact = getVersionFromRequirement(singleRequirement, EQUAL)
-            new GemVersion(
-                INCLUSIVE,
-                exact,
-                exact,
-                INCLUSIVE
-            )
-        } else if (singleRequirement.matches(NOT_EQUAL)) {
-            log.info("'${singleRequirement}' is supported by Ivy.")
-            NO_VERSION
-        } else if (singleRequirement.matches(LESS_EQUAL)) {
-            new GemVersion(
-                OPEN_ENDED,
-                null,
-                getVersionFromRequirement(singleRequirement, LESS_EQUAL),
-                INCLUSIVE
-            )
-        } else if (singleRequirement.matches(LESS)) {
-            new GemVersion(
-                OPEN_ENDED,
-                null,
-                getVersionFromRequirement(singleRequirement, LESS),
-                EXCLUSIVE
-            )
-        } else if (singleRequirement.matches(TWIDDLE_WAKKA)) {
-            parseTwiddleWakka(singleRequirement)
-        } else if (singleRequirement.matches(DIGITS_AND_DOTS)) {
-            new GemVersion(
-                INCLUSIVE,
-                singleRequirement,
-                singleRequirement,
-                INCLUSIVE
-            )
-        } else {
-            throw new GemVersionException("'${singleRequirement}' does not look like a GEM version requirement")
+        GEM_REQUIREMENTS.get(singleRequirement) { String it ->
+            parseGemRequirement(it)
         }
     }
 
@@ -276,6 +245,37 @@ class GemVersion implements Comparable<GemVersion> {
         highBoundary == Boundary.OPEN_ENDED
     }
 
+    /** Checks whether a specific version lies within this version range.
+     *
+     * @param version Exact GEM version.
+     * @return {@code true} if the version satisfies both the low and the high boundary.
+     *
+     * @since 2.1.0
+     */
+    boolean allows(String version) {
+        if (this == NO_VERSION) {
+            return false
+        }
+
+        VersionSegments exact = VersionSegments.of(version)
+
+        if (lowSegments) {
+            int cmp = compare(exact, lowSegments)
+            if (cmp < 0 || (cmp == 0 && lowBoundary == EXCLUSIVE)) {
+                return false
+            }
+        }
+
+        if (highSegments) {
+            int cmp = compare(exact, highSegments)
+            if (cmp > 0 || (cmp == 0 && highBoundary == EXCLUSIVE)) {
+                return false
+            }
+        }
+
+        true
+    }
+
     /**
      * since GemVersion is version range with lower bound and upper bound
      * this method just calculates the intersection of this version range
@@ -301,19 +301,24 @@ class GemVersion implements Comparable<GemVersion> {
      * @since 2.0
      */
     GemVersion intersect(GemVersion other) {
-        Tuple2<String, Boundary> newLowVersionSpec = intersect(low, lowBoundary, other.low, other.lowBoundary, true)
-        Tuple2<String, Boundary> newHighVersionSpec = intersect(high, highBoundary, other.high, other.highBoundary, false)
-        GemVersion intersection = new GemVersion(newLowVersionSpec.second, newLowVersionSpec.first, newHighVersionSpec.first, newHighVersionSpec.second)
+        GemVersion intersection = new GemVersion(
+            pick(lowSegments, lowBoundary, other.lowSegments, other.lowBoundary, true),
+            pick(highSegments, highBoundary, other.highSegments, other.highBoundary, false)
+        )
         if (intersection == this) {
             // is other a subset of this?
-            if (compare(this.low, other.low) >= 0 && compare(other.low, this.high) < 0 && compare(this.high, other.high) <= 0) {
+            if (compare(this.lowSegments, other.lowSegments) >= 0 &&
+                compare(other.lowSegments, this.highSegments) < 0 &&
+                compare(this.highSegments, other.highSegments) <= 0) {
                 return intersection
             }
             return NO_VERSION
         }
         if (intersection == other) {
             // is this a subset of other?
-            if (compare(other.low, this.low) >= 0 && compare(this.low, other.high) < 0 && compare(other.high, this.high) <= 0) {
+            if (compare(other.lowSegments, this.lowSegments) >= 0 &&
+                compare(this.lowSegments, other.highSegments) < 0 &&
+                compare(other.highSegments, this.highSegments) <= 0) {
                 return intersection
             }
             return NO_VERSION
@@ -322,32 +327,10 @@ class GemVersion implements Comparable<GemVersion> {
     }
 
     Tuple2<String,Boundary> intersect(String version, Boundary boundary, String otherVersion, Boundary otherBoundary, boolean low) {
-        Boundary newBoundary
-        String newVersion
-        if (!version && otherVersion) {
-            newVersion = otherVersion
-            newBoundary = otherBoundary
-        } else if (version && !otherVersion) {
-            newVersion = version
-            newBoundary = boundary
-        } else if (!version && !otherVersion) {
-            newVersion = null
-            newBoundary = boundary
-        } else {
-            int compareLow = low ? compare(version, otherVersion) : compare(otherVersion, version)
-            if (compareLow < 0) {
-                newVersion = otherVersion
-                newBoundary = otherBoundary
-            } else if (compareLow > 0) {
-                newVersion = version
-                newBoundary = boundary
-            } else {
-                newBoundary = (boundary == INCLUSIVE || otherBoundary == INCLUSIVE) ? INCLUSIVE : EXCLUSIVE
-                newVersion = version
-            }
-        }
-
-        return new Tuple2(newVersion, newBoundary)
+        Limit limit = pick(
+            VersionSegments.of(version), boundary, VersionSegments.of(otherVersion), otherBoundary, low
+        )
+        return new Tuple2(limit.version?.version, limit.boundary)
     }
 
     /** Allows for versions to be compared and sorted.
@@ -359,7 +342,7 @@ class GemVersion implements Comparable<GemVersion> {
      */
     @Override
     int compareTo(GemVersion other) {
-        int loCompare = compare(low, other.low)
+        int loCompare = compare(lowSegments, other.lowSegments)
         if (loCompare) {
             return loCompare
         }
@@ -373,7 +356,7 @@ class GemVersion implements Comparable<GemVersion> {
             return lowBoundary == INCLUSIVE ? -1 : 1
         }
 
-        int hiCompare = compare(high, other.high)
+        int hiCompare = compare(highSegments, other.highSegments)
 
         if (hiCompare) {
             return hiCompare
@@ -398,7 +381,7 @@ class GemVersion implements Comparable<GemVersion> {
      * @return boolean true if lower bound bigger then upper bound
      */
     boolean conflict() {
-        compare(stripNonIntegerTail(low), stripNonIntegerTail(high)) == 1
+        compare(lowSegments?.integerPrefix, highSegments?.integerPrefix) == 1
     }
 
     /** String of the underlying data as Ivy version range.
@@ -417,8 +400,7 @@ class GemVersion implements Comparable<GemVersion> {
         }
     }
 
-    private static GemVersion parseTwiddleWakka(String singleRequirement) {
-        String base = getVersionFromRequirement(singleRequirement, TWIDDLE_WAKKA)
+    private static GemVersion parseTwiddleWakka(String singleRequirement, String base) {
         List<String> parts = base.tokenize(VERSION_SPLIT)
         if (1 == parts.size()) {
             if (base =~ ONLY_DIGITS) {
@@ -461,11 +443,132 @@ class GemVersion implements Comparable<GemVersion> {
         }
     }
 
-    @CompileDynamic
-    @SuppressWarnings('NoDef')
-    private static String getVersionFromRequirement(String gemRevision, Pattern matchPattern) {
-        def matcher = gemRevision =~ matchPattern
-        matcher[0][1]
+    @SuppressWarnings('DuplicateStringLiteral')
+    private static GemVersion parseGemRequirement(String singleRequirement) {
+        String version
+        if ((version = versionFrom(singleRequirement, GREATER_EQUAL)) != null) {
+            new GemVersion(INCLUSIVE, version, null, OPEN_ENDED)
+        } else if ((version = versionFrom(singleRequirement, GREATER)) != null) {
+            new GemVersion(EXCLUSIVE, version, null, OPEN_ENDED)
+        } else if ((version = versionFrom(singleRequirement, EQUAL)) != null) {
+            new GemVersion(INCLUSIVE, version, version, INCLUSIVE)
+        } else if (singleRequirement.matches(NOT_EQUAL)) {
+            log.info("'${singleRequirement}' is supported by Ivy.")
+            NO_VERSION
+        } else if ((version = versionFrom(singleRequirement, LESS_EQUAL)) != null) {
+            new GemVersion(OPEN_ENDED, null, version, INCLUSIVE)
+        } else if ((version = versionFrom(singleRequirement, LESS)) != null) {
+            new GemVersion(OPEN_ENDED, null, version, EXCLUSIVE)
+        } else if ((version = versionFrom(singleRequirement, TWIDDLE_WAKKA)) != null) {
+            parseTwiddleWakka(singleRequirement, version)
+        } else if (singleRequirement.matches(DIGITS_AND_DOTS)) {
+            new GemVersion(INCLUSIVE, singleRequirement, singleRequirement, INCLUSIVE)
+        } else {
+            throw new GemVersionException("'${singleRequirement}' does not look like a GEM version requirement")
+        }
+    }
+
+    /** Converts the given string to a version range with inclusive or exclusive boundaries.
+     *
+     * @param gradleVersionPattern Gradle/Ivy version or range.
+     * @return Version range.
+     */
+    @SuppressWarnings('DuplicateStringLiteral')
+    private static GemVersion parseGradleIvyRequirement(final String gradleVersionPattern) {
+        String cleanedString = gradleVersionPattern.replaceAll(~/\p{Blank}/, '')
+        Matcher matcher
+
+        if ((matcher = DOT_PLUS.matcher(cleanedString)).matches()) {
+            String base = matcher.group(1)
+            return new GemVersion(INCLUSIVE, padVersion(base, PAD_ZERO), padVersion(base, MAX_VERSION), INCLUSIVE)
+        }
+
+        if (PLUS.matcher(cleanedString).matches()) {
+            return new GemVersion(INCLUSIVE, MIN_VERSION, null, OPEN_ENDED)
+        }
+
+        if ((matcher = DIGITS_PLUS.matcher(cleanedString)).matches()) {
+            return new GemVersion(
+                INCLUSIVE,
+                "${matcher.group(1)}.${matcher.group(2)}".toString(),
+                "${matcher.group(1)}.${MAX_VERSION}".toString(),
+                INCLUSIVE
+            )
+        }
+
+        if ((matcher = OPEN_BOTTOM.matcher(cleanedString)).matches()) {
+            return new GemVersion(
+                OPEN_ENDED,
+                null,
+                matcher.group(1),
+                matcher.group(2) == UP_IN ? INCLUSIVE : EXCLUSIVE
+            )
+        }
+
+        if ((matcher = OPEN_TOP.matcher(cleanedString)).matches()) {
+            return new GemVersion(
+                matcher.group(1) == LOW_IN ? INCLUSIVE : EXCLUSIVE,
+                matcher.group(2),
+                null,
+                OPEN_ENDED
+            )
+        }
+
+        if ((matcher = RANGE.matcher(cleanedString)).matches()) {
+            return new GemVersion(
+                matcher.group(1) == LOW_IN ? INCLUSIVE : EXCLUSIVE,
+                matcher.group(2),
+                matcher.group(3),
+                matcher.group(4) == UP_IN ? INCLUSIVE : EXCLUSIVE
+            )
+        }
+
+        new GemVersion(INCLUSIVE, cleanedString, cleanedString, INCLUSIVE)
+    }
+
+    /** Extracts the version from a single GEM requirement.
+     *
+     * @param gemRevision GEM requirement.
+     * @param matchPattern Pattern of the requirement operator.
+     * @return Version or {@code null} if the requirement does not use this operator.
+     */
+    private static String versionFrom(String gemRevision, Pattern matchPattern) {
+        Matcher matcher = matchPattern.matcher(gemRevision)
+        matcher.matches() ? matcher.group(1) : null
+    }
+
+    /** Selects the more restrictive of two boundaries.
+     *
+     * @param version Version on this boundary.
+     * @param boundary Type of this boundary.
+     * @param otherVersion Version on the other boundary.
+     * @param otherBoundary Type of the other boundary.
+     * @param low Whether these are the low boundaries of their ranges.
+     * @return Boundary of the intersection.
+     */
+    private static Limit pick(
+        VersionSegments version,
+        Boundary boundary,
+        VersionSegments otherVersion,
+        Boundary otherBoundary,
+        boolean low
+    ) {
+        if (version == null && otherVersion != null) {
+            new Limit(otherVersion, otherBoundary)
+        } else if (version != null && otherVersion == null) {
+            new Limit(version, boundary)
+        } else if (version == null) {
+            new Limit(null, boundary)
+        } else {
+            int compareLow = low ? compare(version, otherVersion) : compare(otherVersion, version)
+            if (compareLow < 0) {
+                new Limit(otherVersion, otherBoundary)
+            } else if (compareLow > 0) {
+                new Limit(version, boundary)
+            } else {
+                new Limit(version, (boundary == INCLUSIVE || otherBoundary == INCLUSIVE) ? INCLUSIVE : EXCLUSIVE)
+            }
+        }
     }
 
     private GemVersion(Boundary pre, String low, String high, Boundary post) {
@@ -473,67 +576,26 @@ class GemVersion implements Comparable<GemVersion> {
         this.low = low
         this.high = high
         this.highBoundary = post
+        this.lowSegments = VersionSegments.of(low)
+        this.highSegments = VersionSegments.of(high)
     }
 
-    /**
-     * converts the given string to a version range with inclusive or
-     * exclusive boundaries.
-     *
-     * @param String gradleVersionPattern
-     */
-    @CompileDynamic
-    private GemVersion(final String gradleVersionPattern) {
-        String cleanedString = gradleVersionPattern.replaceAll(~/\p{Blank}/, '')
-        MatchResult dotPlus = cleanedString =~ DOT_PLUS
-        MatchResult plus = cleanedString =~ PLUS
-        MatchResult digitsPlus = cleanedString =~ DIGITS_PLUS
-        MatchResult openBottom = cleanedString =~ OPEN_BOTTOM
-        MatchResult openTop = cleanedString =~ OPEN_TOP
-        MatchResult range = cleanedString =~ RANGE
-
-        if (dotPlus.matches()) {
-            String base = dotPlus[0][1]
-            this.low = padVersion(base, PAD_ZERO)
-            this.high = padVersion(base, MAX_VERSION)
-            this.lowBoundary = INCLUSIVE
-            this.highBoundary = INCLUSIVE
-        } else if (plus.matches()) {
-            this.low = MIN_VERSION
-            this.lowBoundary = INCLUSIVE
-            this.highBoundary = OPEN_ENDED
-        } else if (digitsPlus.matches()) {
-            this.lowBoundary = INCLUSIVE
-            this.highBoundary = INCLUSIVE
-            this.low = "${digitsPlus[0][1]}.${digitsPlus[0][2]}"
-            this.high = "${digitsPlus[0][1]}.${MAX_VERSION}"
-        } else if (openBottom.matches()) {
-            this.lowBoundary = OPEN_ENDED
-            this.high = openBottom[0][1]
-            this.highBoundary = openBottom[0][2] == UP_IN ? INCLUSIVE : EXCLUSIVE
-        } else if (openTop.matches()) {
-            this.highBoundary = OPEN_ENDED
-            this.low = openTop[0][2]
-            this.lowBoundary = openTop[0][1] == LOW_IN ? INCLUSIVE : EXCLUSIVE
-        } else if (range.matches()) {
-            this.lowBoundary = range[0][1] == LOW_IN ? INCLUSIVE : EXCLUSIVE
-            this.highBoundary = range[0][4] == UP_IN ? INCLUSIVE : EXCLUSIVE
-            this.low = range[0][2]
-            this.high = range[0][3]
-        } else {
-            this.low = cleanedString
-            this.high = cleanedString
-            this.lowBoundary = INCLUSIVE
-            this.highBoundary = INCLUSIVE
-        }
+    private GemVersion(Limit low, Limit high) {
+        this.lowBoundary = low.boundary
+        this.low = low.version?.version
+        this.lowSegments = low.version
+        this.high = high.version?.version
+        this.highSegments = high.version
+        this.highBoundary = high.boundary
     }
 
     /**
-     * compares two version strings. first it splits the version
+     * compares two versions. first it splits the version
      * into parts on their ".". if one version has more parts then
      * the other, then the number of parts is used for comparison.
      * otherwise we find a part which differs between the versions
-     * and compare them. this last comparision converts the parts to
-     * integers if both contains only digits. otherwise a lexical
+     * and compare them. this last comparision compares the parts
+     * numerically if both contains only digits. otherwise a lexical
      * string comparision is used.
      *
      * @param lhs first version
@@ -541,46 +603,11 @@ class GemVersion implements Comparable<GemVersion> {
      * @return lexicographical comparison. Any part containing alpha characters will always be less than
      * a part with pure digits.
      */
-    private int compare(String lhs, String rhs) {
-        if (!lhs && !rhs) {
-            return 0
-        }
-
-        if (!lhs && rhs) {
-            return -1
-        }
-
-        if (lhs && !rhs) {
-            return -1
-        }
-
-        List<String> lhsParts = lhs.tokenize(VERSION_SPLIT)
-        List<String> rhsParts = rhs.tokenize(VERSION_SPLIT)
-
-        for (int i = 0; i < lhsParts.size() && i < rhsParts.size(); i++) {
-            int cmp
-            boolean lhsNumerical = lhsParts[i].matches(ONLY_DIGITS)
-            boolean rhsNumerical = rhsParts[i].matches(ONLY_DIGITS)
-
-            if (lhsNumerical && rhsNumerical) {
-                cmp = lhsParts[i].toInteger() <=> rhsParts[i].toInteger()
-            } else if (lhsNumerical && !rhsNumerical) {
-                cmp = 1
-            } else if (!lhsNumerical && rhsNumerical) {
-                cmp = -1
-            } else {
-                cmp = lhsParts[i] <=> rhsParts[i]
-            }
-
-            if (cmp != 0) {
-                return cmp
-            }
-        }
-
-        lhsParts.size() <=> rhsParts.size()
+    private static int compare(VersionSegments lhs, VersionSegments rhs) {
+        VersionSegments.compare(lhs, rhs)
     }
 
-    private String padVersion(final String base, final String padValue) {
+    private static String padVersion(final String base, final String padValue) {
         String pad = ".${padValue}"
         int adds = 3 - base.tokenize(VERSION_SPLIT).size()
         if (adds < 0) {
@@ -589,8 +616,16 @@ class GemVersion implements Comparable<GemVersion> {
         "${base}${pad * adds}"
     }
 
-    private String stripNonIntegerTail(String version) {
-        version?.replaceFirst(~/\.\p{Alpha}.*$/, '')
-    }
+    /** One boundary of a version range.
+     *
+     */
+    private static class Limit {
+        final VersionSegments version
+        final Boundary boundary
 
+        Limit(VersionSegments version, Boundary boundary) {
+            this.version = version
+            this.boundary = boundary
+        }
+    }
 }
@@ -24,27 +24,31 @@
 package com.github.jrubygradle.internal.core
 
 import com.github.jrubygradle.api.core.ApiException
+import com.github.jrubygradle.api.core.AsyncRubyGemQueryRestApi
 import com.github.jrubygradle.api.core.GemRepositoryConfiguration
 import com.github.jrubygradle.api.core.IvyXmlProxyServer
 import com.github.jrubygradle.api.core.RubyGemQueryRestApi
+import com.github.jrubygradle.api.gems.GemDependency
 import com.github.jrubygradle.api.gems.GemInfo
 import com.github.jrubygradle.api.gems.GemVersion
+import com.github.jrubygradle.api.gems.GemVersionException
 import com.github.jrubygradle.internal.gems.GemToIvy
 import groovy.transform.CompileStatic
 import groovy.transform.InheritConstructors
-import groovy.transform.Synchronized
 import groovy.util.logging.Slf4j
-import org.ysb33r.grolifant.api.core.ExclusiveFileAccess
 
-import java.nio.file.Files
 import java.nio.file.Path
-import java.time.Instant
+import java.security.MessageDigest
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Semaphore
 
 import static com.github.jrubygradle.api.gems.GemVersion.gemVersionFromGradleIvyRequirement
+import static com.github.jrubygradle.api.gems.GemVersion.singleGemVersionFromMultipleGemRequirements
 import static com.github.jrubygradle.internal.core.IvyUtils.revisionsAsHtmlDirectoryListing
-import static java.nio.file.Files.move
-import static java.nio.file.StandardCopyOption.ATOMIC_MOVE
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING
 
 /** Base class for implementing a proxy IvyXML server.
  *
@@ -66,7 +70,22 @@ abstract class AbstractIvyXmlProxyServer implements IvyXmlProxyServer {
      */
     @Override
     void setRefreshDependencies(boolean refresh) {
-        refreshDependencies = refresh ? 1 : 0
+        if (refresh) {
+            notBefore = System.currentTimeMillis()
+            versionLists?.expireAll()
+        }
+    }
+
+    /** Tell the server to only serve metadata that has previously been cached.
+     *
+     * @param offline {@code true} if the remote GEM server should never be contacted.
+     *
+     * @since 2.1.0
+     */
+    @Override
+    void setOffline(boolean offline) {
+        this.offline = offline
+        versionLists?.offline = offline
     }
 
     /** Get the address of the local proxy.
@@ -78,18 +97,67 @@ abstract class AbstractIvyXmlProxyServer implements IvyXmlProxyServer {
         "http://localhost:${bindPort}".toURI()
     }
 
-    /** Returns the cache location for a specific GEM.
+    /** Returns the legacy cache location for a specific GEM.
+     *
+     * Descriptors are kept in an {@link IvyXmlStore} and no longer written to this location.
      *
      * @param group Group associated with GEM.
      * @param name GEM name.
      * @param revision GEM revision.
      * @return Location of {@code ivy.xml} file.
      */
+    @Override
+    @Deprecated
     @SuppressWarnings('UnusedMethodParameter')
     Path ivyFile(String group, String name, String revision) {
         new File(localCachePath, "${name}/${revision}/ivy.xml").toPath()
     }
 
+    /** Request, cache, upstream and lock metrics of this server.
+     *
+     * @return Metrics which are updated as requests are served.
+     *
+     * @since 2.1.0
+     */
+    ProxyMetrics getMetrics() {
+        this.metrics
+    }
+
+    /** Adds a descriptor which has been recorded in a GEM lock file.
+     *
+     * Locked descriptors are only held in memory for as long as this proxy exists and take precedence over the
+     * descriptor store, so that a lock file never changes what other builds which share the store are served.
+     * Requests for the GEM are then served without contacting the remote GEM server.
+     *
+     * @param name GEM name.
+     * @param revision GEM revision.
+     * @param ivyXml Content of {@code ivy.xml}.
+     *
+     * @since 2.1.0
+     */
+    void addLockedIvyXml(String name, String revision, byte[] ivyXml) {
+        String sha1 = MessageDigest.getInstance('SHA-1').digest(ivyXml).encodeHex().toString()
+        locked.put("${name}/${revision}".toString(), new IvyXmlStore.Entry(name, revision, sha1, ivyXml))
+    }
+
+    /** Compacts the descriptor store, releases its file handles and closes the non-blocking API client.
+     *
+     * This is called automatically when the JVM shuts down if it has not been called before.
+     *
+     * @since 2.1.0
+     */
+    void close() {
+        try {
+            Runtime.runtime.removeShutdownHook(shutdownHook)
+        } catch (IllegalStateException ignored) {
+            // Already shutting down, which is when this is called by the hook itself.
+        }
+        if (asyncApi instanceof Closeable) {
+            ((Closeable) asyncApi).close()
+        }
+        store.close()
+    }
+
     /** Implementation of a proxy server.
      *
      * @param cache Root directory for local Ivy XML cache.
@@ -102,27 +170,176 @@ abstract class AbstractIvyXmlProxyServer implements IvyXmlProxyServer {
         URI serverUri,
         String group,
         GemRepositoryConfiguration grc
+    ) {
+        this(cache, serverUri, group, grc, new GemVersionListCache(cache, GemVersionListCache.DEFAULT_EXPIRY_MILLIS))
+    }
+
+    private AbstractIvyXmlProxyServer(
+        File cache,
+        URI serverUri,
+        String group,
+        GemRepositoryConfiguration grc,
+        GemVersionListCache versionLists
+    ) {
+        this(
+            cache,
+            serverUri,
+            group,
+            grc,
+            versionLists,
+            new DefaultAsyncRubyGemRestApi(serverUri, grc.maxConcurrentRequests, versionLists)
+        )
+    }
+
+    /** Implementation of a proxy server which uses a specific non-blocking RubyGems API client.
+     *
+     * @param cache Root directory for local Ivy XML cache.
+     * @param serverUri URI of remote Rubygems proxy.
+     * @param group Group that will be associated with the Rubygems proxy.
+     * @param grc Additional configuration regarding remote GEM server
+     * @param versionLists Cache of version lists which is shared with the non-blocking client.
+     * @param asyncRestApi Non-blocking client for querying the remote GEM server.
+     *
+     * @since 2.1.0
+     */
+    protected AbstractIvyXmlProxyServer(
+        File cache,
+        URI serverUri,
+        String group,
+        GemRepositoryConfiguration grc,
+        GemVersionListCache versionLists,
+        AsyncRubyGemQueryRestApi asyncRestApi
+    ) {
+        this(cache, serverUri, group, grc, new DefaultRubyGemRestApi(serverUri, versionLists), asyncRestApi)
+        this.versionLists = versionLists
+    }
+
+    /** Implementation of a proxy server which uses a specific RubyGems API client.
+     *
+     * @param cache Root directory for local Ivy XML cache.
+     * @param serverUri URI of remote Rubygems proxy.
+     * @param group Group that will be associated with the Rubygems proxy.
+     * @param grc Additional configuration regarding remote GEM server
+     * @param restApi Client for querying the remote GEM server.
+     *
+     * @since 2.1.0
+     */
+    protected AbstractIvyXmlProxyServer(
+        File cache,
+        URI serverUri,
+        String group,
+        GemRepositoryConfiguration grc,
+        RubyGemQueryRestApi restApi
+    ) {
+        this(
+            cache,
+            serverUri,
+            group,
+            grc,
+            restApi,
+            new DefaultAsyncRubyGemRestApi(serverUri, grc.maxConcurrentRequests)
+        )
+    }
+
+    /** Implementation of a proxy server which uses specific blocking and non-blocking RubyGems API clients.
+     *
+     * @param cache Root directory for local Ivy XML cache.
+     * @param serverUri URI of remote Rubygems proxy.
+     * @param group Group that will be associated with the Rubygems proxy.
+     * @param grc Additional configuration regarding remote GEM server
+     * @param restApi Client for querying the remote GEM server.
+     * @param asyncRestApi Non-blocking client for querying the remote GEM server.
+     *
+     * @since 2.1.0
+     */
+    protected AbstractIvyXmlProxyServer(
+        File cache,
+        URI serverUri,
+        String group,
+        GemRepositoryConfiguration grc,
+        RubyGemQueryRestApi restApi,
+        AsyncRubyGemQueryRestApi asyncRestApi
     ) {
         localCachePath = cache
         gemToIvy = new GemToIvy(serverUri)
-        api = new DefaultRubyGemRestApi(serverUri)
+        api = restApi
+        asyncApi = asyncRestApi
         this.group = group
         this.configuration = grc
+        this.metadataRequests = new Semaphore(Math.max(1, grc.maxConcurrentRequests), true)
+        this.store = new IvyXmlStore(cache)
+        this.shutdownHook = new Thread({ closeQuietly() } as Runnable, 'ivy-xml-store-shutdown')
+        Runtime.runtime.addShutdownHook(shutdownHook)
     }
 
-    @Synchronized
-    @SuppressWarnings('BuilderMethodWithSideEffects')
-    protected void createIvyXml(Path ivyXml, String name, String revision) {
-        ExclusiveFileAccess efa = new ExclusiveFileAccess(120000, 20)
-        efa.access(ivyXml.toFile()) {
-            GemInfo gemInfo = api.metadata(name, revision)
-            ivyXml.parent.toFile().mkdirs()
-            Path tmp = ivyXml.resolveSibling("${ivyXml.toFile().name}.tmp")
-            tmp.withWriter { writer ->
-                gemToIvy.writeTo(writer, gemInfo)
+    /** Creates an {@code ivy.xml} descriptor for a GEM.
+     *
+     * Requests for different GEMs are processed in parallel up to the limit set by
+     * {@link GemRepositoryConfiguration#getMaxConcurrentRequests}. Simultaneous requests for the same GEM name and
+     * revision are coalesced so that only one of them queries the remote server, whilst the others wait for the
+     * result.
+     *
+     * @param name GEM name.
+     * @param revision GEM revision.
+     * @return Stored descriptor.
+     */
+    @SuppressWarnings(['BuilderMethodWithSideEffects', 'CatchException'])
+    protected IvyXmlStore.Entry createIvyXml(String name, String revision) {
+        final String key = "${name}/${revision}"
+        final CompletableFuture<IvyXmlStore.Entry> pending = new CompletableFuture<IvyXmlStore.Entry>()
+        final CompletableFuture<IvyXmlStore.Entry> inProgress = inFlight.putIfAbsent(key, pending)
+
+        if (inProgress != null) {
+            debug "Waiting for in-flight request for ${group}:${name}:${revision}"
+            return awaitIvyXml(inProgress)
+        }
+
+        try {
+            GemInfo gemInfo
+            IvyXmlStore.Entry entry
+            long waitStart = System.nanoTime()
+            metadataRequests.acquire()
+            metrics.lockWait(LOCK_METADATA_REQUESTS, System.nanoTime() - waitStart)
+            try {
+                gemInfo = upstream(CALL_METADATA) { api.metadata(name, revision) }
+                entry = storeIvyXml(name, revision, gemInfo)
+            } finally {
+                metadataRequests.release()
             }
-            move(tmp, ivyXml, ATOMIC_MOVE, REPLACE_EXISTING)
-            gemToIvy.writeSha1(ivyXml.toFile())
+            pending.complete(entry)
+            prefetchDependencies(gemInfo)
+            entry
+        } catch (Exception e) {
+            pending.completeExceptionally(e)
+            throw e
+        } finally {
+            inFlight.remove(key, pending)
+        }
+    }
+
+    /** Converts GEM metadata to an {@code ivy.xml} descriptor and adds it to the store.
+     *
+     * The checksum is calculated whilst the descriptor is generated.
+     *
+     * @param name GEM name.
+     * @param revision GEM revision.
+     * @param gemInfo GEM metadata.
+     * @return Stored descriptor.
+     */
+    private IvyXmlStore.Entry storeIvyXml(String name, String revision, GemInfo gemInfo) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(INITIAL_IVY_XML_SIZE)
+        String sha1 = gemToIvy.writeTo(content, gemInfo)
+        store.put(name, revision, content.toByteArray(), sha1)
+    }
+
+    private IvyXmlStore.Entry awaitIvyXml(CompletableFuture<IvyXmlStore.Entry> inProgress) {
+        long waitStart = System.nanoTime()
+        try {
+            inProgress.get()
+        } catch (ExecutionException e) {
+            throw e.cause
+        } finally {
+            metrics.lockWait(LOCK_IN_FLIGHT, System.nanoTime() - waitStart)
         }
     }
 
@@ -138,53 +355,215 @@ abstract class AbstractIvyXmlProxyServer implements IvyXmlProxyServer {
         grp == this.group
     }
 
-    protected boolean expired(Path ivyXml) {
-        System.currentTimeMillis()
-        Path ivyXmlSha1 = ivyXml.resolveSibling("${ivyXml.toFile().name}.sha1")
-        Files.notExists(ivyXml) || Files.notExists(ivyXmlSha1) ||
-            (Files.getLastModifiedTime(ivyXml).toMillis() + EXPIRY_PERIOD_MILLIS < Instant.now().toEpochMilli())
+    /** Whether a stored descriptor needs to be regenerated.
+     *
+     * @param entry Stored descriptor or {@code null}.
+     * @return {@code true} if the descriptor does not exist, is older than the expiry period or was written before
+     *   dependencies were refreshed. In offline mode a stored descriptor never expires.
+     */
+    protected boolean expired(IvyXmlStore.Entry entry) {
+        if (entry == null) {
+            return true
+        }
+        if (offline) {
+            return false
+        }
+        entry.writtenAt < notBefore || entry.writtenAt + EXPIRY_PERIOD_MILLIS < System.currentTimeMillis()
+    }
+
+    /** Looks up a descriptor that has been added from a GEM lock file.
+     *
+     * A locked descriptor is counted as a cache hit.
+     *
+     * @param name GEM name.
+     * @param revision GEM revision.
+     * @return Locked descriptor or {@code null} if the GEM revision is not locked.
+     */
+    private IvyXmlStore.Entry lockedIvyXml(String name, String revision) {
+        IvyXmlStore.Entry entry = locked["${name}/${revision}".toString()]
+        if (entry != null) {
+            metrics.cacheLookup(ProxyMetrics.CACHE_HIT)
+        }
+        entry
+    }
+
+    /** Whether a descriptor that has been looked up to serve a request needs to be regenerated.
+     *
+     * The outcome is counted as a cache hit, miss or expiry.
+     *
+     * @param entry Stored descriptor or {@code null}.
+     * @return {@code true} if the descriptor needs to be regenerated.
+     */
+    private boolean lookupExpired(IvyXmlStore.Entry entry) {
+        boolean result = expired(entry)
+        if (entry == null) {
+            metrics.cacheLookup(ProxyMetrics.CACHE_MISS)
+        } else {
+            metrics.cacheLookup(result ? ProxyMetrics.CACHE_EXPIRED : ProxyMetrics.CACHE_HIT)
+        }
+        result
+    }
+
+    /** Records a request that has been served.
+     *
+     * @param route One of the {@code ROUTE_*} constants of {@link ProxyMetrics}.
+     * @param startNanos Value of {@link System#nanoTime} when the request was received.
+     * @param found {@code false} if the request was answered with {@code 404}.
+     *
+     * @since 2.1.0
+     */
+    protected void recordRequest(String route, long startNanos, boolean found) {
+        metrics.request(route, System.nanoTime() - startNanos, found)
+    }
+
+    /** Current metrics in the Prometheus text exposition format.
+     *
+     * @return Metrics as text.
+     *
+     * @since 2.1.0
+     */
+    protected String metricsText() {
+        metrics.snapshot().toPrometheus()
     }
 
-    protected Path getIvyXml(String grp, String name, String version) throws NotFound {
+    /** Reads the content of a stored descriptor.
+     *
+     * @param entry Stored descriptor.
+     * @return Content of {@code ivy.xml}.
+     *
+     * @since 2.1.0
+     */
+    protected byte[] ivyXmlContent(IvyXmlStore.Entry entry) {
+        store.read(entry)
+    }
+
+    protected IvyXmlStore.Entry getIvyXml(String grp, String name, String version) throws NotFound {
         if (inGroups(grp)) {
-            String revision = getGemQueryRevisionFromIvy(name, version)
-            Path ivyXml = ivyFile(grp, name, revision)
+            String revision
+            try {
+                revision = getGemQueryRevisionFromIvy(name, version)
+            } catch (ApiException e) {
+                debug(e.message, e)
+                throw new NotFound()
+            }
             debug "Requested ${group}:${name}:${version} translated to GEM with version ${revision}"
-            if (refreshDependencies || expired(ivyXml)) {
+            IvyXmlStore.Entry entry = lockedIvyXml(name, revision)
+            if (entry != null) {
+                return entry
+            }
+            entry = store.get(name, revision)
+            if (lookupExpired(entry)) {
+                if (offline) {
+                    debug "${group}:${name}:${revision} has not been cached and cannot be retrieved in offline mode"
+                    throw new NotFound()
+                }
                 try {
-                    createIvyXml(ivyXml, name, revision)
+                    entry = createIvyXml(name, revision)
                 } catch (ApiException e) {
                     debug(e.message, e)
                     throw new NotFound()
                 }
             }
-            debug "Cached file is ${ivyXml.toAbsolutePath()}"
-            debug "Cached file contains ${ivyXml.text}"
-            ivyXml
+            entry
         } else {
             throw new NotFound()
         }
     }
 
-    protected Path getIvyXmlSha1(String grp, String name, String version) throws NotFound {
-        if (inGroups(grp)) {
-            Path ivyXml = getIvyXml(grp, name, version)
-            ivyXml.resolveSibling("${ivyXml.toFile().name}.sha1")
-        } else {
-            throw new NotFound()
-        }
+    protected String getIvyXmlSha1(String grp, String name, String version) throws NotFound {
+        getIvyXml(grp, name, version).sha1
     }
 
     protected String getDirectoryListing(String grp, String name) throws NotFound {
         if (inGroups(grp)) {
             debug "Request to find all versions for ${grp}:${name}"
-            List<String> versions = api.allVersions(name, configuration.prerelease)
+            List<String> versions
+            try {
+                versions = upstream(CALL_ALL_VERSIONS) { api.allVersions(name, configuration.prerelease) }
+            } catch (ApiException e) {
+                debug(e.message, e)
+                throw new NotFound()
+            }
             debug "Got versions ${versions.join(', ')}"
             revisionsAsHtmlDirectoryListing(versions)
         } else {
             throw new NotFound()
         }
     }
+
+    /** Obtains a stored {@code ivy.xml} descriptor without blocking the caller.
+     *
+     * @param grp Group associated with GEM.
+     * @param name GEM name.
+     * @param version Ivy-style version or version range.
+     * @return Future stored descriptor. Completes exceptionally with {@link NotFound} if the GEM
+     *   cannot be resolved.
+     *
+     * @since 2.1.0
+     */
+    protected CompletableFuture<IvyXmlStore.Entry> getIvyXmlAsync(String grp, String name, String version) {
+        if (!inGroups(grp)) {
+            return notFound()
+        }
+
+        CompletableFuture<IvyXmlStore.Entry> ivyXml = (CompletableFuture<IvyXmlStore.Entry>)
+            getGemQueryRevisionFromIvyAsync(name, version).thenCompose { String revision ->
+                debug "Requested ${group}:${name}:${version} translated to GEM with version ${revision}"
+                IvyXmlStore.Entry entry = lockedIvyXml(name, revision)
+                if (entry != null) {
+                    return CompletableFuture.completedFuture(entry)
+                }
+                entry = store.get(name, revision)
+                if (!lookupExpired(entry)) {
+                    CompletableFuture.completedFuture(entry)
+                } else if (offline) {
+                    notFound()
+                } else {
+                    fetchIvyXml(name, revision)
+                }
+            }
+        asNotFound(ivyXml)
+    }
+
+    /** Obtains the checksum of a stored {@code ivy.xml} descriptor without blocking the caller.
+     *
+     * @param grp Group associated with GEM.
+     * @param name GEM name.
+     * @param version Ivy-style version or version range.
+     * @return Future hexadecimal SHA-1 checksum. Completes exceptionally with {@link NotFound} if the GEM
+     *   cannot be resolved.
+     *
+     * @since 2.1.0
+     */
+    protected CompletableFuture<String> getIvyXmlSha1Async(String grp, String name, String version) {
+        (CompletableFuture<String>) getIvyXmlAsync(grp, name, version).thenApply { IvyXmlStore.Entry entry ->
+            entry.sha1
+        }
+    }
+
+    /** Obtains a HTML directory listing of all GEM versions without blocking the caller.
+     *
+     * @param grp Group associated with GEM.
+     * @param name GEM name.
+     * @return Future directory listing. Completes exceptionally with {@link NotFound} if the GEM cannot be resolved.
+     *
+     * @since 2.1.0
+     */
+    protected CompletableFuture<String> getDirectoryListingAsync(String grp, String name) {
+        if (!inGroups(grp)) {
+            return notFound()
+        }
+
+        debug "Request to find all versions for ${grp}:${name}"
+        asNotFound((CompletableFuture<String>) upstreamAsync(CALL_ALL_VERSIONS) {
+            asyncApi.allVersions(name, configuration.prerelease)
+        }.thenApply { List<String> versions ->
+                debug "Got versions ${versions.join(', ')}"
+                revisionsAsHtmlDirectoryListing(versions)
+            }
+        )
+    }
+
     /** Get port the proxy server has bound to.
      *
      * @return Bind port
@@ -193,7 +572,206 @@ abstract class AbstractIvyXmlProxyServer implements IvyXmlProxyServer {
 
     private String getGemQueryRevisionFromIvy(String gemName, String revisionPattern) {
         GemVersion version = gemVersionFromGradleIvyRequirement(revisionPattern)
-        version.highOpenEnded ? api.latestVersion(gemName, configuration.prerelease) : version.high
+        if (!version.highOpenEnded) {
+            version.high
+        } else if (offline) {
+            latestCachedRevision(
+                gemName,
+                version,
+                upstream(CALL_ALL_VERSIONS) { api.allVersions(gemName, configuration.prerelease) }
+            )
+        } else {
+            upstream(CALL_LATEST_VERSION) { api.latestVersion(gemName, configuration.prerelease) }
+        }
+    }
+
+    private CompletableFuture<String> getGemQueryRevisionFromIvyAsync(String gemName, String revisionPattern) {
+        GemVersion version = gemVersionFromGradleIvyRequirement(revisionPattern)
+        if (!version.highOpenEnded) {
+            CompletableFuture.completedFuture(version.high)
+        } else if (offline) {
+            (CompletableFuture<String>) upstreamAsync(CALL_ALL_VERSIONS) {
+                asyncApi.allVersions(gemName, configuration.prerelease)
+            }.thenApply { List<String> versions ->
+                    latestCachedRevision(gemName, version, versions)
+                }
+        } else {
+            upstreamAsync(CALL_LATEST_VERSION) { asyncApi.latestVersion(gemName, configuration.prerelease) }
+        }
+    }
+
+    /** Selects the highest revision in a range which has a stored descriptor and so can be served offline.
+     *
+     */
+    private String latestCachedRevision(String gemName, GemVersion range, List<String> versions) {
+        Set<String> stored = store.revisions(gemName)
+        for (IvyXmlStore.Entry entry : locked.values()) {
+            if (entry.name == gemName) {
+                stored.add(entry.revision)
+            }
+        }
+        String revision = likelyRevision(range, versions.findAll { String version -> stored.contains(version) })
+        if (revision == null) {
+            throw new ApiException("No cached version of ${gemName} satisfies ${range}")
+        }
+        revision
+    }
+
+    private CompletableFuture<IvyXmlStore.Entry> fetchIvyXml(String name, String revision) {
+        final String key = "${name}/${revision}"
+        final CompletableFuture<IvyXmlStore.Entry> pending = new CompletableFuture<IvyXmlStore.Entry>()
+        final CompletableFuture<IvyXmlStore.Entry> inProgress = inFlight.putIfAbsent(key, pending)
+
+        if (inProgress != null) {
+            debug "Waiting for in-flight request for ${group}:${name}:${revision}"
+            long waitStart = System.nanoTime()
+            inProgress.whenComplete { IvyXmlStore.Entry entry, Throwable e ->
+                metrics.lockWait(LOCK_IN_FLIGHT, System.nanoTime() - waitStart)
+            }
+            return inProgress
+        }
+
+        upstreamAsync(CALL_METADATA) { asyncApi.metadata(name, revision) }.whenComplete { GemInfo gemInfo, Throwable e ->
+            IvyXmlStore.Entry entry = null
+            Throwable failure = e
+            if (failure == null) {
+                try {
+                    entry = storeIvyXml(name, revision, gemInfo)
+                } catch (IOException ioe) {
+                    failure = ioe
+                }
+            }
+            inFlight.remove(key, pending)
+            if (failure == null) {
+                pending.complete(entry)
+                prefetchDependencies(gemInfo)
+            } else {
+                pending.completeExceptionally(unwrap(failure))
+            }
+        }
+
+        pending
+    }
+
+    /** Starts generating {@code ivy.xml} descriptors for the runtime dependencies of a GEM in the background.
+     *
+     * For each dependency the revision that Gradle is most likely to select, the highest published version
+     * within the requested range, is retrieved ahead of Gradle asking for it. The dependencies of prefetched GEMs
+     * are prefetched in turn, so that the transitive closure is fetched breadth-first in parallel rather than one
+     * level at a time.
+     *
+     * @param gemInfo GEM for which dependencies should be prefetched.
+     */
+    private void prefetchDependencies(GemInfo gemInfo) {
+        if (!configuration.prefetchDependencies || offline) {
+            return
+        }
+
+        for (GemDependency dependency : gemInfo.dependencies) {
+            try {
+                prefetch(dependency.name, singleGemVersionFromMultipleGemRequirements(dependency.requirements))
+            } catch (GemVersionException e) {
+                debug("Not prefetching ${dependency.name} for ${gemInfo.name}", e)
+            }
+        }
+    }
+
+    private void prefetch(final String name, final GemVersion range) {
+        CompletableFuture<List<String>> versions = upstreamAsync(CALL_ALL_VERSIONS) {
+            asyncApi.allVersions(name, configuration.prerelease)
+        }
+        CompletableFuture<IvyXmlStore.Entry> prefetch
+        prefetch = (CompletableFuture<IvyXmlStore.Entry>) versions.thenCompose { List<String> available ->
+            String revision = likelyRevision(range, available)
+            String key = "${name}/${revision}".toString()
+            if (revision != null && !locked.containsKey(key) && prefetched.add(key)) {
+                IvyXmlStore.Entry entry = store.get(name, revision)
+                if (expired(entry)) {
+                    debug "Prefetching ${group}:${name}:${revision}"
+                    return fetchIvyXml(name, revision)
+                }
+            }
+            CompletableFuture.completedFuture((IvyXmlStore.Entry) null)
+        }
+        prefetch.whenComplete { IvyXmlStore.Entry entry, Throwable e ->
+            if (e != null) {
+                debug("Could not prefetch ${group}:${name}", unwrap(e))
+            }
+        }
+    }
+
+    private static String likelyRevision(GemVersion range, List<String> versions) {
+        GemVersion selected = null
+        for (String version : versions) {
+            if (range.allows(version)) {
+                GemVersion candidate = gemVersionFromGradleIvyRequirement(version)
+                if (selected == null || candidate > selected) {
+                    selected = candidate
+                }
+            }
+        }
+        selected?.toString()
+    }
+
+    private <T> T upstream(String call, Closure<T> request) {
+        long start = System.nanoTime()
+        boolean success = false
+        try {
+            T result = request.call()
+            success = true
+            result
+        } finally {
+            long duration = System.nanoTime() - start
+            metrics.upstream(call, duration, success)
+            PhaseTrace.complete(PhaseTrace.PROXY, call, start, duration, [group: group, success: success])
+        }
+    }
+
+    private <T> CompletableFuture<T> upstreamAsync(String call, Closure<CompletableFuture<T>> request) {
+        long start = System.nanoTime()
+        CompletableFuture<T> result = request.call()
+        result.whenComplete { T value, Throwable e ->
+            long duration = System.nanoTime() - start
+            metrics.upstream(call, duration, e == null)
+            PhaseTrace.complete(PhaseTrace.PROXY, call, start, duration, [group: group, success: e == null])
+        }
+        result
+    }
+
+    private <T> CompletableFuture<T> asNotFound(CompletableFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<T>()
+        future.whenComplete { T value, Throwable e ->
+            if (e == null) {
+                result.complete(value)
+            } else {
+                Throwable cause = unwrap(e)
+                debug(cause.message, cause)
+                result.completeExceptionally(cause instanceof NotFound ? cause : new NotFound(cause))
+            }
+        }
+        result
+    }
+
+    private static <T> CompletableFuture<T> notFound() {
+        CompletableFuture<T> result = new CompletableFuture<T>()
+        result.completeExceptionally(new NotFound())
+        result
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        Throwable cause = e
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.cause != null) {
+            cause = cause.cause
+        }
+        cause
+    }
+
+    private void closeQuietly() {
+        try {
+            close()
+        } catch (IOException e) {
+            debug('Could not close Ivy descriptor store', e)
+        }
     }
 
     private void debug(String text) {
@@ -206,10 +784,26 @@ abstract class AbstractIvyXmlProxyServer implements IvyXmlProxyServer {
 
     private static final long EXPIRY_PERIOD_MILLIS =
         System.getProperty('com.github.jrubygradle.cache-expiry-days', '15').toInteger() * 24 * 3600 * 1000
-    private volatile int refreshDependencies = 0
+    private static final int INITIAL_IVY_XML_SIZE = 2048
+    private static final String CALL_METADATA = 'metadata'
+    private static final String CALL_ALL_VERSIONS = 'allVersions'
+    private static final String CALL_LATEST_VERSION = 'latestVersion'
+    private static final String LOCK_METADATA_REQUESTS = 'metadata_requests'
+    private static final String LOCK_IN_FLIGHT = 'in_flight'
+    private volatile long notBefore = 0
+    private volatile boolean offline = false
     private final File localCachePath
     private final GemToIvy gemToIvy
     private final RubyGemQueryRestApi api
+    private final AsyncRubyGemQueryRestApi asyncApi
     private final String group
     private final GemRepositoryConfiguration configuration
+    private final Semaphore metadataRequests
+    private final IvyXmlStore store
+    private final Thread shutdownHook
+    private final ProxyMetrics metrics = new ProxyMetrics()
+    private GemVersionListCache versionLists
+    private final ConcurrentMap<String, CompletableFuture<IvyXmlStore.Entry>> inFlight = new ConcurrentHashMap<>()
+    private final Set<String> prefetched = ConcurrentHashMap.newKeySet()
+    private final ConcurrentMap<String, IvyXmlStore.Entry> locked = new ConcurrentHashMap<>()
 }
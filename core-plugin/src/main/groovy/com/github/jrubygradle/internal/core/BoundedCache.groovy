@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import groovy.transform.CompileStatic
+
+import java.util.function.Function
+
+/** A size-limited, thread-safe cache which evicts the least recently used entry once full.
+ *
+ * Values are calculated outside of the lock, so two threads that miss on the same key at the same time may both
+ * calculate it. This is only meant for values that are cheap enough to calculate and that are safe to share.
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class BoundedCache<K, V> {
+
+    /** Create a cache.
+     *
+     * @param maxEntries Maximum number of entries that will be retained.
+     */
+    BoundedCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<K, V>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                size() > maxEntries
+            }
+        }
+    }
+
+    /** Returns a cached value or calculates and caches it.
+     *
+     * @param key Key to look up.
+     * @param loader Calculates the value if it is not in the cache. A {@code null} value is not cached.
+     * @return Value
+     */
+    V get(K key, Function<K, V> loader) {
+        V value
+        synchronized (entries) {
+            value = entries.get(key)
+        }
+
+        if (value == null) {
+            value = loader.apply(key)
+            if (value != null) {
+                synchronized (entries) {
+                    entries.put(key, value)
+                }
+            }
+        }
+
+        value
+    }
+
+    /** Number of entries currently in the cache.
+     *
+     * @return Number of entries.
+     */
+    int size() {
+        synchronized (entries) {
+            entries.size()
+        }
+    }
+
+    static private final int INITIAL_CAPACITY = 64
+    static private final float LOAD_FACTOR = 0.75f
+
+    private final Map<K, V> entries
+}
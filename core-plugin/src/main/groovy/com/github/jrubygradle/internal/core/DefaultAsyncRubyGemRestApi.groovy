@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import com.github.jrubygradle.api.core.ApiException
+import com.github.jrubygradle.api.core.AsyncRubyGemQueryRestApi
+import com.github.jrubygradle.api.gems.GemInfo
+import com.github.jrubygradle.internal.gems.DefaultGemInfo
+import groovy.json.JsonSlurper
+import groovy.transform.CompileStatic
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import org.gradle.util.GradleVersion
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Function
+import java.util.function.Supplier
+
+import static com.github.jrubygradle.internal.core.RubyGemsJson.extractMetadata
+import static com.github.jrubygradle.internal.core.RubyGemsJson.extractVersion
+import static com.github.jrubygradle.internal.gems.GemToIvy.JAVA_PLATFORM
+
+/** Non-blocking implementation of a RubyGems REST API client based upon OkHttp.
+ *
+ * Requests are queued on an OkHttp dispatcher, so no calling thread is held whilst waiting for the remote server.
+ * All requests share a pool of keep-alive connections which will use HTTP/2 if the server supports it.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class DefaultAsyncRubyGemRestApi implements AsyncRubyGemQueryRestApi, Closeable {
+
+    /** Creates a client from a URI
+     *
+     * @param serverUri Only the scheme plus host parts should be provided.
+     * @param maxConcurrentRequests Maximum number of requests that can be in flight at the same time.
+     *   Additional requests are queued.
+     */
+    DefaultAsyncRubyGemRestApi(final URI serverUri, int maxConcurrentRequests) {
+        this(serverUri, maxConcurrentRequests, new GemVersionListCache())
+    }
+
+    /** Creates a client from a URI which shares a cache of version lists.
+     *
+     * @param serverUri Only the scheme plus host parts should be provided.
+     * @param maxConcurrentRequests Maximum number of requests that can be in flight at the same time.
+     *   Additional requests are queued.
+     * @param versionLists Cache of version lists.
+     */
+    DefaultAsyncRubyGemRestApi(final URI serverUri, int maxConcurrentRequests, GemVersionListCache versionLists) {
+        final int maxRequests = Math.max(1, maxConcurrentRequests)
+        this.serverUri = serverUri
+        this.versionLists = versionLists
+        this.client = createClient(Executors.newCachedThreadPool(THREAD_FACTORY), maxRequests, maxRequests)
+        this.limiter = null
+        this.ownsClient = true
+    }
+
+    /** Creates a client for a URI which sends its requests via a client that is shared with other GEM servers.
+     *
+     * The shared client is not closed when this client is closed.
+     *
+     * @param serverUri Only the scheme plus host parts should be provided.
+     * @param sharedClient Client which provides the dispatcher and the connection pool.
+     * @param limiter Limits the requests that are sent to this GEM server.
+     * @param versionLists Cache of version lists.
+     */
+    DefaultAsyncRubyGemRestApi(
+        final URI serverUri,
+        OkHttpClient sharedClient,
+        UpstreamLimiter limiter,
+        GemVersionListCache versionLists
+    ) {
+        this.serverUri = serverUri
+        this.versionLists = versionLists
+        this.client = sharedClient
+        this.limiter = limiter
+        this.ownsClient = false
+    }
+
+    /** Creates an HTTP client that is suitable for querying GEM servers.
+     *
+     * @param executor Runs the callbacks of completed requests.
+     * @param maxRequests Maximum number of requests that can be in flight at the same time.
+     * @param maxRequestsPerHost Maximum number of requests that can be in flight to a single host at the same time.
+     * @return Client with its own dispatcher and connection pool.
+     */
+    static OkHttpClient createClient(ExecutorService executor, int maxRequests, int maxRequestsPerHost) {
+        Dispatcher dispatcher = new Dispatcher(executor)
+        dispatcher.maxRequests = maxRequests
+        dispatcher.maxRequestsPerHost = maxRequestsPerHost
+
+        new OkHttpClient.Builder()
+            .dispatcher(dispatcher)
+            .connectionPool(new ConnectionPool(maxRequests, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .protocols([Protocol.HTTP_2, Protocol.HTTP_1_1])
+            .followRedirects(true)
+            .followSslRedirects(true)
+            .build()
+    }
+
+    /** Stops the dispatcher threads of a client and closes its pooled connections.
+     *
+     * @param client Client created by {@link #createClient}.
+     */
+    static void closeClient(OkHttpClient client) {
+        client.dispatcher().executorService().shutdown()
+        client.connectionPool().evictAll()
+    }
+
+    /**
+     * Return all published versions for a specific GEM
+     *
+     * @param gemName Name of GEM.
+     * @param includePrelease Whether pre-release versions should be included.
+     * @return Future list of versions.
+     */
+    @Override
+    CompletableFuture<List<String>> allVersions(String gemName, boolean includePrelease) {
+        (CompletableFuture<List<String>>) versionList(gemName).thenApply { GemVersionList versions ->
+            versions.versions(includePrelease)
+        }
+    }
+
+    /**
+     * Return latest published version of GEM.
+     *
+     * @param gemName Name of GEM.
+     * @param allowPrerelease Whether a prereleased version can be considered a latest version.
+     * @return Future version of GEM
+     */
+    @Override
+    CompletableFuture<String> latestVersion(String gemName, boolean allowPrerelease) {
+        if (allowPrerelease) {
+            (CompletableFuture<String>) allVersions(gemName, allowPrerelease).thenApply { List<String> versions ->
+                versions.collect { GradleVersion.version(it) }.max().toString()
+            }
+        } else {
+            (CompletableFuture<String>) query(
+                V1,
+                "versions/${gemName}/latest",
+                "Failed to retrieve latest version of ${gemName}"
+            ) { Object json ->
+                String version = extractVersion(json)
+                if (version == 'unknown') {
+                    throw new ApiException("Cound not retrieve latest version of ${gemName}. Maybe it does not exist")
+                }
+                version
+            }
+        }
+    }
+
+    /** Retrieves the GEM metadata.
+     *
+     * @param gemName Name of GEM.
+     * @param gemVersion Version of the GEM.
+     * @return Future {@link GemInfo} instance.
+     */
+    @Override
+    CompletableFuture<GemInfo> metadata(String gemName, String gemVersion) {
+        final String errorMessage = "Could not obtain information for :${gemName}:${gemVersion}."
+        CompletableFuture<DefaultGemInfo> gemInfo = (CompletableFuture<DefaultGemInfo>) query(
+            V2,
+            "rubygems/${gemName}/versions/${gemVersion}",
+            errorMessage
+        ) { Object json ->
+            extractMetadata(json)
+        }
+
+        (CompletableFuture<GemInfo>) gemInfo.thenCompose { DefaultGemInfo metadata ->
+            if (metadata.platform == JAVA_PLATFORM) {
+                CompletableFuture.completedFuture((GemInfo) metadata)
+            } else {
+                versionList(metadata.name).thenApply { GemVersionList versions ->
+                    if (versions.hasJavaPlatform(metadata.version)) {
+                        metadata.platform = JAVA_PLATFORM
+                    }
+                    (GemInfo) metadata
+                }
+            }
+        }
+    }
+
+    /** Stops the dispatcher threads and closes all pooled connections.
+     *
+     * A client that is shared with other GEM servers is left untouched.
+     */
+    @Override
+    void close() {
+        if (ownsClient) {
+            closeClient(client)
+        }
+    }
+
+    /** Retrieves the version list of a GEM via the shared cache.
+     *
+     * @param gemName Name of GEM.
+     * @return Future version list.
+     */
+    CompletableFuture<GemVersionList> versionList(String gemName) {
+        versionLists.get(gemName) { GemVersionList stale ->
+            fetchVersionList(gemName, stale)
+        }
+    }
+
+    private CompletableFuture<GemVersionList> fetchVersionList(String gemName, GemVersionList stale) {
+        Request.Builder request = requestFor(V1, "versions/${gemName}")
+        if (stale?.etag) {
+            request.header('If-None-Match', stale.etag)
+        }
+        if (stale?.lastModified) {
+            request.header('If-Modified-Since', stale.lastModified)
+        }
+
+        final String errorMessage = "Count not retrieve list of versions for ${gemName}"
+        (CompletableFuture<GemVersionList>) send(request.build(), errorMessage) { Response response ->
+            if (stale != null && response.code() == HTTP_NOT_MODIFIED) {
+                stale.revalidated()
+            } else {
+                GemVersionList.fromJson(
+                    parse(response, errorMessage),
+                    response.header('ETag'),
+                    response.header('Last-Modified')
+                )
+            }
+        }
+    }
+
+    private <T> CompletableFuture<T> query(
+        final String useApiVersion,
+        final String relativePath,
+        final String errorMessage,
+        Function<Object, T> extractor
+    ) {
+        Request request = requestFor(useApiVersion, relativePath).build()
+        (CompletableFuture<T>) send(request, errorMessage) { Response response ->
+            extractor.apply(parse(response, errorMessage))
+        }
+    }
+
+    private Request.Builder requestFor(final String useApiVersion, final String relativePath) {
+        new Request.Builder()
+            .url(serverUri.resolve("/${useApiVersion}/${relativePath}.json").toString())
+            .header('Accept', 'application/json')
+            .get()
+    }
+
+    private <T> CompletableFuture<T> send(Request request, final String errorMessage, Function<Response, T> handler) {
+        if (limiter == null) {
+            enqueue(request, errorMessage, handler)
+        } else {
+            (CompletableFuture<T>) limiter.submit({ ->
+                enqueue(request, errorMessage, handler)
+            } as Supplier<CompletableFuture<T>>)
+        }
+    }
+
+    private <T> CompletableFuture<T> enqueue(Request request, final String errorMessage, Function<Response, T> handler) {
+        CompletableFuture<T> result = new CompletableFuture<T>()
+
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            void onFailure(Call call, IOException e) {
+                result.completeExceptionally(new ApiException(errorMessage, e))
+            }
+
+            @Override
+            @SuppressWarnings('CatchException')
+            void onResponse(Call call, Response response) {
+                try {
+                    result.complete(handler.apply(response))
+                } catch (ApiException e) {
+                    result.completeExceptionally(e)
+                } catch (Exception e) {
+                    result.completeExceptionally(new ApiException(errorMessage, e))
+                } finally {
+                    response.close()
+                }
+            }
+        })
+
+        result
+    }
+
+    private static Object parse(Response response, final String errorMessage) {
+        if (!response.successful) {
+            throw new ApiException("${errorMessage} Server responded with HTTP ${response.code()}")
+        }
+        new JsonSlurper().parse(response.body().charStream())
+    }
+
+    private final URI serverUri
+    private final OkHttpClient client
+    private final GemVersionListCache versionLists
+    private final UpstreamLimiter limiter
+    private final boolean ownsClient
+
+    static private final String V1 = 'api/v1'
+    static private final String V2 = 'api/v2'
+    static private final long KEEP_ALIVE_MINUTES = 5
+    static private final int HTTP_NOT_MODIFIED = 304
+    static private final AtomicInteger THREAD_COUNT = new AtomicInteger()
+    static private final ThreadFactory THREAD_FACTORY = { Runnable r ->
+        Thread t = new Thread(r, "rubygems-api-${THREAD_COUNT.incrementAndGet()}")
+        t.daemon = true
+        t
+    } as ThreadFactory
+}
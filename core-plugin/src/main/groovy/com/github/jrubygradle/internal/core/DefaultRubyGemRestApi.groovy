@@ -25,17 +25,20 @@ package com.github.jrubygradle.internal.core
 
 import com.github.jrubygradle.api.core.ApiException
 import com.github.jrubygradle.api.gems.GemInfo
-import com.github.jrubygradle.api.gems.JarDependency
-import com.github.jrubygradle.internal.gems.DefaultGemDependency
 import com.github.jrubygradle.internal.gems.DefaultGemInfo
-import com.github.jrubygradle.internal.gems.DefaultJarDependency
 import groovy.transform.CompileDynamic
 import groovy.transform.CompileStatic
+import groovyx.net.http.FromServer
 import groovyx.net.http.HttpBuilder
 import groovyx.net.http.HttpException
 import okhttp3.OkHttpClient
 import org.gradle.util.GradleVersion
 
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+
+import static com.github.jrubygradle.internal.core.RubyGemsJson.extractMetadata
+import static com.github.jrubygradle.internal.core.RubyGemsJson.extractVersion
 import static com.github.jrubygradle.internal.gems.GemToIvy.JAVA_PLATFORM
 import static groovyx.net.http.ContentTypes.JSON
 import static groovyx.net.http.NativeHandlers.Parsers.json
@@ -57,7 +60,7 @@ class DefaultRubyGemRestApi implements com.github.jrubygradle.api.core.RubyGemQu
      * parts should be provided.
      */
     DefaultRubyGemRestApi(final String serverUri) {
-        this.httpBuilder = getHttpBuilder(serverUri.toURI())
+        this(serverUri.toURI())
     }
 
     /** Creates a client from a URI
@@ -66,7 +69,20 @@ class DefaultRubyGemRestApi implements com.github.jrubygradle.api.core.RubyGemQu
      * parts should be provided.
      */
     DefaultRubyGemRestApi(final URI serverUri) {
+        this(serverUri, new GemVersionListCache())
+    }
+
+    /** Creates a client from a URI which shares a cache of version lists.
+     *
+     * @param serverUri Only the scheme plus host
+     * parts should be provided.
+     * @param versionLists Cache of version lists.
+     *
+     * @since 2.1.0
+     */
+    DefaultRubyGemRestApi(final URI serverUri, GemVersionListCache versionLists) {
         this.httpBuilder = getHttpBuilder(serverUri)
+        this.versionLists = versionLists
     }
 
     /** Returns all versions of a specific GEM.
@@ -92,7 +108,7 @@ class DefaultRubyGemRestApi implements com.github.jrubygradle.api.core.RubyGemQu
     @SuppressWarnings('CatchThrowable')
     List<String> allVersions(String gemName, boolean includePrelease) {
         try {
-            extractVersions(getData(V1, "versions/${gemName}"), includePrelease)
+            versionList(gemName).versions(includePrelease)
         } catch (Throwable e) {
             throw new ApiException("Count not retrieve list of versions for ${gemName}", e)
         }
@@ -147,7 +163,12 @@ class DefaultRubyGemRestApi implements com.github.jrubygradle.api.core.RubyGemQu
     @SuppressWarnings('CatchThrowable')
     GemInfo metadata(String gemName, String gemVersion) {
         try {
-            extractMetadata(getData(V2, "rubygems/${gemName}/versions/${gemVersion}"))
+            DefaultGemInfo metadata = extractMetadata(getData(V2, "rubygems/${gemName}/versions/${gemVersion}"))
+            if (metadata.platform != JAVA_PLATFORM &&
+                versionList(metadata.name).hasJavaPlatform(metadata.version)) {
+                metadata.platform = JAVA_PLATFORM
+            }
+            metadata
         } catch (HttpException e) {
             throw new ApiException(":${gemName}:${gemVersion} not found", e)
         } catch (Throwable e) {
@@ -155,6 +176,49 @@ class DefaultRubyGemRestApi implements com.github.jrubygradle.api.core.RubyGemQu
         }
     }
 
+    /** Retrieves the version list of a GEM via the shared cache.
+     *
+     * @param gemName Name of GEM.
+     * @return Version list.
+     * @throw {@link ApiException} if a networking or parser error occurs.
+     *
+     * @since 2.1.0
+     */
+    GemVersionList versionList(String gemName) throws ApiException {
+        try {
+            versionLists.get(gemName) { GemVersionList stale ->
+                CompletableFuture.completedFuture(fetchVersionList(gemName, stale))
+            }.get()
+        } catch (ExecutionException e) {
+            if (e.cause instanceof ApiException) {
+                throw (ApiException) e.cause
+            }
+            throw new ApiException("Count not retrieve list of versions for ${gemName}", e.cause)
+        }
+    }
+
+    @CompileDynamic
+    private GemVersionList fetchVersionList(String gemName, GemVersionList stale) {
+        httpBuilder.get {
+            request.uri.path = "/${V1}/versions/${gemName}.json"
+            if (stale?.etag) {
+                request.headers['If-None-Match'] = stale.etag
+            }
+            if (stale?.lastModified) {
+                request.headers['If-Modified-Since'] = stale.lastModified
+            }
+            response.parser(JSON[0]) { config, resp ->
+                json(config, resp)
+            }
+            response.when(HTTP_NOT_MODIFIED) { FromServer fs, Object body ->
+                stale.revalidated()
+            }
+            response.success { FromServer fs, Object body ->
+                GemVersionList.fromJson(body, header(fs, 'ETag'), header(fs, 'Last-Modified'))
+            }
+        }
+    }
+
     private Object getData(final String useApiVersion, String relativePath) {
         httpBuilder.get {
             request.uri.path = "/${useApiVersion}/${relativePath}.json"
@@ -175,89 +239,13 @@ class DefaultRubyGemRestApi implements com.github.jrubygradle.api.core.RubyGemQu
     }
 
     @CompileDynamic
-    private String extractVersion(Object jsonParser) {
-        jsonParser.version
-    }
-
-    @CompileDynamic
-    private List<String> extractVersions(Object jsonParser, boolean includePrerelease) {
-        if (includePrerelease) {
-            jsonParser*.number
-        } else {
-            jsonParser.findAll { !it.prerelease }*.number
-        }
-    }
-
-    @CompileDynamic
-    private GemInfo extractMetadata(Object jsonParser) {
-        DefaultGemInfo metadata = new DefaultGemInfo(
-            name: jsonParser.name,
-            version: jsonParser.version,
-            platform: jsonParser.platform,
-            description: jsonParser.description,
-            summary: jsonParser.summary,
-            sha: jsonParser.sha,
-            rubyVersion: jsonParser.ruby_version,
-            rubyGemsVersion: jsonParser.rubygems_version,
-            projectUri: jsonParser.project_uri?.toURI(),
-            gemUri: jsonParser.gem_uri?.toURI(),
-            homepageUri: jsonParser.homepage_uri?.toURI(),
-            documentationUri: jsonParser.documentation_uri?.toURI(),
-            authors: ((String) jsonParser.authors).split(COMMA_SPACE).toList() ?: [],
-            prerelease: jsonParser.prerelease
-            // licenses arrayList
-        )
-
-        if (metadata.platform != JAVA_PLATFORM) {
-            if (getData(V1, "versions/${metadata.name}").find {
-                it.number == metadata.version && it.platform == JAVA_PLATFORM
-            }) {
-                metadata.platform = JAVA_PLATFORM
-            }
-        }
-
-        if (jsonParser.dependencies?.runtime) {
-            metadata.dependencies.addAll(Transform.toList(jsonParser.dependencies.runtime) {
-                new DefaultGemDependency(name: it.name, requirements: it.requirements)
-            })
-        }
-
-        if (jsonParser.dependencies?.development) {
-            metadata.developmentDependencies.addAll(jsonParser.dependencies.development.collect {
-                new DefaultGemDependency(name: it.name, requirements: it.requirements)
-            })
-        }
-
-        if (jsonParser.requirements) {
-            metadata.jarRequirements.addAll(findJarRequirements(jsonParser.requirements))
-        }
-
-        metadata
-    }
-
-    private List<JarDependency> findJarRequirements(Iterable<String> reqs) {
-        reqs.findAll { String it ->
-            it.startsWith('jar ')
-        }.collect {
-            String[] parts = ((String) it)[4..-1].split(COMMA_SPACE, 2)
-            String[] name_parts = parts[0].split(':', 2)
-            if (name_parts.size() == 1) {
-                new DefaultJarDependency(
-                    name: parts[0],
-                    requirements: parts[1]
-                )
-            } else {
-                new DefaultJarDependency(
-                    group: name_parts[0],
-                    name: name_parts[1],
-                    requirements: parts[1]
-                )
-            }
-        } as List<JarDependency>
+    private static String header(FromServer fs, String name) {
+        fs.headers.find { it.key.equalsIgnoreCase(name) }?.value
     }
 
     private final HttpBuilder httpBuilder
+    private final GemVersionListCache versionLists
     static private final String V1 = 'api/v1'
     static private final String V2 = 'api/v2'
-    static private final String COMMA_SPACE = ', '
+    static private final int HTTP_NOT_MODIFIED = 304
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import groovy.transform.CompileStatic
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+import static com.github.jrubygradle.internal.gems.GemToIvy.JAVA_PLATFORM
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/** Parsed list of all published releases of a GEM, as returned by the {@code versions/GEM} RubyGems API call.
+ *
+ * Only the fields required for resolution are kept. Validators returned by the remote server are
+ * retained so that the list can be revalidated with a conditional request once it expires.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class GemVersionList {
+
+    /** A single published release of a GEM.
+     *
+     */
+    @CompileStatic
+    static class Release {
+        final String number
+        final String platform
+        final boolean prerelease
+
+        Release(String number, String platform, boolean prerelease) {
+            this.number = number
+            this.platform = platform
+            this.prerelease = prerelease
+        }
+    }
+
+    /** Creates a version list.
+     *
+     * @param releases Published releases in the order returned by the remote server.
+     * @param etag Value of {@code ETag} header. Can be {@code null}.
+     * @param lastModified Value of {@code Last-Modified} header. Can be {@code null}.
+     * @param fetchedAt Time in milliseconds when the list was last retrieved or revalidated.
+     */
+    GemVersionList(List<Release> releases, String etag, String lastModified, long fetchedAt) {
+        this.releases = releases.asImmutable()
+        this.etag = etag
+        this.lastModified = lastModified
+        this.fetchedAt = fetchedAt
+    }
+
+    /** Creates a version list from a {@code versions/GEM} response.
+     *
+     * @param jsonParser Parsed JSON.
+     * @param etag Value of {@code ETag} header. Can be {@code null}.
+     * @param lastModified Value of {@code Last-Modified} header. Can be {@code null}.
+     * @return Version list retrieved now.
+     */
+    static GemVersionList fromJson(Object jsonParser, String etag, String lastModified) {
+        new GemVersionList(RubyGemsJson.extractReleases(jsonParser), etag, lastModified, System.currentTimeMillis())
+    }
+
+    /** Reads a version list previously written by {@link #write}.
+     *
+     * @param file Cached version list.
+     * @return Version list.
+     */
+    static GemVersionList read(Path file) {
+        List<String> lines = Files.readAllLines(file, UTF_8)
+        if (lines.size() < HEADER_LINES || lines[0] != FORMAT) {
+            throw new IOException("${file} is not a cached GEM version list")
+        }
+
+        List<Release> releases = new ArrayList<Release>(lines.size() - HEADER_LINES)
+        for (String line : lines.subList(HEADER_LINES, lines.size())) {
+            String[] parts = line.split(SEPARATOR, 3)
+            releases.add(new Release(parts[0], parts[1], parts[2] == 'true'))
+        }
+
+        new GemVersionList(releases, nullIfEmpty(lines[1]), nullIfEmpty(lines[2]), lines[3].toLong())
+    }
+
+    /** Writes the version list in a compact line-based format.
+     *
+     * @param file Destination file.
+     */
+    void write(Path file) {
+        file.withWriter(UTF_8.name()) { Writer w ->
+            w.write("${FORMAT}\n${etag ?: ''}\n${lastModified ?: ''}\n${fetchedAt}\n")
+            for (Release release : releases) {
+                w.write("${release.number}${SEPARATOR}${release.platform}${SEPARATOR}${release.prerelease}\n")
+            }
+        }
+    }
+
+    /** Returns a copy of this list which has been confirmed as unchanged by the remote server.
+     *
+     * @return Version list revalidated now.
+     */
+    GemVersionList revalidated() {
+        new GemVersionList(releases, etag, lastModified, System.currentTimeMillis())
+    }
+
+    /** Returns the published version numbers.
+     *
+     * @param includePrerelease Whether pre-release versions should be included.
+     * @return List of versions. A version is listed once for every platform it was published for.
+     */
+    List<String> versions(boolean includePrerelease) {
+        List<String> versions = []
+        for (Release release : releases) {
+            if (includePrerelease || !release.prerelease) {
+                versions.add(release.number)
+            }
+        }
+        versions
+    }
+
+    /** Checks whether a JRuby-specific variant exists for a version.
+     *
+     * @param version Version of GEM.
+     * @return {@code true} if a {@code java} platform GEM exists for the version.
+     */
+    boolean hasJavaPlatform(String version) {
+        releases.any { Release release ->
+            release.number == version && release.platform == JAVA_PLATFORM
+        }
+    }
+
+    private static String nullIfEmpty(String value) {
+        value.empty ? null : value
+    }
+
+    final List<Release> releases
+    final String etag
+    final String lastModified
+    final long fetchedAt
+
+    static private final String FORMAT = 'gem-version-list 1'
+    static private final String SEPARATOR = '\t'
+    static private final int HEADER_LINES = 4
+}
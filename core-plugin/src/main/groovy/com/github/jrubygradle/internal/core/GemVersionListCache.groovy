@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import com.github.jrubygradle.api.core.ApiException
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.function.Function
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING
+
+/** In-memory and on-disk cache of parsed GEM version lists.
+ *
+ * Every GEM's version list is retrieved at most once per expiry window. Once a list expires, the loader
+ * receives the stale list so that it can be revalidated with a conditional request instead of being
+ * downloaded again. Concurrent lookups for the same GEM share a single load.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+@Slf4j
+class GemVersionListCache {
+
+    /** Default period after which a version list is revalidated.
+     *
+     * Can be overridden with the {@code com.github.jrubygradle.version-list-expiry-minutes} system property.
+     */
+    public static final long DEFAULT_EXPIRY_MILLIS =
+        System.getProperty('com.github.jrubygradle.version-list-expiry-minutes', '1440').toLong() * 60 * 1000
+
+    /** Creates a cache which is only held in memory.
+     *
+     */
+    GemVersionListCache() {
+        this(null, DEFAULT_EXPIRY_MILLIS)
+    }
+
+    /** Creates a cache.
+     *
+     * @param cacheDir Root directory for cached version lists. If {@code null}, lists are only cached in memory.
+     * @param expiryMillis Period after which a version list should be revalidated.
+     */
+    GemVersionListCache(File cacheDir, long expiryMillis) {
+        this.cacheDir = cacheDir
+        this.expiryMillis = expiryMillis
+    }
+
+    /** Treat all version lists retrieved before now as expired.
+     *
+     * Each list will be revalidated once on its next lookup.
+     */
+    void expireAll() {
+        notBefore = System.currentTimeMillis()
+    }
+
+    /** Only serve version lists that have previously been cached.
+     *
+     * In offline mode expired lists are returned as-is and a GEM without a cached list fails with an
+     * {@link ApiException}.
+     *
+     * @param offline {@code true} if the loader should never be called.
+     */
+    void setOffline(boolean offline) {
+        this.offline = offline
+    }
+
+    /** Looks up the version list of a GEM, loading it if it is not cached or has expired.
+     *
+     * @param gemName Name of GEM.
+     * @param loader Retrieves the version list. Receives the expired list, or {@code null} if there is none.
+     * @return Future version list.
+     */
+    @SuppressWarnings('CatchException')
+    CompletableFuture<GemVersionList> get(
+        String gemName,
+        Function<GemVersionList, CompletableFuture<GemVersionList>> loader
+    ) {
+        GemVersionList cached = lookup(gemName)
+        if (cached != null && (offline || fresh(cached))) {
+            return CompletableFuture.completedFuture(cached)
+        }
+
+        if (offline) {
+            CompletableFuture<GemVersionList> failed = new CompletableFuture<GemVersionList>()
+            failed.completeExceptionally(new ApiException("No versions of ${gemName} have been cached for offline use"))
+            return failed
+        }
+
+        final CompletableFuture<GemVersionList> pending = new CompletableFuture<GemVersionList>()
+        final CompletableFuture<GemVersionList> inProgress = inFlight.putIfAbsent(gemName, pending)
+        if (inProgress != null) {
+            return inProgress
+        }
+
+        try {
+            loader.apply(cached).whenComplete { GemVersionList loaded, Throwable e ->
+                if (e == null) {
+                    store(gemName, loaded)
+                }
+                inFlight.remove(gemName, pending)
+                if (e == null) {
+                    pending.complete(loaded)
+                } else {
+                    pending.completeExceptionally(e)
+                }
+            }
+        } catch (Exception e) {
+            inFlight.remove(gemName, pending)
+            pending.completeExceptionally(e)
+        }
+
+        pending
+    }
+
+    private GemVersionList lookup(String gemName) {
+        GemVersionList cached = memory[gemName]
+        if (cached == null && cacheDir != null) {
+            Path file = cacheFile(gemName)
+            if (Files.exists(file)) {
+                try {
+                    cached = GemVersionList.read(file)
+                    memory.putIfAbsent(gemName, cached)
+                } catch (IOException e) {
+                    log.debug("Ignoring unreadable version list ${file}", e)
+                }
+            }
+        }
+        cached
+    }
+
+    private boolean fresh(GemVersionList list) {
+        list.fetchedAt > notBefore && list.fetchedAt + expiryMillis > System.currentTimeMillis()
+    }
+
+    private void store(String gemName, GemVersionList list) {
+        memory[gemName] = list
+        if (cacheDir != null) {
+            Path file = cacheFile(gemName)
+            Path tmp = file.resolveSibling("${file.toFile().name}.${Thread.currentThread().id}.tmp")
+            try {
+                file.parent.toFile().mkdirs()
+                list.write(tmp)
+                Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING)
+            } catch (IOException e) {
+                log.debug("Could not write version list ${file}", e)
+                tmp.toFile().delete()
+            }
+        }
+    }
+
+    private Path cacheFile(String gemName) {
+        new File(cacheDir, "${gemName}/versions.list").toPath()
+    }
+
+    private volatile long notBefore = 0
+    private volatile boolean offline = false
+    private final File cacheDir
+    private final long expiryMillis
+    private final ConcurrentMap<String, GemVersionList> memory = new ConcurrentHashMap<>()
+    private final ConcurrentMap<String, CompletableFuture<GemVersionList>> inFlight = new ConcurrentHashMap<>()
+}
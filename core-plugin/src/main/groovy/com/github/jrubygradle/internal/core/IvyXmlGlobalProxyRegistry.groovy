@@ -24,14 +24,18 @@
 package com.github.jrubygradle.internal.core
 
 import com.github.jrubygradle.api.core.GemRepositoryConfiguration
+import com.github.jrubygradle.api.gems.GemLock
 import groovy.transform.CompileStatic
 import org.gradle.api.Project
+import org.gradle.api.invocation.Gradle
+import org.gradle.api.logging.Logger
 
 import java.security.MessageDigest
-import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.ConcurrentMap
 
 /** Allow only one version of the proxy to run.
+ *
+ * All remote GEM servers are proxied by a single {@link SharedIvyXmlProxyServer}, which runs for as long as a build
+ * uses it.
  *
  * @author Schalk W. Cronjé
  *
@@ -47,6 +51,10 @@ class IvyXmlGlobalProxyRegistry {
     IvyXmlGlobalProxyRegistry(Project project) {
         rootCacheDir = new File(project.gradle.gradleUserHomeDir, "rubygems-ivyxml-cache/${PluginMetadata.version()}")
         refresh = project.gradle.startParameter.refreshDependencies
+        offline = project.gradle.startParameter.offline
+        gradle = project.gradle
+        logger = project.logger
+        gemLock = project.extensions.findByType(GemLock)
     }
 
     /** Registers a URI and group to be server via the proxy.
@@ -60,13 +68,18 @@ class IvyXmlGlobalProxyRegistry {
         String group,
         GemRepositoryConfiguration grc
     ) {
+        final String hash = uriHash(remoteURI)
         com.github.jrubygradle.api.core.IvyXmlProxyServer proxy = getOrCreateServer(
+            hash,
             remoteURI,
             group,
-            new File(rootCacheDir, uriHash(remoteURI)),
+            new File(rootCacheDir, hash),
             grc
         )
         proxy.refreshDependencies = refresh
+        proxy.offline = offline
+        gemLock?.addProxy(group, proxy)
+        summariseAtEndOfBuild(remoteURI, proxy)
         proxy
     }
 
@@ -74,31 +87,115 @@ class IvyXmlGlobalProxyRegistry {
         MessageDigest.getInstance('SHA-1').digest(remoteURI.toString().bytes).encodeHex().toString()
     }
 
-    @SuppressWarnings('ClosureAsLastMethodParameter')
-    static private com.github.jrubygradle.api.core.IvyXmlProxyServer getOrCreateServer(
+    /** Logs what a proxy server did during this build once the build has finished.
+     *
+     * The summary is logged at info level and only registered when info logging or tracing is enabled, so that
+     * builds which do not ask for it do not register a build listener. When tracing, the cache lookups are also
+     * added to the trace. Each server is summarised once per build, even if several projects use it.
+     *
+     * @param remoteURI URI of remote Rubygems server.
+     * @param proxy Proxy server.
+     */
+    private void summariseAtEndOfBuild(URI remoteURI, com.github.jrubygradle.api.core.IvyXmlProxyServer proxy) {
+        final boolean infoEnabled = logger.infoEnabled
+        if (!(infoEnabled || PhaseTrace.enabled) || !(proxy instanceof AbstractIvyXmlProxyServer)) {
+            return
+        }
+
+        synchronized (SUMMARISED) {
+            if (!SUMMARISED.computeIfAbsent(gradle) { new HashSet<URI>() }.add(remoteURI)) {
+                return
+            }
+        }
+
+        final ProxyMetrics metrics = ((AbstractIvyXmlProxyServer) proxy).metrics
+        final ProxyMetrics.Snapshot baseline = metrics.snapshot()
+        final Logger buildLogger = logger
+        final URI bindAddress = proxy.bindAddress
+        gradle.buildFinished {
+            ProxyMetrics.Snapshot build = metrics.snapshot().minus(baseline)
+            PhaseTrace.counter(PhaseTrace.PROXY, "cache ${remoteURI}".toString(), [
+                hit    : build.counter(ProxyMetrics.CACHE_LOOKUPS, 'result', ProxyMetrics.CACHE_HIT),
+                miss   : build.counter(ProxyMetrics.CACHE_LOOKUPS, 'result', ProxyMetrics.CACHE_MISS),
+                expired: build.counter(ProxyMetrics.CACHE_LOOKUPS, 'result', ProxyMetrics.CACHE_EXPIRED)
+            ])
+            List<String> summary = infoEnabled ? build.summary() : []
+            if (!summary.empty) {
+                buildLogger.info("GEM proxy for ${remoteURI} on ${bindAddress}:\n  ${summary.join('\n  ')}")
+            }
+        }
+    }
+
+    /** Registers a remote GEM server with the proxy server which is shared by all builds in this JVM.
+     *
+     * The shared server is started if it is not running and stopped when the last build that uses it has
+     * finished.
+     *
+     * @param prefix Path prefix on the shared server.
+     * @param uri URI of remote Rubygems server.
+     * @param group Group name for GEMs that will be fetched from the remote.
+     * @param cacheDir Cache directory for the remote.
+     * @param grc Additional configuration regarding remote GEM server
+     * @return Proxy for the remote GEM server.
+     */
+    private com.github.jrubygradle.api.core.IvyXmlProxyServer getOrCreateServer(
+        String prefix,
         URI uri,
         String group,
         File cacheDir,
         GemRepositoryConfiguration grc
     ) {
-        SERVER_MAP.computeIfAbsent(uri, {
-            com.github.jrubygradle.api.core.IvyXmlProxyServer server = createProxyServer(uri, group, cacheDir, grc)
+        synchronized (SERVER_LOCK) {
+            if (sharedServer == null) {
+                sharedServer = new SharedIvyXmlProxyServer(MAX_UPSTREAM_REQUESTS, lastPort)
+            }
+            stopWhenBuildFinished()
+            com.github.jrubygradle.api.core.IvyXmlProxyServer server = sharedServer.register(
+                prefix,
+                cacheDir,
+                uri,
+                group,
+                grc
+            )
             server.run()
             server
-        })
+        }
     }
 
-    static private com.github.jrubygradle.api.core.IvyXmlProxyServer createProxyServer(
-        URI uri,
-        String group,
-        File cacheDir,
-        GemRepositoryConfiguration grc
-    ) {
-        new IvyXmlRatpackProxyServer(cacheDir, uri, group, grc)
+    private void stopWhenBuildFinished() {
+        final Gradle build = gradle
+        if (ACTIVE_BUILDS.add(build)) {
+            build.buildFinished {
+                buildFinished(build)
+            }
+        }
+    }
+
+    static private void buildFinished(Gradle build) {
+        synchronized (SERVER_LOCK) {
+            ACTIVE_BUILDS.remove(build)
+            if (ACTIVE_BUILDS.empty && sharedServer != null) {
+                if (sharedServer.running) {
+                    lastPort = sharedServer.bindPort
+                }
+                sharedServer.close()
+                sharedServer = null
+            }
+        }
     }
 
-    static private final ConcurrentMap<URI, com.github.jrubygradle.api.core.IvyXmlProxyServer> SERVER_MAP = new ConcurrentHashMap<>()
+    static private final Object SERVER_LOCK = new Object()
+    static private final Set<Gradle> ACTIVE_BUILDS = new HashSet<Gradle>()
+    static private final int MAX_UPSTREAM_REQUESTS =
+        System.getProperty('com.github.jrubygradle.proxy-max-requests', '64').toInteger()
+    static private final Map<Gradle, Set<URI>> SUMMARISED = new WeakHashMap<Gradle, Set<URI>>()
+    static private SharedIvyXmlProxyServer sharedServer
+    static private int lastPort = 0
 
     private final boolean refresh
+    private final boolean offline
     private final File rootCacheDir
+    private final Gradle gradle
+    private final Logger logger
+    private final GemLock gemLock
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core;
+
+import ratpack.exec.Promise;
+import ratpack.func.Action;
+import ratpack.handling.Chain;
+import ratpack.handling.Context;
+
+import static ratpack.registry.Registry.single;
+
+/**
+ * Ratpack routes which serve Ivy descriptors, their checksums, directory listings and metrics for a GEM proxy.
+ *
+ * The proxy which serves a request is looked up in the context registry, so the same routes can be used by a server
+ * with a single proxy as well as below the path prefix of each proxy on a shared server.
+ *
+ * @author Schalk W. Cronjé
+ * @since 2.1.0
+ */
+final class IvyXmlProxyRoutes {
+
+    /**
+     * Routes for a specific proxy.
+     *
+     * @param proxy Proxy that will serve all requests.
+     * @return Routes which can be added to a chain.
+     */
+    static Action<Chain> forProxy(AbstractIvyXmlProxyServer proxy) {
+        return chain -> chain
+                .all(ctx -> ctx.next(single(AbstractIvyXmlProxyServer.class, proxy)))
+                .insert(IvyXmlProxyRoutes::routes);
+    }
+
+    /**
+     * Routes which use the proxy that has been added to the context registry by an earlier handler.
+     *
+     * @param chain Chain to add the routes to.
+     * @throws Exception if a route cannot be added.
+     */
+    static void routes(Chain chain) throws Exception {
+        chain.get("metrics", ctx ->
+                ctx.getResponse().contentType(METRICS_CONTENT_TYPE).send(proxy(ctx).metricsText())
+        ).get(":group/:module/:revision/ivy.xml", ctx -> {
+            AbstractIvyXmlProxyServer proxy = proxy(ctx);
+            long start = System.nanoTime();
+            Promise.<IvyXmlStore.Entry>async(down -> down.accept(proxy.getIvyXmlAsync(
+                    ctx.getAllPathTokens().get("group"),
+                    ctx.getAllPathTokens().get("module"),
+                    ctx.getAllPathTokens().get("revision")
+            ))).map(proxy::ivyXmlContent).onError(AbstractIvyXmlProxyServer.NotFound.class, e -> {
+                proxy.recordRequest(ProxyMetrics.ROUTE_IVY_XML, start, false);
+                ctx.clientError(404);
+            }).then(ivyXml -> {
+                proxy.recordRequest(ProxyMetrics.ROUTE_IVY_XML, start, true);
+                ctx.getResponse().contentType("text/xml").send(ivyXml);
+            });
+        }).get(":group/:module/:revision/ivy.xml.sha1", ctx -> {
+            AbstractIvyXmlProxyServer proxy = proxy(ctx);
+            long start = System.nanoTime();
+            Promise.<String>async(down -> down.accept(proxy.getIvyXmlSha1Async(
+                    ctx.getAllPathTokens().get("group"),
+                    ctx.getAllPathTokens().get("module"),
+                    ctx.getAllPathTokens().get("revision")
+            ))).onError(AbstractIvyXmlProxyServer.NotFound.class, e -> {
+                proxy.recordRequest(ProxyMetrics.ROUTE_SHA1, start, false);
+                ctx.clientError(404);
+            }).then(ivyXmlSha1 -> {
+                proxy.recordRequest(ProxyMetrics.ROUTE_SHA1, start, true);
+                ctx.getResponse().contentType("text/plain").send(ivyXmlSha1);
+            });
+        }).get(":group/:module", ctx -> {
+            AbstractIvyXmlProxyServer proxy = proxy(ctx);
+            long start = System.nanoTime();
+            Promise.<String>async(down -> down.accept(proxy.getDirectoryListingAsync(
+                    ctx.getAllPathTokens().get("group"),
+                    ctx.getAllPathTokens().get("module")
+            ))).onError(AbstractIvyXmlProxyServer.NotFound.class, e -> {
+                proxy.recordRequest(ProxyMetrics.ROUTE_LISTING, start, false);
+                ctx.clientError(404);
+            }).then(listing -> {
+                proxy.recordRequest(ProxyMetrics.ROUTE_LISTING, start, true);
+                ctx.getResponse().contentType("text/html").send(listing);
+            });
+        });
+    }
+
+    private IvyXmlProxyRoutes() {
+    }
+
+    private static AbstractIvyXmlProxyServer proxy(Context ctx) {
+        return ctx.get(AbstractIvyXmlProxyServer.class);
+    }
+
+    static final String METRICS_CONTENT_TYPE = "text/plain; version=0.0.4";
+}
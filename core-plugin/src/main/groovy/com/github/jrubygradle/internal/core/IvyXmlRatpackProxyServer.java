@@ -28,7 +28,6 @@ import ratpack.server.RatpackServer;
 
 import java.io.File;
 import java.net.URI;
-import java.nio.file.Path;
 
 import static ratpack.server.RatpackServer.start;
 import static ratpack.server.ServerConfig.embedded;
@@ -60,6 +59,8 @@ public class IvyXmlRatpackProxyServer extends AbstractIvyXmlProxyServer {
 
     /**
      * Start the proxy.
+     *
+     * Apart from the Ivy routes, the proxy serves its metrics on {@code /metrics} in the Prometheus text format.
      */
     @Override
     public void run() {
@@ -71,39 +72,8 @@ public class IvyXmlRatpackProxyServer extends AbstractIvyXmlProxyServer {
                                     .port(0)
                                     .baseDir(getLocalCachePath())
                     ).handlers(chain -> chain
-                            .get(":group/:module/:revision/ivy.xml", ctx -> {
-                                try {
-                                    Path ivyXml = getIvyXml(
-                                            ctx.getAllPathTokens().get("group"),
-                                            ctx.getAllPathTokens().get("module"),
-                                            ctx.getAllPathTokens().get("revision")
-                                    );
-                                    ctx.getResponse().contentType("text/xml").sendFile(ivyXml);
-                                } catch (NotFound e) {
-                                    ctx.clientError(404);
-                                }
-                            }).get(":group/:module/:revision/ivy.xml.sha1", ctx -> {
-                                try {
-                                    Path ivyXmlSha1 = getIvyXmlSha1(
-                                            ctx.getAllPathTokens().get("group"),
-                                            ctx.getAllPathTokens().get("module"),
-                                            ctx.getAllPathTokens().get("revision")
-                                    );
-                                    ctx.getResponse().contentType("text/plain").sendFile(ivyXmlSha1);
-                                } catch (NotFound e) {
-                                    ctx.clientError(404);
-                                }
-                            }).get(":group/:module", ctx -> {
-                                try {
-                                    String listing = getDirectoryListing(
-                                            ctx.getAllPathTokens().get("group"),
-                                            ctx.getAllPathTokens().get("module")
-                                    );
-                                    ctx.getResponse().contentType("text/html").send(listing);
-                                } catch (NotFound e) {
-                                    ctx.clientError(404);
-                                }
-                            }).get(ctx -> ctx.clientError(403))
+                            .insert(IvyXmlProxyRoutes.forProxy(this))
+                            .get(ctx -> ctx.clientError(403))
                     )
             );
         } catch (Exception e) {
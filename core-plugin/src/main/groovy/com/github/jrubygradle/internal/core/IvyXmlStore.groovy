@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+import groovy.util.logging.Slf4j
+
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.FileLock
+import java.nio.channels.OverlappingFileLockException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.locks.ReentrantLock
+
+import static java.nio.charset.StandardCharsets.UTF_8
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING
+import static java.nio.file.StandardOpenOption.CREATE
+import static java.nio.file.StandardOpenOption.READ
+import static java.nio.file.StandardOpenOption.WRITE
+
+/** Append-only store for generated Ivy descriptors.
+ *
+ * All descriptors for a remote GEM server are kept in a single log file. An in-memory index maps each GEM name
+ * and revision to the latest record for it, so lookups never touch the file system. The SHA-1 checksum is
+ * stored alongside each descriptor rather than in a separate file.
+ *
+ * Several Gradle processes can share a store. Appends are serialised with a lock file, and a lookup that
+ * misses the index first picks up records that other processes have appended since. Superseded records
+ * are removed when the store is compacted on {@link #close}.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+@Slf4j
+class IvyXmlStore implements Closeable {
+
+    /** A stored Ivy descriptor.
+     *
+     */
+    @CompileStatic
+    static class Entry {
+        final String name
+        final String revision
+        final long writtenAt
+        final String sha1
+
+        @PackageScope
+        Entry(
+            String name,
+            String revision,
+            long writtenAt,
+            String sha1,
+            FileChannel channel,
+            long recordOffset,
+            int recordLength,
+            int length
+        ) {
+            this.name = name
+            this.revision = revision
+            this.writtenAt = writtenAt
+            this.sha1 = sha1
+            this.channel = channel
+            this.recordOffset = recordOffset
+            this.recordLength = recordLength
+            this.length = length
+            this.content = null
+        }
+
+        /** A descriptor which is only held in memory and is not written to any store.
+         *
+         * @param name GEM name.
+         * @param revision GEM revision.
+         * @param sha1 SHA-1 checksum of the content as a hexadecimal string.
+         * @param content Content of the {@code ivy.xml} file.
+         *
+         * @since 2.1.0
+         */
+        @PackageScope
+        Entry(String name, String revision, String sha1, byte[] content) {
+            this.name = name
+            this.revision = revision
+            this.writtenAt = System.currentTimeMillis()
+            this.sha1 = sha1
+            this.channel = null
+            this.recordOffset = 0
+            this.recordLength = 0
+            this.length = content.length
+            this.content = content
+        }
+
+        @PackageScope
+        long getDataOffset() {
+            recordOffset + recordLength - length
+        }
+
+        @PackageScope
+        final FileChannel channel
+
+        @PackageScope
+        final long recordOffset
+
+        @PackageScope
+        final int recordLength
+
+        @PackageScope
+        final int length
+
+        @PackageScope
+        final byte[] content
+    }
+
+    /** Opens or creates a store.
+     *
+     * @param storeDir Directory in which the store files are kept.
+     */
+    IvyXmlStore(File storeDir) {
+        storeDir.mkdirs()
+        this.storeFile = new File(storeDir, 'ivy-xml.store').toPath()
+        this.lockChannel = FileChannel.open(new File(storeDir, 'ivy-xml.lock').toPath(), CREATE, READ, WRITE)
+        withLock {
+            open()
+        }
+    }
+
+    /** Looks up a descriptor.
+     *
+     * @param name GEM name.
+     * @param revision GEM revision.
+     * @return Descriptor or {@code null} if the store does not contain the GEM revision.
+     */
+    Entry get(String name, String revision) {
+        final String key = key(name, revision)
+        Entry entry = index[key]
+        if (entry == null) {
+            synchronized (this) {
+                catchUp()
+            }
+            entry = index[key]
+        }
+        entry
+    }
+
+    /** Lists the revisions of a GEM that the store contains descriptors for.
+     *
+     * @param name GEM name.
+     * @return Revisions in no particular order.
+     */
+    Set<String> revisions(String name) {
+        synchronized (this) {
+            catchUp()
+        }
+        Set<String> revisions = new HashSet<String>()
+        for (Entry entry : index.values()) {
+            if (entry.name == name) {
+                revisions.add(entry.revision)
+            }
+        }
+        revisions
+    }
+
+    /** Adds a descriptor, replacing any previous descriptor for the same GEM revision.
+     *
+     * @param name GEM name.
+     * @param revision GEM revision.
+     * @param ivyXml Content of the {@code ivy.xml} file.
+     * @param sha1 SHA-1 checksum of the content as a hexadecimal string.
+     * @return The stored descriptor.
+     */
+    Entry put(String name, String revision, byte[] ivyXml, String sha1) {
+        byte[] nameBytes = name.getBytes(UTF_8)
+        byte[] revisionBytes = revision.getBytes(UTF_8)
+        ByteBuffer record = ByteBuffer.allocate(
+            RECORD_OVERHEAD + nameBytes.length + revisionBytes.length + ivyXml.length
+        )
+        long writtenAt = System.currentTimeMillis()
+        record.putInt(RECORD_MAGIC)
+        record.putShort((short) nameBytes.length).put(nameBytes)
+        record.putShort((short) revisionBytes.length).put(revisionBytes)
+        record.putLong(writtenAt)
+        record.put(sha1.decodeHex())
+        record.putInt(ivyXml.length)
+        record.put(ivyXml)
+        record.flip()
+
+        (Entry) withLock {
+            catchUp()
+            if (channel.size() > indexedEnd) {
+                log.debug("Discarding incomplete records at end of ${storeFile}")
+                channel.truncate(indexedEnd)
+            }
+            long position = indexedEnd
+            while (record.hasRemaining()) {
+                channel.write(record, position + record.position())
+            }
+            Entry entry = new Entry(name, revision, writtenAt, sha1, channel, position, record.limit(), ivyXml.length)
+            addToIndex(key(name, revision), entry)
+            indexedEnd = position + record.limit()
+            entry
+        }
+    }
+
+    /** Reads the content of a descriptor.
+     *
+     * @param entry Descriptor.
+     * @return Content of the {@code ivy.xml} file.
+     */
+    byte[] read(Entry entry) {
+        if (entry.content != null) {
+            return entry.content
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length)
+        while (buffer.hasRemaining()) {
+            if (entry.channel.read(buffer, entry.dataOffset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of ${storeFile}")
+            }
+        }
+        buffer.array()
+    }
+
+    /** Number of descriptors in the store.
+     *
+     * @return Number of GEM revisions.
+     */
+    int size() {
+        index.size()
+    }
+
+    /** Compacts the store if superseded records take up more than a quarter of the space used by live ones.
+     *
+     */
+    @SuppressWarnings('CatchException')
+    void compact() {
+        withLock {
+            catchUp()
+            if (garbageBytes > 0 && garbageBytes >= liveBytes / COMPACTION_RATIO) {
+                try {
+                    rewrite()
+                } catch (IOException e) {
+                    log.debug("Could not compact ${storeFile}", e)
+                }
+            }
+        }
+    }
+
+    /** Compacts the store and releases all file handles.
+     *
+     */
+    @Override
+    void close() {
+        if (!lockChannel.open) {
+            return
+        }
+        compact()
+        synchronized (this) {
+            retired*.close()
+            channel.close()
+            lockChannel.close()
+        }
+    }
+
+    private void open() {
+        channel = FileChannel.open(storeFile, CREATE, READ, WRITE)
+        fileKey = fileKeyOf(storeFile)
+        index.clear()
+        liveBytes = 0
+        garbageBytes = 0
+        if (channel.size() < FILE_HEADER.length) {
+            channel.truncate(0)
+            channel.write(ByteBuffer.wrap(FILE_HEADER), 0)
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER.length)
+            channel.read(header, 0)
+            if (!Arrays.equals(header.array(), FILE_HEADER)) {
+                log.warn("${storeFile} is not an Ivy descriptor store. It will be recreated.")
+                channel.truncate(0)
+                channel.write(ByteBuffer.wrap(FILE_HEADER), 0)
+            }
+        }
+        indexedEnd = FILE_HEADER.length
+        catchUp()
+    }
+
+    /** Adds records that were appended by other processes to the index.
+     *
+     * If the store file has been replaced by another process compacting it, the new file is opened and
+     * indexed from scratch.
+     */
+    private void catchUp() {
+        if (fileKeyOf(storeFile) != fileKey) {
+            retired.add(channel)
+            open()
+            return
+        }
+
+        long size = channel.size()
+        if (size <= indexedEnd) {
+            return
+        }
+
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, indexedEnd, size - indexedEnd)
+        while (buffer.remaining() >= RECORD_OVERHEAD) {
+            int start = buffer.position()
+            if (buffer.getInt() != RECORD_MAGIC) {
+                log.debug("Unrecognised record at offset ${indexedEnd} in ${storeFile}")
+                break
+            }
+            String name = readString(buffer)
+            String revision = readString(buffer)
+            if (name == null || revision == null || buffer.remaining() < Long.BYTES + SHA1_BYTES + Integer.BYTES) {
+                break
+            }
+            long writtenAt = buffer.getLong()
+            byte[] sha1 = new byte[SHA1_BYTES]
+            buffer.get(sha1)
+            int length = buffer.getInt()
+            if (length < 0 || buffer.remaining() < length) {
+                break
+            }
+            buffer.position(buffer.position() + length)
+            int recordLength = buffer.position() - start
+            addToIndex(
+                key(name, revision),
+                new Entry(
+                    name,
+                    revision,
+                    writtenAt,
+                    sha1.encodeHex().toString(),
+                    channel,
+                    indexedEnd,
+                    recordLength,
+                    length
+                )
+            )
+            indexedEnd += recordLength
+        }
+    }
+
+    private void rewrite() {
+        Path tmp = storeFile.resolveSibling("${storeFile.toFile().name}.tmp")
+        FileChannel compacted = FileChannel.open(tmp, CREATE, READ, WRITE)
+        try {
+            compacted.truncate(0)
+            compacted.write(ByteBuffer.wrap(FILE_HEADER), 0)
+            long position = FILE_HEADER.length
+            List<Entry> live = new ArrayList<Entry>(index.values()).sort { Entry entry -> entry.recordOffset }
+            for (Entry entry : live) {
+                long copied = 0
+                while (copied < entry.recordLength) {
+                    copied += channel.transferTo(
+                        entry.recordOffset + copied,
+                        entry.recordLength - copied,
+                        compacted.position(position + copied)
+                    )
+                }
+                position += entry.recordLength
+            }
+            compacted.force(true)
+        } finally {
+            compacted.close()
+        }
+        Files.move(tmp, storeFile, ATOMIC_MOVE, REPLACE_EXISTING)
+        retired.add(channel)
+        open()
+    }
+
+    private void addToIndex(String key, Entry entry) {
+        Entry previous = index.put(key, entry)
+        liveBytes += entry.recordLength
+        if (previous != null) {
+            liveBytes -= previous.recordLength
+            garbageBytes += previous.recordLength
+        }
+    }
+
+    private Object withLock(Closure action) {
+        synchronized (this) {
+            FileLock lock = null
+            while (lock == null) {
+                try {
+                    lock = lockChannel.lock()
+                } catch (OverlappingFileLockException e) {
+                    // Another copy of the plugin, loaded by a different classloader, holds the lock.
+                    Thread.sleep(LOCK_RETRY_MILLIS)
+                }
+            }
+            try {
+                action.call()
+            } finally {
+                lock.release()
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        if (buffer.remaining() < Short.BYTES) {
+            return null
+        }
+        int length = buffer.getShort()
+        if (length < 0 || buffer.remaining() < length) {
+            return null
+        }
+        byte[] bytes = new byte[length]
+        buffer.get(bytes)
+        new String(bytes, UTF_8)
+    }
+
+    private static Object fileKeyOf(Path file) {
+        if (Files.notExists(file)) {
+            return null
+        }
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes)
+        attrs.fileKey() ?: attrs.creationTime()
+    }
+
+    private static String key(String name, String revision) {
+        "${name}/${revision}"
+    }
+
+    private final Path storeFile
+    private final FileChannel lockChannel
+    private final List<FileChannel> retired = []
+    private final ConcurrentMap<String, Entry> index = new ConcurrentHashMap<>()
+    private FileChannel channel
+    private Object fileKey
+    private long indexedEnd
+    private long liveBytes
+    private long garbageBytes
+
+    static private final byte[] FILE_HEADER = 'IVYSTORE0001'.getBytes(UTF_8)
+    static private final int RECORD_MAGIC = 0x49565852
+    static private final int SHA1_BYTES = 20
+    static private final int COMPACTION_RATIO = 4
+    static private final long LOCK_RETRY_MILLIS = 20
+    static private final int RECORD_OVERHEAD =
+        Integer.BYTES + Short.BYTES + Short.BYTES + Long.BYTES + SHA1_BYTES + Integer.BYTES
+}
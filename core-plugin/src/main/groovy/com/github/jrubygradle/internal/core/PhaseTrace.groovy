@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import groovy.json.JsonOutput
+import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+import org.gradle.api.invocation.Gradle
+
+import java.text.SimpleDateFormat
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.TimeUnit
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/** Records how long the phases of a JRuby build take.
+ *
+ * Tracing is off unless the {@code com.github.jrubygradle.trace} system property is {@code true}. When it is on,
+ * proxy calls, dependency resolution, GEM and JAR installation, archive writing and JRuby executions are recorded
+ * as spans, together with counts, sizes and cache hits. When the build finishes they are written in the Chrome
+ * trace event format to {@code build/reports/jruby/} of the root project, one file per build, which can be opened
+ * with {@code chrome://tracing} or Perfetto.
+ *
+ * When tracing is off, spans are shared no-op instances and nothing is recorded.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class PhaseTrace {
+
+    public static final String PROXY = 'proxy'
+    public static final String RESOLVE = 'resolve'
+    public static final String GEMS = 'gems'
+    public static final String JARS = 'jars'
+    public static final String ARCHIVE = 'archive'
+    public static final String EXEC = 'exec'
+
+    /** Whether phases are traced.
+     *
+     * @return {@code true} if the {@code com.github.jrubygradle.trace} system property is {@code true}.
+     */
+    static boolean isEnabled() {
+        System.getProperty('com.github.jrubygradle.trace', 'false').toBoolean()
+    }
+
+    /** Starts a span on the current thread.
+     *
+     * @param category Phase, such as {@link #GEMS}.
+     * @param name What is being done.
+     * @return Span which must be closed when the work is done.
+     */
+    static Span start(String category, String name) {
+        enabled ? new Span(category, name) : NOOP
+    }
+
+    /** Records a span which has already finished.
+     *
+     * @param category Phase, such as {@link #PROXY}.
+     * @param name What was done.
+     * @param startNanos Start as returned by {@link System#nanoTime}.
+     * @param durationNanos Time taken.
+     * @param args Additional information about the span.
+     */
+    static void complete(String category, String name, long startNanos, long durationNanos, Map<String, ?> args) {
+        if (enabled) {
+            record(category, name, 'X', startNanos, durationNanos, args)
+        }
+    }
+
+    /** Records the values of counters, such as the cache hits of a proxy.
+     *
+     * @param category Phase, such as {@link #PROXY}.
+     * @param name Name of the group of counters.
+     * @param values Values keyed by counter name.
+     */
+    static void counter(String category, String name, Map<String, ? extends Number> values) {
+        if (enabled) {
+            record(category, name, 'C', System.nanoTime(), 0, values)
+        }
+    }
+
+    /** Writes the trace of a build to the root project's {@code build/reports/jruby/} once it has finished.
+     *
+     * This only has an effect if tracing is enabled and the trace of the build is only written once, regardless of
+     * how many projects call this.
+     *
+     * @param gradle Build to trace.
+     */
+    static void writeAtEndOfBuild(Gradle gradle) {
+        if (!enabled) {
+            return
+        }
+        synchronized (TRACED_BUILDS) {
+            if (TRACED_BUILDS.put(gradle, Boolean.TRUE) != null) {
+                return
+            }
+        }
+        // Registered once configuration is complete, so that it runs after the listeners which record the final
+        // state of the proxies.
+        gradle.projectsEvaluated { Gradle build ->
+            build.buildFinished {
+                File report = write(new File(build.rootProject.buildDir, 'reports/jruby'))
+                build.rootProject.logger.lifecycle("JRuby trace written to ${report}")
+            }
+        }
+    }
+
+    /** Writes all spans which have been recorded so far and discards them.
+     *
+     * @param reportDir Directory to write to.
+     * @return Trace file.
+     */
+    static File write(File reportDir) {
+        List<Map<String, Object>> events = []
+        for (Map<String, Object> event = EVENTS.poll(); event != null; event = EVENTS.poll()) {
+            events.add(event)
+        }
+        THREAD_NAMES.each { Long tid, String threadName ->
+            events.add([
+                name: 'thread_name',
+                ph  : 'M',
+                pid : PID,
+                tid : tid,
+                args: [name: threadName]
+            ] as Map<String, Object>)
+        }
+
+        reportDir.mkdirs()
+        String timestamp = new SimpleDateFormat('yyyyMMdd-HHmmss-SSS').format(new Date())
+        File report = new File(reportDir, "trace-${timestamp}.json")
+        report.setText(
+            JsonOutput.toJson([traceEvents: events, displayTimeUnit: 'ms']),
+            UTF_8.name()
+        )
+        report
+    }
+
+    /** A phase which is being timed.
+     *
+     */
+    static class Span implements Closeable {
+
+        /** Adds information about the span, such as the number of GEMs or bytes processed.
+         *
+         * @param key Name of the value.
+         * @param value Value. Should be a number, string or boolean.
+         * @return This span.
+         */
+        Span arg(String key, Object value) {
+            if (args != null) {
+                args.put(key, value)
+            }
+            this
+        }
+
+        /** Finishes the span and records it.
+         *
+         * Closing a span more than once has no effect.
+         */
+        @Override
+        void close() {
+            if (category != null && !closed) {
+                closed = true
+                record(category, name, 'X', startNanos, System.nanoTime() - startNanos, args)
+            }
+        }
+
+        private Span(String category, String name) {
+            this.category = category
+            this.name = name
+            this.startNanos = System.nanoTime()
+            this.args = category == null ? null : new LinkedHashMap<String, Object>()
+        }
+
+        private final String category
+        private final String name
+        private final long startNanos
+        private final Map<String, Object> args
+        private boolean closed = false
+    }
+
+    @PackageScope
+    static void record(
+        String category,
+        String name,
+        String phase,
+        long startNanos,
+        long durationNanos,
+        Map<String, ?> args
+    ) {
+        Thread thread = Thread.currentThread()
+        THREAD_NAMES.putIfAbsent(thread.id, thread.name)
+        Map<String, Object> event = [
+            name: name,
+            cat : category,
+            ph  : phase,
+            ts  : TimeUnit.NANOSECONDS.toMicros(startNanos - ORIGIN),
+            pid : PID,
+            tid : thread.id
+        ] as Map<String, Object>
+        if (phase == 'X') {
+            event.put('dur', TimeUnit.NANOSECONDS.toMicros(durationNanos))
+        }
+        if (args != null && !args.isEmpty()) {
+            event.put('args', new LinkedHashMap<String, Object>(args))
+        }
+        EVENTS.add(event)
+    }
+
+    static private final Span NOOP = new Span(null, null)
+    static private final long ORIGIN = System.nanoTime()
+    static private final int PID = 1
+    static private final ConcurrentLinkedQueue<Map<String, Object>> EVENTS =
+        new ConcurrentLinkedQueue<Map<String, Object>>()
+    static private final ConcurrentMap<Long, String> THREAD_NAMES = new ConcurrentHashMap<Long, String>()
+    static private final Map<Gradle, Boolean> TRACED_BUILDS = new WeakHashMap<Gradle, Boolean>()
+}
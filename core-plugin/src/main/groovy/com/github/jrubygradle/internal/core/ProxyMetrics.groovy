@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import groovy.transform.CompileStatic
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.LongAdder
+
+/** Counters and latency histograms for a GEM proxy server.
+ *
+ * Recording is lock-free so that it can be done on the request path. Metrics are exposed in the Prometheus text
+ * format and can be summarised for the build log.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class ProxyMetrics {
+
+    public static final String REQUESTS = 'jrubygradle_proxy_requests_total'
+    public static final String REQUEST_DURATION = 'jrubygradle_proxy_request_duration_seconds'
+    public static final String CACHE_LOOKUPS = 'jrubygradle_proxy_cache_lookups_total'
+    public static final String UPSTREAM_REQUESTS = 'jrubygradle_proxy_upstream_requests_total'
+    public static final String UPSTREAM_DURATION = 'jrubygradle_proxy_upstream_duration_seconds'
+    public static final String LOCK_WAIT = 'jrubygradle_proxy_lock_wait_seconds'
+
+    public static final String ROUTE_IVY_XML = 'ivy.xml'
+    public static final String ROUTE_SHA1 = 'ivy.xml.sha1'
+    public static final String ROUTE_LISTING = 'listing'
+
+    public static final String CACHE_HIT = 'hit'
+    public static final String CACHE_MISS = 'miss'
+    public static final String CACHE_EXPIRED = 'expired'
+
+    /** Upper bounds of the histogram buckets in seconds. The last bucket is unbounded.
+     */
+    public static final List<Double> BUCKETS = [
+        0.001d, 0.005d, 0.01d, 0.025d, 0.05d, 0.1d, 0.25d, 0.5d, 1d, 2.5d, 5d, 10d
+    ].asImmutable()
+
+    /** Records a request that has been served by the proxy.
+     *
+     * @param route One of {@link #ROUTE_IVY_XML}, {@link #ROUTE_SHA1} or {@link #ROUTE_LISTING}.
+     * @param nanos Time taken to serve the request.
+     * @param found {@code false} if the request was answered with {@code 404}.
+     */
+    void request(String route, long nanos, boolean found) {
+        increment(REQUESTS, 'route', route, 'status', found ? '200' : '404')
+        record(REQUEST_DURATION, nanos, 'route', route)
+    }
+
+    /** Records a lookup in the descriptor store.
+     *
+     * @param result One of {@link #CACHE_HIT}, {@link #CACHE_MISS} or {@link #CACHE_EXPIRED}.
+     */
+    void cacheLookup(String result) {
+        increment(CACHE_LOOKUPS, 'result', result)
+    }
+
+    /** Records a call to the remote GEM server.
+     *
+     * @param call Name of the API call.
+     * @param nanos Time taken by the call, including time spent waiting for a free connection.
+     * @param success {@code false} if the call failed.
+     */
+    void upstream(String call, long nanos, boolean success) {
+        increment(UPSTREAM_REQUESTS, 'call', call, 'result', success ? 'success' : 'failure')
+        record(UPSTREAM_DURATION, nanos, 'call', call)
+    }
+
+    /** Records time spent waiting for a lock or for another request to complete.
+     *
+     * @param lock Name of the lock.
+     * @param nanos Time spent waiting.
+     */
+    void lockWait(String lock, long nanos) {
+        record(LOCK_WAIT, nanos, 'lock', lock)
+    }
+
+    /** Takes a consistent-enough copy of the current values.
+     *
+     * Values that are recorded whilst the snapshot is taken may or may not be included.
+     *
+     * @return Snapshot of all metrics.
+     */
+    Snapshot snapshot() {
+        SortedMap<String, Long> counterValues = new TreeMap<String, Long>()
+        counters.each { String series, LongAdder value ->
+            counterValues.put(series, value.sum())
+        }
+        SortedMap<String, long[]> histogramValues = new TreeMap<String, long[]>()
+        histograms.each { String series, LongAdder[] value ->
+            long[] copy = new long[value.length]
+            for (int i = 0; i < value.length; i++) {
+                copy[i] = value[i].sum()
+            }
+            histogramValues.put(series, copy)
+        }
+        new Snapshot(counterValues, histogramValues)
+    }
+
+    /** Immutable copy of metric values.
+     *
+     * Series are identified by metric name and labels in Prometheus notation, for instance
+     * {@code jrubygradle_proxy_cache_lookups_total{result="hit"}}.
+     */
+    static class Snapshot {
+
+        /** Value of a counter.
+         *
+         * @param name Metric name.
+         * @param labels Alternating label names and values.
+         * @return Counter value or {@code 0} if nothing has been recorded.
+         */
+        long counter(String name, String... labels) {
+            counters.get(series(name, labels)) ?: 0L
+        }
+
+        /** Sum of all series of a counter that match the given labels.
+         *
+         * @param name Metric name.
+         * @param labels Alternating label names and values which a series must have.
+         * @return Sum of the matching series.
+         */
+        long counterTotal(String name, String... labels) {
+            long total = 0
+            counters.each { String key, Long value ->
+                if (matches(key, name, labels)) {
+                    total += value
+                }
+            }
+            total
+        }
+
+        /** Number of values recorded in a histogram.
+         *
+         * @param name Metric name.
+         * @param labels Alternating label names and values.
+         * @return Number of observations.
+         */
+        long count(String name, String... labels) {
+            long[] values = histograms.get(series(name, labels))
+            values == null ? 0L : values[BUCKETS.size() + 1]
+        }
+
+        /** Sum of the values recorded in a histogram.
+         *
+         * @param name Metric name.
+         * @param labels Alternating label names and values.
+         * @return Total time in nanoseconds.
+         */
+        long sumNanos(String name, String... labels) {
+            long[] values = histograms.get(series(name, labels))
+            values == null ? 0L : values[BUCKETS.size() + 2]
+        }
+
+        /** Sum of all series of a histogram.
+         *
+         * @param name Metric name.
+         * @return Total time in nanoseconds.
+         */
+        long sumNanosTotal(String name) {
+            long total = 0
+            histograms.each { String key, long[] values ->
+                if (matches(key, name)) {
+                    total += values[BUCKETS.size() + 2]
+                }
+            }
+            total
+        }
+
+        /** Estimates a quantile from the histogram buckets.
+         *
+         * @param quantile Quantile between 0 and 1.
+         * @param name Metric name.
+         * @param labels Alternating label names and values.
+         * @return Upper bound of the bucket containing the quantile in seconds, {@link Double#POSITIVE_INFINITY}
+         *   if it falls beyond the last bucket, or {@code null} if nothing has been recorded.
+         */
+        Double quantile(double quantile, String name, String... labels) {
+            long[] values = histograms.get(series(name, labels))
+            if (values == null || values[BUCKETS.size() + 1] == 0) {
+                return null
+            }
+            double rank = quantile * values[BUCKETS.size() + 1]
+            long cumulative = 0
+            for (int i = 0; i < BUCKETS.size(); i++) {
+                cumulative += values[i]
+                if (cumulative >= rank) {
+                    return BUCKETS[i]
+                }
+            }
+            Double.POSITIVE_INFINITY
+        }
+
+        /** Values recorded since an earlier snapshot.
+         *
+         * @param baseline Earlier snapshot of the same metrics.
+         * @return Difference between this snapshot and the baseline.
+         */
+        Snapshot minus(Snapshot baseline) {
+            SortedMap<String, Long> counterValues = new TreeMap<String, Long>()
+            counters.each { String key, Long value ->
+                counterValues.put(key, value - (baseline.counters.get(key) ?: 0L))
+            }
+            SortedMap<String, long[]> histogramValues = new TreeMap<String, long[]>()
+            histograms.each { String key, long[] values ->
+                long[] before = baseline.histograms.get(key)
+                long[] delta = new long[values.length]
+                for (int i = 0; i < values.length; i++) {
+                    delta[i] = values[i] - (before == null ? 0L : before[i])
+                }
+                histogramValues.put(key, delta)
+            }
+            new Snapshot(counterValues, histogramValues)
+        }
+
+        /** Adds labels to every series, for instance to tell apart the metrics of several proxies.
+         *
+         * @param labels Alternating label names and values. They are placed before the existing labels.
+         * @return Snapshot with the additional labels.
+         *
+         * @since 2.1.0
+         */
+        Snapshot withLabels(String... labels) {
+            if (labels.length == 0) {
+                return this
+            }
+            String extra = labelsOf(series('', labels))
+            SortedMap<String, Long> counterValues = new TreeMap<String, Long>()
+            counters.each { String key, Long value ->
+                counterValues.put(relabel(key, extra), value)
+            }
+            SortedMap<String, long[]> histogramValues = new TreeMap<String, long[]>()
+            histograms.each { String key, long[] values ->
+                histogramValues.put(relabel(key, extra), values)
+            }
+            new Snapshot(counterValues, histogramValues)
+        }
+
+        /** Combines the metrics of several proxies.
+         *
+         * Values of series which appear in more than one snapshot are added up.
+         *
+         * @param snapshots Snapshots to combine.
+         * @return Combined snapshot.
+         *
+         * @since 2.1.0
+         */
+        static Snapshot merge(Collection<Snapshot> snapshots) {
+            SortedMap<String, Long> counterValues = new TreeMap<String, Long>()
+            SortedMap<String, long[]> histogramValues = new TreeMap<String, long[]>()
+            for (Snapshot snapshot : snapshots) {
+                snapshot.counters.each { String key, Long value ->
+                    counterValues.put(key, value + (counterValues.get(key) ?: 0L))
+                }
+                snapshot.histograms.each { String key, long[] values ->
+                    long[] total = histogramValues.get(key)
+                    if (total == null) {
+                        histogramValues.put(key, Arrays.copyOf(values, values.length))
+                    } else {
+                        for (int i = 0; i < values.length; i++) {
+                            total[i] += values[i]
+                        }
+                    }
+                }
+            }
+            new Snapshot(counterValues, histogramValues)
+        }
+
+        /** Formats the metrics in the Prometheus text exposition format.
+         *
+         * @return Metrics as text.
+         */
+        String toPrometheus() {
+            StringBuilder text = new StringBuilder()
+            String previous = null
+            counters.each { String key, Long value ->
+                String name = nameOf(key)
+                if (name != previous) {
+                    text.append("# TYPE ${name} counter\n")
+                    previous = name
+                }
+                text.append("${key} ${value}\n")
+            }
+            histograms.each { String key, long[] values ->
+                String name = nameOf(key)
+                String labels = labelsOf(key)
+                if (name != previous) {
+                    text.append("# TYPE ${name} histogram\n")
+                    previous = name
+                }
+                String separator = labels.empty ? '' : ','
+                long cumulative = 0
+                for (int i = 0; i < BUCKETS.size(); i++) {
+                    cumulative += values[i]
+                    text.append("${name}_bucket{${labels}${separator}le=\"${BUCKETS[i]}\"} ${cumulative}\n")
+                }
+                text.append("${name}_bucket{${labels}${separator}le=\"+Inf\"} ${values[BUCKETS.size() + 1]}\n")
+                text.append("${name}_sum${labels.empty ? '' : "{${labels}}"} ${seconds(values[BUCKETS.size() + 2])}\n")
+                text.append("${name}_count${labels.empty ? '' : "{${labels}}"} ${values[BUCKETS.size() + 1]}\n")
+            }
+            text.toString()
+        }
+
+        /** Summarises the metrics in a few human-readable lines.
+         *
+         * @return Summary or an empty list if no requests have been served.
+         */
+        List<String> summary() {
+            if (counterTotal(REQUESTS) == 0) {
+                return []
+            }
+            List<String> lines = []
+            for (String route : [ROUTE_IVY_XML, ROUTE_SHA1, ROUTE_LISTING]) {
+                long total = counterTotal(REQUESTS, 'route', route)
+                if (total > 0) {
+                    long notFound = counter(REQUESTS, 'route', route, 'status', '404')
+                    long meanMillis = TimeUnit.NANOSECONDS.toMillis(
+                        sumNanos(REQUEST_DURATION, 'route', route).intdiv(total).longValue()
+                    )
+                    lines.add((
+                        "${route}: ${total} requests (${notFound} not found), mean ${meanMillis} ms, " +
+                        "p95 ${bound(quantile(0.95d, REQUEST_DURATION, 'route', route))}"
+                    ).toString())
+                }
+            }
+            lines.add((
+                "cache: ${counter(CACHE_LOOKUPS, 'result', CACHE_HIT)} hits, " +
+                "${counter(CACHE_LOOKUPS, 'result', CACHE_MISS)} misses, " +
+                "${counter(CACHE_LOOKUPS, 'result', CACHE_EXPIRED)} expired"
+            ).toString())
+            lines.add((
+                "upstream: ${counterTotal(UPSTREAM_REQUESTS)} calls " +
+                "(${counterTotal(UPSTREAM_REQUESTS, 'result', 'failure')} failed), " +
+                "${seconds(sumNanosTotal(UPSTREAM_DURATION))} s in total"
+            ).toString())
+            lines.add("waiting for locks: ${seconds(sumNanosTotal(LOCK_WAIT))} s".toString())
+            lines
+        }
+
+        private Snapshot(SortedMap<String, Long> counters, SortedMap<String, long[]> histograms) {
+            this.counters = counters
+            this.histograms = histograms
+        }
+
+        private static String bound(Double seconds) {
+            seconds == Double.POSITIVE_INFINITY ? "> ${BUCKETS.last()} s" : "<= ${seconds} s"
+        }
+
+        private static String relabel(String key, String extra) {
+            String labels = labelsOf(key)
+            "${nameOf(key)}{${extra}${labels.empty ? '' : ','}${labels}}".toString()
+        }
+
+        private static boolean matches(String key, String name, String... labels) {
+            if (nameOf(key) != name) {
+                return false
+            }
+            String keyLabels = labelsOf(key)
+            for (int i = 0; i < labels.length; i += 2) {
+                if (!keyLabels.contains("${labels[i]}=\"${labels[i + 1]}\"")) {
+                    return false
+                }
+            }
+            true
+        }
+
+        private final SortedMap<String, Long> counters
+        private final SortedMap<String, long[]> histograms
+    }
+
+    private void increment(String name, String... labels) {
+        counters.computeIfAbsent(series(name, labels)) { new LongAdder() }.increment()
+    }
+
+    private void record(String name, long nanos, String... labels) {
+        LongAdder[] values = histograms.computeIfAbsent(series(name, labels)) {
+            LongAdder[] adders = new LongAdder[BUCKETS.size() + 3]
+            for (int i = 0; i < adders.length; i++) {
+                adders[i] = new LongAdder()
+            }
+            adders
+        }
+        double seconds = nanos / NANOS_PER_SECOND
+        int bucket = BUCKETS.size()
+        for (int i = 0; i < BUCKETS.size(); i++) {
+            if (seconds <= BUCKETS[i]) {
+                bucket = i
+                break
+            }
+        }
+        values[bucket].increment()
+        values[BUCKETS.size() + 1].increment()
+        values[BUCKETS.size() + 2].add(nanos)
+    }
+
+    private static String series(String name, String... labels) {
+        if (labels.length == 0) {
+            return name
+        }
+        List<String> pairs = []
+        for (int i = 0; i < labels.length; i += 2) {
+            pairs.add("${labels[i]}=\"${labels[i + 1]}\"".toString())
+        }
+        "${name}{${pairs.join(',')}}"
+    }
+
+    private static String nameOf(String series) {
+        int brace = series.indexOf('{')
+        brace < 0 ? series : series.substring(0, brace)
+    }
+
+    private static String labelsOf(String series) {
+        int brace = series.indexOf('{')
+        brace < 0 ? '' : series.substring(brace + 1, series.length() - 1)
+    }
+
+    private static String seconds(long nanos) {
+        String.format(Locale.ROOT, '%.3f', nanos / NANOS_PER_SECOND)
+    }
+
+    static private final double NANOS_PER_SECOND = 1_000_000_000d
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>()
+    private final ConcurrentMap<String, LongAdder[]> histograms = new ConcurrentHashMap<>()
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import com.github.jrubygradle.api.gems.JarDependency
+import com.github.jrubygradle.internal.gems.DefaultGemDependency
+import com.github.jrubygradle.internal.gems.DefaultGemInfo
+import com.github.jrubygradle.internal.gems.DefaultJarDependency
+import groovy.transform.CompileDynamic
+import groovy.transform.CompileStatic
+
+/** Extracts information from the JSON documents returned by the RubyGems REST API.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class RubyGemsJson {
+
+    /** Extracts the version from a {@code versions/GEM/latest} response.
+     *
+     * @param jsonParser Parsed JSON.
+     * @return Version. Will be {@code unknown} if the GEM does not exist.
+     */
+    @CompileDynamic
+    static String extractVersion(Object jsonParser) {
+        jsonParser.version
+    }
+
+    /** Extracts the published releases from a {@code versions/GEM} response.
+     *
+     * @param jsonParser Parsed JSON.
+     * @return List of releases.
+     */
+    @CompileDynamic
+    static List<GemVersionList.Release> extractReleases(Object jsonParser) {
+        jsonParser.collect {
+            new GemVersionList.Release(it.number, it.platform, it.prerelease as boolean)
+        }
+    }
+
+    /** Extracts GEM metadata from a {@code rubygems/GEM/versions/VERSION} response.
+     *
+     * The platform is reported as found in the response. Use {@link GemVersionList#hasJavaPlatform} to check
+     * whether a JRuby-specific variant also exists.
+     *
+     * @param jsonParser Parsed JSON.
+     * @return GEM metadata.
+     */
+    @CompileDynamic
+    static DefaultGemInfo extractMetadata(Object jsonParser) {
+        DefaultGemInfo metadata = new DefaultGemInfo(
+            name: jsonParser.name,
+            version: jsonParser.version,
+            platform: jsonParser.platform,
+            description: jsonParser.description,
+            summary: jsonParser.summary,
+            sha: jsonParser.sha,
+            rubyVersion: jsonParser.ruby_version,
+            rubyGemsVersion: jsonParser.rubygems_version,
+            projectUri: jsonParser.project_uri?.toURI(),
+            gemUri: jsonParser.gem_uri?.toURI(),
+            homepageUri: jsonParser.homepage_uri?.toURI(),
+            documentationUri: jsonParser.documentation_uri?.toURI(),
+            authors: ((String) jsonParser.authors).split(COMMA_SPACE).toList() ?: [],
+            prerelease: jsonParser.prerelease
+            // licenses arrayList
+        )
+
+        if (jsonParser.dependencies?.runtime) {
+            metadata.dependencies.addAll(Transform.toList(jsonParser.dependencies.runtime) {
+                new DefaultGemDependency(name: it.name, requirements: it.requirements)
+            })
+        }
+
+        if (jsonParser.dependencies?.development) {
+            metadata.developmentDependencies.addAll(jsonParser.dependencies.development.collect {
+                new DefaultGemDependency(name: it.name, requirements: it.requirements)
+            })
+        }
+
+        if (jsonParser.requirements) {
+            metadata.jarRequirements.addAll(findJarRequirements(jsonParser.requirements))
+        }
+
+        metadata
+    }
+
+    private static List<JarDependency> findJarRequirements(Iterable<String> reqs) {
+        reqs.findAll { String it ->
+            it.startsWith('jar ')
+        }.collect {
+            String[] parts = ((String) it)[4..-1].split(COMMA_SPACE, 2)
+            String[] name_parts = parts[0].split(':', 2)
+            if (name_parts.size() == 1) {
+                new DefaultJarDependency(
+                    name: parts[0],
+                    requirements: parts[1]
+                )
+            } else {
+                new DefaultJarDependency(
+                    group: name_parts[0],
+                    name: name_parts[1],
+                    requirements: parts[1]
+                )
+            }
+        } as List<JarDependency>
+    }
+
+    static private final String COMMA_SPACE = ', '
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core;
+
+import com.github.jrubygradle.api.core.GemRepositoryConfiguration;
+import com.github.jrubygradle.api.core.IvyXmlProxyServer;
+import okhttp3.OkHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ratpack.server.RatpackServer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ratpack.registry.Registry.single;
+import static ratpack.server.ServerConfig.embedded;
+
+/**
+ * Uses a single Ratpack server to proxy any number of remote GEM servers.
+ *
+ * Each remote GEM server is served by a tenant below its own path prefix, so that the bind address of a tenant is
+ * {@code http://localhost:<port>/<prefix>}. All tenants share the Ratpack threads and one HTTP client, which has a
+ * bounded pool of worker threads and a single pool of keep-alive connections. The requests that are sent to each
+ * remote GEM server are limited according to its {@link GemRepositoryConfiguration}.
+ *
+ * Apart from the Ivy routes of each tenant, the server serves the metrics of all tenants on {@code /metrics},
+ * labelled with the URI of the remote GEM server.
+ *
+ * @author Schalk W. Cronjé
+ * @since 2.1.0
+ */
+public class SharedIvyXmlProxyServer implements Closeable {
+
+    /**
+     * Creates a server that has not been started yet.
+     *
+     * @param maxRequests Maximum number of requests that may be in flight to all remote GEM servers together.
+     */
+    public SharedIvyXmlProxyServer(int maxRequests) {
+        this(maxRequests, 0);
+    }
+
+    /**
+     * Creates a server that has not been started yet and which prefers a specific port.
+     *
+     * Reusing the port of an earlier server keeps the repository URLs the same, so that Gradle can reuse the
+     * metadata it has cached for them.
+     *
+     * @param maxRequests Maximum number of requests that may be in flight to all remote GEM servers together.
+     * @param preferredPort Port to bind to if it is available. {@code 0} binds to any free port.
+     */
+    public SharedIvyXmlProxyServer(int maxRequests, int preferredPort) {
+        final int poolSize = Math.max(1, maxRequests);
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(
+                poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), THREAD_FACTORY
+        );
+        workers.allowCoreThreadTimeOut(true);
+        this.client = DefaultAsyncRubyGemRestApi.createClient(workers, poolSize, poolSize);
+        this.scheduler = new ScheduledThreadPoolExecutor(1, THREAD_FACTORY);
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        this.preferredPort = preferredPort;
+    }
+
+    /**
+     * Adds a remote GEM server, unless a tenant with the same prefix already exists.
+     *
+     * @param prefix    Path prefix of the tenant. It must be a single path segment.
+     * @param cache     Root directory for the local Ivy XML cache of the remote GEM server.
+     * @param serverUri URI of remote Rubygems server.
+     * @param group     Group that will be associated with the remote GEM server.
+     * @param grc       Additional configuration regarding remote GEM server
+     * @return Tenant which serves the remote GEM server.
+     */
+    public IvyXmlProxyServer register(
+            String prefix,
+            File cache,
+            URI serverUri,
+            String group,
+            GemRepositoryConfiguration grc
+    ) {
+        return tenants.computeIfAbsent(prefix, key -> new Tenant(this, key, cache, serverUri, group, grc));
+    }
+
+    /**
+     * Starts the server if it is not running yet.
+     *
+     * The server binds to the preferred port if it is available and to any free port otherwise.
+     */
+    public synchronized void start() {
+        if (closed) {
+            throw new IllegalStateException("GEM proxy server has been closed");
+        }
+        if (server != null) {
+            return;
+        }
+        try {
+            server = startOn(preferredPort);
+        } catch (Exception e) {
+            if (preferredPort == 0) {
+                throw new RuntimeException("Could not start Ratpack", e);
+            }
+            LOGGER.debug("Could not bind GEM proxy server to port " + preferredPort, e);
+            try {
+                server = startOn(0);
+            } catch (Exception e2) {
+                throw new RuntimeException("Could not start Ratpack", e2);
+            }
+        }
+    }
+
+    /**
+     * Whether the server has been started and not been closed since.
+     *
+     * @return {@code true} if the server is running.
+     */
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    /**
+     * Address of the server without a tenant prefix.
+     *
+     * @return URI of the server.
+     */
+    public URI getBindAddress() {
+        return URI.create("http://localhost:" + getBindPort());
+    }
+
+    /**
+     * Tenants which have been registered.
+     *
+     * @return Proxies of all remote GEM servers.
+     */
+    public Collection<AbstractIvyXmlProxyServer> getTenants() {
+        return new ArrayList<>(tenants.values());
+    }
+
+    /**
+     * Stops the server, closes all tenants and releases the shared threads and connections.
+     *
+     * The server cannot be started again afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            try {
+                server.stop();
+            } catch (Exception e) {
+                LOGGER.debug("Could not stop GEM proxy server", e);
+            }
+        }
+        for (Tenant tenant : tenants.values()) {
+            try {
+                tenant.close();
+            } catch (Exception e) {
+                LOGGER.debug("Could not close GEM proxy for " + tenant.serverUri, e);
+            }
+        }
+        tenants.clear();
+        scheduler.shutdownNow();
+        DefaultAsyncRubyGemRestApi.closeClient(client);
+        server = null;
+        closed = true;
+    }
+
+    synchronized int getBindPort() {
+        if (server == null) {
+            throw new IllegalStateException("GEM proxy server has not been started");
+        }
+        return server.getBindPort();
+    }
+
+    private RatpackServer startOn(int port) throws Exception {
+        return RatpackServer.start(spec -> spec
+                .serverConfig(
+                        embedded()
+                                .publicAddress(new URI("http://localhost"))
+                                .port(port)
+                ).handlers(chain -> chain
+                        .get("metrics", ctx -> ctx.getResponse()
+                                .contentType(IvyXmlProxyRoutes.METRICS_CONTENT_TYPE)
+                                .send(metricsText())
+                        ).prefix(":tenant", tenantChain -> tenantChain
+                                .all(ctx -> {
+                                    Tenant tenant = tenants.get(ctx.getAllPathTokens().get("tenant"));
+                                    if (tenant == null) {
+                                        ctx.clientError(404);
+                                    } else {
+                                        ctx.next(single(AbstractIvyXmlProxyServer.class, tenant));
+                                    }
+                                }).insert(IvyXmlProxyRoutes::routes)
+                        ).get(ctx -> ctx.clientError(403))
+                )
+        );
+    }
+
+    String metricsText() {
+        List<ProxyMetrics.Snapshot> snapshots = new ArrayList<>();
+        for (Tenant tenant : tenants.values()) {
+            snapshots.add(tenant.getMetrics().snapshot().withLabels("upstream", tenant.serverUri.toString()));
+        }
+        return ProxyMetrics.Snapshot.merge(snapshots).toPrometheus();
+    }
+
+    /**
+     * Proxy for a single remote GEM server which is served below a path prefix of the shared server.
+     */
+    static class Tenant extends AbstractIvyXmlProxyServer {
+
+        Tenant(
+                SharedIvyXmlProxyServer server,
+                String prefix,
+                File cache,
+                URI serverUri,
+                String group,
+                GemRepositoryConfiguration grc
+        ) {
+            this(
+                    server,
+                    prefix,
+                    cache,
+                    serverUri,
+                    group,
+                    grc,
+                    new GemVersionListCache(cache, GemVersionListCache.DEFAULT_EXPIRY_MILLIS)
+            );
+        }
+
+        private Tenant(
+                SharedIvyXmlProxyServer server,
+                String prefix,
+                File cache,
+                URI serverUri,
+                String group,
+                GemRepositoryConfiguration grc,
+                GemVersionListCache versionLists
+        ) {
+            super(
+                    cache,
+                    serverUri,
+                    group,
+                    grc,
+                    versionLists,
+                    new DefaultAsyncRubyGemRestApi(
+                            serverUri,
+                            server.client,
+                            new UpstreamLimiter(
+                                    grc.getMaxConcurrentRequests(),
+                                    grc.getMaxRequestsPerSecond(),
+                                    server.scheduler
+                            ),
+                            versionLists
+                    )
+            );
+            this.server = server;
+            this.prefix = prefix;
+            this.serverUri = serverUri;
+        }
+
+        /**
+         * Starts the shared server if it is not running yet.
+         */
+        @Override
+        public void run() {
+            server.start();
+        }
+
+        /**
+         * Address of the shared server including the prefix of this tenant.
+         *
+         * @return Local address as a URI.
+         */
+        @Override
+        public URI getBindAddress() {
+            return URI.create(server.getBindAddress() + "/" + prefix);
+        }
+
+        @Override
+        protected int getBindPort() {
+            return server.getBindPort();
+        }
+
+        private final SharedIvyXmlProxyServer server;
+        private final String prefix;
+        private final URI serverUri;
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedIvyXmlProxyServer.class);
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ThreadFactory THREAD_FACTORY = r -> {
+        Thread t = new Thread(r, "rubygems-proxy-" + THREAD_COUNT.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    };
+
+    private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final OkHttpClient client;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final int preferredPort;
+    private RatpackServer server;
+    private boolean closed;
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import groovy.transform.CompileStatic
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.LongBinaryOperator
+import java.util.function.Supplier
+
+/** Limits the requests that are sent to a single remote GEM server.
+ *
+ * No thread is ever blocked by the limiter. Requests beyond the concurrency limit are queued and started when an
+ * earlier request completes. If a rate limit is set, requests are spaced evenly and a request that would exceed the
+ * rate is started later on a scheduler.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class UpstreamLimiter {
+
+    /** Create a limiter that only limits concurrency.
+     *
+     * @param maxConcurrentRequests Maximum number of requests that may be in flight at the same time.
+     */
+    UpstreamLimiter(int maxConcurrentRequests) {
+        this(maxConcurrentRequests, 0, null)
+    }
+
+    /** Create a limiter.
+     *
+     * @param maxConcurrentRequests Maximum number of requests that may be in flight at the same time.
+     * @param maxRequestsPerSecond Maximum number of requests that may be started per second.
+     *   {@code 0} means that the rate is not limited.
+     * @param scheduler Used to start requests that have to wait for the rate limit. Only needed if the rate is
+     *   limited.
+     */
+    UpstreamLimiter(int maxConcurrentRequests, int maxRequestsPerSecond, ScheduledExecutorService scheduler) {
+        if (maxRequestsPerSecond > 0 && scheduler == null) {
+            throw new IllegalArgumentException('A scheduler is required to limit the request rate')
+        }
+        this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests)
+        this.intervalNanos = maxRequestsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1).intdiv(maxRequestsPerSecond) : 0L
+        this.scheduler = scheduler
+    }
+
+    /** Starts a request as soon as the limits allow it.
+     *
+     * @param request Starts the request and returns its outcome. It is called at most once.
+     * @return Outcome of the request.
+     */
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<T>()
+        queue.add({ -> start(request, result) } as Runnable)
+        drain()
+        result
+    }
+
+    /** Number of requests that are currently in flight or waiting for the rate limit.
+     *
+     * @return Number of requests.
+     */
+    int getRunning() {
+        inFlight.get()
+    }
+
+    /** Number of requests that are waiting for an earlier request to complete.
+     *
+     * @return Number of requests.
+     */
+    int getQueued() {
+        queue.size()
+    }
+
+    private void drain() {
+        while (!queue.empty) {
+            int current = inFlight.get()
+            if (current >= maxConcurrentRequests) {
+                return
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                Runnable next = queue.poll()
+                if (next == null) {
+                    inFlight.decrementAndGet()
+                } else {
+                    long delay = reserveSlot()
+                    if (delay > 0) {
+                        scheduler.schedule(next, delay, TimeUnit.NANOSECONDS)
+                    } else {
+                        next.run()
+                    }
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings('CatchRuntimeException')
+    private <T> void start(Supplier<CompletableFuture<T>> request, CompletableFuture<T> result) {
+        CompletableFuture<T> response
+        try {
+            response = request.get()
+        } catch (RuntimeException e) {
+            response = new CompletableFuture<T>()
+            response.completeExceptionally(e)
+        }
+        response.whenComplete { T value, Throwable e ->
+            inFlight.decrementAndGet()
+            if (e == null) {
+                result.complete(value)
+            } else {
+                result.completeExceptionally(e)
+            }
+            drain()
+        }
+    }
+
+    /** Reserves the next point in time at which a request may be started.
+     *
+     * @return Nanoseconds to wait before the request is started.
+     */
+    private long reserveSlot() {
+        if (intervalNanos == 0) {
+            return 0
+        }
+        final long now = System.nanoTime()
+        final long interval = intervalNanos
+        long previous = nextSlot.getAndAccumulate(now, { long slot, long time ->
+            Math.max(slot, time) + interval
+        } as LongBinaryOperator)
+        Math.max(previous, now) - now
+    }
+
+    private final int maxConcurrentRequests
+    private final long intervalNanos
+    private final ScheduledExecutorService scheduler
+    private final AtomicInteger inFlight = new AtomicInteger()
+    private final AtomicLong nextSlot = new AtomicLong(Long.MIN_VALUE)
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>()
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import com.github.jrubygradle.api.gems.GemInstallException
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/** Records which GEMs and JARs have been installed into a GEM home, so that only changes have to be applied.
+ *
+ * The manifest is kept inside the GEM home and only contains paths relative to it, so a GEM home remains
+ * relocatable.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+@Slf4j
+class GemHomeManifest {
+
+    /** Location of the manifest relative to the GEM home.
+     */
+    public static final String LOCATION = '.jruby-gradle/installed.txt'
+
+    /** Loads the manifest of a GEM home.
+     *
+     * @param gemHome GEM installation directory.
+     * @return Manifest. If the GEM home does not have a manifest, an empty manifest is returned which is not
+     *   {@link #isPresent present}.
+     */
+    static GemHomeManifest load(File gemHome) {
+        File file = new File(gemHome, LOCATION)
+        GemHomeManifest manifest = new GemHomeManifest(file.exists())
+        if (manifest.present) {
+            file.eachLine(UTF_8.name()) { String line ->
+                List<String> fields = line.tokenize(SEPARATOR)
+                switch (fields[0]) {
+                    case GEM:
+                        manifest.gems[fields[1]] = new Installed(fields[2], fields.drop(FIXED_GEM_FIELDS))
+                        break
+                    case JAR:
+                        manifest.jars[fields[1]] = new Installed(fields[2], [])
+                        break
+                }
+            }
+        }
+        manifest
+    }
+
+    /** Creates a manifest for a set of GEMs and JARs.
+     *
+     * @param gems {@code .gem} files.
+     * @param jars JAR files keyed by their path relative to the {@code jars} directory.
+     * @param previous Manifest of what is currently installed. Details of unchanged GEMs are taken from it.
+     * @return Manifest.
+     */
+    static GemHomeManifest create(Collection<File> gems, Map<String, File> jars, GemHomeManifest previous) {
+        GemHomeManifest manifest = new GemHomeManifest(true)
+        for (File gem : gems) {
+            String checksum = InstalledGemStore.checksum(gem)
+            Installed before = previous.gems[gem.name]
+            manifest.gems[gem.name] = before?.checksum == checksum ? before : new Installed(checksum, executables(gem))
+            manifest.files[gem.name] = gem
+        }
+        jars.each { String path, File jar ->
+            manifest.jars[path] = new Installed(InstalledGemStore.checksum(jar), [])
+        }
+        manifest
+    }
+
+    /** Whether the manifest was found in a GEM home.
+     *
+     * @return {@code true} if the manifest exists.
+     */
+    boolean isPresent() {
+        this.present
+    }
+
+    /** GEMs which are new or have changed since the previous manifest.
+     *
+     * A GEM is also installed again if its directory or its specification has disappeared from the GEM home since
+     * the previous manifest was written.
+     *
+     * @param previous Manifest of what is currently installed.
+     * @param gemHome GEM installation directory.
+     * @return {@code .gem} files to install.
+     */
+    List<File> gemsToInstall(GemHomeManifest previous, File gemHome) {
+        files.findAll { String name, File gem ->
+            previous.gems[name]?.checksum != gems[name].checksum || !installed(gemHome, fullName(name))
+        }.values().toList()
+    }
+
+    /** Removes GEMs, executables and JARs which were installed previously, but are no longer required.
+     *
+     * JARs whose content has changed are removed as well, so that they get copied again.
+     *
+     * @param previous Manifest of what is currently installed.
+     * @param gemHome GEM installation directory.
+     */
+    void removeStale(GemHomeManifest previous, File gemHome) {
+        previous.gems.keySet().findAll { !gems.containsKey(it) }.each { String name ->
+            log.info("Removing ${name} from ${gemHome}")
+            uninstall(gemHome, fullName(name))
+        }
+
+        Set<String> executables = gems.values()*.executables.flatten().toSet() as Set<String>
+        previous.gems.values()*.executables.flatten().findAll { !executables.contains(it) }.each { exe ->
+            new File(gemHome, "bin/${exe}").delete()
+            new File(gemHome, "bin/${exe}.bat").delete()
+        }
+
+        previous.jars.each { String path, Installed jar ->
+            if (jars[path]?.checksum != jar.checksum) {
+                new File(gemHome, "jars/${path}").delete()
+            }
+        }
+    }
+
+    /** Writes the manifest into a GEM home.
+     *
+     * @param gemHome GEM installation directory.
+     */
+    void save(File gemHome) {
+        StringBuilder content = new StringBuilder()
+        gems.keySet().sort().each { String name ->
+            Installed gem = gems[name]
+            content.append(([GEM, name, gem.checksum] + gem.executables).join(SEPARATOR)).append('\n')
+        }
+        jars.keySet().sort().each { String path ->
+            content.append([JAR, path, jars[path].checksum].join(SEPARATOR)).append('\n')
+        }
+
+        File file = new File(gemHome, LOCATION)
+        file.parentFile.mkdirs()
+        file.setText(content.toString(), UTF_8.name())
+    }
+
+    /** Whether the directory and the specification of a GEM exist.
+     */
+    private static boolean installed(File gemHome, String fullName) {
+        [fullName, "${fullName}-java".toString()].any { String name ->
+            new File(gemHome, "gems/${name}").directory && new File(gemHome, "specifications/${name}.gemspec").file
+        }
+    }
+
+    private static String fullName(String gemFileName) {
+        gemFileName.replaceAll(~/\.gem$/, '')
+    }
+
+    /** Removes everything that RubyGems might have installed for a GEM.
+     */
+    private static void uninstall(File gemHome, String fullName) {
+        for (String name : [fullName, "${fullName}-java".toString()]) {
+            new File(gemHome, "gems/${name}").deleteDir()
+            new File(gemHome, "doc/${name}").deleteDir()
+            new File(gemHome, "specifications/${name}.gemspec").delete()
+            new File(gemHome, "cache/${name}.gem").delete()
+            new File(gemHome, "build_info/${name}.info").delete()
+            new File(gemHome, 'extensions').listFiles()?.each { File platform ->
+                platform.listFiles()?.each { File rubyVersion ->
+                    new File(rubyVersion, name).deleteDir()
+                }
+            }
+        }
+    }
+
+    private static List<String> executables(File gem) {
+        try {
+            GemPackage.read(gem).executables
+        } catch (GemInstallException | IOException e) {
+            log.debug("Cannot read executables from ${gem.name}: ${e.message}")
+            []
+        }
+    }
+
+    private GemHomeManifest(boolean present) {
+        this.present = present
+    }
+
+    /** Details of an installed GEM or JAR.
+     */
+    private static class Installed {
+        Installed(String checksum, List<String> executables) {
+            this.checksum = checksum
+            this.executables = executables
+        }
+
+        final String checksum
+        final List<String> executables
+    }
+
+    static private final String GEM = 'gem'
+    static private final String JAR = 'jar'
+    static private final String SEPARATOR = '\t'
+    static private final int FIXED_GEM_FIELDS = 3
+
+    private final boolean present
+    private final Map<String, Installed> gems = [:]
+    private final Map<String, Installed> jars = [:]
+    private final Map<String, File> files = [:]
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import com.github.jrubygradle.api.gems.GemInstallException
+import com.github.jrubygradle.internal.core.PhaseTrace
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+import org.ysb33r.grolifant.api.core.OperatingSystem
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/** Installs GEMs into a GEM home by unpacking them directly, several at a time.
+ *
+ * This produces the same layout as {@code gem install --wrappers --no-document}, but without starting JRuby. GEMs
+ * which have to build native extensions at installation time are not installed, but handed back so that they can
+ * be installed by RubyGems instead.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+@Slf4j
+class GemInstaller {
+
+    /** Creates an installer which uses as many threads as there are processors.
+     *
+     * @param gemHome GEM installation directory.
+     */
+    GemInstaller(File gemHome) {
+        this(gemHome, Runtime.runtime.availableProcessors())
+    }
+
+    /** Creates an installer.
+     *
+     * @param gemHome GEM installation directory.
+     * @param parallelism Maximum number of GEMs to unpack at the same time.
+     */
+    GemInstaller(File gemHome, int parallelism) {
+        this(gemHome, parallelism, null)
+    }
+
+    /** Creates an installer which links GEMs from a shared store.
+     *
+     * @param gemHome GEM installation directory.
+     * @param parallelism Maximum number of GEMs to unpack at the same time.
+     * @param store Store of installed GEMs. Can be {@code null} to unpack straight into the GEM home.
+     */
+    GemInstaller(File gemHome, int parallelism, InstalledGemStore store) {
+        this.gemHome = gemHome
+        this.parallelism = Math.max(1, parallelism)
+        this.store = store
+    }
+
+    /** Installs GEMs.
+     *
+     * @param gems {@code .gem} files to install.
+     * @return GEMs which could not be installed without RubyGems, in the same order as they were supplied.
+     * @throw GemInstallException if a GEM could not be unpacked.
+     */
+    List<File> install(List<File> gems) {
+        if (gems.empty) {
+            return []
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, gems.size()), THREAD_FACTORY)
+        try {
+            List<Future<Boolean>> results = gems.collect { File gem ->
+                executor.submit({ -> installIfPossible(gem) } as Callable<Boolean>)
+            }
+
+            List<File> requireRubyGems = []
+            results.eachWithIndex { Future<Boolean> result, int index ->
+                if (!await(result, gems[index])) {
+                    requireRubyGems.add(gems[index])
+                }
+            }
+            requireRubyGems
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    /** Installs a single GEM if it does not need RubyGems for installation.
+     *
+     * @param gem {@code .gem} file.
+     * @return {@code true} if the GEM was installed.
+     */
+    private boolean installIfPossible(File gem) {
+        GemPackage pkg = GemPackage.read(gem)
+        if (!pkg.understood || pkg.hasExtensions() || (WINDOWS && !pkg.executables.empty)) {
+            log.debug("${gem.name} will be installed by RubyGems")
+            return false
+        }
+
+        PhaseTrace.Span span = PhaseTrace.start(PhaseTrace.GEMS, pkg.fullName).arg('bytes', gem.length())
+        try {
+            if (store != null) {
+                boolean unpacked = false
+                File entry = store.entryFor(gem) { File dir ->
+                    unpacked = true
+                    unpack(gem, pkg, dir)
+                }
+                store.linkInto(entry, gemHome)
+                span.arg('store', unpacked ? 'miss' : 'hit')
+            } else {
+                unpack(gem, pkg, gemHome)
+            }
+        } catch (IOException e) {
+            new File(gemHome, "gems/${pkg.fullName}").deleteDir()
+            throw new GemInstallException("Could not unpack ${gem.name}", e)
+        } finally {
+            span.close()
+        }
+
+        log.debug("Unpacked ${gem.name}")
+        true
+    }
+
+    private static void unpack(File gem, GemPackage pkg, File home) {
+        pkg.extractTo(new File(home, "gems/${pkg.fullName}"))
+        write(new File(home, "specifications/${pkg.fullName}.gemspec"), pkg.gemspec, false)
+        for (String executable : pkg.executables) {
+            write(new File(home, "bin/${executable}"), pkg.wrapper(executable), true)
+        }
+        File cache = new File(home, "cache/${pkg.fullName}.gem")
+        cache.parentFile.mkdirs()
+        Files.copy(gem.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING)
+    }
+
+    /** Writes a file by atomically replacing any previous version.
+     *
+     * Executables of the same name from different GEMs end up in the same wrapper file.
+     */
+    private static void write(File file, String content, boolean executable) {
+        file.parentFile.mkdirs()
+        Path tmp = Files.createTempFile(file.parentFile.toPath(), ".${file.name}", '.tmp')
+        try {
+            tmp.toFile().setText(content, UTF_8.name())
+            if (executable) {
+                tmp.toFile().setExecutable(true, false)
+            }
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } finally {
+            Files.deleteIfExists(tmp)
+        }
+    }
+
+    private static boolean await(Future<Boolean> result, File gem) {
+        try {
+            result.get()
+        } catch (ExecutionException e) {
+            Throwable cause = e.cause
+            if (cause instanceof GemInstallException) {
+                throw cause
+            }
+            throw new GemInstallException("Could not unpack ${gem.name}", cause)
+        }
+    }
+
+    static private final boolean WINDOWS = OperatingSystem.current().windows
+    static private final AtomicInteger THREAD_COUNT = new AtomicInteger()
+    static private final ThreadFactory THREAD_FACTORY = { Runnable r ->
+        Thread t = new Thread(r, "gem-installer-${THREAD_COUNT.incrementAndGet()}")
+        t.daemon = true
+        t
+    } as ThreadFactory
+
+    private final File gemHome
+    private final int parallelism
+    private final InstalledGemStore store
+}
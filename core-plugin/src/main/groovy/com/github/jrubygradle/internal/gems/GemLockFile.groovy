@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import com.github.jrubygradle.api.gems.GemLockException
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import groovy.transform.CompileStatic
+
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/** Content of a GEM lock file.
+ *
+ * A lock file records the version of every module that was selected when a configuration was resolved, as well as
+ * the {@code ivy.xml} descriptors that the GEM proxy generated for the GEMs among them. The lock file is JSON with
+ * sorted keys, so that changes can be reviewed as a diff.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class GemLockFile {
+
+    /** Reads a lock file.
+     *
+     * @param file Lock file.
+     * @return Content of the lock file.
+     * @throws GemLockException if the file is not a lock file or was written by a newer version of the plugin.
+     */
+    @SuppressWarnings('CatchException')
+    static GemLockFile read(File file) {
+        Map<String, Object> json
+        try {
+            json = (Map<String, Object>) new JsonSlurper().parse(file, UTF_8.name())
+        } catch (Exception e) {
+            throw new GemLockException("${file} is not a GEM lock file", e)
+        }
+        if (json[FORMAT] != FORMAT_VERSION) {
+            throw new GemLockException("${file} has format ${json[FORMAT]}, but only ${FORMAT_VERSION} is supported")
+        }
+
+        GemLockFile lock = new GemLockFile()
+        ((Map<String, Map<String, String>>) json[CONFIGURATIONS]).each { String configuration, Map<String, String> modules ->
+            lock.configurations.put(configuration, new TreeMap<String, String>(modules))
+        }
+        lock.descriptors.putAll((Map<String, String>) json[DESCRIPTORS])
+        lock
+    }
+
+    /** Reads the GEM versions from a Bundler {@code Gemfile.lock}.
+     *
+     * Only GEMs listed below {@code specs} in a {@code GEM} section are considered. Platform suffixes such as
+     * {@code -java} are removed from versions.
+     *
+     * @param gemfileLock Bundler lock file.
+     * @return Versions keyed by GEM name.
+     */
+    static Map<String, String> readGemfileLock(File gemfileLock) {
+        Map<String, String> versions = new TreeMap<String, String>()
+        boolean inGemSection = false
+        boolean inSpecs = false
+        gemfileLock.eachLine(UTF_8.name()) { String line ->
+            if (line.empty) {
+                inGemSection = false
+                inSpecs = false
+            } else if (!line.startsWith(' ')) {
+                inGemSection = line == 'GEM'
+                inSpecs = false
+            } else if (inGemSection && line == '  specs:') {
+                inSpecs = true
+            } else if (inSpecs) {
+                Matcher spec = GEMFILE_LOCK_SPEC.matcher(line)
+                if (spec.matches()) {
+                    versions.put(spec.group(1), spec.group(2))
+                }
+            }
+        }
+        versions
+    }
+
+    /** Writes the lock file.
+     *
+     * @param file Lock file. Parent directories are created if necessary.
+     */
+    void write(File file) {
+        file.parentFile?.mkdirs()
+        Map<String, Object> json = [
+            (FORMAT)        : FORMAT_VERSION,
+            (CONFIGURATIONS): configurations,
+            (DESCRIPTORS)   : descriptors
+        ] as Map<String, Object>
+        file.setText(JsonOutput.prettyPrint(JsonOutput.toJson(json)) + '\n', UTF_8.name())
+    }
+
+    /** Records the version that was selected for a module.
+     *
+     * @param configuration Name of the configuration that was resolved.
+     * @param group Group of the module.
+     * @param module Name of the module.
+     * @param version Selected version.
+     */
+    void lockVersion(String configuration, String group, String module, String version) {
+        configurations.computeIfAbsent(configuration) { new TreeMap<String, String>() }.put(
+            "${group}:${module}".toString(),
+            version
+        )
+    }
+
+    /** Version that has been locked for a module.
+     *
+     * @param configuration Name of the configuration that is being resolved.
+     * @param group Group of the module.
+     * @param module Name of the module.
+     * @return Locked version or {@code null} if the module has not been locked for the configuration.
+     */
+    String lockedVersion(String configuration, String group, String module) {
+        configurations.get(configuration)?.get("${group}:${module}".toString())
+    }
+
+    /** Names of the configurations which have been locked.
+     *
+     * @return Configuration names.
+     */
+    Set<String> getConfigurationNames() {
+        configurations.keySet()
+    }
+
+    /** Records the {@code ivy.xml} descriptor of a GEM.
+     *
+     * @param group Group associated with the GEM.
+     * @param name GEM name.
+     * @param revision GEM version.
+     * @param ivyXml Content of the descriptor.
+     */
+    void addDescriptor(String group, String name, String revision, String ivyXml) {
+        descriptors.put("${group}:${name}:${revision}".toString(), ivyXml)
+    }
+
+    /** Calls an action for every {@code ivy.xml} descriptor of a group.
+     *
+     * @param group Group associated with the GEMs.
+     * @param action Called with GEM name, revision and the content of the descriptor.
+     */
+    void eachDescriptor(String group, Closure action) {
+        final String prefix = "${group}:"
+        descriptors.each { String key, String ivyXml ->
+            if (key.startsWith(prefix)) {
+                List<String> coordinates = key.substring(prefix.length()).tokenize(':')
+                action.call(coordinates[0], coordinates[1], ivyXml.getBytes(UTF_8))
+            }
+        }
+    }
+
+    private static final String FORMAT = 'format'
+    private static final int FORMAT_VERSION = 1
+    private static final String CONFIGURATIONS = 'configurations'
+    private static final String DESCRIPTORS = 'descriptors'
+    private static final Pattern GEMFILE_LOCK_SPEC = ~/^ {4}(\S+) \(([^\s,)-]+)(?:-[^)]+)?\)$/
+
+    private final SortedMap<String, SortedMap<String, String>> configurations =
+        new TreeMap<String, SortedMap<String, String>>()
+    private final SortedMap<String, String> descriptors = new TreeMap<String, String>()
+}
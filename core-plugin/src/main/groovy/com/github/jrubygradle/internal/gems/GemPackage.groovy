@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import com.github.jrubygradle.api.gems.GemInstallException
+import groovy.transform.CompileStatic
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+import java.util.zip.GZIPInputStream
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/** A {@code .gem} file which can be unpacked without the help of RubyGems.
+ *
+ * Only the specification attributes that are needed for unpacking are read from the metadata. The metadata itself
+ * is kept verbatim and becomes the installed specification.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class GemPackage {
+
+    /** Reads the metadata of a GEM.
+     *
+     * @param gem {@code .gem} file.
+     * @return Package
+     * @throws GemInstallException if the file does not contain GEM metadata.
+     */
+    static GemPackage read(File gem) {
+        String metadata = null
+        new TarReader(new BufferedInputStream(new FileInputStream(gem))).withCloseable { TarReader tar ->
+            TarReader.Entry entry
+            while (metadata == null && (entry = tar.next()) != null) {
+                if (entry.name == METADATA) {
+                    metadata = new GZIPInputStream(tar.entryStream).getText(UTF_8.name())
+                }
+            }
+        }
+
+        if (metadata == null) {
+            throw new GemInstallException("${gem.name} does not contain ${METADATA}")
+        }
+
+        new GemPackage(gem, metadata)
+    }
+
+    /** The {@code .gem} file.
+     *
+     */
+    final File file
+
+    /** The YAML specification as found in the GEM.
+     *
+     */
+    final String metadata
+
+    final String name
+    final String version
+    final String platform
+    final String bindir
+    final List<String> executables
+    final List<String> extensions
+    final List<String> requirePaths
+
+    /** Full name of the GEM as used by RubyGems for directories and files.
+     *
+     * @return Name, version and, unless it is a pure Ruby GEM, the platform.
+     */
+    String getFullName() {
+        platform == null || platform == RUBY_PLATFORM ? "${name}-${version}" : "${name}-${version}-${platform}"
+    }
+
+    /** Whether the GEM needs to build native extensions at installation time.
+     *
+     * @return {@code true} if extensions are declared.
+     */
+    boolean hasExtensions() {
+        !extensions.empty
+    }
+
+    /** Whether enough of the specification could be read to unpack this GEM.
+     *
+     * @return {@code true} if name and version are known.
+     */
+    boolean isUnderstood() {
+        name && version
+    }
+
+    /** Unpacks the content of the GEM.
+     *
+     * @param destDir Directory to unpack into. It will be created if necessary.
+     */
+    void extractTo(File destDir) {
+        destDir.mkdirs()
+        Path root = destDir.toPath().toRealPath()
+        Map<Path, String> symlinks = [:]
+        Set<String> binaries = executables.collect { "${bindir}/${it}".toString() }.toSet()
+
+        new TarReader(new BufferedInputStream(new FileInputStream(file))).withCloseable { TarReader gem ->
+            TarReader.Entry outer
+            while ((outer = gem.next()) != null) {
+                if (outer.name != DATA) {
+                    continue
+                }
+
+                new TarReader(new GZIPInputStream(gem.entryStream, BUFFER_SIZE)).withCloseable { TarReader data ->
+                    TarReader.Entry entry
+                    while ((entry = data.next()) != null) {
+                        if (entry.directory) {
+                            Files.createDirectories(resolve(root, entry.name, true))
+                            continue
+                        }
+
+                        Path target = resolve(root, entry.name, false)
+                        if (entry.symbolicLink) {
+                            symlinks[target] = entry.linkName
+                        } else if (entry.file) {
+                            Files.createDirectories(target.parent)
+                            Files.copy(data.entryStream, target, StandardCopyOption.REPLACE_EXISTING)
+                            if (entry.executable || binaries.contains(entry.name)) {
+                                target.toFile().setExecutable(true, false)
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Path> created = []
+        try {
+            symlinks.each { Path link, String linkTarget ->
+                created.add(createSymbolicLink(root, link, linkTarget))
+            }
+            // A link created later can redirect a path which an earlier link passes through.
+            for (Path link : created) {
+                if (Files.isSymbolicLink(link)) {
+                    checkContained(root, link, Files.readSymbolicLink(link).toString())
+                }
+            }
+        } catch (GemInstallException e) {
+            created.each { Path link -> Files.deleteIfExists(link) }
+            throw e
+        }
+    }
+
+    /** A specification that RubyGems can load from its {@code specifications} directory.
+     *
+     * The YAML metadata is embedded as is. The stub line allows RubyGems to activate the GEM without having to
+     * load the full specification.
+     *
+     * @return Ruby source.
+     */
+    String getGemspec() {
+        String terminator = HEREDOC
+        while (metadata.readLines().contains(terminator)) {
+            terminator = "${terminator}_"
+        }
+
+        String body = metadata.endsWith('\n') ? metadata : "${metadata}\n"
+        """# -*- encoding: utf-8 -*-
+# stub: ${name} ${version} ${platform ?: RUBY_PLATFORM} ${requirePaths.join('\0')}
+#
+# Installed by the JRuby/Gradle plugin from ${file.name}.
+Gem::Specification.from_yaml(<<'${terminator}')
+${body}${terminator}
+""".toString()
+    }
+
+    /** A wrapper script, as RubyGems would generate it, to run one of the executables of this GEM.
+     *
+     * @param executable Name of the executable.
+     * @return Ruby source.
+     */
+    String wrapper(String executable) {
+        """#!/usr/bin/env jruby
+#
+# This file was generated by the JRuby/Gradle plugin.
+#
+# The application '${executable}' is installed as part of a gem, and
+# this file is here to facilitate running it.
+#
+
+require 'rubygems'
+
+version = ">= 0.a"
+
+str = ARGV.first
+if str
+  str = str.b[/\\A_(.*)_\\z/, 1]
+  if str and Gem::Version.correct?(str)
+    version = str
+    ARGV.shift
+  end
+end
+
+if Gem.respond_to?(:activate_bin_path)
+load Gem.activate_bin_path(${rubyString(name)}, ${rubyString(executable)}, version)
+else
+gem ${rubyString(name)}, version
+load Gem.bin_path(${rubyString(name)}, ${rubyString(executable)}, version)
+end
+""".toString()
+    }
+
+    private GemPackage(File file, String metadata) {
+        this.file = file
+        this.metadata = metadata
+
+        Map<String, String> scalars = [:]
+        Map<String, List<String>> lists = [:]
+        String key = null
+        for (String line : metadata.readLines()) {
+            Matcher topLevel = TOP_LEVEL.matcher(line)
+            if (topLevel.matches()) {
+                key = topLevel.group(1)
+                String value = topLevel.group(2).trim()
+                if (value == EMPTY_LIST) {
+                    lists[key] = []
+                } else if (value && !value.startsWith('!')) {
+                    scalars[key] = unquote(value)
+                }
+                continue
+            }
+
+            Matcher item = LIST_ITEM.matcher(line)
+            if (key != null && item.matches()) {
+                List<String> values = lists[key]
+                if (values == null) {
+                    values = []
+                    lists[key] = values
+                }
+                values.add(unquote(item.group(1).trim()))
+                continue
+            }
+
+            Matcher nestedVersion = NESTED_VERSION.matcher(line)
+            if (key == 'version' && nestedVersion.matches()) {
+                scalars[key] = unquote(nestedVersion.group(1).trim())
+            }
+        }
+
+        this.name = scalars['name']
+        this.version = scalars['version']
+        this.platform = scalars['platform']
+        this.bindir = scalars['bindir'] ?: 'bin'
+        this.executables = (lists['executables'] ?: []).asImmutable()
+        this.extensions = (lists['extensions'] ?: []).asImmutable()
+        this.requirePaths = (lists['require_paths'] ?: ['lib']).asImmutable()
+    }
+
+    private static Path resolve(Path root, String entryName, boolean isDirectory) {
+        Path target = root.resolve(entryName).normalize()
+        if (!target.startsWith(root) || (target == root && !isDirectory)) {
+            throw new GemInstallException("Refusing to unpack '${entryName}' outside of ${root}")
+        }
+        target
+    }
+
+    private static Path createSymbolicLink(Path root, Path link, String linkTarget) {
+        Path parent = realPathOf(link.parent)
+        if (!parent.startsWith(root)) {
+            throw new GemInstallException("Refusing to create link '${link}' outside of ${root}")
+        }
+        Path resolved = checkContained(root, link, linkTarget)
+
+        Path created = parent.resolve(link.fileName)
+        Files.createDirectories(parent)
+        Files.deleteIfExists(created)
+        try {
+            Files.createSymbolicLink(created, Paths.get(linkTarget))
+        } catch (IOException | UnsupportedOperationException e) {
+            if (Files.isRegularFile(resolved)) {
+                Files.copy(resolved, created)
+            }
+        }
+        created
+    }
+
+    /** Resolves the target of a link by following the links that already exist on the way to it.
+     *
+     * @return Real location of the target.
+     * @throws GemInstallException if the target is absolute or ends up outside of the GEM.
+     */
+    private static Path checkContained(Path root, Path link, String linkTarget) {
+        Path target = Paths.get(linkTarget)
+        Path resolved = target.absolute ? target : realPathOf(realPathOf(link.parent).resolve(target))
+        if (target.absolute || !resolved.startsWith(root)) {
+            throw new GemInstallException("Refusing to link '${link}' to '${linkTarget}' outside of ${root}")
+        }
+        resolved
+    }
+
+    /** The real path of the nearest existing ancestor, followed by the remaining path segments.
+     *
+     */
+    private static Path realPathOf(Path path) {
+        Path existing = path
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.parent
+        }
+        existing == null ? path.normalize() : existing.toRealPath().resolve(existing.relativize(path)).normalize()
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 &&
+            ((value.startsWith('"') && value.endsWith('"')) || (value.startsWith("'") && value.endsWith("'")))) {
+            return value.substring(1, value.length() - 1)
+        }
+        value
+    }
+
+    private static String rubyString(String value) {
+        "'${value.replace('\\', '\\\\').replace("'", "\\'")}'"
+    }
+
+    static private final String METADATA = 'metadata.gz'
+    static private final String DATA = 'data.tar.gz'
+    static private final String RUBY_PLATFORM = 'ruby'
+    static private final String HEREDOC = 'JRUBY_GRADLE_GEMSPEC'
+    static private final String EMPTY_LIST = '[]'
+    static private final int BUFFER_SIZE = 65536
+    static private final Pattern TOP_LEVEL = ~/^([A-Za-z_][A-Za-z0-9_]*):(.*)$/
+    static private final Pattern LIST_ITEM = ~/^- (.*)$/
+    static private final Pattern NESTED_VERSION = ~/^\s+version:(.*)$/
+}
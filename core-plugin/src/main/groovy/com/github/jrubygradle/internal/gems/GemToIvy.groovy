@@ -23,16 +23,20 @@
  */
 package com.github.jrubygradle.internal.gems
 
+import com.github.jrubygradle.api.gems.GemDependency
 import com.github.jrubygradle.api.gems.GemInfo
-import groovy.transform.CompileDynamic
+import com.github.jrubygradle.api.gems.JarDependency
 import groovy.transform.CompileStatic
-import groovy.xml.MarkupBuilder
 
 import java.security.MessageDigest
 
 import static com.github.jrubygradle.api.gems.GemVersion.singleGemVersionFromMultipleGemRequirements
+import static java.nio.charset.StandardCharsets.UTF_8
 
 /** Converts from Gem metadata to Ivy metadata.
+ *
+ * The descriptor is written directly into a buffer rather than via a markup builder as it is generated on the
+ * request path of the GEM proxy.
  *
  * @author Schalk W. Cronjé
  *
@@ -68,74 +72,27 @@ class GemToIvy {
      * @param gem GEM metadata
      * @return {@code writer} after population with Ivy metadata in XML format.
      */
-    @CompileDynamic
-    @SuppressWarnings('NoDef')
     Writer writeTo(Writer writer, GemInfo gem) {
-        def xml = new MarkupBuilder(writer)
-
-        final Map artifactAttributes = [
-            type: 'gem', url: gem.gemUri
-        ]
-
-        if (gem.platform == JAVA_PLATFORM) {
-            artifactAttributes['e:classifier'] = JAVA_PLATFORM
-        }
-
-        xml.'ivy-module'(
-            'xmlns:xsi': 'http://www.w3.org/2001/XMLSchema-instance',
-            'xsi:noNamespaceSchemaLocation': 'http://ant.apache.org/ivy/schemas/ivy.xsd',
-            'xmlns:e': 'http://ant.apache.org/ivy/extra',
-            version: '2.0'
-        ) {
-            info(organisation: this.org, module: gem.name, revision: gem.version /*, publication: */) {
-                if (gem.description || gem.homepageUri) {
-                    if (gem.homepageUri) {
-                        description(homepage: gem.homepageUri) {
-                            gem.description ?: ''
-                        }
-                    } else {
-                        description {
-                            gem.description ?: ''
-                        }
-                    }
-                }
-                /* <license name='' url=''> 1..n */
-            }
-
-            publications {
-                artifact(artifactAttributes)
-            }
-
-            if (gem.dependencies || gem.jarRequirements) {
-                dependencies {
-                    gem.dependencies.each { dep ->
-                        dependency(
-                            org: this.org,
-                            name: dep.name,
-                            rev: singleGemVersionFromMultipleGemRequirements(dep.requirements).toString()
-                        )
-                    }
-                    gem.jarRequirements.each { dep ->
-                        if (dep.group) {
-                            dependency(
-                                org: dep.group,
-                                name: dep.name,
-                                rev: singleGemVersionFromMultipleGemRequirements(dep.requirements).toString()
-                            )
-                        } else {
-                            dependency(
-                                name: dep.name,
-                                rev: singleGemVersionFromMultipleGemRequirements(dep.requirements).toString()
-                            )
-                        }
-                    }
-                }
-            }
-        }
-
+        writer.append(render(gem))
         writer
     }
 
+    /** Write the Ivy metadata as UTF-8 and calculate its checksum whilst doing so.
+     *
+     * @param out Stream for output.
+     * @param gem GEM metadata.
+     * @return SHA-1 checksum of the bytes that were written, as a hexadecimal string.
+     *
+     * @since 2.1.0
+     */
+    String writeTo(OutputStream out, GemInfo gem) {
+        byte[] xml = render(gem).toString().getBytes(UTF_8)
+        MessageDigest sha1 = MessageDigest.getInstance('SHA-1')
+        sha1.update(xml)
+        out.write(xml)
+        sha1.digest().encodeHex().toString()
+    }
+
     /** Write the Ivy metadata to a string.
      *
      * @param gem GEM metadata.
@@ -158,6 +115,128 @@ class GemToIvy {
         shaFile
     }
 
+    private StringBuilder render(GemInfo gem) {
+        StringBuilder xml = new StringBuilder(INITIAL_SIZE)
+        xml.append(IVY_MODULE_START)
+
+        xml.append('  <info')
+        attribute(xml, 'organisation', this.org)
+        attribute(xml, 'module', gem.name)
+        attribute(xml, 'revision', gem.version)
+        if (gem.description || gem.homepageUri) {
+            xml.append('>\n    <description')
+            if (gem.homepageUri) {
+                attribute(xml, 'homepage', gem.homepageUri)
+            }
+            if (gem.description) {
+                xml.append('>')
+                text(xml, gem.description)
+                xml.append('</description>\n')
+            } else {
+                xml.append(EMPTY_END)
+            }
+            xml.append('  </info>\n')
+        } else {
+            xml.append(EMPTY_END)
+        }
+
+        xml.append('  <publications>\n    <artifact')
+        attribute(xml, 'type', 'gem')
+        attribute(xml, 'url', gem.gemUri)
+        if (gem.platform == JAVA_PLATFORM) {
+            attribute(xml, 'e:classifier', JAVA_PLATFORM)
+        }
+        xml.append(EMPTY_END).append('  </publications>\n')
+
+        if (gem.dependencies || gem.jarRequirements) {
+            xml.append('  <dependencies>\n')
+            for (GemDependency dep : gem.dependencies) {
+                dependency(xml, this.org, dep.name, dep.requirements)
+            }
+            for (JarDependency dep : gem.jarRequirements) {
+                dependency(xml, dep.group ?: null, dep.name, dep.requirements)
+            }
+            xml.append('  </dependencies>\n')
+        }
+
+        xml.append('</ivy-module>')
+    }
+
+    private static void dependency(StringBuilder xml, String group, String name, String requirements) {
+        xml.append('    <dependency')
+        if (group != null) {
+            attribute(xml, 'org', group)
+        }
+        attribute(xml, 'name', name)
+        attribute(xml, 'rev', singleGemVersionFromMultipleGemRequirements(requirements).toString())
+        xml.append(EMPTY_END)
+    }
+
+    private static void attribute(StringBuilder xml, String name, Object value) {
+        xml.append(' ').append(name).append("='")
+        if (value != null) {
+            escape(xml, value.toString(), true)
+        }
+        xml.append("'")
+    }
+
+    private static void text(StringBuilder xml, String content) {
+        escape(xml, content, false)
+    }
+
+    /** Escapes content in the same way as {@link groovy.xml.MarkupBuilder} would do it.
+     *
+     * @param xml Buffer to append to.
+     * @param content Content to escape.
+     * @param inAttribute Whether the content is a single-quoted attribute value.
+     */
+    @SuppressWarnings('CyclomaticComplexity')
+    private static void escape(StringBuilder xml, String content, boolean inAttribute) {
+        int length = content.length()
+        for (int i = 0; i < length; i++) {
+            char ch = content.charAt(i)
+            switch (ch) {
+                case AMP:
+                    xml.append('&amp;')
+                    break
+                case LT:
+                    xml.append('&lt;')
+                    break
+                case GT:
+                    xml.append('&gt;')
+                    break
+                case APOS:
+                    xml.append(inAttribute ? '&apos;' : "'")
+                    break
+                case NL:
+                    xml.append(inAttribute ? '&#10;' : '\n')
+                    break
+                case CR:
+                    xml.append(inAttribute ? '&#13;' : '\r')
+                    break
+                case TAB:
+                    xml.append(inAttribute ? '&#09;' : '\t')
+                    break
+                default:
+                    xml.append(ch)
+            }
+        }
+    }
+
+    static private final int INITIAL_SIZE = 2048
+    static private final char AMP = '&' as char
+    static private final char LT = '<' as char
+    static private final char GT = '>' as char
+    static private final char APOS = "'" as char
+    static private final char NL = '\n' as char
+    static private final char CR = '\r' as char
+    static private final char TAB = '\t' as char
+    static private final String EMPTY_END = ' />\n'
+    static private final String IVY_MODULE_START = "<ivy-module" +
+        " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'" +
+        " xsi:noNamespaceSchemaLocation='http://ant.apache.org/ivy/schemas/ivy.xsd'" +
+        " xmlns:e='http://ant.apache.org/ivy/extra' version='2.0'>\n"
+
     private final String serverUri
     private final String org = 'rubygems'
 }
@@ -25,21 +25,29 @@ package com.github.jrubygradle.internal.gems
 
 import com.github.jrubygradle.api.gems.GemResolverStrategy
 import com.github.jrubygradle.api.gems.GemVersion
+import com.github.jrubygradle.internal.core.PhaseTrace
 import groovy.transform.CompileDynamic
 import groovy.transform.PackageScope
 import org.gradle.api.Action
 import org.gradle.api.GradleException
 import org.gradle.api.artifacts.Configuration
 import org.gradle.api.artifacts.DependencyResolveDetails
+import org.gradle.api.artifacts.ResolvableDependencies
 import org.gradle.api.logging.Logger
 import org.gradle.api.logging.Logging
 import org.gradle.util.GradleVersion
 
+import java.util.concurrent.atomic.AtomicReference
+
 import static com.github.jrubygradle.api.gems.GemVersion.gemVersionFromGradleIvyRequirement
 
 /**
  * Resolver to compute gem versions
  *
+ * Version ranges are collected and narrowed in the same pass in which Gradle resolves the configuration. Every time a
+ * GEM is requested again, its range is intersected with the range collected so far. The collected ranges are
+ * discarded before the configuration is resolved, so that every resolution starts afresh.
+ *
  * @author Schalk W. Cronjé
  * @author Christian Meier
  *
@@ -54,6 +62,15 @@ class GemVersionResolver {
                 }
         }.curry(cfg.name, gemGroups, versionResolver)
         cfg.resolutionStrategy.eachDependency(gemResolveRule)
+        cfg.incoming.beforeResolve { versionResolver.reset() }
+
+        if (PhaseTrace.enabled) {
+            AtomicReference<PhaseTrace.Span> span = new AtomicReference<PhaseTrace.Span>()
+            cfg.incoming.beforeResolve { span.set(PhaseTrace.start(PhaseTrace.RESOLVE, cfg.name)) }
+            cfg.incoming.afterResolve { ResolvableDependencies incoming ->
+                span.getAndSet(null)?.arg('components', incoming.resolutionResult.allComponents.size())?.close()
+            }
+        }
     }
 
     GemVersionResolver(GemResolverStrategy gemGroups, Logger logger, Configuration configuration) {
@@ -63,10 +80,6 @@ class GemVersionResolver {
     }
 
     void resolve(DependencyResolveDetails details) {
-        if (versions == null) {
-            firstRun()
-        }
-
         logger.debug("${configuration}: gem ${details.requested.name} ${details.requested.version}")
 
         GemVersion version = versions[details.requested.name]
@@ -96,13 +109,15 @@ class GemVersionResolver {
         return "GemVersionResolver${versions}"
     }
 
-    protected void firstRun() {
-        debugWithSeparator('collect version range info')
-        Configuration config = configuration.copyRecursive()
-        versions.clear()
-        addGemResolver(config, gemGroups, this)
-        config.resolvedConfiguration
-        debugWithSeparator('apply version range info')
+    /** Discards all version ranges that have been collected.
+     *
+     * @since 2.1.0
+     */
+    void reset() {
+        if (!versions.isEmpty()) {
+            debugWithSeparator('discard collected version range info')
+            versions.clear()
+        }
     }
 
     protected GemVersionResolver() {
@@ -128,7 +143,7 @@ class GemVersionResolver {
 
     private static final HAS_BECAUSE_PROPERTY = GradleVersion.current() >= GradleVersion.version('4.5')
     private static final String DBG_SEPARATOR = '                       ------------------------'
-    private final Map versions = [:]
+    private final Map<String, GemVersion> versions = [:]
     private final Configuration configuration
     private final Logger logger
     private final GemResolverStrategy gemGroups
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import com.github.jrubygradle.internal.core.BoundedCache
+import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+import groovy.util.logging.Slf4j
+import org.ysb33r.grolifant.api.core.OperatingSystem
+
+import java.nio.file.FileAlreadyExistsException
+import java.nio.file.FileVisitResult
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.BasicFileAttributes
+import java.security.MessageDigest
+import java.util.function.Function
+
+import static java.nio.file.FileVisitResult.CONTINUE
+
+/** A store of installed GEMs which is shared by all projects and tasks of a user.
+ *
+ * Every entry is a small GEM home containing a single installed GEM and is keyed by the SHA-256 checksum of the
+ * {@code .gem} file. Entries are populated in a temporary directory and then renamed into place, so concurrent
+ * builds that install the same GEM never see a partial entry. The files of an entry are hard linked into a GEM
+ * home, and copied when the store and the GEM home are on different file systems.
+ *
+ * Files which are linked from the store must not be modified in place, so they are made read-only once an entry
+ * has been populated, except on Windows where read-only files cannot be replaced or deleted. Executable wrappers
+ * and specifications are always copied, as RubyGems rewrites them in place when it installs another GEM.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+@Slf4j
+class InstalledGemStore {
+
+    /** Creates a store.
+     *
+     * @param root Directory in which installed GEMs are kept.
+     */
+    InstalledGemStore(File root) {
+        this.root = root
+    }
+
+    /** Returns the entry for a GEM, populating it first if it does not exist yet.
+     *
+     * @param gem {@code .gem} file.
+     * @param populate Installs the GEM into the directory it is given.
+     * @return Directory containing the installed GEM.
+     * @throw IOException if the entry could not be populated.
+     */
+    File entryFor(File gem, Closure<?> populate) {
+        File entry = new File(root, checksum(gem))
+        if (entry.directory) {
+            return entry
+        }
+
+        root.mkdirs()
+        Path tmp = Files.createTempDirectory(root.toPath(), ".${entry.name}-")
+        try {
+            populate.call(tmp.toFile())
+            if (!WINDOWS) {
+                makeReadOnly(tmp)
+            }
+            Files.move(tmp, entry.toPath(), StandardCopyOption.ATOMIC_MOVE)
+            log.debug("Stored ${gem.name} in ${entry}")
+        } catch (IOException e) {
+            // An atomic rename fails if another build has stored the same GEM in the meantime.
+            if (!entry.directory) {
+                throw e
+            }
+            log.debug("${gem.name} was stored concurrently")
+        } finally {
+            tmp.toFile().deleteDir()
+        }
+        entry
+    }
+
+    /** Links all files of an entry into a GEM home.
+     *
+     * Files which already exist in the GEM home are replaced.
+     *
+     * @param entry Entry returned by {@link #entryFor}.
+     * @param gemHome GEM installation directory.
+     * @throw IOException if a file could neither be linked nor copied.
+     */
+    void linkInto(File entry, File gemHome) {
+        final Path source = entry.toPath()
+        final Path target = gemHome.toPath()
+        final Linker linker = new Linker()
+
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()))
+                CONTINUE
+            }
+
+            @Override
+            FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path relative = source.relativize(file)
+                Path destination = target.resolve(relative.toString())
+                if (!attrs.symbolicLink && COPIED_DIRECTORIES.contains(relative.getName(0).toString())) {
+                    Linker.copy(file, destination)
+                } else {
+                    linker.link(file, destination, attrs)
+                }
+                CONTINUE
+            }
+        })
+    }
+
+    /** Directory in which installed GEMs are kept.
+     *
+     * @return Store location.
+     */
+    File getRoot() {
+        this.root
+    }
+
+    /** Calculates the SHA-256 checksum of a file.
+     *
+     * Files in the Gradle cache never change, so checksums are remembered by path, size and modification time.
+     *
+     * @param gem File to calculate the checksum for.
+     * @return Checksum as a hex string.
+     */
+    @PackageScope
+    static String checksum(File gem) {
+        String id = "${gem.absolutePath}:${gem.length()}:${gem.lastModified()}".toString()
+        CHECKSUMS.get(id, { String ignored ->
+            MessageDigest digest = MessageDigest.getInstance('SHA-256')
+            gem.withInputStream { InputStream input ->
+                byte[] buffer = new byte[BUFFER_SIZE]
+                int count
+                while ((count = input.read(buffer)) > 0) {
+                    digest.update(buffer, 0, count)
+                }
+            }
+            digest.digest().encodeHex().toString()
+        } as Function<String, String>)
+    }
+
+    /** Removes write permissions from all files of a new entry.
+     */
+    private static void makeReadOnly(Path dir) {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.regularFile) {
+                    file.toFile().setWritable(false, false)
+                }
+                CONTINUE
+            }
+        })
+    }
+
+    /** Creates hard links and falls back to copying once linking has failed.
+     */
+    private static class Linker {
+        void link(Path source, Path target, BasicFileAttributes attrs) throws IOException {
+            if (attrs.symbolicLink) {
+                Files.deleteIfExists(target)
+                Files.createSymbolicLink(target, Files.readSymbolicLink(source))
+            } else if (hardLinks) {
+                try {
+                    try {
+                        Files.createLink(target, source)
+                    } catch (FileAlreadyExistsException e) {
+                        replace(target) { Path tmp -> Files.createLink(tmp, source) }
+                    }
+                } catch (IOException | UnsupportedOperationException e) {
+                    hardLinks = false
+                    copy(source, target)
+                }
+            } else {
+                copy(source, target)
+            }
+        }
+
+        /** Copies a file, which is writable by its owner unlike the file in the store.
+         */
+        static void copy(Path source, Path target) {
+            replace(target) { Path tmp ->
+                Files.copy(source, tmp, StandardCopyOption.COPY_ATTRIBUTES)
+                tmp.toFile().setWritable(true)
+            }
+        }
+
+        /** Replaces a file atomically, as wrappers of the same name may be linked by several threads at once.
+         */
+        private static void replace(Path target, Closure<?> create) {
+            Path tmp = target.resolveSibling(".${target.fileName}.${UUID.randomUUID()}.tmp")
+            try {
+                create.call(tmp)
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            } finally {
+                Files.deleteIfExists(tmp)
+            }
+        }
+
+        private boolean hardLinks = true
+    }
+
+    static private final int BUFFER_SIZE = 65536
+    static private final boolean WINDOWS = OperatingSystem.current().windows
+    static private final Set<String> COPIED_DIRECTORIES = ['bin', 'specifications'].toSet().asImmutable()
+    static private final BoundedCache<String, String> CHECKSUMS = new BoundedCache<String, String>(4096)
+
+    private final File root
+}
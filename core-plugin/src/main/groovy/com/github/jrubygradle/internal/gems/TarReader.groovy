@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import groovy.transform.CompileStatic
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/** Reads entries sequentially from a TAR stream.
+ *
+ * Supports the ustar format as written by RubyGems as well as GNU long names and PAX path headers.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class TarReader implements Closeable {
+
+    /** A single entry in a TAR stream.
+     *
+     */
+    static class Entry {
+        final String name
+        final char type
+        final long size
+        final int mode
+        final String linkName
+
+        Entry(String name, char type, long size, int mode, String linkName) {
+            this.name = name
+            this.type = type
+            this.size = size
+            this.mode = mode
+            this.linkName = linkName
+        }
+
+        boolean isDirectory() {
+            type == DIRECTORY || name.endsWith('/')
+        }
+
+        boolean isFile() {
+            (type == REGULAR || type == REGULAR_OLD) && !name.endsWith('/')
+        }
+
+        boolean isSymbolicLink() {
+            type == SYMLINK
+        }
+
+        boolean isExecutable() {
+            (mode & OWNER_EXECUTE) != 0
+        }
+
+        static private final int OWNER_EXECUTE = 0100
+        static private final char REGULAR = '0' as char
+        static private final char REGULAR_OLD = (char) 0
+        static private final char SYMLINK = '2' as char
+        static private final char DIRECTORY = '5' as char
+    }
+
+    /** Reads from a TAR stream.
+     *
+     * @param input Uncompressed TAR stream. Will be closed when the reader is closed.
+     */
+    TarReader(InputStream input) {
+        this.input = input
+    }
+
+    /** Moves to the next entry.
+     *
+     * Any unread content of the current entry is skipped.
+     *
+     * @return Next entry or {@code null} if the end of the archive has been reached.
+     */
+    Entry next() throws IOException {
+        skipRemaining()
+
+        String longName = null
+        String longLinkName = null
+        while (true) {
+            byte[] header = new byte[BLOCK]
+            if (!readBlock(header) || isZero(header)) {
+                return null
+            }
+
+            char type = (char) header[156]
+            long size = parseNumber(header, 124, 12)
+            String name = longName ?: entryName(header)
+            String linkName = longLinkName ?: string(header, 157, 100)
+
+            if (type == GNU_LONG_NAME || type == GNU_LONG_LINK_NAME) {
+                String value = new String(readFully(size), UTF_8)
+                int nul = value.indexOf(0)
+                value = nul < 0 ? value : value.substring(0, nul)
+                if (type == GNU_LONG_NAME) {
+                    longName = value
+                } else {
+                    longLinkName = value
+                }
+            } else if (type == PAX_HEADER) {
+                Map<String, String> pax = parsePax(readFully(size))
+                longName = pax['path'] ?: longName
+                longLinkName = pax['linkpath'] ?: longLinkName
+            } else if (type == PAX_GLOBAL_HEADER) {
+                readFully(size)
+            } else {
+                Entry entry = new Entry(name, type, size, (int) parseNumber(header, 100, 8), linkName)
+                current = new EntryStream(input, name, entry.symbolicLink || entry.directory ? 0 : size)
+                padding = (BLOCK - (size % BLOCK)) % BLOCK
+                return entry
+            }
+        }
+    }
+
+    /** Stream over the content of the current entry.
+     *
+     * Closing the returned stream does not close the archive.
+     *
+     * @return Content of the entry returned by the last call to {@link #next}.
+     */
+    InputStream getEntryStream() {
+        current
+    }
+
+    @Override
+    void close() throws IOException {
+        input.close()
+    }
+
+    private void skipRemaining() {
+        long toSkip = (current?.remaining ?: 0L) + padding
+        while (toSkip > 0) {
+            long skipped = input.skip(toSkip)
+            if (skipped <= 0) {
+                if (input.read() < 0) {
+                    throw new EOFException('Unexpected end of TAR stream')
+                }
+                skipped = 1
+            }
+            toSkip -= skipped
+        }
+        current = null
+        padding = 0
+    }
+
+    private byte[] readFully(long size) {
+        byte[] data = new byte[(int) size]
+        int offset = 0
+        while (offset < data.length) {
+            int count = input.read(data, offset, data.length - offset)
+            if (count < 0) {
+                throw new EOFException('Unexpected end of TAR stream')
+            }
+            offset += count
+        }
+        padding = (BLOCK - (size % BLOCK)) % BLOCK
+        skipRemaining()
+        data
+    }
+
+    private boolean readBlock(byte[] block) {
+        int offset = 0
+        while (offset < block.length) {
+            int count = input.read(block, offset, block.length - offset)
+            if (count < 0) {
+                if (offset == 0) {
+                    return false
+                }
+                throw new EOFException('Unexpected end of TAR stream')
+            }
+            offset += count
+        }
+        true
+    }
+
+    private static String entryName(byte[] header) {
+        String name = string(header, 0, 100)
+        String magic = string(header, 257, 6)
+        if (magic.startsWith('ustar')) {
+            String prefix = string(header, 345, 155)
+            if (prefix) {
+                return "${prefix}/${name}".toString()
+            }
+        }
+        name
+    }
+
+    private static String string(byte[] header, int offset, int length) {
+        int end = offset
+        while (end < offset + length && header[end] != 0) {
+            end++
+        }
+        new String(header, offset, end - offset, UTF_8)
+    }
+
+    private static long parseNumber(byte[] header, int offset, int length) {
+        if ((header[offset] & 0x80) != 0) {
+            // Base-256 encoding for large values
+            long value = header[offset] & 0x7f
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xff)
+            }
+            return value
+        }
+
+        long value = 0
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i]
+            if (b >= ZERO && b <= SEVEN) {
+                value = (value << 3) + (b - ZERO)
+            } else if (b == 0 || (value > 0 && b == SPACE)) {
+                break
+            }
+        }
+        value
+    }
+
+    private static Map<String, String> parsePax(byte[] data) {
+        Map<String, String> records = [:]
+        int offset = 0
+        while (offset < data.length) {
+            int space = offset
+            while (space < data.length && data[space] != SPACE) {
+                space++
+            }
+            if (space >= data.length) {
+                break
+            }
+            int length = new String(data, offset, space - offset, UTF_8).toInteger()
+            String record = new String(data, space + 1, length - (space - offset) - 2, UTF_8)
+            int equals = record.indexOf('=')
+            if (equals > 0) {
+                records[record.substring(0, equals)] = record.substring(equals + 1)
+            }
+            offset += length
+        }
+        records
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false
+            }
+        }
+        true
+    }
+
+    /** Bounded view of the content of a single entry.
+     *
+     */
+    private static class EntryStream extends InputStream {
+        final InputStream input
+        final String name
+        long remaining
+
+        EntryStream(InputStream input, String name, long size) {
+            this.input = input
+            this.name = name
+            this.remaining = size
+        }
+
+        @Override
+        int read() throws IOException {
+            if (remaining <= 0) {
+                return -1
+            }
+            int b = input.read()
+            if (b < 0) {
+                throw new EOFException("Unexpected end of TAR stream in ${name}")
+            }
+            remaining--
+            b
+        }
+
+        @Override
+        int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1
+            }
+            int count = input.read(b, off, (int) Math.min((long) len, remaining))
+            if (count < 0) {
+                throw new EOFException("Unexpected end of TAR stream in ${name}")
+            }
+            remaining -= count
+            count
+        }
+
+        @Override
+        void close() {
+        }
+    }
+
+    static private final int BLOCK = 512
+    static private final byte ZERO = (byte) 0x30
+    static private final byte SEVEN = (byte) 0x37
+    static private final byte SPACE = (byte) 0x20
+    static private final char GNU_LONG_NAME = 'L' as char
+    static private final char GNU_LONG_LINK_NAME = 'K' as char
+    static private final char PAX_HEADER = 'x' as char
+    static private final char PAX_GLOBAL_HEADER = 'g' as char
+
+    private final InputStream input
+    private EntryStream current
+    private long padding
+}
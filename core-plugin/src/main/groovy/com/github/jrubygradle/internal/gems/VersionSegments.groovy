@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import com.github.jrubygradle.internal.core.BoundedCache
+import groovy.transform.CompileStatic
+
+import java.util.regex.Pattern
+
+/** A GEM version which has been split into its dot-separated segments.
+ *
+ * Instances are interned, so that versions which appear over and over again during resolution are only tokenised
+ * once.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+final class VersionSegments {
+
+    /** Obtains the segments for a version.
+     *
+     * @param version Version string.
+     * @return Segments or {@code null} if the version is {@code null} or empty.
+     */
+    static VersionSegments of(String version) {
+        if (!version) {
+            return null
+        }
+        INTERNED.get(version) { String it ->
+            new VersionSegments(it)
+        }
+    }
+
+    /** Compares two versions segment by segment.
+     *
+     * Numeric segments are compared numerically and are always greater than segments which contain other
+     * characters. Those are compared lexically. If all common segments are equal, the version with the most segments
+     * is the greater one.
+     *
+     * A missing version is less than any other version, except when both are missing.
+     *
+     * @param lhs First version. Can be {@code null}.
+     * @param rhs Second version. Can be {@code null}.
+     * @return Negative, zero or positive.
+     */
+    @SuppressWarnings('CyclomaticComplexity')
+    static int compare(VersionSegments lhs, VersionSegments rhs) {
+        if (lhs == null) {
+            return rhs == null ? 0 : -1
+        }
+
+        if (rhs == null) {
+            return -1
+        }
+
+        if (lhs.is(rhs)) {
+            return 0
+        }
+
+        int common = Math.min(lhs.parts.length, rhs.parts.length)
+        for (int i = 0; i < common; i++) {
+            int cmp
+            boolean lhsNumerical = lhs.numeric[i]
+            boolean rhsNumerical = rhs.numeric[i]
+
+            if (lhsNumerical && rhsNumerical) {
+                cmp = compareDigits(lhs.parts[i], rhs.parts[i])
+            } else if (lhsNumerical) {
+                cmp = 1
+            } else if (rhsNumerical) {
+                cmp = -1
+            } else {
+                cmp = lhs.parts[i] <=> rhs.parts[i]
+            }
+
+            if (cmp != 0) {
+                return cmp
+            }
+        }
+
+        lhs.parts.length <=> rhs.parts.length
+    }
+
+    /** The original version string.
+     *
+     */
+    final String version
+
+    /** The version up to, but excluding, the first segment which starts with a letter.
+     *
+     * @return Leading part of the version or {@code null} if nothing remains.
+     */
+    VersionSegments getIntegerPrefix() {
+        if (!integerPrefixResolved) {
+            integerPrefix = of(version.replaceFirst(NON_INTEGER_TAIL, ''))
+            integerPrefixResolved = true
+        }
+        integerPrefix
+    }
+
+    @Override
+    String toString() {
+        version
+    }
+
+    private VersionSegments(String version) {
+        this.version = version
+        this.parts = version.tokenize('.') as String[]
+        this.numeric = new boolean[parts.length]
+        for (int i = 0; i < parts.length; i++) {
+            numeric[i] = isDigits(parts[i])
+            if (numeric[i]) {
+                parts[i] = stripLeadingZeros(parts[i])
+            }
+        }
+    }
+
+    private static boolean isDigits(String part) {
+        int length = part.length()
+        for (int i = 0; i < length; i++) {
+            char ch = part.charAt(i)
+            if (ch < ZERO || ch > NINE) {
+                return false
+            }
+        }
+        true
+    }
+
+    private static String stripLeadingZeros(String digits) {
+        int start = 0
+        while (start < digits.length() - 1 && digits.charAt(start) == ZERO) {
+            start++
+        }
+        start == 0 ? digits : digits.substring(start)
+    }
+
+    /** Numeric comparison of two digit strings without leading zeros, which also works beyond the range of a
+     * {@code long}.
+     */
+    private static int compareDigits(String lhs, String rhs) {
+        int cmp = lhs.length() <=> rhs.length()
+        cmp == 0 ? Integer.signum(lhs <=> rhs) : cmp
+    }
+
+    static private final int MAX_INTERNED = 8192
+    static private final char ZERO = '0' as char
+    static private final char NINE = '9' as char
+    static private final Pattern NON_INTEGER_TAIL = ~/\.\p{Alpha}.*$/
+    static private final BoundedCache<String, VersionSegments> INTERNED =
+        new BoundedCache<String, VersionSegments>(MAX_INTERNED)
+
+    private final String[] parts
+    private final boolean[] numeric
+    private VersionSegments integerPrefix
+    private boolean integerPrefixResolved
+}
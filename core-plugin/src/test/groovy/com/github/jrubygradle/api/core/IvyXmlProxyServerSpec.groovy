@@ -56,11 +56,12 @@ class IvyXmlProxyServerSpec extends Specification {
 
     void 'Build an Ivy Xml file from a query to Rubygems'() {
         when: 'I query the local proxy server'
-        httpBuilder.get {
+        Object ivyXml = httpBuilder.get {
             request.uri.path = "/rubygems/${TEST_IVY_PATH}"
         }
 
         then: 'The Ivy file should be generated and cached locally'
-        new File(projectRoot.root, TEST_IVY_PATH)
+        ivyXml.info.'@module'.text() == CREDIT_CARD
+        new File(projectRoot.root, 'ivy-xml.store').exists()
     }
 }
\ No newline at end of file
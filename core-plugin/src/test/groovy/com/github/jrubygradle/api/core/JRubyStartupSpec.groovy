@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.api.core
+
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import org.ysb33r.grolifant.api.core.ProjectOperations
+import spock.lang.Specification
+import spock.util.environment.RestoreSystemProperties
+
+class JRubyStartupSpec extends Specification {
+
+    Project project = ProjectBuilder.builder().build()
+    ProjectOperations projectOperations = ProjectOperations.create(project)
+
+    void 'Dev mode flags are only applied when asked for'() {
+        given:
+        File jar = project.file('jruby-complete-9.2.9.0.jar')
+
+        expect:
+        JRubyStartup.jvmArgs(projectOperations, null, jar, [jar]).empty
+        JRubyStartup.jvmArgs(projectOperations, null, jar, [jar], true) == JRubyStartup.DEV_MODE_JVM_ARGS
+    }
+
+    void 'No shared archive is used for a classpath with more than jruby-complete'() {
+        given:
+        File jar = project.file('jruby-complete-9.2.9.0.jar')
+        File other = project.file('other.jar')
+
+        when:
+        List<String> args = JRubyStartup.jvmArgs(projectOperations, project.buildDir, jar, [jar, other], true)
+
+        then:
+        args == JRubyStartup.DEV_MODE_JVM_ARGS
+        !new File(project.buildDir, 'jruby-cds').exists()
+    }
+
+    @RestoreSystemProperties
+    void 'Start-up tuning can be switched off'() {
+        given:
+        File jar = project.file('jruby-complete-9.2.9.0.jar')
+        System.setProperty('com.github.jrubygradle.fast-startup', 'false')
+
+        expect:
+        JRubyStartup.jvmArgs(projectOperations, project.buildDir, jar, [jar], true).empty
+    }
+}
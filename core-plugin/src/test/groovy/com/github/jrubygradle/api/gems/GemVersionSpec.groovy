@@ -115,6 +115,25 @@ class GemVersionSpec extends Specification {
         '~> 2.2, >= 2.2.1' | '[2.2.1,3.0['
     }
 
+    @Unroll
+    void "#gemRequirement (gem requirement) allows #version: #allowed"() {
+        expect:
+        gemVersionFromGemRequirement(gemRequirement).allows(version) == allowed
+
+        where:
+        gemRequirement | version  | allowed
+        '~> 1.0'       | '1.0.0'  | true
+        '~> 1.0'       | '1.5.2'  | true
+        '~> 1.0'       | '2.0'    | false
+        '~> 1.0'       | '0.9.9'  | false
+        '>= 2.2.0'     | '10.0'   | true
+        '> 2.0'        | '2.0'    | false
+        '<= 3.0'       | '3.0'    | true
+        '< 2.3.0'      | '2.3.0'  | false
+        '= 1.0.0'      | '1.0.0'  | true
+        '= 1.0.0'      | '1.0.1'  | false
+    }
+
     void "intersects with conflict"() {
         given:
         GemVersion subject = gemVersionFromGradleIvyRequirement('[1.2.1,1.2.3]')
@@ -138,4 +157,28 @@ class GemVersionSpec extends Specification {
         then:
         notThrown(Exception)
     }
+
+    void "parsed requirements are shared"() {
+        expect:
+        gemVersionFromGemRequirement('~> 2.2.0').is(gemVersionFromGemRequirement('~> 2.2.0'))
+        gemVersionFromGradleIvyRequirement('[1.2.0,1.2.4]').is(gemVersionFromGradleIvyRequirement('[1.2.0,1.2.4]'))
+        singleGemVersionFromMultipleGemRequirements('< 3,>= 1.2').is(
+            singleGemVersionFromMultipleGemRequirements('< 3,>= 1.2')
+        )
+    }
+
+    @Unroll
+    void "#ivyLeft compared to #ivyRight is #result"() {
+        expect:
+        Integer.signum(gemVersionFromGradleIvyRequirement(ivyLeft) <=> gemVersionFromGradleIvyRequirement(ivyRight)) == result
+
+        where:
+        ivyLeft                    | ivyRight                   | result
+        '1.2.10'                   | '1.2.9'                    | 1
+        '1.02.0'                   | '1.2.0'                    | 0
+        '1.2.pre'                  | '1.2.0'                    | -1
+        '1.2.0'                    | '1.2.0.0'                  | -1
+        '20230101120000.1'         | '20230101120000.0'         | 1
+        '99999999999999999999.0'   | '100000000000000000000.0'  | -1
+    }
 }
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import com.github.jrubygradle.api.core.ApiException
+import com.github.jrubygradle.api.core.AsyncRubyGemQueryRestApi
+import com.github.jrubygradle.api.core.GemRepositoryConfiguration
+import com.github.jrubygradle.api.core.RubyGemQueryRestApi
+import com.github.jrubygradle.api.gems.GemInfo
+import com.github.jrubygradle.internal.gems.DefaultGemDependency
+import com.github.jrubygradle.internal.gems.DefaultGemInfo
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.security.MessageDigest
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.atomic.AtomicInteger
+
+class AbstractIvyXmlProxyServerSpec extends Specification {
+
+    @Rule
+    TemporaryFolder cacheRoot
+
+    ExecutorService executor = Executors.newFixedThreadPool(8)
+
+    void cleanup() {
+        executor.shutdownNow()
+    }
+
+    void 'Concurrent requests for the same GEM are coalesced into one remote request'() {
+        given:
+        StubApi api = new StubApi()
+        TestProxyServer server = createServer(api, 4)
+
+        when:
+        List<Future<IvyXmlStore.Entry>> results = (1..8).collect {
+            executor.submit({ -> server.getIvyXml('rubygems', 'foo', '1.0.0') } as Callable<IvyXmlStore.Entry>)
+        }
+        List<IvyXmlStore.Entry> ivyXmls = results*.get()
+
+        then:
+        api.metadataCalls.get() == 1
+        ivyXmls.toSet().size() == 1
+        new String(server.ivyXmlContent(ivyXmls.first()), 'UTF-8').contains('module="foo"')
+        ivyXmls.first().sha1 ==
+            MessageDigest.getInstance('SHA-1').digest(server.ivyXmlContent(ivyXmls.first())).encodeHex().toString()
+    }
+
+    void 'Requests for different GEMs do not exceed the concurrency limit'() {
+        given:
+        StubApi api = new StubApi()
+        TestProxyServer server = createServer(api, 2)
+
+        when:
+        List<Future<IvyXmlStore.Entry>> results = (1..6).collect { int i ->
+            executor.submit({ -> server.getIvyXml('rubygems', "foo${i}", '1.0.0') } as Callable<IvyXmlStore.Entry>)
+        }
+        results*.get()
+
+        then:
+        api.metadataCalls.get() == 6
+        api.maxInFlight.get() <= 2
+    }
+
+    void 'Remote failure is reported to all waiting requests'() {
+        given:
+        StubApi api = new StubApi(fail: true)
+        TestProxyServer server = createServer(api, 4)
+
+        when:
+        List<Future<IvyXmlStore.Entry>> results = (1..4).collect {
+            executor.submit({ -> server.getIvyXml('rubygems', 'foo', '1.0.0') } as Callable<IvyXmlStore.Entry>)
+        }
+        int notFound = results.count { Future<IvyXmlStore.Entry> f ->
+            try {
+                f.get()
+                false
+            } catch (ExecutionException e) {
+                e.cause instanceof AbstractIvyXmlProxyServer.NotFound
+            }
+        }
+
+        then:
+        notFound == 4
+    }
+
+    void 'Cached descriptors are served in offline mode without contacting the remote server'() {
+        given:
+        StubApi api = new StubApi()
+        createServer(api, 4).getIvyXml('rubygems', 'foo', '1.0.0')
+        TestProxyServer server = createServer(api, 4)
+        server.offline = true
+
+        when:
+        IvyXmlStore.Entry cached = server.getIvyXml('rubygems', 'foo', '1.0.0')
+        server.getIvyXml('rubygems', 'bar', '1.0.0')
+
+        then:
+        thrown(AbstractIvyXmlProxyServer.NotFound)
+        cached != null
+        api.metadataCalls.get() == 1
+    }
+
+    void 'Offline resolution of a range only selects revisions with a stored descriptor'() {
+        given:
+        StubApi api = new StubApi()
+        createServer(api, 4).getIvyXml('rubygems', 'foo', '1.0.0')
+        api.versions = ['1.0.0', '1.1.0']
+        TestProxyServer server = createServer(api, 4)
+        server.offline = true
+
+        when:
+        IvyXmlStore.Entry entry = server.getIvyXml('rubygems', 'foo', '[1.0.0,)')
+
+        then:
+        entry.revision == '1.0.0'
+        api.metadataCalls.get() == 1
+    }
+
+    void 'Runtime dependencies are prefetched when a GEM is first requested'() {
+        given:
+        StubAsyncApi asyncApi = new StubAsyncApi(dependencies: [
+            foo: [bar: '~> 1.0'],
+            bar: [baz: '>= 2.0'],
+            baz: [foo: '>= 0']
+        ])
+        TestProxyServer server = new TestProxyServer(
+            cacheRoot.root,
+            new GemRepositoryConfiguration(),
+            new StubApi(),
+            asyncApi
+        )
+
+        when:
+        server.getIvyXmlAsync('rubygems', 'foo', '1.0.0').get()
+        asyncApi.awaitPrefetch()
+
+        then:
+        server.store.get('bar', '1.2.0')
+        server.store.get('baz', '2.1.0')
+        asyncApi.metadataCalls.sort() == ['bar:1.2.0', 'baz:2.1.0', 'foo:1.0.0', 'foo:2.1.0']
+    }
+
+    void 'Prefetching can be disabled'() {
+        given:
+        StubAsyncApi asyncApi = new StubAsyncApi(dependencies: [foo: [bar: '~> 1.0']])
+        TestProxyServer server = new TestProxyServer(
+            cacheRoot.root,
+            new GemRepositoryConfiguration(prefetchDependencies: false),
+            new StubApi(),
+            asyncApi
+        )
+
+        when:
+        server.getIvyXmlAsync('rubygems', 'foo', '1.0.0').get()
+
+        then:
+        asyncApi.metadataCalls == ['foo:1.0.0']
+    }
+
+    void 'Cache lookups, remote calls and lock waits are recorded'() {
+        given:
+        TestProxyServer server = createServer(new StubApi(), 4)
+
+        when:
+        server.getIvyXml('rubygems', 'foo', '1.0.0')
+        server.getIvyXml('rubygems', 'foo', '1.0.0')
+        server.getIvyXml('rubygems', 'bar', '[1.0,)')
+        ProxyMetrics.Snapshot metrics = server.metrics.snapshot()
+
+        then:
+        metrics.counter(ProxyMetrics.CACHE_LOOKUPS, 'result', ProxyMetrics.CACHE_MISS) == 2
+        metrics.counter(ProxyMetrics.CACHE_LOOKUPS, 'result', ProxyMetrics.CACHE_HIT) == 1
+        metrics.counter(ProxyMetrics.UPSTREAM_REQUESTS, 'call', 'metadata', 'result', 'success') == 2
+        metrics.counter(ProxyMetrics.UPSTREAM_REQUESTS, 'call', 'latestVersion', 'result', 'success') == 1
+        metrics.sumNanos(ProxyMetrics.UPSTREAM_DURATION, 'call', 'metadata') >= 400_000_000L
+        metrics.count(ProxyMetrics.LOCK_WAIT, 'lock', 'metadata_requests') == 2
+    }
+
+    void 'Locked descriptors are served without contacting the remote server'() {
+        given:
+        StubApi api = new StubApi()
+        TestProxyServer server = createServer(api, 4)
+        byte[] ivyXml = '<ivy-module version="2.0"><info module="foo" revision="1.0.0"/></ivy-module>'.getBytes('UTF-8')
+
+        when:
+        server.addLockedIvyXml('foo', '1.0.0', ivyXml)
+        IvyXmlStore.Entry entry = server.getIvyXml('rubygems', 'foo', '1.0.0')
+
+        then:
+        api.metadataCalls.get() == 0
+        server.ivyXmlContent(entry) == ivyXml
+        entry.sha1 == MessageDigest.getInstance('SHA-1').digest(ivyXml).encodeHex().toString()
+        server.store.get('foo', '1.0.0') == null
+    }
+
+    void 'Locked descriptors take precedence over the store but are never written to it'() {
+        given:
+        StubApi api = new StubApi()
+        TestProxyServer server = createServer(api, 4)
+        IvyXmlStore.Entry stored = server.getIvyXml('rubygems', 'foo', '1.0.0')
+        byte[] storedIvyXml = server.ivyXmlContent(stored)
+        byte[] ivyXml = '<ivy-module version="2.0"><info module="foo" revision="1.0.0"/></ivy-module>'.getBytes('UTF-8')
+
+        when:
+        server.addLockedIvyXml('foo', '1.0.0', ivyXml)
+        IvyXmlStore.Entry entry = server.getIvyXmlAsync('rubygems', 'foo', '1.0.0').get()
+
+        then:
+        api.metadataCalls.get() == 1
+        server.ivyXmlContent(entry) == ivyXml
+        server.ivyXmlContent(server.store.get('foo', '1.0.0')) == storedIvyXml
+
+        when:
+        TestProxyServer other = createServer(api, 4)
+
+        then:
+        other.ivyXmlContent(other.getIvyXml('rubygems', 'foo', '1.0.0')) == storedIvyXml
+    }
+
+    private TestProxyServer createServer(RubyGemQueryRestApi api, int limit) {
+        GemRepositoryConfiguration grc = new GemRepositoryConfiguration(maxConcurrentRequests: limit)
+        new TestProxyServer(cacheRoot.root, grc, api)
+    }
+
+    static class TestProxyServer extends AbstractIvyXmlProxyServer {
+        TestProxyServer(File cache, GemRepositoryConfiguration grc, RubyGemQueryRestApi api) {
+            super(cache, 'https://foo'.toURI(), 'rubygems', grc, api)
+        }
+
+        TestProxyServer(
+            File cache,
+            GemRepositoryConfiguration grc,
+            RubyGemQueryRestApi api,
+            AsyncRubyGemQueryRestApi asyncApi
+        ) {
+            super(cache, 'https://foo'.toURI(), 'rubygems', grc, api, asyncApi)
+        }
+
+        @Override
+        protected int getBindPort() {
+            0
+        }
+
+        @Override
+        void run() {
+        }
+    }
+
+    static class StubApi implements RubyGemQueryRestApi {
+        boolean fail = false
+        final AtomicInteger metadataCalls = new AtomicInteger()
+        final AtomicInteger inFlight = new AtomicInteger()
+        final AtomicInteger maxInFlight = new AtomicInteger()
+        List<String> versions = ['1.0.0']
+
+        List<String> allVersions(String gemName) { versions }
+
+        List<String> allVersions(String gemName, boolean includePrelease) { versions }
+
+        String latestVersion(String gemName) { '1.0.0' }
+
+        String latestVersion(String gemName, boolean allowPrerelease) { '1.0.0' }
+
+        GemInfo metadata(String gemName, String version) {
+            metadataCalls.incrementAndGet()
+            int current = inFlight.incrementAndGet()
+            maxInFlight.accumulateAndGet(current) { int a, int b -> Math.max(a, b) }
+            try {
+                Thread.sleep(200)
+                if (fail) {
+                    throw new ApiException("${gemName} not found")
+                }
+                new DefaultGemInfo(
+                    name: gemName,
+                    version: version,
+                    gemUri: "https://foo/downloads/${gemName}-${version}.gem".toURI()
+                )
+            } finally {
+                inFlight.decrementAndGet()
+            }
+        }
+    }
+
+    static class StubAsyncApi implements AsyncRubyGemQueryRestApi {
+        Map<String, Map<String, String>> dependencies = [:]
+        final List<String> metadataCalls = Collections.synchronizedList([])
+        final List<CompletableFuture<?>> issued = Collections.synchronizedList([])
+
+        CompletableFuture<List<String>> allVersions(String gemName, boolean includePrelease) {
+            List<String> versions = ['1.0.0', '1.2.0', '2.1.0', '3.0.0.pre']
+            track(CompletableFuture.supplyAsync {
+                includePrelease ? versions : versions.findAll { !it.endsWith('.pre') }
+            })
+        }
+
+        CompletableFuture<String> latestVersion(String gemName, boolean allowPrerelease) {
+            track(CompletableFuture.completedFuture('2.1.0'))
+        }
+
+        CompletableFuture<GemInfo> metadata(String gemName, String version) {
+            metadataCalls.add("${gemName}:${version}".toString())
+            track(CompletableFuture.supplyAsync {
+                DefaultGemInfo info = new DefaultGemInfo(
+                    name: gemName,
+                    version: version,
+                    gemUri: "https://foo/downloads/${gemName}-${version}.gem".toURI()
+                )
+                dependencies[gemName]?.each { String name, String requirements ->
+                    info.dependencies.add(new DefaultGemDependency(name: name, requirements: requirements))
+                }
+                (GemInfo) info
+            })
+        }
+
+        void awaitPrefetch() {
+            int seen = -1
+            while (seen != issued.size()) {
+                seen = issued.size()
+                CompletableFuture.allOf(issued.toArray(new CompletableFuture[0])).get()
+                Thread.sleep(100)
+            }
+        }
+
+        private <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+            issued.add(future)
+            future
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import spock.lang.Specification
+
+class BoundedCacheSpec extends Specification {
+
+    void 'Values are calculated once'() {
+        given:
+        def cache = new BoundedCache<String, Integer>(4)
+        int calls = 0
+
+        when:
+        def first = cache.get('foo') { calls++; it.length() }
+        def second = cache.get('foo') { calls++; it.length() }
+
+        then:
+        first == 3
+        second == 3
+        calls == 1
+    }
+
+    void 'Least recently used entries are evicted'() {
+        given:
+        def cache = new BoundedCache<String, String>(2)
+        cache.get('a') { it }
+        cache.get('b') { it }
+
+        when:
+        cache.get('a') { throw new IllegalStateException('a should be cached') }
+        cache.get('c') { it }
+        String recalculated = null
+        cache.get('b') { recalculated = it }
+
+        then:
+        cache.size() == 2
+        recalculated == 'b'
+    }
+
+    void 'Null values are not cached'() {
+        given:
+        def cache = new BoundedCache<String, String>(2)
+
+        when:
+        cache.get('a') { null }
+
+        then:
+        cache.size() == 0
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import com.github.jrubygradle.api.core.ApiException
+import com.github.jrubygradle.api.gems.GemInfo
+import ratpack.server.RatpackServer
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import static groovy.json.JsonOutput.toJson
+import static ratpack.server.ServerConfig.embedded
+
+class DefaultAsyncRubyGemRestApiSpec extends Specification {
+
+    static final int CONCURRENCY = 4
+    static final String ETAG = '"versions-1"'
+
+    RatpackServer stub
+    GemVersionListCache versionLists = new GemVersionListCache()
+    DefaultAsyncRubyGemRestApi api
+    AtomicInteger versionListCalls = new AtomicInteger()
+    AtomicInteger notModifiedCalls = new AtomicInteger()
+
+    void setup() {
+        stub = RatpackServer.start { server ->
+            server.serverConfig(embedded().port(0)).handlers { chain ->
+                chain.get('api/v1/versions/:name/latest.json') { ctx ->
+                    String name = ctx.allPathTokens.name
+                    ctx.response.contentType('application/json').send(
+                        toJson(version: name == 'missing' ? 'unknown' : '1.1.0')
+                    )
+                }.get('api/v1/versions/:file') { ctx ->
+                    versionListCalls.incrementAndGet()
+                    if (ctx.request.headers.get('If-None-Match') == ETAG) {
+                        notModifiedCalls.incrementAndGet()
+                        ctx.response.status(304).send()
+                        return
+                    }
+                    ctx.response.headers.set('ETag', ETAG)
+                    ctx.response.contentType('application/json').send(toJson([
+                        [number: '1.0.0', prerelease: false, platform: 'ruby'],
+                        [number: '1.1.0', prerelease: false, platform: 'ruby'],
+                        [number: '1.1.0', prerelease: false, platform: 'java'],
+                        [number: '2.0.0', prerelease: true, platform: 'ruby']
+                    ]))
+                }.get('api/v2/rubygems/:name/versions/:file') { ctx ->
+                    String name = ctx.allPathTokens.name
+                    String version = ctx.allPathTokens.file - '.json'
+                    ctx.response.contentType('application/json').send(toJson(
+                        name: name,
+                        version: version,
+                        platform: 'ruby',
+                        authors: 'Jane Doe',
+                        dependencies: [
+                            runtime: [[name: 'bar', requirements: '~> 1.0']],
+                            development: []
+                        ]
+                    ))
+                }
+            }
+        }
+        api = new DefaultAsyncRubyGemRestApi("http://localhost:${stub.bindPort}".toURI(), CONCURRENCY, versionLists)
+    }
+
+    void cleanup() {
+        api.close()
+        stub.stop()
+    }
+
+    void 'Retrieve all versions'() {
+        expect:
+        api.allVersions('foo', false).get(10, TimeUnit.SECONDS) == ['1.0.0', '1.1.0', '1.1.0']
+        api.allVersions('foo', true).get(10, TimeUnit.SECONDS).contains('2.0.0')
+    }
+
+    void 'Retrieve latest version'() {
+        expect:
+        api.latestVersion('foo', false).get(10, TimeUnit.SECONDS) == '1.1.0'
+        api.latestVersion('foo', true).get(10, TimeUnit.SECONDS) == '2.0.0'
+    }
+
+    void 'Unknown GEM completes exceptionally'() {
+        when:
+        api.latestVersion('missing', false).join()
+
+        then:
+        def e = thrown(CompletionException)
+        e.cause instanceof ApiException
+    }
+
+    void 'Metadata detects a JRuby-specific platform'() {
+        when:
+        GemInfo info = api.metadata('foo', '1.1.0').get(10, TimeUnit.SECONDS)
+
+        then:
+        info.name == 'foo'
+        info.platform == 'java'
+        info.dependencies*.name == ['bar']
+    }
+
+    void 'Many concurrent requests complete without blocking the caller'() {
+        when:
+        List<CompletableFuture<GemInfo>> futures = (1..200).collect { int i ->
+            api.metadata("foo${i}", '1.0.0')
+        }
+        CompletableFuture.allOf(futures as CompletableFuture[]).get(60, TimeUnit.SECONDS)
+
+        then:
+        futures*.join()*.name.toSet().size() == 200
+    }
+
+    void 'The version list is shared between version queries and platform checks'() {
+        when:
+        api.allVersions('foo', false).get(10, TimeUnit.SECONDS)
+        api.latestVersion('foo', true).get(10, TimeUnit.SECONDS)
+        ['1.0.0', '1.1.0'].each { api.metadata('foo', it).get(10, TimeUnit.SECONDS) }
+
+        then:
+        versionListCalls.get() == 1
+    }
+
+    void 'An expired version list is revalidated with a conditional request'() {
+        given:
+        api.allVersions('foo', false).get(10, TimeUnit.SECONDS)
+
+        when:
+        versionLists.expireAll()
+        List<String> versions = api.allVersions('foo', false).get(10, TimeUnit.SECONDS)
+
+        then:
+        versionListCalls.get() == 2
+        notModifiedCalls.get() == 1
+        versions == ['1.0.0', '1.1.0', '1.1.0']
+    }
+}
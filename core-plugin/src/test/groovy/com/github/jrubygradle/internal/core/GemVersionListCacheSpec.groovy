@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+import java.util.function.Function
+
+class GemVersionListCacheSpec extends Specification {
+
+    @Rule
+    TemporaryFolder cacheRoot
+
+    List<GemVersionList> loaderCalls = []
+
+    void 'A version list is only loaded once within the expiry window'() {
+        given:
+        GemVersionListCache cache = new GemVersionListCache(null, TimeUnit.HOURS.toMillis(1))
+
+        when:
+        GemVersionList first = cache.get('foo', loader('1.0.0')).get()
+        GemVersionList second = cache.get('foo', loader('2.0.0')).get()
+
+        then:
+        loaderCalls.size() == 1
+        second.is(first)
+        second.versions(false) == ['1.0.0', '1.0.0']
+    }
+
+    void 'An expired version list is passed to the loader for revalidation'() {
+        given:
+        GemVersionListCache cache = new GemVersionListCache(null, TimeUnit.HOURS.toMillis(1))
+        GemVersionList first = cache.get('foo', loader('1.0.0')).get()
+
+        when:
+        cache.expireAll()
+        GemVersionList second = cache.get('foo', { GemVersionList stale ->
+            loaderCalls.add(stale)
+            CompletableFuture.completedFuture(stale.revalidated())
+        } as Function<GemVersionList, CompletableFuture<GemVersionList>>).get()
+
+        then:
+        loaderCalls == [null, first]
+        second.versions(false) == ['1.0.0', '1.0.0']
+        second.fetchedAt >= first.fetchedAt
+    }
+
+    void 'Version lists are persisted to disk'() {
+        given:
+        File root = cacheRoot.root
+        new GemVersionListCache(root, TimeUnit.HOURS.toMillis(1)).get('foo', loader('1.0.0')).get()
+
+        when:
+        GemVersionList cached = new GemVersionListCache(root, TimeUnit.HOURS.toMillis(1))
+            .get('foo', loader('2.0.0')).get()
+
+        then:
+        loaderCalls.size() == 1
+        cached.etag == '"abc"'
+        cached.versions(true) == ['1.0.0', '1.0.0', '1.1.0.rc1']
+        cached.versions(false) == ['1.0.0', '1.0.0']
+        cached.hasJavaPlatform('1.0.0')
+        !cached.hasJavaPlatform('1.1.0.rc1')
+    }
+
+    void 'Concurrent lookups share a single load'() {
+        given:
+        GemVersionListCache cache = new GemVersionListCache(null, TimeUnit.HOURS.toMillis(1))
+        CompletableFuture<GemVersionList> remote = new CompletableFuture<GemVersionList>()
+        Function<GemVersionList, CompletableFuture<GemVersionList>> slowLoader = { GemVersionList stale ->
+            loaderCalls.add(stale)
+            remote
+        } as Function<GemVersionList, CompletableFuture<GemVersionList>>
+
+        when:
+        List<CompletableFuture<GemVersionList>> lookups = (1..5).collect { cache.get('foo', slowLoader) }
+        remote.complete(versionList('1.0.0'))
+
+        then:
+        loaderCalls.size() == 1
+        lookups*.get()*.versions(false).every { it == ['1.0.0', '1.0.0'] }
+    }
+
+    private Function<GemVersionList, CompletableFuture<GemVersionList>> loader(String version) {
+        return { GemVersionList stale ->
+            loaderCalls.add(stale)
+            CompletableFuture.completedFuture(versionList(version))
+        } as Function<GemVersionList, CompletableFuture<GemVersionList>>
+    }
+
+    private GemVersionList versionList(String version) {
+        GemVersionList.fromJson([
+            [number: version, platform: 'ruby', prerelease: false],
+            [number: version, platform: 'java', prerelease: false],
+            [number: '1.1.0.rc1', platform: 'ruby', prerelease: true]
+        ], '"abc"', null)
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.security.MessageDigest
+
+class IvyXmlStoreSpec extends Specification {
+
+    @Rule
+    TemporaryFolder storeRoot
+
+    void 'Stored descriptors can be read back'() {
+        given:
+        IvyXmlStore store = new IvyXmlStore(storeRoot.root)
+
+        when:
+        IvyXmlStore.Entry entry = put(store, 'foo', '1.0.0', '<ivy-module/>')
+
+        then:
+        store.get('foo', '1.0.0').is(entry)
+        new String(store.read(entry), 'UTF-8') == '<ivy-module/>'
+        entry.sha1 == sha1('<ivy-module/>')
+        store.get('foo', '2.0.0') == null
+
+        cleanup:
+        store.close()
+    }
+
+    void 'Descriptors survive reopening the store'() {
+        given:
+        IvyXmlStore first = new IvyXmlStore(storeRoot.root)
+        put(first, 'foo', '1.0.0', 'one')
+        put(first, 'bar', '1.0.0', 'two')
+        first.close()
+
+        when:
+        IvyXmlStore second = new IvyXmlStore(storeRoot.root)
+
+        then:
+        second.size() == 2
+        new String(second.read(second.get('bar', '1.0.0')), 'UTF-8') == 'two'
+        second.get('foo', '1.0.0').sha1 == sha1('one')
+
+        cleanup:
+        second.close()
+    }
+
+    void 'Descriptors appended by another process are found on lookup'() {
+        given:
+        IvyXmlStore reader = new IvyXmlStore(storeRoot.root)
+        IvyXmlStore writer = new IvyXmlStore(storeRoot.root)
+
+        when:
+        put(writer, 'foo', '1.0.0', 'one')
+
+        then:
+        new String(reader.read(reader.get('foo', '1.0.0')), 'UTF-8') == 'one'
+
+        cleanup:
+        writer.close()
+        reader.close()
+    }
+
+    void 'Stored revisions of a GEM are listed, including those appended by another process'() {
+        given:
+        IvyXmlStore reader = new IvyXmlStore(storeRoot.root)
+        IvyXmlStore writer = new IvyXmlStore(storeRoot.root)
+        put(reader, 'foo', '1.0.0', 'one')
+        put(reader, 'foobar', '1.1.0', 'two')
+
+        when:
+        put(writer, 'foo', '2.0.0', 'three')
+
+        then:
+        reader.revisions('foo') == ['1.0.0', '2.0.0'] as Set
+        reader.revisions('bar').empty
+
+        cleanup:
+        writer.close()
+        reader.close()
+    }
+
+    void 'An incomplete record at the end of the store is ignored'() {
+        given:
+        IvyXmlStore store = new IvyXmlStore(storeRoot.root)
+        put(store, 'foo', '1.0.0', 'one')
+        store.close()
+        File storeFile = new File(storeRoot.root, 'ivy-xml.store')
+        long validLength = storeFile.length()
+        storeFile.append([0x49, 0x56, 0x58, 0x52, 0, 3] as byte[])
+
+        when:
+        IvyXmlStore reopened = new IvyXmlStore(storeRoot.root)
+        put(reopened, 'bar', '1.0.0', 'two')
+
+        then:
+        reopened.size() == 2
+        new String(reopened.read(reopened.get('bar', '1.0.0')), 'UTF-8') == 'two'
+        storeFile.length() > validLength
+
+        cleanup:
+        reopened.close()
+    }
+
+    void 'Superseded descriptors are removed when the store is compacted'() {
+        given:
+        IvyXmlStore store = new IvyXmlStore(storeRoot.root)
+        File storeFile = new File(storeRoot.root, 'ivy-xml.store')
+        (1..10).each { put(store, 'foo', '1.0.0', "revision ${it}") }
+        put(store, 'bar', '1.0.0', 'bar')
+        long uncompacted = storeFile.length()
+
+        when:
+        store.close()
+        IvyXmlStore reopened = new IvyXmlStore(storeRoot.root)
+
+        then:
+        storeFile.length() < uncompacted
+        reopened.size() == 2
+        new String(reopened.read(reopened.get('foo', '1.0.0')), 'UTF-8') == 'revision 10'
+        new String(reopened.read(reopened.get('bar', '1.0.0')), 'UTF-8') == 'bar'
+
+        cleanup:
+        reopened.close()
+    }
+
+    private IvyXmlStore.Entry put(IvyXmlStore store, String name, String revision, String content) {
+        store.put(name, revision, content.getBytes('UTF-8'), sha1(content))
+    }
+
+    private String sha1(String content) {
+        MessageDigest.getInstance('SHA-1').digest(content.getBytes('UTF-8')).encodeHex().toString()
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import groovy.json.JsonSlurper
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.util.environment.RestoreSystemProperties
+
+@RestoreSystemProperties
+class PhaseTraceSpec extends Specification {
+
+    @Rule
+    TemporaryFolder temporaryFolder
+
+    void setup() {
+        PhaseTrace.write(temporaryFolder.newFolder()).delete()
+    }
+
+    void 'Nothing is recorded when tracing is disabled'() {
+        given:
+        System.clearProperty('com.github.jrubygradle.trace')
+
+        when:
+        PhaseTrace.start(PhaseTrace.GEMS, 'unpack').arg('gems', 1).close()
+        PhaseTrace.complete(PhaseTrace.PROXY, 'metadata', System.nanoTime(), 1000, [:])
+        PhaseTrace.counter(PhaseTrace.PROXY, 'cache', [hit: 1])
+        Map trace = read(PhaseTrace.write(temporaryFolder.root))
+
+        then:
+        !PhaseTrace.enabled
+        trace.traceEvents.every { it.ph == 'M' }
+    }
+
+    void 'Spans and counters are written in the trace event format'() {
+        given:
+        System.setProperty('com.github.jrubygradle.trace', 'true')
+
+        when:
+        PhaseTrace.Span span = PhaseTrace.start(PhaseTrace.GEMS, 'unpack').arg('gems', 3)
+        span.close()
+        span.close()
+        PhaseTrace.complete(PhaseTrace.PROXY, 'metadata', System.nanoTime(), 2_000_000, [success: true])
+        PhaseTrace.counter(PhaseTrace.PROXY, 'cache', [hit: 2, miss: 1])
+        File report = PhaseTrace.write(temporaryFolder.root)
+        List<Map> events = read(report).traceEvents
+
+        then:
+        report.name.startsWith('trace-')
+        events.findAll { it.name == 'unpack' }.size() == 1
+        events.find { it.name == 'unpack' }.with { cat == 'gems' && ph == 'X' && args.gems == 3 }
+        events.find { it.name == 'metadata' }.with { ph == 'X' && dur == 2000 && args.success }
+        events.find { it.name == 'cache' }.with { ph == 'C' && args.hit == 2 && args.miss == 1 }
+        events.find { it.name == 'thread_name' }.ph == 'M'
+
+        and: 'events are only written once'
+        read(PhaseTrace.write(temporaryFolder.newFolder())).traceEvents.every { it.ph == 'M' }
+    }
+
+    private Map read(File report) {
+        (Map) new JsonSlurper().parse(report)
+    }
+}
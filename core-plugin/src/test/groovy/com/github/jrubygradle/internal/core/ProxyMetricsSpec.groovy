@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import spock.lang.Specification
+
+import static com.github.jrubygradle.internal.core.ProxyMetrics.REQUESTS
+import static com.github.jrubygradle.internal.core.ProxyMetrics.REQUEST_DURATION
+import static com.github.jrubygradle.internal.core.ProxyMetrics.ROUTE_IVY_XML
+import static com.github.jrubygradle.internal.core.ProxyMetrics.ROUTE_LISTING
+
+class ProxyMetricsSpec extends Specification {
+
+    ProxyMetrics metrics = new ProxyMetrics()
+
+    void 'Requests are counted per route and status'() {
+        when:
+        metrics.request(ROUTE_IVY_XML, 2_000_000, true)
+        metrics.request(ROUTE_IVY_XML, 30_000_000, true)
+        metrics.request(ROUTE_IVY_XML, 40_000_000, false)
+        ProxyMetrics.Snapshot snapshot = metrics.snapshot()
+
+        then:
+        snapshot.counter(REQUESTS, 'route', ROUTE_IVY_XML, 'status', '200') == 2
+        snapshot.counter(REQUESTS, 'route', ROUTE_IVY_XML, 'status', '404') == 1
+        snapshot.counterTotal(REQUESTS, 'route', ROUTE_IVY_XML) == 3
+        snapshot.counterTotal(REQUESTS, 'route', ROUTE_LISTING) == 0
+        snapshot.count(REQUEST_DURATION, 'route', ROUTE_IVY_XML) == 3
+        snapshot.sumNanos(REQUEST_DURATION, 'route', ROUTE_IVY_XML) == 72_000_000
+        snapshot.quantile(0.5d, REQUEST_DURATION, 'route', ROUTE_IVY_XML) == 0.05d
+    }
+
+    void 'Metrics are exposed in the Prometheus text format'() {
+        given:
+        metrics.request(ROUTE_LISTING, 20_000_000_000, true)
+        metrics.cacheLookup(ProxyMetrics.CACHE_HIT)
+
+        when:
+        String text = metrics.snapshot().toPrometheus()
+
+        then:
+        text.contains('# TYPE jrubygradle_proxy_cache_lookups_total counter\n')
+        text.contains('jrubygradle_proxy_cache_lookups_total{result="hit"} 1\n')
+        text.contains('# TYPE jrubygradle_proxy_request_duration_seconds histogram\n')
+        text.contains('jrubygradle_proxy_request_duration_seconds_bucket{route="listing",le="10.0"} 0\n')
+        text.contains('jrubygradle_proxy_request_duration_seconds_bucket{route="listing",le="+Inf"} 1\n')
+        text.contains('jrubygradle_proxy_request_duration_seconds_count{route="listing"} 1\n')
+    }
+
+    void 'A summary only covers what happened after a baseline'() {
+        given:
+        metrics.request(ROUTE_IVY_XML, 1_000_000, true)
+        ProxyMetrics.Snapshot baseline = metrics.snapshot()
+
+        when:
+        List<String> unchanged = metrics.snapshot().minus(baseline).summary()
+        metrics.request(ROUTE_IVY_XML, 3_000_000, true)
+        metrics.upstream('metadata', 100_000_000, false)
+        List<String> summary = metrics.snapshot().minus(baseline).summary()
+
+        then:
+        unchanged.empty
+        summary.contains('ivy.xml: 1 requests (0 not found), mean 3 ms, p95 <= 0.005 s')
+        summary.contains('upstream: 1 calls (1 failed), 0.100 s in total')
+    }
+
+    void 'Metrics of several proxies can be combined under distinct labels'() {
+        given:
+        ProxyMetrics other = new ProxyMetrics()
+        metrics.request(ROUTE_IVY_XML, 2_000_000, true)
+        metrics.cacheLookup(ProxyMetrics.CACHE_HIT)
+        other.cacheLookup(ProxyMetrics.CACHE_HIT)
+
+        when:
+        ProxyMetrics.Snapshot combined = ProxyMetrics.Snapshot.merge([
+            metrics.snapshot().withLabels('upstream', 'https://a'),
+            other.snapshot().withLabels('upstream', 'https://b')
+        ])
+        String text = combined.toPrometheus()
+
+        then:
+        combined.counterTotal(ProxyMetrics.CACHE_LOOKUPS, 'result', ProxyMetrics.CACHE_HIT) == 2
+        combined.counter(ProxyMetrics.CACHE_LOOKUPS, 'upstream', 'https://b', 'result', ProxyMetrics.CACHE_HIT) == 1
+        text.count('# TYPE jrubygradle_proxy_cache_lookups_total counter') == 1
+        text.contains('jrubygradle_proxy_request_duration_seconds_count{upstream="https://a",route="ivy.xml"} 1\n')
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import com.github.jrubygradle.api.core.GemRepositoryConfiguration
+import com.github.jrubygradle.api.core.IvyXmlProxyServer
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import ratpack.server.RatpackServer
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import static groovy.json.JsonOutput.toJson
+import static ratpack.server.ServerConfig.embedded
+
+class SharedIvyXmlProxyServerSpec extends Specification {
+
+    @Rule
+    TemporaryFolder cacheRoot
+
+    RatpackServer upstream
+    SharedIvyXmlProxyServer server = new SharedIvyXmlProxyServer(8)
+    AtomicInteger metadataCalls = new AtomicInteger()
+
+    void setup() {
+        upstream = RatpackServer.start { spec ->
+            spec.serverConfig(embedded().port(0)).handlers { chain ->
+                chain.get('api/v1/versions/:file') { ctx ->
+                    ctx.response.contentType('application/json').send(toJson([
+                        [number: '1.0.0', prerelease: false, platform: 'java']
+                    ]))
+                }.get('api/v2/rubygems/:name/versions/:file') { ctx ->
+                    metadataCalls.incrementAndGet()
+                    ctx.response.contentType('application/json').send(toJson(
+                        name: ctx.allPathTokens.name,
+                        version: ctx.allPathTokens.file - '.json',
+                        platform: 'java',
+                        authors: 'Jane Doe',
+                        dependencies: [runtime: [], development: []]
+                    ))
+                }
+            }
+        }
+    }
+
+    void cleanup() {
+        server.close()
+        upstream.stop()
+    }
+
+    void 'Several remote GEM servers are served by one server below their own prefixes'() {
+        given:
+        IvyXmlProxyServer first = register('first', 'rubygems')
+        IvyXmlProxyServer second = register('second', 'mygems')
+
+        when:
+        String firstIvyXml = "${first.bindAddress}/rubygems/foo/1.0.0/ivy.xml".toURL().text
+        String secondIvyXml = "${second.bindAddress}/mygems/bar/1.0.0/ivy.xml".toURL().text
+
+        then:
+        first.bindAddress.port == second.bindAddress.port
+        first.bindAddress.path == '/first'
+        firstIvyXml.contains('module="foo"')
+        secondIvyXml.contains('module="bar"')
+        metadataCalls.get() == 2
+        new File(cacheRoot.root, 'first/ivy-xml.store').exists()
+        new File(cacheRoot.root, 'second/ivy-xml.store').exists()
+    }
+
+    void 'A GEM is only served from the group of its own remote GEM server'() {
+        given:
+        IvyXmlProxyServer first = register('first', 'rubygems')
+        register('second', 'mygems')
+
+        when:
+        HttpURLConnection connection = (HttpURLConnection) "${first.bindAddress}/mygems/foo/1.0.0/ivy.xml".toURL()
+            .openConnection()
+
+        then:
+        connection.responseCode == 404
+    }
+
+    void 'Unknown prefixes are not found'() {
+        given:
+        register('first', 'rubygems')
+
+        when:
+        HttpURLConnection connection = (HttpURLConnection) "${server.bindAddress}/unknown/rubygems/foo/1.0.0/ivy.xml"
+            .toURL().openConnection()
+
+        then:
+        connection.responseCode == 404
+    }
+
+    void 'Metrics of all remote GEM servers are labelled with their URI'() {
+        given:
+        IvyXmlProxyServer first = register('first', 'rubygems')
+        "${first.bindAddress}/rubygems/foo/1.0.0/ivy.xml".toURL().text
+
+        when:
+        String metrics = "${server.bindAddress}/metrics".toURL().text
+
+        then:
+        metrics.contains(
+            "jrubygradle_proxy_requests_total{upstream=\"${upstreamUri}\",route=\"ivy.xml\",status=\"200\"} 1"
+        )
+    }
+
+    void 'Closing the server stops it'() {
+        given:
+        IvyXmlProxyServer first = register('first', 'rubygems')
+        URL ivyXml = "${first.bindAddress}/rubygems/foo/1.0.0/ivy.xml".toURL()
+
+        when:
+        server.close()
+        ivyXml.text
+
+        then:
+        thrown(IOException)
+        !server.running
+        server.tenants.empty
+    }
+
+    private IvyXmlProxyServer register(String prefix, String group) {
+        IvyXmlProxyServer proxy = server.register(
+            prefix,
+            new File(cacheRoot.root, prefix),
+            upstreamUri,
+            group,
+            new GemRepositoryConfiguration()
+        )
+        proxy.run()
+        proxy
+    }
+
+    private URI getUpstreamUri() {
+        "http://localhost:${upstream.bindPort}".toURI()
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.core
+
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.function.Supplier
+
+class UpstreamLimiterSpec extends Specification {
+
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor()
+
+    void cleanup() {
+        scheduler.shutdownNow()
+    }
+
+    void 'Requests beyond the concurrency limit are queued until an earlier one completes'() {
+        given:
+        UpstreamLimiter limiter = new UpstreamLimiter(2)
+        List<CompletableFuture<Integer>> responses = (1..5).collect { new CompletableFuture<Integer>() }
+        List<Integer> started = []
+
+        when:
+        List<CompletableFuture<Integer>> results = (0..4).collect { int i ->
+            limiter.submit({ ->
+                started.add(i)
+                responses[i]
+            } as Supplier<CompletableFuture<Integer>>)
+        }
+
+        then:
+        started == [0, 1]
+        limiter.running == 2
+        limiter.queued == 3
+
+        when:
+        responses[1].complete(1)
+
+        then:
+        started == [0, 1, 2]
+        results[1].get() == 1
+        !results[0].done
+
+        when:
+        (0..4).each { responses[it].complete(it) }
+
+        then:
+        results*.get() == [0, 1, 2, 3, 4]
+        limiter.running == 0
+        limiter.queued == 0
+    }
+
+    void 'A failed request releases its slot'() {
+        given:
+        UpstreamLimiter limiter = new UpstreamLimiter(1)
+
+        when:
+        CompletableFuture<String> failed = limiter.submit({ ->
+            throw new IllegalStateException('Remote server is down')
+        } as Supplier<CompletableFuture<String>>)
+        failed.get()
+
+        then:
+        ExecutionException e = thrown()
+        e.cause instanceof IllegalStateException
+        limiter.running == 0
+
+        when:
+        String next = limiter.submit({ ->
+            CompletableFuture.completedFuture('ok')
+        } as Supplier<CompletableFuture<String>>).get()
+
+        then:
+        next == 'ok'
+    }
+
+    void 'Requests are spaced according to the rate limit'() {
+        given:
+        UpstreamLimiter limiter = new UpstreamLimiter(10, 20, scheduler)
+        long start = System.nanoTime()
+
+        when:
+        List<CompletableFuture<Long>> results = (1..5).collect {
+            limiter.submit({ ->
+                CompletableFuture.completedFuture(System.nanoTime() - start)
+            } as Supplier<CompletableFuture<Long>>)
+        }
+        List<Long> startedAt = results*.get(10, TimeUnit.SECONDS)
+
+        then:
+        TimeUnit.NANOSECONDS.toMillis(startedAt.last()) >= 190
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class GemHomeManifestSpec extends Specification {
+
+    @Rule
+    TemporaryFolder temporaryFolder
+
+    File gemHome
+    File foo
+    File bar
+    File jar
+
+    void setup() {
+        gemHome = temporaryFolder.newFolder('gemhome')
+        foo = file('foo-1.0.0.gem', 'foo')
+        bar = file('bar-2.0.0.gem', 'bar')
+        jar = file('baz-1.0.jar', 'baz')
+    }
+
+    void 'Everything is installed when there is no manifest'() {
+        when:
+        GemHomeManifest previous = GemHomeManifest.load(gemHome)
+        GemHomeManifest current = GemHomeManifest.create([foo, bar], [:], previous)
+
+        then:
+        !previous.present
+        current.gemsToInstall(previous, gemHome).toSet() == [foo, bar].toSet()
+    }
+
+    void 'Only new and changed GEMs are installed'() {
+        given:
+        GemHomeManifest.create([foo, bar], [:], GemHomeManifest.load(gemHome)).save(gemHome)
+        install('foo-1.0.0', 'bar-2.0.0')
+        File baz = file('baz-3.0.0.gem', 'baz')
+        bar.text = 'changed'
+
+        when:
+        GemHomeManifest previous = GemHomeManifest.load(gemHome)
+        GemHomeManifest current = GemHomeManifest.create([foo, bar, baz], [:], previous)
+
+        then:
+        previous.present
+        current.gemsToInstall(previous, gemHome).toSet() == [bar, baz].toSet()
+    }
+
+    void 'GEMs which have disappeared from the GEM home are installed again'() {
+        given:
+        GemHomeManifest.create([foo, bar], [:], GemHomeManifest.load(gemHome)).save(gemHome)
+        install('foo-1.0.0', 'bar-2.0.0')
+        new File(gemHome, removed).delete()
+
+        when:
+        GemHomeManifest previous = GemHomeManifest.load(gemHome)
+        GemHomeManifest current = GemHomeManifest.create([foo, bar], [:], previous)
+
+        then:
+        current.gemsToInstall(previous, gemHome) == [bar]
+
+        where:
+        removed << ['gems/bar-2.0.0', 'specifications/bar-2.0.0.gemspec']
+    }
+
+    void 'Remove GEMs and JARs which are no longer required'() {
+        given:
+        GemHomeManifest.create([foo, bar], ['org/baz/1.0/baz-1.0.jar': jar], GemHomeManifest.load(gemHome))
+            .save(gemHome)
+        [
+            'gems/bar-2.0.0/lib/bar.rb',
+            'specifications/bar-2.0.0.gemspec',
+            'cache/bar-2.0.0.gem',
+            'extensions/universal-java/2.6.0/bar-2.0.0/gem.build_complete',
+            'gems/foo-1.0.0/lib/foo.rb',
+            'specifications/foo-1.0.0.gemspec',
+            'jars/org/baz/1.0/baz-1.0.jar'
+        ].each { String path ->
+            File installed = new File(gemHome, path)
+            installed.parentFile.mkdirs()
+            installed.text = ''
+        }
+
+        when:
+        GemHomeManifest previous = GemHomeManifest.load(gemHome)
+        GemHomeManifest current = GemHomeManifest.create([foo], [:], previous)
+        current.removeStale(previous, gemHome)
+
+        then:
+        current.gemsToInstall(previous, gemHome).empty
+        !new File(gemHome, 'gems/bar-2.0.0').exists()
+        !new File(gemHome, 'specifications/bar-2.0.0.gemspec').exists()
+        !new File(gemHome, 'cache/bar-2.0.0.gem').exists()
+        !new File(gemHome, 'extensions/universal-java/2.6.0/bar-2.0.0').exists()
+        !new File(gemHome, 'jars/org/baz/1.0/baz-1.0.jar').exists()
+        new File(gemHome, 'gems/foo-1.0.0/lib/foo.rb').exists()
+    }
+
+    void 'The manifest does not contain absolute paths'() {
+        when:
+        GemHomeManifest.create([foo], ['org/baz/1.0/baz-1.0.jar': jar], GemHomeManifest.load(gemHome)).save(gemHome)
+
+        then:
+        !new File(gemHome, GemHomeManifest.LOCATION).text.contains(temporaryFolder.root.absolutePath)
+    }
+
+    private void install(String... fullNames) {
+        for (String name : fullNames) {
+            new File(gemHome, "gems/${name}").mkdirs()
+            File spec = new File(gemHome, "specifications/${name}.gemspec")
+            spec.parentFile.mkdirs()
+            spec.text = ''
+        }
+    }
+
+    private File file(String name, String content) {
+        File file = new File(temporaryFolder.root, name)
+        file.text = content
+        file
+    }
+}
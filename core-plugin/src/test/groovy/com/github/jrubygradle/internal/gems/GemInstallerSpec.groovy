@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import com.github.jrubygradle.api.gems.GemInstallException
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.util.zip.GZIPOutputStream
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+class GemInstallerSpec extends Specification {
+
+    @Rule
+    TemporaryFolder temporaryFolder
+
+    File gemHome
+
+    void setup() {
+        gemHome = temporaryFolder.newFolder('gemhome')
+    }
+
+    void 'Unpack a pure Ruby GEM'() {
+        given:
+        File gem = createGem('foo', '1.2.3', [
+            'lib/foo.rb'        : "puts 'foo'",
+            'lib/foo/version.rb': "FOO_VERSION = '1.2.3'"
+        ])
+
+        when:
+        List<File> remaining = new GemInstaller(gemHome, 2).install([gem])
+
+        then:
+        remaining.empty
+        new File(gemHome, 'gems/foo-1.2.3/lib/foo.rb').text == "puts 'foo'"
+        new File(gemHome, 'gems/foo-1.2.3/lib/foo/version.rb').text == "FOO_VERSION = '1.2.3'"
+        new File(gemHome, 'cache/foo-1.2.3.gem').bytes == gem.bytes
+
+        when:
+        List<String> gemspec = new File(gemHome, 'specifications/foo-1.2.3.gemspec').readLines()
+
+        then:
+        gemspec[0] == '# -*- encoding: utf-8 -*-'
+        gemspec[1] == '# stub: foo 1.2.3 ruby lib'
+        gemspec.contains("Gem::Specification.from_yaml(<<'JRUBY_GRADLE_GEMSPEC')")
+        gemspec.contains('name: foo')
+        gemspec.last() == 'JRUBY_GRADLE_GEMSPEC'
+    }
+
+    void 'Unpack files with long paths'() {
+        given:
+        String longPath = "lib/${'deeply/' * 20}nested.rb"
+        File gem = createGem('foo', '1.2.3', [(longPath): 'true'])
+
+        when:
+        new GemInstaller(gemHome).install([gem])
+
+        then:
+        new File(gemHome, "gems/foo-1.2.3/${longPath}").text == 'true'
+    }
+
+    @IgnoreIf({ os.windows })
+    void 'Create wrappers for executables'() {
+        given:
+        File gem = createGem('foo', '1.2.3', ['exe/foo': "puts 'foo'"], '''bindir: exe
+executables:
+- foo
+''')
+
+        when:
+        new GemInstaller(gemHome).install([gem])
+        File wrapper = new File(gemHome, 'bin/foo')
+
+        then:
+        wrapper.canExecute()
+        wrapper.text.contains("load Gem.activate_bin_path('foo', 'foo', version)")
+        new File(gemHome, 'gems/foo-1.2.3/exe/foo').canExecute()
+    }
+
+    void 'Leave GEMs with native extensions to RubyGems'() {
+        given:
+        File pure = createGem('foo', '1.2.3', ['lib/foo.rb': ''])
+        File nativeGem = createGem('bar', '2.0.0', ['ext/bar/extconf.rb': ''], '''extensions:
+- ext/bar/extconf.rb
+''')
+
+        when:
+        List<File> remaining = new GemInstaller(gemHome).install([nativeGem, pure])
+
+        then:
+        remaining == [nativeGem]
+        new File(gemHome, 'gems/foo-1.2.3/lib/foo.rb').exists()
+        !new File(gemHome, 'gems/bar-2.0.0').exists()
+        !new File(gemHome, 'specifications/bar-2.0.0.gemspec').exists()
+    }
+
+    void 'Link GEMs from a shared store'() {
+        given:
+        File gem = createGem('foo', '1.2.3', ['lib/foo.rb': "puts 'foo'"])
+        InstalledGemStore store = new InstalledGemStore(temporaryFolder.newFolder('store'))
+        File otherHome = temporaryFolder.newFolder('other')
+
+        when:
+        new GemInstaller(gemHome, 1, store).install([gem])
+        new GemInstaller(otherHome, 1, store).install([gem])
+
+        then:
+        store.root.listFiles().size() == 1
+        new File(otherHome, 'gems/foo-1.2.3/lib/foo.rb').text == "puts 'foo'"
+        new File(otherHome, 'specifications/foo-1.2.3.gemspec').exists()
+        Files.isSameFile(
+            new File(gemHome, 'gems/foo-1.2.3/lib/foo.rb').toPath(),
+            new File(otherHome, 'gems/foo-1.2.3/lib/foo.rb').toPath()
+        )
+    }
+
+    @IgnoreIf({ os.windows })
+    void 'Keep links inside the GEM'() {
+        given:
+        File gem = createGem('foo', '1.2.3', ['lib/foo.rb': "puts 'foo'"], '', [
+            'lib/bar.rb'    : 'foo.rb',
+            'lib/here'      : '.',
+            'lib/here/again': '../lib/foo.rb'
+        ])
+
+        when:
+        new GemInstaller(gemHome).install([gem])
+
+        then:
+        new File(gemHome, 'gems/foo-1.2.3/lib/bar.rb').text == "puts 'foo'"
+        new File(gemHome, 'gems/foo-1.2.3/lib/again').text == "puts 'foo'"
+    }
+
+    @IgnoreIf({ os.windows })
+    void 'Refuse links which leave the GEM through another link'() {
+        given:
+        File gem = createGem('foo', '1.2.3', ['lib/foo.rb': ''], '', links)
+
+        when:
+        new GemInstaller(gemHome).install([gem])
+
+        then:
+        thrown(GemInstallException)
+        !Files.isSymbolicLink(new File(gemHome, 'gems/foo-1.2.3/a').toPath())
+        !Files.isSymbolicLink(new File(gemHome, 'gems/foo-1.2.3/c').toPath())
+
+        where:
+        links << [
+            ['a': '.', 'a/b': '..'],
+            ['c': 'a/..', 'a': '.'],
+            ['a': '/etc']
+        ]
+    }
+
+    private File createGem(
+        String name,
+        String version,
+        Map<String, String> files,
+        String extraMetadata = '',
+        Map<String, String> links = [:]
+    ) {
+        File work = temporaryFolder.newFolder()
+        File data = new File(work, 'data')
+        files.each { String path, String content ->
+            File file = new File(data, path)
+            file.parentFile.mkdirs()
+            file.text = content
+        }
+
+        File pkg = new File(work, 'package')
+        pkg.mkdirs()
+        new File(work, 'metadata').text = """--- !ruby/object:Gem::Specification
+name: ${name}
+version: !ruby/object:Gem::Version
+  version: ${version}
+platform: ruby
+authors:
+- Someone
+require_paths:
+- lib
+${extraMetadata}"""
+
+        AntBuilder ant = new AntBuilder()
+        ant.gzip(src: new File(work, 'metadata'), destfile: new File(pkg, 'metadata.gz'))
+        if (links) {
+            writeData(new File(pkg, 'data.tar.gz'), files, links)
+        } else {
+            ant.tar(destfile: new File(pkg, 'data.tar.gz'), compression: 'gzip', longfile: 'gnu') {
+                tarfileset(dir: data)
+            }
+        }
+
+        File gem = new File(temporaryFolder.root, "${name}-${version}.gem")
+        ant.tar(destfile: gem) {
+            tarfileset(dir: pkg, includes: 'metadata.gz,data.tar.gz')
+        }
+        gem
+    }
+
+    /** Ant cannot add symbolic links to a TAR, so the data of such GEMs is written entry by entry.
+     *
+     */
+    private static void writeData(File dest, Map<String, String> files, Map<String, String> links) {
+        new GZIPOutputStream(new FileOutputStream(dest)).withCloseable { OutputStream out ->
+            files.each { String path, String content ->
+                byte[] bytes = content.getBytes(UTF_8)
+                out.write(tarHeader(path, '0' as char, bytes.length, ''))
+                out.write(bytes)
+                out.write(new byte[(512 - bytes.length % 512) % 512])
+            }
+            links.each { String path, String target ->
+                out.write(tarHeader(path, '2' as char, 0, target))
+            }
+            out.write(new byte[1024])
+        }
+    }
+
+    private static byte[] tarHeader(String name, char type, long size, String linkName) {
+        byte[] header = new byte[512]
+        putString(header, 0, name)
+        putString(header, 100, '0000644')
+        putString(header, 124, String.format('%011o', size))
+        putString(header, 136, '00000000000')
+        header[156] = (byte) type
+        putString(header, 157, linkName)
+        putString(header, 257, 'ustar')
+        putString(header, 263, '00')
+        putString(header, 148, ' ' * 8)
+        int checksum = 0
+        for (byte b : header) {
+            checksum += b & 0xff
+        }
+        putString(header, 148, String.format('%06o', checksum))
+        header
+    }
+
+    private static void putString(byte[] header, int offset, String value) {
+        byte[] bytes = value.getBytes(UTF_8)
+        System.arraycopy(bytes, 0, header, offset, bytes.length)
+    }
+}
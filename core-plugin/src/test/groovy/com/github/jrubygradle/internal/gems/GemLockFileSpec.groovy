@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import com.github.jrubygradle.api.gems.GemLockException
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class GemLockFileSpec extends Specification {
+
+    @Rule
+    TemporaryFolder temporaryFolder
+
+    void 'Locked versions and descriptors survive a round trip'() {
+        given:
+        File file = new File(temporaryFolder.root, 'gems.lockfile')
+        GemLockFile lock = new GemLockFile()
+        lock.lockVersion('gems', 'rubygems', 'rake', '13.0.6')
+        lock.lockVersion('gems', 'org.jruby', 'jruby-complete', '9.3.9.0')
+        lock.addDescriptor('rubygems', 'rake', '13.0.6', '<ivy-module/>')
+        lock.addDescriptor('other', 'rake', '12.0.0', '<ivy-module/>')
+        lock.write(file)
+
+        when:
+        GemLockFile read = GemLockFile.read(file)
+        List<String> descriptors = []
+        read.eachDescriptor('rubygems') { String name, String revision, byte[] ivyXml ->
+            descriptors.add("${name}:${revision}:${new String(ivyXml, 'UTF-8')}".toString())
+        }
+
+        then:
+        read.configurationNames == ['gems'].toSet()
+        read.lockedVersion('gems', 'rubygems', 'rake') == '13.0.6'
+        read.lockedVersion('gems', 'org.jruby', 'jruby-complete') == '9.3.9.0'
+        read.lockedVersion('gems', 'rubygems', 'rspec') == null
+        read.lockedVersion('compile', 'rubygems', 'rake') == null
+        descriptors == ['rake:13.0.6:<ivy-module/>']
+    }
+
+    void 'Files which are not lock files are rejected'() {
+        given:
+        File file = temporaryFolder.newFile('gems.lockfile')
+        file.text = content
+
+        when:
+        GemLockFile.read(file)
+
+        then:
+        thrown(GemLockException)
+
+        where:
+        content << ['not json', '{"format": 99, "configurations": {}, "descriptors": {}}']
+    }
+
+    void 'GEM versions are imported from a Gemfile.lock'() {
+        given:
+        File gemfileLock = temporaryFolder.newFile('Gemfile.lock')
+        gemfileLock.text = '''GEM
+  remote: https://rubygems.org/
+  specs:
+    diff-lcs (1.5.0)
+    json (2.6.3-java)
+    rspec (3.12.0)
+      rspec-core (~> 3.12.0)
+
+PLATFORMS
+  java
+
+DEPENDENCIES
+  rspec (~> 3.12)
+'''
+
+        expect:
+        GemLockFile.readGemfileLock(gemfileLock) == [
+            'diff-lcs': '1.5.0',
+            json      : '2.6.3',
+            rspec     : '3.12.0'
+        ]
+    }
+}
@@ -25,6 +25,8 @@ package com.github.jrubygradle.internal.gems
 
 import spock.lang.Specification
 
+import java.security.MessageDigest
+
 class GemToIvySpec extends Specification {
 
     void 'Write Ivy Xml'() {
@@ -45,4 +47,47 @@ class GemToIvySpec extends Specification {
         result.contains("<dependency org='rubygems' name='foo' rev='(,13.0['")
         result.contains("<dependency org='bar' name='foo' rev='[2.2,)'")
     }
-}
\ No newline at end of file
+
+    void 'Escape metadata values'() {
+        given:
+        def gem = new DefaultGemInfo(
+            name: 'foo_module',
+            version: '1.2.3',
+            platform: 'java',
+            description: "Fast & <small>\nIt's here",
+            homepageUri: "https://foo/?a=1&b='2'".toURI(),
+            gemUri: 'https://foo/foo_module-1.2.3-java.gem'.toURI()
+        )
+        def gemToIvy = new GemToIvy('https://foo'.toURI())
+
+        when:
+        def result = gemToIvy.write(gem)
+        def ivyXml = new XmlSlurper().parseText(result)
+
+        then:
+        result.contains("<description homepage='https://foo/?a=1&amp;b=&apos;2&apos;'>Fast &amp; &lt;small&gt;\nIt's here</description>")
+        result.contains("<artifact type='gem' url='https://foo/foo_module-1.2.3-java.gem' e:classifier='java' />")
+        ivyXml.info.description.text() == gem.description
+        ivyXml.info.description.'@homepage'.text() == gem.homepageUri.toString()
+    }
+
+    void 'Calculate checksum whilst writing'() {
+        given:
+        def gem = new DefaultGemInfo(
+            name: 'foo_module',
+            version: '1.2.3',
+            summary: 'Ünïcödé',
+            description: 'Ünïcödé',
+            dependencies: [new DefaultGemDependency(name: 'foo', requirements: '~> 1.2, >= 1.2.3')]
+        )
+        def gemToIvy = new GemToIvy('https://foo'.toURI())
+        def out = new ByteArrayOutputStream()
+
+        when:
+        def sha1 = gemToIvy.writeTo(out, gem)
+
+        then:
+        out.toString('UTF-8') == gemToIvy.write(gem)
+        sha1 == MessageDigest.getInstance('SHA-1').digest(out.toByteArray()).encodeHex().toString()
+    }
+}
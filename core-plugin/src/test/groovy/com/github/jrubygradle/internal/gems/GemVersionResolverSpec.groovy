@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import com.github.jrubygradle.api.gems.GemResolverStrategy
+import org.gradle.api.GradleException
+import org.gradle.api.artifacts.Configuration
+import org.gradle.api.artifacts.DependencyResolveDetails
+import org.gradle.api.artifacts.ModuleVersionSelector
+import org.gradle.api.logging.Logging
+import spock.lang.Specification
+
+class GemVersionResolverSpec extends Specification {
+
+    GemVersionResolver resolver = new GemVersionResolver(
+        new GemResolverStrategy(),
+        Logging.getLogger(GemVersionResolverSpec),
+        Stub(Configuration)
+    )
+
+    void 'Ranges are narrowed as GEMs are requested again'() {
+        given:
+        def first = request('rake', '[10.0,13.0[')
+        def second = request('rake', '[12.0,)')
+
+        when:
+        resolver.resolve(first)
+        resolver.resolve(second)
+
+        then:
+        0 * first.useVersion(_)
+        1 * second.useVersion('[12.0,13.0[')
+    }
+
+    void 'Ranges which do not overlap are rejected'() {
+        given:
+        resolver.resolve(request('rake', '[10.0,11.0]'))
+
+        when:
+        resolver.resolve(request('rake', '[12.0,13.0]'))
+
+        then:
+        thrown(GradleException)
+    }
+
+    void 'Collected ranges can be discarded'() {
+        given:
+        resolver.resolve(request('rake', '[10.0,11.0]'))
+        def next = request('rake', '[12.0,13.0]')
+
+        when:
+        resolver.reset()
+        resolver.resolve(next)
+
+        then:
+        noExceptionThrown()
+        0 * next.useVersion(_)
+    }
+
+    private DependencyResolveDetails request(String name, String version) {
+        ModuleVersionSelector selector = Stub(ModuleVersionSelector) {
+            getGroup() >> 'rubygems'
+            getName() >> name
+            getVersion() >> version
+        }
+        Mock(DependencyResolveDetails) {
+            getRequested() >> selector
+        }
+    }
+}
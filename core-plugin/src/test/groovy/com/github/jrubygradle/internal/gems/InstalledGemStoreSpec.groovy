@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.internal.gems
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+import static java.nio.file.attribute.PosixFilePermission.GROUP_WRITE
+import static java.nio.file.attribute.PosixFilePermission.OTHERS_WRITE
+import static java.nio.file.attribute.PosixFilePermission.OWNER_WRITE
+
+class InstalledGemStoreSpec extends Specification {
+
+    @Rule
+    TemporaryFolder temporaryFolder
+
+    InstalledGemStore store
+    File gem
+
+    void setup() {
+        store = new InstalledGemStore(temporaryFolder.newFolder('store'))
+        gem = temporaryFolder.newFile('foo-1.0.0.gem')
+        gem.text = 'not really a gem'
+    }
+
+    void 'A GEM is only populated once'() {
+        given:
+        AtomicInteger populated = new AtomicInteger()
+        Closure populate = { File dir ->
+            populated.incrementAndGet()
+            new File(dir, 'gems/foo-1.0.0').mkdirs()
+        }
+
+        when:
+        File first = store.entryFor(gem, populate)
+        File second = store.entryFor(gem, populate)
+
+        then:
+        first == second
+        first.parentFile == store.root
+        populated.get() == 1
+        new File(first, 'gems/foo-1.0.0').directory
+    }
+
+    void 'Concurrent population leaves a single complete entry'() {
+        given:
+        ExecutorService executor = Executors.newFixedThreadPool(4)
+
+        when:
+        List<File> entries = (1..8).collect {
+            executor.submit({ ->
+                store.entryFor(gem) { File dir ->
+                    new File(dir, 'specifications').mkdirs()
+                    new File(dir, 'specifications/foo-1.0.0.gemspec').text = 'spec'
+                }
+            } as Callable<File>)
+        }*.get()
+        executor.shutdown()
+
+        then:
+        entries.unique().size() == 1
+        store.root.listFiles().toList() == [entries[0]]
+        new File(entries[0], 'specifications/foo-1.0.0.gemspec').text == 'spec'
+    }
+
+    void 'Files are linked into every GEM home'() {
+        given:
+        File entry = store.entryFor(gem) { File dir ->
+            new File(dir, 'gems/foo-1.0.0/lib').mkdirs()
+            new File(dir, 'gems/foo-1.0.0/lib/foo.rb').text = "puts 'foo'"
+            new File(dir, 'bin').mkdirs()
+            new File(dir, 'bin/foo').text = 'wrapper'
+        }
+        File home1 = temporaryFolder.newFolder('home1')
+        File home2 = temporaryFolder.newFolder('home2')
+        new File(home2, 'bin').mkdirs()
+        new File(home2, 'bin/foo').text = 'old wrapper'
+
+        when:
+        store.linkInto(entry, home1)
+        store.linkInto(entry, home2)
+        File source = new File(entry, 'gems/foo-1.0.0/lib/foo.rb')
+
+        then:
+        new File(home1, 'gems/foo-1.0.0/lib/foo.rb').text == "puts 'foo'"
+        Files.isSameFile(source.toPath(), new File(home1, 'gems/foo-1.0.0/lib/foo.rb').toPath())
+        Files.isSameFile(source.toPath(), new File(home2, 'gems/foo-1.0.0/lib/foo.rb').toPath())
+        new File(home2, 'bin/foo').text == 'wrapper'
+        new File(home2, 'bin').list().toList() == ['foo']
+    }
+
+    void 'Wrappers and specifications are copied so that RubyGems cannot rewrite the store'() {
+        given:
+        File entry = store.entryFor(gem) { File dir ->
+            new File(dir, 'bin').mkdirs()
+            new File(dir, 'bin/foo').text = 'wrapper'
+            new File(dir, 'specifications').mkdirs()
+            new File(dir, 'specifications/foo-1.0.0.gemspec').text = 'spec'
+        }
+        File home = temporaryFolder.newFolder('home')
+
+        when:
+        store.linkInto(entry, home)
+        new File(home, 'bin/foo').text = 'rewritten by RubyGems'
+        new File(home, 'specifications/foo-1.0.0.gemspec').text = 'rewritten by RubyGems'
+
+        then:
+        new File(entry, 'bin/foo').text == 'wrapper'
+        new File(entry, 'specifications/foo-1.0.0.gemspec').text == 'spec'
+    }
+
+    @IgnoreIf({ os.windows })
+    void 'Files in the store are read-only'() {
+        when:
+        File entry = store.entryFor(gem) { File dir ->
+            new File(dir, 'gems/foo-1.0.0/lib').mkdirs()
+            new File(dir, 'gems/foo-1.0.0/lib/foo.rb').text = "puts 'foo'"
+        }
+
+        then:
+        Files.getPosixFilePermissions(new File(entry, 'gems/foo-1.0.0/lib/foo.rb').toPath()).intersect(
+            [OWNER_WRITE, GROUP_WRITE, OTHERS_WRITE]
+        ).empty
+        new File(entry, 'gems/foo-1.0.0/lib').canWrite()
+    }
+}
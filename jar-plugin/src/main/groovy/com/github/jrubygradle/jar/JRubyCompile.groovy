@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.jar
+
+import groovy.transform.CompileDynamic
+import groovy.transform.CompileStatic
+import org.gradle.api.DefaultTask
+import org.gradle.api.GradleException
+import org.gradle.api.file.FileCollection
+import org.gradle.api.file.FileTree
+import org.gradle.api.file.FileVisitDetails
+import org.gradle.api.tasks.CacheableTask
+import org.gradle.api.tasks.Classpath
+import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.OutputDirectory
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.TaskAction
+import org.gradle.api.tasks.util.PatternSet
+import org.gradle.process.JavaExecSpec
+import org.ysb33r.grolifant.api.core.LegacyLevel
+import org.ysb33r.grolifant.api.core.ProjectOperations
+
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+
+import static com.github.jrubygradle.api.gems.GemUtils.JRUBY_ARCHIVE_NAME
+import static com.github.jrubygradle.api.gems.GemUtils.JRUBY_MAINCLASS
+import static java.nio.charset.StandardCharsets.UTF_8
+import static org.gradle.api.tasks.PathSensitivity.RELATIVE
+
+/**
+ * Compiles Ruby sources to Java class files with {@code jrubyc}.
+ *
+ * Every source directory is compiled separately and the class files are
+ * placed at the same relative path as their source, so that the output can
+ * be added next to the sources in an archive. Compiled classes are cached in
+ * the Gradle user home by the relative path and content of the source and
+ * the version of JRuby, so only new or changed files are compiled. Files
+ * which {@code jrubyc} cannot compile are skipped and should be packaged as
+ * source. Such failures are not cached, so these files are tried again by
+ * the next build.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CacheableTask
+@CompileStatic
+class JRubyCompile extends DefaultTask {
+
+    JRubyCompile() {
+        this.projectOperations = ProjectOperations.find(project)
+        this.cacheDir = new File(project.gradle.gradleUserHomeDir, 'jrubyc-cache')
+        this.outputDir = { ProjectOperations po, String taskName ->
+            po.buildDirDescendant("jrubyc/${taskName}")
+        }.curry(this.projectOperations, name)
+    }
+
+    /** Adds directories containing Ruby sources.
+     *
+     * All {@code .rb} files below these directories are compiled, except for {@code jar-bootstrap.rb}.
+     *
+     * @param dirs Anything that can be resolved to a directory.
+     */
+    void source(Object... dirs) {
+        this.sourceDirs.addAll(dirs)
+    }
+
+    /** The Ruby sources to compile.
+     *
+     * @return Sources relative to their source directories.
+     */
+    @InputFiles
+    @PathSensitive(RELATIVE)
+    FileCollection getSources() {
+        projectOperations.files(sourceTrees.values())
+    }
+
+    /** Sets the classpath containing {@code jruby-complete}.
+     *
+     * @param cp Anything that can be resolved to a file collection.
+     */
+    void jrubyClasspath(Object cp) {
+        this.classpath = cp
+    }
+
+    /** Classpath used to run {@code jrubyc}.
+     *
+     * @return Classpath containing {@code jruby-complete}.
+     */
+    @Classpath
+    FileCollection getJrubyClasspath() {
+        projectOperations.files(this.classpath)
+    }
+
+    /** Directory which receives the compiled classes.
+     *
+     * @return Output directory.
+     */
+    @OutputDirectory
+    File getOutputDir() {
+        projectOperations.file(this.outputDir)
+    }
+
+    /** Sets the directory which receives the compiled classes.
+     *
+     * @param dir Anything that can be resolved to a directory.
+     */
+    void outputDir(Object dir) {
+        this.outputDir = dir
+    }
+
+    /** Directory in which compiled classes are shared between builds.
+     *
+     * @return Cache directory.
+     */
+    @Internal
+    File getCacheDir() {
+        this.cacheDir
+    }
+
+    @TaskAction
+    void exec() {
+        File jrubyJar = getJrubyClasspath().files.find { it.name.startsWith(JRUBY_ARCHIVE_NAME) }
+        if (jrubyJar == null) {
+            throw new GradleException("Cannot find ${JRUBY_ARCHIVE_NAME} on ${getJrubyClasspath().files}")
+        }
+        File cache = new File(cacheDir, jrubyJar.name.replaceAll(~/\.jar$/, ''))
+        cache.mkdirs()
+
+        File out = getOutputDir()
+        projectOperations.delete(out)
+        out.mkdirs()
+
+        sourceTrees.each { File root, FileTree tree ->
+            Map<String, String> keys = [:]
+            tree.visit { FileVisitDetails details ->
+                if (!details.directory) {
+                    keys[details.relativePath.pathString] = cacheKey(details)
+                }
+            }
+
+            List<String> missing = keys.findAll { String path, String key ->
+                !new File(cache, "${key}.class").exists()
+            }.keySet().toList()
+            if (!missing.empty) {
+                compile(root, missing, keys, cache)
+            }
+
+            keys.each { String path, String key ->
+                File compiled = new File(cache, "${key}.class")
+                if (compiled.exists()) {
+                    File target = new File(out, classPath(path))
+                    target.parentFile.mkdirs()
+                    Files.copy(compiled.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+                }
+            }
+        }
+    }
+
+    private void compile(File root, List<String> paths, Map<String, String> keys, File cache) {
+        logger.info("Compiling ${paths.size()} Ruby files in ${root}")
+        File work = Files.createTempDirectory(temporaryDir.toPath(), 'jrubyc').toFile()
+        try {
+            File list = new File(work, 'sources.txt')
+            list.setText(paths.join('\n'), UTF_8.name())
+            File target = new File(work, 'classes')
+
+            projectOperations.javaexec { JavaExecSpec spec ->
+                applyMainClassName(spec, JRUBY_MAINCLASS)
+                spec.classpath(getJrubyClasspath())
+                spec.workingDir(root)
+                spec.args('-e', COMPILE_SCRIPT, target.absolutePath, list.absolutePath)
+                spec.systemProperties 'file.encoding': 'utf-8'
+            }
+
+            paths.each { String path ->
+                String key = keys[path]
+                File compiled = new File(target, classPath(path))
+                if (compiled.exists()) {
+                    Files.move(
+                        compiled.toPath(),
+                        new File(cache, "${key}.class").toPath(),
+                        StandardCopyOption.REPLACE_EXISTING
+                    )
+                } else {
+                    logger.info("${path} was not compiled and is only packaged as source")
+                }
+            }
+        } finally {
+            work.deleteDir()
+        }
+    }
+
+    private Map<File, FileTree> getSourceTrees() {
+        Map<File, FileTree> trees = [:]
+        projectOperations.files(sourceDirs).files.each { File dir ->
+            trees[dir] = projectOperations.files(dir).asFileTree.matching(
+                new PatternSet().include('**/*.rb').exclude('**/jar-bootstrap.rb')
+            )
+        }
+        trees
+    }
+
+    private static String cacheKey(FileVisitDetails details) {
+        MessageDigest digest = MessageDigest.getInstance('SHA-256')
+        digest.update(details.relativePath.pathString.getBytes(UTF_8))
+        digest.update((byte) 0)
+        digest.update(details.file.bytes)
+        digest.digest().encodeHex().toString()
+    }
+
+    private static String classPath(String rubyPath) {
+        rubyPath.replaceAll(~/\.rb$/, '.class')
+    }
+
+    @CompileDynamic
+    private static void applyMainClassName(JavaExecSpec spec, String mainClassName) {
+        if (LegacyLevel.PRE_7_0) {
+            spec.main = mainClassName
+        } else {
+            spec.mainClass = mainClassName
+        }
+    }
+
+    /** Compiles each file on its own, so that one file which cannot be compiled does not stop the others.
+     */
+    static private final String COMPILE_SCRIPT = '''require 'jruby/compiler'
+target, list = ARGV
+File.readlines(list).each do |line|
+  file = line.chomp
+  begin
+    JRuby::Compiler.compile_argv(['--target', target, file])
+  rescue Exception => e
+    warn "Cannot compile #{file}: #{e.message}"
+  end
+end
+'''
+
+    private final ProjectOperations projectOperations
+    private final File cacheDir
+    private final List<Object> sourceDirs = []
+    private Object classpath
+    private Object outputDir
+}
@@ -25,6 +25,8 @@ package com.github.jrubygradle.jar
 
 import com.github.jengelman.gradle.plugins.shadow.internal.DefaultZipCompressor
 import com.github.jengelman.gradle.plugins.shadow.internal.ZipCompressor
+import com.github.jengelman.gradle.plugins.shadow.relocation.Relocator
+import com.github.jengelman.gradle.plugins.shadow.relocation.SimpleRelocator
 import com.github.jrubygradle.JRubyPrepare
 
 /*
@@ -34,21 +36,34 @@ import com.github.jrubygradle.JRubyPrepare
 
 import com.github.jrubygradle.jar.internal.JRubyDirInfoTransformer
 import com.github.jrubygradle.jar.internal.JRubyJarCopyAction
+import com.github.jrubygradle.jar.internal.RelocationCache
+import com.github.jrubygradle.jar.internal.RequireIndexBootstrap
+import com.github.jrubygradle.jar.internal.RequireIndexTransformer
 import groovy.transform.CompileDynamic
 import groovy.transform.PackageScope
+import org.gradle.api.Action
 import org.apache.tools.zip.ZipOutputStream
 import org.gradle.api.InvalidUserDataException
 import org.gradle.api.artifacts.Configuration
+import org.gradle.api.file.CopySpec
 import org.gradle.api.file.DuplicatesStrategy
+import org.gradle.api.file.FileCollection
+import org.gradle.api.file.FileCopyDetails
+import org.gradle.api.file.FileTreeElement
 import org.gradle.api.file.RegularFile
 import org.gradle.api.internal.file.copy.CopyAction
 import org.gradle.api.provider.Provider
+import org.gradle.api.specs.Spec
 import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFiles
 import org.gradle.api.tasks.Internal
 import org.gradle.api.tasks.Optional
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
 import org.gradle.api.tasks.StopExecutionException
 import org.gradle.api.tasks.bundling.Jar
 import org.gradle.api.tasks.bundling.ZipEntryCompression
+import org.gradle.api.tasks.util.PatternSet
 import org.ysb33r.grolifant.api.core.LegacyLevel
 import org.ysb33r.grolifant.api.core.ProjectOperations
 
@@ -88,6 +103,7 @@ class JRubyJar extends Jar {
         // there are other duplicates as well :(
         setDuplicatesStrategy(DuplicatesStrategy.EXCLUDE)
         customConfigName = "jrubyJarEmbeds-${hashCode()}"
+        relocationCacheDir = new File(project.gradle.gradleUserHomeDir, 'jruby-relocation-cache')
 
         project.afterEvaluate {
             addJRubyDependency()
@@ -204,6 +220,264 @@ class JRubyJar extends Jar {
         setConfiguration(newConfiguration.name)
     }
 
+    /**
+     * @return Patterns of files which are stored in the JRubyJar without being compressed
+     */
+    @Input
+    List<String> getStoreUncompressed() {
+        return storedPatterns
+    }
+
+    /**
+     * Store files in the JRubyJar without compressing them.
+     *
+     * This is useful for files that are already compressed, such as embedded
+     * jars, where deflating them again costs time but saves almost no space.
+     *
+     * @param patterns Ant-style patterns, for instance {@code 'jars/**'}
+     */
+    void storeUncompressed(String... patterns) {
+        storedPatterns.addAll(patterns)
+    }
+
+    /**
+     * @return Number of threads used to compress the entries of the JRubyJar
+     */
+    @Internal
+    int getCompressionThreads() {
+        return compressionThreadCount
+    }
+
+    /**
+     * Compress the entries of the JRubyJar on several threads.
+     *
+     * The content of the archive does not depend on the number of threads. By
+     * default entries are compressed one after the other.
+     *
+     * @param threads Number of threads. Use {@code Runtime.runtime.availableProcessors()}
+     *  to use all processors.
+     */
+    void compressionThreads(int threads) {
+        compressionThreadCount = Math.max(1, threads)
+    }
+
+    /**
+     * @param threads Number of threads used to compress entries
+     * @see #compressionThreads(int)
+     */
+    void setCompressionThreads(int threads) {
+        compressionThreads(threads)
+    }
+
+    /**
+     * @return Checksum of the configuration of every relocation
+     */
+    @Input
+    String getRelocations() {
+        return RelocationCache.checksum(relocators)
+    }
+
+    /**
+     * Relocate the classes of a package, and the resources below it, to another package.
+     *
+     * Only class files which are packed directly into the JRubyJar are
+     * relocated, for instance those of a dependency added with
+     * {@code from zipTree(...)}. Jars in the {@code jars} directory are
+     * embedded as they are. Relocated classes are cached in the Gradle user
+     * home, so unchanged classes are not relocated again by the next build.
+     *
+     * @param pattern Package to relocate, for instance {@code 'org.foo'}
+     * @param destination Package to relocate to, for instance {@code 'shaded.org.foo'}
+     */
+    void relocate(String pattern, String destination) {
+        relocate(pattern, destination, null)
+    }
+
+    /**
+     * Relocate the classes of a package, and the resources below it, to another package.
+     *
+     * @param pattern Package to relocate
+     * @param destination Package to relocate to
+     * @param configure Configures the relocator, for instance to include or exclude classes.
+     *  Can be {@code null}.
+     * @see #relocate(String, String)
+     */
+    void relocate(String pattern, String destination, Action<SimpleRelocator> configure) {
+        SimpleRelocator relocator = new SimpleRelocator(pattern, destination, [], [])
+        configure?.execute(relocator)
+        relocate(relocator)
+    }
+
+    /**
+     * @param relocator Relocator applied to the class files packed into the JRubyJar
+     * @see #relocate(String, String)
+     */
+    void relocate(Relocator relocator) {
+        relocators.add(relocator)
+    }
+
+    /**
+     * @return Directories of application Ruby sources which are compiled, or {@code null} if
+     *  Ruby sources are not compiled
+     */
+    @Internal
+    List<Object> getRubySourceDirs() {
+        return rubySourceDirs
+    }
+
+    /**
+     * Compile the Ruby files of the packaged gems, and optionally of the
+     * application, to Java class files with {@code jrubyc}.
+     *
+     * The class files are placed next to the sources. JRuby only loads them
+     * instead of the sources when it runs with {@code -Djruby.aot.loadClasses=true},
+     * unless the sources are left out with {@link #keepRubySources(boolean)}.
+     *
+     * @param sourceDirs Directories of application sources, which must be added
+     *  to the root of the jar, as in {@code from 'app'}
+     */
+    void compileRuby(Object... sourceDirs) {
+        rubySourceDirs = sourceDirs.toList()
+    }
+
+    /**
+     * @return Whether Ruby sources are packaged in addition to their compiled classes
+     */
+    @Input
+    boolean getKeepRubySources() {
+        return keepSources
+    }
+
+    /**
+     * Whether to package Ruby sources for which a compiled class exists.
+     *
+     * Leaving the sources out makes JRuby always load the compiled classes,
+     * but RubyGems cannot activate a gem by requiring one of its files that is
+     * only present as a class.
+     *
+     * @param keep {@code false} to package only the compiled classes
+     */
+    void keepRubySources(boolean keep) {
+        keepSources = keep
+    }
+
+    /**
+     * @return Scripts from which the requires of a Ruby-aware minimisation are
+     *  followed, or {@code null} if GEMs are not minimised
+     */
+    @InputFiles
+    @Optional
+    @PathSensitive(PathSensitivity.RELATIVE)
+    FileCollection getMinimizeGemsScripts() {
+        return minimizeScripts == null ? null : projectOperations.files(minimizeScripts)
+    }
+
+    /**
+     * Only package the Ruby files of GEMs which are required by the
+     * {@code initScript} or by additional scripts.
+     *
+     * Literal {@code require}, {@code require_relative}, {@code load} and
+     * {@code autoload} statements are followed. Specifications, jars and
+     * files matching {@link #keepGemFiles} are always packaged.
+     *
+     * @param scripts Additional scripts, such as application sources that are
+     *  not reached from the {@code initScript}
+     */
+    void minimizeGems(Object... scripts) {
+        minimizeScripts = scripts.toList()
+    }
+
+    /**
+     * @return Patterns of GEM files which are packaged even if they are not required
+     */
+    @Input
+    List<String> getKeepGemFiles() {
+        return keepGemPatterns
+    }
+
+    /**
+     * Package GEM files which cannot be found by following requires, such as
+     * data files and Ruby files which are required dynamically.
+     *
+     * @param patterns Ant-style patterns relative to the GEM installation
+     *  directory, as in {@code 'gems/tzinfo-data-1.2023.3/lib/**'}
+     */
+    void keepGemFiles(String... patterns) {
+        keepGemPatterns.addAll(patterns)
+    }
+
+    /**
+     * Run the {@code initScript} once with JRuby when minimising GEMs and keep
+     * every GEM file it loads, including files which are required dynamically.
+     *
+     * @param args Arguments passed to the script
+     */
+    void traceRequires(String... args) {
+        traceRequiresArgs = args.toList()
+    }
+
+    /**
+     * @return Arguments of the run which traces the files loaded by the
+     *  {@code initScript}, or {@code null} if requires are not traced
+     */
+    @Input
+    @Optional
+    List<String> getTraceRequires() {
+        return traceRequiresArgs
+    }
+
+    /**
+     * @return Whether a require index is added to the jar
+     */
+    @Input
+    boolean getRequireIndex() {
+        return addRequireIndex
+    }
+
+    /**
+     * Add a precomputed require index and a cache of the gem specifications
+     * to the jar.
+     *
+     * The {@code initScript} loads them on start. Requires which are not found
+     * on the load path then activate the gem that provides them without
+     * searching every gem. A jar without an
+     * {@code initScript} has to {@code require_relative 'jruby-gradle/require_index'}
+     * from its own {@code jar-bootstrap.rb}.
+     *
+     * @param enabled {@code true} to add the index
+     */
+    void requireIndex(boolean enabled = true) {
+        addRequireIndex = enabled
+    }
+
+    /**
+     * @return Whether the dependencies are packed into a separate layer
+     */
+    @Input
+    boolean getLayered() {
+        return layeredArchive
+    }
+
+    /**
+     * Pack the JRuby runtime, the launcher and the installed gems and jars
+     * into a separate dependency layer.
+     *
+     * The layer is packed by a {@link JRubyJarLayer} task, which is only run
+     * again when the dependencies change. The compressed entries of the layer
+     * are then copied into the jar without recompressing them, so repackaging
+     * after a change to the application only takes as long as packing the
+     * application. Files of the application take precedence over files of the
+     * layer with the same path.
+     *
+     * This cannot be combined with {@link #minimizeGems}, or with
+     * {@link #compileRuby} when Ruby sources are not kept.
+     *
+     * @param enabled {@code true} to pack the dependencies into a layer
+     */
+    void layered(boolean enabled = true) {
+        layeredArchive = enabled
+    }
+
     void initScript(final Object scriptName) {
         this.scriptName = scriptName
     }
@@ -255,10 +529,14 @@ class JRubyJar extends Jar {
             defaultMainClass()
         }
 
+        if (layeredArchive) {
+            addDependencyLayer()
+        }
+
         if (mainClass != null && scriptName != Type.LIBRARY) {
             Configuration embeds = project.configurations.findByName(customConfigName)
 
-            with projectOperations.copySpec {
+            dependencySpec.with projectOperations.copySpec {
                 embeds.each { File embed ->
                     logger.info("unzipping ${embed} in the jar")
                     /* We nede to extract the class files from jruby-mains in order to properly run */
@@ -283,10 +561,112 @@ class JRubyJar extends Jar {
                 from script.parent
                 include script.name
                 rename(script.name, 'jar-bootstrap.rb')
+                if (addRequireIndex) {
+                    filter(RequireIndexBootstrap)
+                }
             }
         }
         updateStageDirectory()
 
+        if (rubySourceDirs != null) {
+            addRubyCompilation()
+        }
+
+        if (minimizeScripts != null) {
+            addGemMinimization()
+        }
+    }
+
+    /** Pack the dependencies into a layer which is only rebuilt when they change */
+    void addDependencyLayer() {
+        if (minimizeScripts != null) {
+            throw new InvalidUserDataException('minimizeGems can not be combined with a layered jar')
+        }
+        if (rubySourceDirs != null && !keepSources) {
+            throw new InvalidUserDataException(
+                'compileRuby without Ruby sources can not be combined with a layered jar'
+            )
+        }
+        if (!relocators.empty) {
+            throw new InvalidUserDataException('relocate can not be combined with a layered jar')
+        }
+
+        layerTask = project.task("package${prepareNameForSuffix(name)}Dependencies", type: JRubyJarLayer)
+        layerTask.group TASK_GROUP_NAME
+        layerTask.dependsOn prepareTask
+        layerTask.entryCompression = entryCompression
+        layerTask.zip64 = zip64
+        layerTask.storeUncompressed(*storedPatterns)
+        layerTask.compressionThreads(compressionThreadCount)
+        layerTask.applyRootOf(mainSpec)
+        dependsOn layerTask
+        inputs.file({ -> layerTask.layerArchive.get() }).withPropertyName('dependencyLayer')
+    }
+
+    /** Compile the Ruby sources of the staging directory and the application before they are packed */
+    void addRubyCompilation() {
+        JRubyCompile compile = project.task("compile${prepareNameForSuffix(name)}Ruby", type: JRubyCompile)
+        compile.group TASK_GROUP_NAME
+        compile.dependsOn prepareTask
+        compile.source(prepareTask.outputDir)
+        compile.source(*rubySourceDirs)
+        compile.jrubyClasspath(project.configurations.maybeCreate(customConfigName))
+        dependsOn compile
+
+        from(compile.outputDir)
+        if (!keepSources) {
+            eachFile { FileCopyDetails details ->
+                if (details.name.endsWith('.rb') &&
+                    new File(compile.outputDir, details.path.replaceAll(/\.rb$/, '.class')).exists()) {
+                    details.exclude()
+                }
+            }
+        }
+    }
+
+    /** Leave out GEM files which are not required by the scripts to trace */
+    void addGemMinimization() {
+        List<Object> scripts = []
+        if (scriptName != Type.RUNNABLE && scriptName != Type.LIBRARY) {
+            scripts.add(scriptName)
+        }
+        scripts.addAll(minimizeScripts)
+        if (scripts.empty) {
+            throw new InvalidUserDataException('minimizeGems needs an initScript or scripts to trace')
+        }
+
+        JRubyRequireTrace trace = project.task("trace${prepareNameForSuffix(name)}Requires", type: JRubyRequireTrace)
+        trace.group TASK_GROUP_NAME
+        trace.dependsOn prepareTask
+        trace.gemDir(prepareTask.outputDir)
+        trace.scripts(*scripts)
+        trace.jrubyClasspath(project.configurations.maybeCreate(customConfigName))
+        if (traceRequiresArgs != null) {
+            trace.trainingRun(*traceRequiresArgs)
+        }
+        dependsOn trace
+        inputs.file({ trace.requiredFiles })
+            .withPropertyName('requiredGemFiles')
+            .withPathSensitivity(PathSensitivity.NONE)
+
+        includeEmptyDirs = false
+        Spec<FileTreeElement> alwaysKept = new PatternSet()
+            .include('gems/**/*.jar')
+            .include(keepGemPatterns)
+            .asSpec
+        Set<String> required = null
+        eachFile { FileCopyDetails details ->
+            if (!details.path.startsWith('gems/') || alwaysKept.isSatisfiedBy(details)) {
+                return
+            }
+            if (required == null) {
+                required = trace.readRequiredFiles()
+            }
+            String path = details.path.replaceAll(/\.class$/, '.rb')
+            if (!required.contains(path)) {
+                details.exclude()
+            }
+        }
     }
 
     Type library() {
@@ -317,7 +697,7 @@ class JRubyJar extends Jar {
         prepareTask.outputDir(dir)
 
         logger.info("${this} including files in ${dir}")
-        from(dir) {
+        dependencySpec.from(dir) {
             include 'specifications/**', 'gems/**', 'jars/**', 'bin/**', 'Jars.lock'
         }
     }
@@ -346,6 +726,42 @@ class JRubyJar extends Jar {
     @Internal
     protected final ProjectOperations projectOperations
 
+    @Internal
+    protected final List<String> storedPatterns = []
+
+    @Internal
+    protected int compressionThreadCount = 1
+
+    @Internal
+    protected final List<Relocator> relocators = []
+
+    @Internal
+    protected final File relocationCacheDir
+
+    @Internal
+    protected List<Object> rubySourceDirs
+
+    @Internal
+    protected boolean keepSources = true
+
+    @Internal
+    protected List<Object> minimizeScripts
+
+    @Internal
+    protected final List<String> keepGemPatterns = []
+
+    @Internal
+    protected List<String> traceRequiresArgs
+
+    @Internal
+    protected boolean addRequireIndex = false
+
+    @Internal
+    protected boolean layeredArchive = false
+
+    @Internal
+    protected JRubyJarLayer layerTask
+
     /**
      * Provide a custom {@link CopyAction} to insert .jrubydir files into the archive.
      *
@@ -361,16 +777,32 @@ class JRubyJar extends Jar {
             getInternalCompressor(),
             null, /* DocumentationRegistry */
             'utf-8', /* encoding */
-            [new JRubyDirInfoTransformer()], /* transformers */
-            [], /* relocators */
+            addRequireIndex ? /* transformers */
+                [new JRubyDirInfoTransformer(), new RequireIndexTransformer()] :
+                [new JRubyDirInfoTransformer()],
+            relocators,
             mainSpec.buildRootResolver().getPatternSet(), /* patternSet */
             false, /* preserveFileTimestamps */
             false, /* minimizeJar */
-            null /* unusedTracker */
+            null, /* unusedTracker */
+            this.zip64,
+            entryCompression == ZipEntryCompression.STORED ? ZipOutputStream.STORED : ZipOutputStream.DEFLATED,
+            storedPatterns.empty ? null : new PatternSet().include(storedPatterns).asSpec, /* storeUncompressed */
+            compressionThreadCount,
+            relocationCacheDir,
+            layerTask?.layerArchive?.get() /* dependencyLayer */
         )
 
     }
 
+    /**
+     * @return The dependency layer if the jar is layered, otherwise the jar itself
+     */
+    @Internal
+    protected CopySpec getDependencySpec() {
+        return layerTask ?: this
+    }
+
     @Internal
     protected ZipCompressor getInternalCompressor() {
         switch (entryCompression) {
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.jar
+
+import com.github.jengelman.gradle.plugins.shadow.internal.DefaultZipCompressor
+import com.github.jengelman.gradle.plugins.shadow.relocation.Relocator
+import com.github.jengelman.gradle.plugins.shadow.transformers.Transformer
+import com.github.jrubygradle.jar.internal.JRubyJarCopyAction
+import groovy.transform.CompileDynamic
+import groovy.transform.CompileStatic
+import org.apache.tools.zip.ZipOutputStream
+import org.gradle.api.Action
+import org.gradle.api.file.DuplicatesStrategy
+import org.gradle.api.file.FileCopyDetails
+import org.gradle.api.file.FileTreeElement
+import org.gradle.api.file.RegularFile
+import org.gradle.api.internal.file.copy.CopyAction
+import org.gradle.api.internal.file.copy.CopySpecInternal
+import org.gradle.api.provider.Provider
+import org.gradle.api.specs.Spec
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.bundling.Zip
+import org.gradle.api.tasks.bundling.ZipEntryCompression
+import org.gradle.api.tasks.util.PatternSet
+import org.ysb33r.grolifant.api.core.LegacyLevel
+import org.ysb33r.grolifant.api.core.ProjectOperations
+
+/**
+ * Packs the dependency layer of a layered {@link JRubyJar}: the unpacked
+ * JRuby runtime and launcher, and the installed GEMs and JARs.
+ *
+ * The layer changes far less often than the application. It is only packed
+ * again when its inputs change, and the JRubyJar copies its compressed
+ * entries without inflating and deflating them again. The includes, excludes
+ * and file actions configured on the JRubyJar itself also apply to the
+ * files of the layer.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class JRubyJarLayer extends Zip {
+
+    JRubyJarLayer() {
+        projectOperations = ProjectOperations.find(project)
+        duplicatesStrategy = DuplicatesStrategy.EXCLUDE
+        preserveFileTimestamps = false
+        reproducibleFileOrder = true
+        setArchiveLocation()
+    }
+
+    /**
+     * @return Ant-style patterns of files which are stored rather than deflated
+     */
+    @Input
+    List<String> getStoredPatterns() {
+        return storedPatterns
+    }
+
+    /**
+     * Store matching files in the layer without compressing them.
+     *
+     * @param patterns Ant-style patterns, for instance {@code 'jars/**'}
+     * @see JRubyJar#storeUncompressed(String...)
+     */
+    void storeUncompressed(String... patterns) {
+        storedPatterns.addAll(patterns)
+    }
+
+    /**
+     * @return Number of threads used to compress the entries of the layer
+     */
+    @Internal
+    int getCompressionThreads() {
+        return compressionThreadCount
+    }
+
+    /**
+     * @param threads Number of threads used to compress the entries of the layer
+     * @see JRubyJar#compressionThreads(int)
+     */
+    void compressionThreads(int threads) {
+        compressionThreadCount = Math.max(1, threads)
+    }
+
+    /**
+     * Apply the includes, excludes and the {@code eachFile}, {@code filter},
+     * {@code rename} and {@code expand} actions of the root of a copy
+     * specification to the files of the layer.
+     *
+     * The specification is read when the layer is packed, so configuration
+     * added after this call is applied as well.
+     *
+     * @param spec Main specification of the JRubyJar
+     */
+    void applyRootOf(CopySpecInternal spec) {
+        inputs.property('rootIncludes') { -> spec.buildRootResolver().patternSet.includes }
+        inputs.property('rootExcludes') { -> spec.buildRootResolver().patternSet.excludes }
+        exclude { FileTreeElement element ->
+            !rootPatterns(spec).isSatisfiedBy(element)
+        }
+        eachFile { FileCopyDetails details ->
+            for (Action<? super FileCopyDetails> action : rootActions(spec)) {
+                action.execute(details)
+            }
+        }
+    }
+
+    /**
+     * @return Location of the packed layer
+     */
+    @Internal
+    @CompileDynamic
+    Provider<File> getLayerArchive() {
+        if (LegacyLevel.PRE_5_1) {
+            projectOperations.provider { -> archivePath }
+        } else {
+            archiveFile.map { RegularFile it -> it.asFile }
+        }
+    }
+
+    @Override
+    protected CopyAction createCopyAction() {
+        int method = entryCompression == ZipEntryCompression.STORED ? ZipOutputStream.STORED : ZipOutputStream.DEFLATED
+        new JRubyJarCopyAction(
+            layerArchive,
+            new DefaultZipCompressor(zip64, method),
+            null, /* DocumentationRegistry */
+            'utf-8', /* encoding */
+            [] as List<Transformer>, /* transformers */
+            [] as List<Relocator>, /* relocators */
+            mainSpec.buildRootResolver().patternSet, /* patternSet */
+            false, /* preserveFileTimestamps */
+            false, /* minimizeJar */
+            null, /* unusedTracker */
+            zip64,
+            method,
+            storedPatterns.empty ? null : new PatternSet().include(storedPatterns).asSpec, /* storeUncompressed */
+            compressionThreadCount,
+            null, /* relocationCacheDir */
+            null /* dependencyLayer */
+        )
+    }
+
+    /** The patterns of the root are resolved once, when the first file is packed */
+    private Spec<FileTreeElement> rootPatterns(CopySpecInternal spec) {
+        if (rootPatterns == null) {
+            rootPatterns = spec.buildRootResolver().patternSet.asSpec
+        }
+        rootPatterns
+    }
+
+    /** The actions of the root are resolved once, when the first file is packed */
+    private Collection<? extends Action<? super FileCopyDetails>> rootActions(CopySpecInternal spec) {
+        if (rootActions == null) {
+            rootActions = spec.buildRootResolver().allCopyActions
+        }
+        rootActions
+    }
+
+    @CompileDynamic
+    private void setArchiveLocation() {
+        if (LegacyLevel.PRE_5_1) {
+            destinationDir = new File(project.buildDir, LAYER_DIR)
+            archiveName = "${name}.zip"
+        } else {
+            destinationDirectory.set(project.layout.buildDirectory.dir(LAYER_DIR))
+            archiveFileName.set("${name}.zip".toString())
+        }
+    }
+
+    private static final String LAYER_DIR = 'jrubyjar-layers'
+
+    private final ProjectOperations projectOperations
+    private final List<String> storedPatterns = []
+    private int compressionThreadCount = 1
+    private Spec<FileTreeElement> rootPatterns
+    private Collection<? extends Action<? super FileCopyDetails>> rootActions
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.jar
+
+import com.github.jrubygradle.jar.internal.RequireGraph
+import groovy.transform.CompileDynamic
+import groovy.transform.CompileStatic
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.FileCollection
+import org.gradle.api.tasks.Classpath
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.Optional
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.TaskAction
+import org.gradle.process.JavaExecSpec
+import org.ysb33r.grolifant.api.core.LegacyLevel
+import org.ysb33r.grolifant.api.core.ProjectOperations
+
+import static com.github.jrubygradle.api.gems.GemUtils.JRUBY_MAINCLASS
+import static java.nio.charset.StandardCharsets.UTF_8
+import static org.gradle.api.tasks.PathSensitivity.RELATIVE
+
+/**
+ * Finds the files of a GEM installation directory which are required by a
+ * set of Ruby scripts.
+ *
+ * Literal requires are followed statically. Optionally the first script is
+ * also run once with JRuby and every file it loads is added, which also finds
+ * files that are required dynamically. The result is a list of paths relative
+ * to the GEM installation directory, one per line.
+ *
+ * @author Schalk W. Cronjé
+ *
+ * @since 2.1.0
+ */
+@CompileStatic
+class JRubyRequireTrace extends DefaultTask {
+
+    JRubyRequireTrace() {
+        this.projectOperations = ProjectOperations.find(project)
+        this.requiredFiles = { ProjectOperations po, String taskName ->
+            po.buildDirDescendant("jrubyrequires/${taskName}/required.txt")
+        }.curry(this.projectOperations, name)
+    }
+
+    /** Sets the GEM installation directory.
+     *
+     * @param dir Anything that can be resolved to a directory.
+     */
+    void gemDir(Object dir) {
+        this.gemDir = dir
+    }
+
+    /** The GEM installation directory.
+     *
+     * @return Directory.
+     */
+    @Internal
+    File getGemDir() {
+        projectOperations.file(this.gemDir)
+    }
+
+    /** The content of the GEM installation directory.
+     *
+     * @return Installed files.
+     */
+    @InputFiles
+    @PathSensitive(RELATIVE)
+    protected FileCollection getGemFiles() {
+        projectOperations.files(this.gemDir)
+    }
+
+    /** Adds scripts from which requires are followed.
+     *
+     * @param files Anything that can be resolved to files.
+     */
+    void scripts(Object... files) {
+        this.scripts.addAll(files)
+    }
+
+    /** Scripts from which requires are followed.
+     *
+     * @return Ruby scripts.
+     */
+    @InputFiles
+    @PathSensitive(RELATIVE)
+    FileCollection getScripts() {
+        projectOperations.files(this.scripts)
+    }
+
+    /** Run the first script with JRuby to record the files it loads.
+     *
+     * @param args Arguments passed to the script.
+     */
+    void trainingRun(String... args) {
+        this.trainingArgs = args.toList()
+    }
+
+    /** Arguments of the training run.
+     *
+     * @return Script arguments, or {@code null} if there is no training run.
+     */
+    @Input
+    @Optional
+    List<String> getTrainingArgs() {
+        this.trainingArgs
+    }
+
+    /** Sets the classpath containing {@code jruby-complete} for the training run.
+     *
+     * @param cp Anything that can be resolved to a file collection.
+     */
+    void jrubyClasspath(Object cp) {
+        this.classpath = cp
+    }
+
+    /** Classpath used for the training run.
+     *
+     * @return Classpath containing {@code jruby-complete}.
+     */
+    @Classpath
+    FileCollection getJrubyClasspath() {
+        projectOperations.files(this.classpath)
+    }
+
+    /** File which receives the required paths.
+     *
+     * @return Output file.
+     */
+    @OutputFile
+    File getRequiredFiles() {
+        projectOperations.file(this.requiredFiles)
+    }
+
+    /** Reads the paths written by this task.
+     *
+     * @return Paths relative to the GEM installation directory.
+     */
+    Set<String> readRequiredFiles() {
+        new HashSet<String>(getRequiredFiles().readLines(UTF_8.name()))
+    }
+
+    @TaskAction
+    void exec() {
+        List<File> roots = getScripts().files.toList()
+        List<File> loaded = trainingArgs != null && !roots.empty ? train(roots.first()) : []
+
+        SortedSet<String> required = new RequireGraph(getGemDir()).trace(roots, loaded)
+        logger.info("${required.size()} files of ${getGemDir()} are required")
+        File out = getRequiredFiles()
+        out.parentFile.mkdirs()
+        out.setText(required.join('\n'), UTF_8.name())
+    }
+
+    /** Runs a script and returns the files it has loaded. */
+    private List<File> train(File script) {
+        File gems = getGemDir().absoluteFile
+        File features = new File(temporaryDir, 'loaded-features.txt')
+        File tracer = new File(temporaryDir, 'trace-requires.rb')
+        features.delete()
+        tracer.setText(TRACE_SCRIPT, UTF_8.name())
+
+        projectOperations.javaexec { JavaExecSpec spec ->
+            applyMainClassName(spec, JRUBY_MAINCLASS)
+            spec.classpath(getJrubyClasspath())
+            spec.workingDir(script.parentFile)
+            spec.environment(
+                GEM_HOME: gems.absolutePath,
+                GEM_PATH: gems.absolutePath,
+                JARS_HOME: new File(gems, 'jars').absolutePath,
+                JARS_LOCK: new File(gems, 'Jars.lock').absolutePath,
+                JRUBY_GRADLE_LOADED_FEATURES: features.absolutePath
+            )
+            spec.args(['-rjars/setup', "-r${tracer.absolutePath}".toString(), script.absolutePath] + trainingArgs)
+            spec.ignoreExitValue = true
+        }
+
+        if (!features.exists()) {
+            logger.warn("Training run of ${script} did not record the loaded files")
+            return []
+        }
+        features.readLines(UTF_8.name()).collect { String path -> new File(path) }.findAll { File f -> f.file }
+    }
+
+    @CompileDynamic
+    private static void applyMainClassName(JavaExecSpec spec, String mainClassName) {
+        if (LegacyLevel.PRE_7_0) {
+            spec.main = mainClassName
+        } else {
+            spec.mainClass = mainClassName
+        }
+    }
+
+    static private final String TRACE_SCRIPT = '''at_exit do
+  File.write(ENV['JRUBY_GRADLE_LOADED_FEATURES'], $LOADED_FEATURES.join("\\n"))
+end
+'''
+
+    private final ProjectOperations projectOperations
+    private final List<Object> scripts = []
+    private List<String> trainingArgs
+    private Object gemDir
+    private Object classpath
+    private Object requiredFiles
+}
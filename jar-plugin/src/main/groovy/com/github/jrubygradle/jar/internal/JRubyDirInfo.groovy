@@ -23,78 +23,90 @@
  */
 package com.github.jrubygradle.jar.internal
 
+import groovy.transform.CompileStatic
 import org.gradle.api.file.RelativePath
 
+import java.util.function.BiConsumer
+
 /**
  * JRubyDirInfo is responsible for generation of .jrubydir files.
  *
  * The .jrubydir files help the JRuby runtime navigate using {@code Dir.glob}
- * type patterns from within the packed JRubyJar context
+ * type patterns from within the packed JRubyJar context.
+ *
+ * Paths are collected into an in-memory tree with one node per directory. Each
+ * node only keeps the names of its entries, which are emitted in sorted order so
+ * that the generated files do not depend on the order in which paths were added.
  */
+@CompileStatic
 class JRubyDirInfo {
-    private static final String NEW_LINE = System.getProperty('line.separator')
-    private static final File OMIT = new File('')
-    private static final List<String> OMISSION_DIRS = ['META-INF', 'bin', 'jars']
+    static final String DIR_INFO = '.jrubydir'
 
-    private final Map dirsCache = [:]
+    private static final String NEW_LINE = '\n'
+    private static final List<String> OMISSION_DIRS = ['META-INF', 'bin', 'jars']
+    private static final List<String> OMISSION_FILES = ['jar-bootstrap.rb', 'MANIFEST.MF', DIR_INFO]
 
-    private final File dirInfo
+    private final Node root = new Node()
 
-    JRubyDirInfo(File dir) {
-        dirInfo = dir
+    void add(RelativePath relativePath) {
+        add(relativePath.segments)
     }
 
-    File toFile(File path, String subdir) {
-        if (path == null) {
-            if (OMISSION_DIRS.contains(subdir)) {
-                return OMIT
-            }
-            return new File(subdir)
+    /**
+     * Register a path that will be placed in the archive.
+     *
+     * @param segments Path segments, the last being the file name.
+     */
+    void add(String... segments) {
+        if (segments.length == 0 || OMISSION_FILES.contains(segments[segments.length - 1]) ||
+            OMISSION_DIRS.contains(segments[0])) {
+            return
         }
 
-        if (path != OMIT) {
-            return  new File(path, subdir)
+        Node node = root
+        for (int i = 0; i < segments.length; i++) {
+            node.entries.add(segments[i])
+            if (i < segments.length - 1) {
+                node = node.directory(segments[i])
+            }
         }
-        return path
     }
 
-    void process(File path) {
-        boolean isRoot = path.parent == null
-        File file = new File(dirInfo,
-                             isRoot ? '.jrubydir' : "${path.parent}/.jrubydir")
-        String name = path.name
-        File dir = file.parentFile
-        List dirs = dirsCache[dir]
+    /**
+     * Produce the content of every .jrubydir file, in sorted order of their paths.
+     *
+     * @param action Receives the path of the .jrubydir file inside the archive and its content.
+     */
+    void each(BiConsumer<String, String> action) {
+        root.each('', action)
+    }
+
+    private static class Node {
+        final SortedSet<String> entries = new TreeSet<String>()
+        final SortedMap<String, Node> directories = new TreeMap<String, Node>()
 
-        if (dirs == null) {
-            dirs = dirsCache[dir] = []
+        Node directory(String name) {
+            Node child = directories.get(name)
+            if (child == null) {
+                child = new Node()
+                directories.put(name, child)
+            }
+            child
         }
-        if (!dirs.contains(name)) {
-            dirs << name
-            dir.mkdirs()
-            if (file.exists()) {
-                file.append(name + NEW_LINE)
+
+        void each(String path, BiConsumer<String, String> action) {
+            StringBuilder buf = new StringBuilder()
+            buf.append('.').append(NEW_LINE)
+            if (path) {
+                buf.append('..').append(NEW_LINE)
             }
-            else {
-                StringBuilder buf = new StringBuilder()
-                buf.append('.').append(NEW_LINE)
-                if (!isRoot) {
-                    buf.append('..').append(NEW_LINE)
-                }
+            for (String name : entries) {
                 buf.append(name).append(NEW_LINE)
-                file.write(buf.toString())
             }
-        }
-    }
+            action.accept(path + DIR_INFO, buf.toString())
 
-    void add( RelativePath relativePath ) {
-        if (!['jar-bootstrap.rb', 'MANIFEST.MF', '.jrubydir'].contains(relativePath.lastName)) {
-            File path = null
-            relativePath.segments.each {
-                path = toFile(path, it.toString())
-                if (path != OMIT) {
-                    process(path)
-                }
+            directories.each { String name, Node child ->
+                child.each("${path}${name}/".toString(), action)
             }
         }
     }
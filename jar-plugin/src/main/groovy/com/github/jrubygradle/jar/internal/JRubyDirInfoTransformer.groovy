@@ -23,17 +23,17 @@
  */
 package com.github.jrubygradle.jar.internal
 
-import java.nio.file.Files
-import java.nio.file.Path
-import java.nio.file.Paths
-
 import shadow.org.apache.tools.zip.ZipEntry
-import org.codehaus.plexus.util.IOUtil
 import org.gradle.api.file.FileTreeElement
 
 import shadow.org.apache.tools.zip.ZipOutputStream
 import com.github.jengelman.gradle.plugins.shadow.transformers.Transformer
 import com.github.jengelman.gradle.plugins.shadow.transformers.TransformerContext
+import com.github.jrubygradle.internal.core.PhaseTrace
+
+import java.util.function.BiConsumer
+
+import static java.nio.charset.StandardCharsets.UTF_8
 
 /**
  * JRubyDirInfoTransformer implements a {@link Transformer} interface.
@@ -44,13 +44,7 @@ import com.github.jengelman.gradle.plugins.shadow.transformers.TransformerContex
  */
 @SuppressWarnings('UnusedMethodParameter')
 class JRubyDirInfoTransformer implements Transformer {
-    protected File tmpDir
-    protected JRubyDirInfo info
-
-    JRubyDirInfoTransformer() {
-        tmpDir = Files.createTempDirectory('jrubydirinfo').toFile()
-        info = new JRubyDirInfo(tmpDir)
-    }
+    protected JRubyDirInfo info = new JRubyDirInfo()
 
     /**
      * Register the relative path of the {@code element} that will be jarred.
@@ -83,43 +77,21 @@ class JRubyDirInfoTransformer implements Transformer {
     /**
      * Process the output stream and add our .jrubydir entries.
      *
-     * This method will also clean up our tempdir to make sure we don't
-     * clutter the user's machine with junk
+     * The entries are written straight from memory.
      */
     void modifyOutputStream(ZipOutputStream os, boolean preserveFileTimestamps) {
-        processDirectory(os, tmpDir)
-        deleteTempDirectory(tmpDir)
-    }
-
-    /**
-     * Process the directory given and ensure that all our .jrubydir files are added.
-     *
-     * @param stream {@link ZipOutputStream} for our archive being built
-     * @param directory Directory which contains our .jrubydir files to be
-     *  copied
-     */
-    protected void processDirectory(ZipOutputStream stream, File directory) {
-        directory.listFiles().each { File file ->
-            if (file.isDirectory()) {
-                processDirectory(stream, file)
-            }
-            else {
-                Path relative = Paths.get(tmpDir.absolutePath).relativize(Paths.get(file.absolutePath))
-                stream.putNextEntry(new ZipEntry(relative.toString()))
-                IOUtil.copy(new FileInputStream(file), stream)
-            }
-        }
-    }
-
-    /** Recursively delete the given {@link File} */
-    protected void deleteTempDirectory(File directory) {
-        directory.listFiles().each { File file ->
-            if (file.isDirectory()) {
-                deleteTempDirectory(file)
-            }
-            file.delete()
-        }
-        directory.delete()
+        long time = preserveFileTimestamps ? System.currentTimeMillis() :
+            JRubyJarCopyAction.CONSTANT_TIME_FOR_ZIP_ENTRIES
+        long start = System.nanoTime()
+        int entries = 0
+        info.each({ String path, String content ->
+            ZipEntry entry = new ZipEntry(path)
+            entry.time = time
+            os.putNextEntry(entry)
+            os.write(content.getBytes(UTF_8))
+            os.closeEntry()
+            entries++
+        } as BiConsumer<String, String>)
+        PhaseTrace.complete(PhaseTrace.ARCHIVE, '.jrubydir', start, System.nanoTime() - start, [entries: entries])
     }
 }
-
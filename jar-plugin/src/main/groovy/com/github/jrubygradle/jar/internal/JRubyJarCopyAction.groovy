@@ -35,9 +35,16 @@ import com.github.jengelman.gradle.plugins.shadow.internal.UnusedTracker
 import com.github.jengelman.gradle.plugins.shadow.internal.ZipCompressor
 import com.github.jengelman.gradle.plugins.shadow.relocation.Relocator
 import com.github.jengelman.gradle.plugins.shadow.transformers.Transformer
+import com.github.jengelman.gradle.plugins.shadow.transformers.TransformerContext
+import com.github.jrubygradle.internal.core.PhaseTrace
 import groovy.util.logging.Slf4j
+import org.apache.commons.compress.archivers.zip.Zip64Mode
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntryPredicate
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream
 import org.apache.commons.io.FilenameUtils
 import org.apache.commons.io.IOUtils
+import org.apache.commons.io.output.NullOutputStream
 import org.gradle.api.Action
 import org.gradle.api.GradleException
 import org.gradle.api.UncheckedIOException
@@ -55,6 +62,7 @@ import org.gradle.api.tasks.WorkResult
 import org.gradle.api.tasks.WorkResults
 import org.gradle.api.tasks.bundling.Zip
 import org.gradle.api.tasks.util.PatternSet
+import org.gradle.api.specs.Spec
 import org.gradle.internal.UncheckedException
 import org.objectweb.asm.ClassReader
 import org.objectweb.asm.ClassVisitor
@@ -66,6 +74,18 @@ import shadow.org.apache.tools.zip.ZipEntry
 import shadow.org.apache.tools.zip.ZipFile
 import shadow.org.apache.tools.zip.ZipOutputStream
 
+import java.nio.file.Files
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.zip.CRC32
+import java.util.zip.CheckedInputStream
+import java.util.zip.Deflater
 import java.util.zip.ZipException
 
 /**
@@ -80,6 +100,22 @@ import java.util.zip.ZipException
  * This class is only intended to be used with the {@link
  * JRubyDirInfoTransformer} until such a time when this can be refactored to
  * support the same behavior in a less hackish way.
+ *
+ * When more than one compression thread is requested, entries are deflated on
+ * a thread pool and then written as pre-compressed entries in the order in
+ * which they were visited, so the resulting archive is the same regardless of
+ * the number of threads.
+ *
+ * When there are relocators, classes are relocated on a thread pool with one
+ * thread per processor and the relocated bytes are kept in a
+ * {@link RelocationCache}. Entries are still written to the archive in the
+ * order in which they were visited, from the thread that processes the copy
+ * stream.
+ *
+ * When there is a dependency layer, the entries of the copy stream are
+ * written first. The compressed entries of the layer are then copied without
+ * recompressing them, leaving out any which the copy stream already provided.
+ * Transformers still see every entry of the layer.
  */
 @Slf4j
 @SuppressWarnings(['ParameterCount', 'CatchException', 'DuplicateStringLiteral',
@@ -97,12 +133,47 @@ class JRubyJarCopyAction implements CopyAction {
     private final boolean preserveFileTimestamps
     private final boolean minimizeJar
     private final UnusedTracker unusedTracker
+    private final boolean zip64
+    private final int compressionMethod
+    private final Spec<FileTreeElement> storeUncompressed
+    private final int compressionThreads
+    private final File relocationCacheDir
+    private final File dependencyLayer
 
     JRubyJarCopyAction(Provider<File> zipFile, ZipCompressor compressor, DocumentationRegistry documentationRegistry,
                        String encoding, List<Transformer> transformers, List<Relocator> relocators,
                        PatternSet patternSet,
                        boolean preserveFileTimestamps, boolean minimizeJar, UnusedTracker unusedTracker) {
+        this(zipFile, compressor, documentationRegistry, encoding, transformers, relocators, patternSet,
+            preserveFileTimestamps, minimizeJar, unusedTracker, false, ZipOutputStream.DEFLATED, null, 1, null, null)
+    }
 
+    /**
+     * @param zip64 Whether the archive may use the Zip64 extension. Only used for parallel compression, as the
+     *   {@code compressor} takes care of this otherwise.
+     * @param compressionMethod {@link ZipOutputStream#DEFLATED} or {@link ZipOutputStream#STORED}. Only used for
+     *   parallel compression, as the {@code compressor} takes care of this otherwise.
+     * @param storeUncompressed Files which should be stored rather than deflated. Can be {@code null}.
+     * @param compressionThreads Number of threads used to compress entries. Values above 1 are ignored if
+     *   there are relocators.
+     * @param relocationCacheDir Directory in which relocated classes are cached across builds. Can be
+     *   {@code null}.
+     * @param dependencyLayer Archive whose entries are copied into the archive without recompressing them. Can
+     *   be {@code null}. Cannot be combined with relocators.
+     */
+    JRubyJarCopyAction(Provider<File> zipFile, ZipCompressor compressor, DocumentationRegistry documentationRegistry,
+                       String encoding, List<Transformer> transformers, List<Relocator> relocators,
+                       PatternSet patternSet,
+                       boolean preserveFileTimestamps, boolean minimizeJar, UnusedTracker unusedTracker,
+                       boolean zip64, int compressionMethod, Spec<FileTreeElement> storeUncompressed,
+                       int compressionThreads, File relocationCacheDir, File dependencyLayer) {
+
+        this.zip64 = zip64
+        this.compressionMethod = compressionMethod
+        this.storeUncompressed = storeUncompressed
+        this.compressionThreads = compressionThreads
+        this.relocationCacheDir = relocationCacheDir
+        this.dependencyLayer = dependencyLayer
         this.zipFile = zipFile
         this.compressor = compressor
         this.documentationRegistry = documentationRegistry
@@ -117,6 +188,15 @@ class JRubyJarCopyAction implements CopyAction {
 
     @Override
     WorkResult execute(CopyActionProcessingStream stream) {
+        PhaseTrace.Span span = PhaseTrace.start(PhaseTrace.ARCHIVE, zipFile.get().name)
+        try {
+            return writeArchive(stream)
+        } finally {
+            span.arg('bytes', zipFile.get().length()).close()
+        }
+    }
+
+    private WorkResult writeArchive(CopyActionProcessingStream stream) {
         Set<String> unusedClasses
         if (minimizeJar) {
             stream.process(new BaseStreamAction() {
@@ -134,14 +214,28 @@ class JRubyJarCopyAction implements CopyAction {
             unusedClasses = Collections.emptySet()
         }
 
+        if (dependencyLayer != null && !relocators.empty) {
+            throw new GradleException('A dependency layer cannot be combined with relocators')
+        }
+
+        if ((compressionThreads > 1 || dependencyLayer != null) && relocators.empty) {
+            return executeInParallel(stream)
+        }
+
         File zipFileResolved = zipFile.get()
+        ExecutorService executor = relocators.empty ? null : Executors.newFixedThreadPool(
+            Math.max(compressionThreads, Runtime.runtime.availableProcessors()),
+            THREAD_FACTORY
+        )
         try {
             final ZipOutputStream zipOutStr = compressor.createArchiveOutputStream(zipFileResolved)
             withResource(zipOutStr, new Action<ZipOutputStream>() {
                 void execute(ZipOutputStream outputStream) {
                     try {
-                        stream.process(new StreamAction(outputStream, encoding, transformers, relocators, patternSet,
-                            unusedClasses))
+                        StreamAction action = new StreamAction(outputStream, encoding, transformers, relocators,
+                            patternSet, unusedClasses, executor)
+                        stream.process(action)
+                        action.drain(0)
                         processTransformers(outputStream)
                     } catch (Exception e) {
                         log.error('ex', e)
@@ -154,15 +248,105 @@ class JRubyJarCopyAction implements CopyAction {
             if (e.cause instanceof Zip64RequiredException) {
                 throw new Zip64RequiredException(
                     String.format("%s\n\nTo build this archive, please enable the zip64 extension.\nSee: %s",
-                        e.cause.message, documentationRegistry.getDslRefForProperty(Zip, "zip64"))
+                        e.cause.message, documentationRegistry?.getDslRefForProperty(Zip, "zip64"))
                 )
             }
         } catch (Exception e) {
             throw new GradleException("Could not create ZIP '${zipFileResolved}'", e)
+        } finally {
+            executor?.shutdownNow()
+        }
+        return WorkResults.didWork(true)
+    }
+
+    private WorkResult executeInParallel(CopyActionProcessingStream stream) {
+        File zipFileResolved = zipFile.get()
+        ExecutorService executor = Executors.newFixedThreadPool(compressionThreads, THREAD_FACTORY)
+        try {
+            new ZipArchiveOutputStream(zipFileResolved).withCloseable { ZipArchiveOutputStream outputStream ->
+                outputStream.encoding = encoding
+                outputStream.useZip64 = zip64 ? Zip64Mode.AsNeeded : Zip64Mode.Never
+                ParallelStreamAction action = new ParallelStreamAction(outputStream, executor)
+                stream.process(action)
+                action.drain(0)
+                if (dependencyLayer != null) {
+                    appendDependencyLayer(outputStream, action.written)
+                }
+                appendTransformerOutput(outputStream)
+            }
+        } catch (org.apache.commons.compress.archivers.zip.Zip64RequiredException e) {
+            throw new Zip64RequiredException(
+                String.format("%s\n\nTo build this archive, please enable the zip64 extension.\nSee: %s",
+                    e.message, documentationRegistry?.getDslRefForProperty(Zip, "zip64"))
+            )
+        } catch (GradleException e) {
+            throw e
+        } catch (Exception e) {
+            throw new GradleException("Could not create ZIP '${zipFileResolved}'", e)
+        } finally {
+            executor.shutdownNow()
         }
         return WorkResults.didWork(true)
     }
 
+    /**
+     * Copies the entries of the dependency layer which have not been written yet, letting the transformers see
+     * every file of the layer first.
+     */
+    private void appendDependencyLayer(ZipArchiveOutputStream outputStream, Set<String> written) {
+        new org.apache.commons.compress.archivers.zip.ZipFile(dependencyLayer).withCloseable { zip ->
+            Set<String> skipped = new HashSet<String>(written)
+            for (ZipArchiveEntry entry : Collections.list(zip.entries)) {
+                if (entry.directory || skipped.contains(entry.name)) {
+                    continue
+                }
+                LayerFileTreeElement element = new LayerFileTreeElement(zip, entry)
+                Transformer transformer = transformers.find { it.canTransformResource(element) }
+                if (transformer != null) {
+                    skipped.add(entry.name)
+                    InputStream is = element.open()
+                    try {
+                        transformer.transform(
+                            TransformerContext.builder()
+                                .path(entry.name)
+                                .is(is)
+                                .relocators(relocators)
+                                .build()
+                        )
+                    } finally {
+                        is.close()
+                    }
+                }
+            }
+            zip.copyRawEntries(outputStream, { ZipArchiveEntry entry ->
+                !skipped.contains(entry.name)
+            } as ZipArchiveEntryPredicate)
+        }
+    }
+
+    /**
+     * Transformers write to a shadow {@link ZipOutputStream}, so their output is collected in a temporary archive
+     * and then copied over without recompressing it.
+     */
+    private void appendTransformerOutput(ZipArchiveOutputStream outputStream) {
+        File tmp = Files.createTempFile('jrubyjar', '.zip').toFile()
+        try {
+            withResource(new ZipOutputStream(tmp), new Action<ZipOutputStream>() {
+                void execute(ZipOutputStream transformed) {
+                    if (encoding != null) {
+                        transformed.encoding = encoding
+                    }
+                    processTransformers(transformed)
+                }
+            })
+            new org.apache.commons.compress.archivers.zip.ZipFile(tmp).withCloseable { zip ->
+                zip.copyRawEntries(outputStream, { true } as ZipArchiveEntryPredicate)
+            }
+        } finally {
+            tmp.delete()
+        }
+    }
+
     private void processTransformers(ZipOutputStream stream) {
         transformers.each { Transformer transformer ->
             if (transformer.hasTransformedResource()) {
@@ -182,6 +366,16 @@ class JRubyJarCopyAction implements CopyAction {
         return zipEntry
     }
 
+    /**
+     * Reads a file as it is copied, with every filter of the copy specification applied. The source file itself
+     * cannot be read, as {@code FileCopyDetails.getFile()} fails for filtered files.
+     */
+    private static byte[] contentOf(FileCopyDetails fileDetails) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream()
+        fileDetails.copyTo(content)
+        content.toByteArray()
+    }
+
     private static <T extends Closeable> void withResource(T resource, Action<? super T> action) {
         try {
             action.execute(resource)
@@ -210,6 +404,10 @@ class JRubyJarCopyAction implements CopyAction {
             return FilenameUtils.getExtension(fileDetails.path) == 'class'
         }
 
+        protected boolean isStoredUncompressed(FileTreeElement element) {
+            return storeUncompressed != null && storeUncompressed.isSatisfiedBy(element)
+        }
+
         @Override
         void processFile(FileCopyDetailsInternal details) {
             if (details.directory) {
@@ -234,17 +432,25 @@ class JRubyJarCopyAction implements CopyAction {
         private final RelocatorRemapper remapper
         private final PatternSet patternSet
         private final Set<String> unused
+        private final ExecutorService executor
+        private final RelocationCache relocationCache
+        private final Deque<RelocatedClass> pending = new ArrayDeque<RelocatedClass>()
+        private final int window
 
         private final Set<String> visitedFiles = [] as Set
 
         StreamAction(ZipOutputStream zipOutStr, String encoding, List<Transformer> transformers,
-                     List<Relocator> relocators, PatternSet patternSet, Set<String> unused) {
+                     List<Relocator> relocators, PatternSet patternSet, Set<String> unused,
+                     ExecutorService executor) {
             this.zipOutStr = zipOutStr
             this.transformers = transformers
             this.relocators = relocators
             this.remapper = new RelocatorRemapper(relocators, null)
             this.patternSet = patternSet
             this.unused = unused
+            this.executor = executor
+            this.relocationCache = new RelocationCache(relocationCacheDir, relocators)
+            this.window = Runtime.runtime.availableProcessors() * 4
             if (encoding != null) {
                 this.zipOutStr.setEncoding(encoding)
             }
@@ -260,10 +466,14 @@ class JRubyJarCopyAction implements CopyAction {
                 boolean isClass = isClass(fileDetails)
                 if (!remapper.hasRelocators() || !isClass) {
                     if (!isTransformable(fileDetails)) {
+                        drain(0)
                         String mappedPath = remapper.map(fileDetails.relativePath.pathString)
                         ZipEntry archiveEntry = new ZipEntry(mappedPath)
                         archiveEntry.setTime(getArchiveTimeFor(fileDetails.lastModified))
                         archiveEntry.unixMode = (UnixStat.FILE_FLAG | fileDetails.mode)
+                        if (isStoredUncompressed(fileDetails)) {
+                            setStored(archiveEntry, fileDetails)
+                        }
                         zipOutStr.putNextEntry(archiveEntry)
                         fileDetails.copyTo(zipOutStr)
                         zipOutStr.closeEntry()
@@ -279,6 +489,18 @@ class JRubyJarCopyAction implements CopyAction {
             }
         }
 
+        private void setStored(ZipEntry archiveEntry, FileCopyDetails fileDetails) {
+            CheckedInputStream is = new CheckedInputStream(fileDetails.open(), new CRC32())
+            try {
+                archiveEntry.size = IOUtils.copyLarge(is, new NullOutputStream())
+            } finally {
+                is.close()
+            }
+            archiveEntry.method = ZipEntry.STORED
+            archiveEntry.compressedSize = archiveEntry.size
+            archiveEntry.crc = is.checksum.value
+        }
+
         private boolean isUnused(String classPath) {
             final String className = FilenameUtils.removeExtension(classPath)
                 .replace('/' as char, '.' as char)
@@ -304,13 +526,28 @@ class JRubyJarCopyAction implements CopyAction {
 
         private void remapClass(FileCopyDetails fileCopyDetails) {
             if (FilenameUtils.getExtension(fileCopyDetails.name) == 'class') {
-                remapClass(fileCopyDetails.file.newInputStream(), fileCopyDetails.path, fileCopyDetails.lastModified)
+                byte[] original = contentOf(fileCopyDetails)
+                String path = fileCopyDetails.path
+                Future<byte[]> relocated = executor == null ?
+                    CompletableFuture.completedFuture(relocate(original, path)) :
+                    executor.submit({ -> relocate(original, path) } as Callable<byte[]>)
+                add(new RelocatedClass(remapper.mapPath(path), getArchiveTimeFor(fileCopyDetails.lastModified),
+                    relocated))
             }
         }
 
         private void remapClass(InputStream classInputStream, String path, long lastModified) {
-            InputStream is = classInputStream
-            ClassReader cr = new ClassReader(is)
+            byte[] relocated = relocate(IOUtils.toByteArray(classInputStream), path)
+            add(new RelocatedClass(remapper.mapPath(path), getArchiveTimeFor(lastModified),
+                CompletableFuture.completedFuture(relocated)))
+        }
+
+        private byte[] relocate(byte[] original, String path) {
+            relocationCache.relocate(original) { byte[] bytes -> remapClassBytes(bytes, path) }
+        }
+
+        private byte[] remapClassBytes(byte[] original, String path) {
+            ClassReader cr = new ClassReader(original)
 
             // We don't pass the ClassReader here. This forces the ClassWriter to rebuild the constant pool.
             // Copying the original constant pool should be avoided because it would keep references
@@ -327,29 +564,45 @@ class JRubyJarCopyAction implements CopyAction {
                 throw new GradleException("Error in ASM processing class " + path, ise)
             }
 
-            byte[] renamedClass = cw.toByteArray()
+            return cw.toByteArray()
+        }
 
-            // Need to take the .class off for remapping evaluation
-            String mappedName = remapper.mapPath(path)
+        private void add(RelocatedClass relocatedClass) {
+            pending.addLast(relocatedClass)
+            drain(window)
+        }
 
-            InputStream bis = new ByteArrayInputStream(renamedClass)
-            try {
-                // Now we put it back on so the class file is written out with the right extension.
-                ZipEntry archiveEntry = new ZipEntry(mappedName + ".class")
-                archiveEntry.setTime(getArchiveTimeFor(lastModified))
-                zipOutStr.putNextEntry(archiveEntry)
-                IOUtils.copyLarge(bis, zipOutStr)
-                zipOutStr.closeEntry()
-            } catch (ZipException e) {
-                log.warn("We have a duplicate " + mappedName + " in source project")
-            } finally {
-                bis.close()
+        /**
+         * Writes relocated classes in order until no more than {@code remaining} classes are outstanding.
+         */
+        void drain(int remaining) {
+            while (pending.size() > remaining) {
+                RelocatedClass relocatedClass = pending.removeFirst()
+                byte[] renamedClass
+                try {
+                    renamedClass = relocatedClass.bytes.get()
+                } catch (ExecutionException e) {
+                    throw e.cause instanceof GradleException ? (GradleException) e.cause :
+                        new GradleException("Could not relocate ${relocatedClass.mappedName}", e.cause)
+                }
+
+                try {
+                    // Need to put the .class back on, as it was taken off for remapping evaluation.
+                    ZipEntry archiveEntry = new ZipEntry(relocatedClass.mappedName + ".class")
+                    archiveEntry.setTime(relocatedClass.time)
+                    zipOutStr.putNextEntry(archiveEntry)
+                    zipOutStr.write(renamedClass)
+                    zipOutStr.closeEntry()
+                } catch (ZipException e) {
+                    log.warn("We have a duplicate " + relocatedClass.mappedName + " in source project")
+                }
             }
         }
 
         @Override
         protected void visitDir(FileCopyDetails dirDetails) {
             try {
+                drain(0)
                 // Trailing slash in name indicates that entry is a directory
                 String path = dirDetails.relativePath.pathString + '/'
                 ZipEntry archiveEntry = new ZipEntry(path)
@@ -368,7 +621,7 @@ class JRubyJarCopyAction implements CopyAction {
         }
 
         private void transform(FileCopyDetails details) {
-            transformAndClose(details, details.file.newInputStream())
+            transformAndClose(details, details.open())
         }
 
         private void transformAndClose(FileTreeElement element, InputStream is) {
@@ -392,6 +645,236 @@ class JRubyJarCopyAction implements CopyAction {
 
     }
 
+    /**
+     * Scatters entries to a thread pool for compression and gathers them in the order in which they were visited.
+     *
+     * Transformers are only ever called from the thread that processes the copy stream.
+     */
+    private class ParallelStreamAction extends BaseStreamAction {
+
+        private final ZipArchiveOutputStream zipOutStr
+        private final ExecutorService executor
+        private final Deque<Future<CompressedEntry>> pending = new ArrayDeque<Future<CompressedEntry>>()
+        private final int window = compressionThreads * 2
+        final Set<String> written = [] as Set
+
+        ParallelStreamAction(ZipArchiveOutputStream zipOutStr, ExecutorService executor) {
+            this.zipOutStr = zipOutStr
+            this.executor = executor
+        }
+
+        @Override
+        void visitFile(FileCopyDetails fileDetails) {
+            try {
+                written.add(fileDetails.relativePath.pathString)
+                if (transformers.any { it.canTransformResource(fileDetails) }) {
+                    InputStream is = fileDetails.open()
+                    try {
+                        transformers.find { it.canTransformResource(fileDetails) }.transform(
+                            TransformerContext.builder()
+                                .path(fileDetails.relativePath.pathString)
+                                .is(is)
+                                .relocators(relocators)
+                                .build()
+                        )
+                    } finally {
+                        is.close()
+                    }
+                } else {
+                    ZipArchiveEntry archiveEntry = new ZipArchiveEntry(fileDetails.relativePath.pathString)
+                    archiveEntry.time = getArchiveTimeFor(fileDetails.lastModified)
+                    archiveEntry.unixMode = UnixStat.FILE_FLAG | fileDetails.mode
+                    boolean stored = compressionMethod == ZipOutputStream.STORED || isStoredUncompressed(fileDetails)
+                    byte[] content = contentOf(fileDetails)
+                    add(executor.submit({ -> compress(archiveEntry, content, stored) } as Callable<CompressedEntry>))
+                }
+            } catch (GradleException e) {
+                throw e
+            } catch (Exception e) {
+                throw new GradleException(String.format("Could not add %s to ZIP '%s'.", fileDetails, zipFile.get()), e)
+            }
+        }
+
+        @Override
+        protected void visitDir(FileCopyDetails dirDetails) {
+            written.add(dirDetails.relativePath.pathString + '/')
+            ZipArchiveEntry archiveEntry = new ZipArchiveEntry(dirDetails.relativePath.pathString + '/')
+            archiveEntry.time = getArchiveTimeFor(dirDetails.lastModified)
+            archiveEntry.unixMode = UnixStat.DIR_FLAG | dirDetails.mode
+            archiveEntry.method = ZipArchiveEntry.STORED
+            archiveEntry.size = 0
+            archiveEntry.crc = 0
+            add(CompletableFuture.completedFuture(new CompressedEntry(archiveEntry, null, 0)))
+        }
+
+        /**
+         * Writes completed entries in order until no more than {@code remaining} entries are outstanding.
+         */
+        void drain(int remaining) {
+            while (pending.size() > remaining) {
+                CompressedEntry compressed
+                try {
+                    compressed = pending.removeFirst().get()
+                } catch (ExecutionException e) {
+                    throw new GradleException("Could not compress entry for ZIP '${zipFile.get()}'", e.cause)
+                }
+
+                if (compressed.data == null) {
+                    zipOutStr.putArchiveEntry(compressed.entry)
+                    zipOutStr.closeArchiveEntry()
+                } else {
+                    zipOutStr.addRawArchiveEntry(
+                        compressed.entry,
+                        new ByteArrayInputStream(compressed.data, 0, compressed.length)
+                    )
+                }
+            }
+        }
+
+        private void add(Future<CompressedEntry> entry) {
+            pending.addLast(entry)
+            drain(window)
+        }
+
+        private CompressedEntry compress(ZipArchiveEntry entry, byte[] content, boolean stored) {
+            CRC32 crc = new CRC32()
+            crc.update(content)
+            entry.size = content.length
+            entry.crc = crc.value
+
+            if (stored) {
+                entry.method = ZipArchiveEntry.STORED
+                entry.compressedSize = content.length
+                return new CompressedEntry(entry, content, content.length)
+            }
+
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true)
+            try {
+                deflater.setInput(content)
+                deflater.finish()
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(BUFFER_SIZE, content.length >> 1))
+                byte[] buffer = new byte[BUFFER_SIZE]
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer)
+                    compressed.write(buffer, 0, count)
+                }
+                entry.method = ZipArchiveEntry.DEFLATED
+                entry.compressedSize = compressed.size()
+                return new CompressedEntry(entry, compressed.toByteArray(), compressed.size())
+            } finally {
+                deflater.end()
+            }
+        }
+    }
+
+    private static class RelocatedClass {
+        final String mappedName
+        final long time
+        final Future<byte[]> bytes
+
+        RelocatedClass(String mappedName, long time, Future<byte[]> bytes) {
+            this.mappedName = mappedName
+            this.time = time
+            this.bytes = bytes
+        }
+    }
+
+    /**
+     * An entry of the dependency layer, as seen by transformers.
+     */
+    private static class LayerFileTreeElement implements FileTreeElement {
+        private final org.apache.commons.compress.archivers.zip.ZipFile zip
+        private final ZipArchiveEntry entry
+
+        LayerFileTreeElement(org.apache.commons.compress.archivers.zip.ZipFile zip, ZipArchiveEntry entry) {
+            this.zip = zip
+            this.entry = entry
+        }
+
+        @SuppressWarnings(['GetterMethodCouldBeProperty'])
+        @Override
+        File getFile() {
+            return null
+        }
+
+        @Override
+        boolean isDirectory() {
+            return entry.directory
+        }
+
+        @Override
+        long getLastModified() {
+            return entry.time
+        }
+
+        @Override
+        long getSize() {
+            return entry.size
+        }
+
+        @Override
+        InputStream open() {
+            return zip.getInputStream(entry)
+        }
+
+        @Override
+        void copyTo(OutputStream outputStream) {
+            InputStream is = open()
+            try {
+                IOUtils.copyLarge(is, outputStream)
+            } finally {
+                is.close()
+            }
+        }
+
+        @Override
+        boolean copyTo(File file) {
+            file.withOutputStream { OutputStream os -> copyTo(os) }
+            return true
+        }
+
+        @Override
+        String getName() {
+            return relativePath.lastName
+        }
+
+        @Override
+        String getPath() {
+            return entry.name
+        }
+
+        @Override
+        RelativePath getRelativePath() {
+            return RelativePath.parse(!entry.directory, entry.name)
+        }
+
+        @Override
+        int getMode() {
+            return entry.unixMode & PERMISSIONS_MASK
+        }
+    }
+
+    private static class CompressedEntry {
+        final ZipArchiveEntry entry
+        final byte[] data
+        final int length
+
+        CompressedEntry(ZipArchiveEntry entry, byte[] data, int length) {
+            this.entry = entry
+            this.data = data
+            this.length = length
+        }
+    }
+
+    private static final int BUFFER_SIZE = 65536
+    private static final int PERMISSIONS_MASK = 07777
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger()
+    private static final ThreadFactory THREAD_FACTORY = { Runnable r ->
+        Thread t = new Thread(r, "jrubyjar-worker-${THREAD_COUNT.incrementAndGet()}")
+        t.daemon = true
+        t
+    } as ThreadFactory
+
     class RelativeArchivePath extends RelativePath {
 
         ZipEntry entry
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.jar.internal
+
+import com.github.jengelman.gradle.plugins.shadow.relocation.Relocator
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import java.lang.reflect.Field
+import java.lang.reflect.Modifier
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+
+/**
+ * RelocationCache keeps the bytes of relocated classes on disk, so that an
+ * unchanged class is not run through ASM again on the next build.
+ *
+ * Entries are keyed by the SHA-256 checksum of the original class and are
+ * kept in a directory named after a checksum of the relocator configuration,
+ * which is taken from the fields of every relocator. Entries are written
+ * atomically, so several builds can share the cache directory.
+ */
+@CompileStatic
+@Slf4j
+class RelocationCache {
+
+    /**
+     * @param cacheDir Root directory of the cache, or {@code null} to relocate
+     *  every class without caching it
+     * @param relocators Relocators that are applied to the classes
+     */
+    RelocationCache(File cacheDir, List<Relocator> relocators) {
+        this.dir = cacheDir == null ? null : new File(cacheDir, checksum(relocators))
+    }
+
+    /**
+     * Returns the relocated bytes of a class, relocating it only if it is not
+     * in the cache yet.
+     *
+     * @param original Bytes of the original class
+     * @param relocate Called with the original bytes if the class is not cached
+     *  and returns the relocated bytes
+     * @return Bytes of the relocated class
+     */
+    byte[] relocate(byte[] original, Closure<byte[]> relocate) {
+        if (dir == null) {
+            return relocate.call(original)
+        }
+
+        String key = sha256(original)
+        File entry = new File(dir, "${key.substring(0, 2)}/${key.substring(2)}.class")
+        if (entry.exists()) {
+            try {
+                return entry.bytes
+            } catch (IOException e) {
+                log.debug("Could not read relocated class from ${entry}", e)
+            }
+        }
+
+        byte[] relocated = relocate.call(original)
+        store(entry, relocated)
+        relocated
+    }
+
+    private void store(File entry, byte[] relocated) {
+        try {
+            entry.parentFile.mkdirs()
+            File tmp = File.createTempFile('relocated', '.tmp', entry.parentFile)
+            try {
+                tmp.bytes = relocated
+                Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE)
+            } finally {
+                tmp.delete()
+            }
+        } catch (IOException e) {
+            log.debug("Could not add relocated class to ${entry}", e)
+        }
+    }
+
+    /**
+     * @param relocators Relocators that are applied to the classes
+     * @return Checksum of the configuration of the relocators, which changes
+     *  whenever they would relocate a class differently
+     */
+    static String checksum(List<Relocator> relocators) {
+        StringBuilder configuration = new StringBuilder(CACHE_VERSION)
+        relocators.each { Relocator relocator ->
+            configuration.append('\n').append(relocator.class.name)
+            fieldsOf(relocator.class).each { Field field ->
+                field.accessible = true
+                configuration.append('\n  ').append(field.name).append('=').append(describe(field.get(relocator)))
+            }
+        }
+        sha256(configuration.toString().getBytes('UTF-8'))
+    }
+
+    private static List<Field> fieldsOf(Class<?> type) {
+        List<Field> fields = []
+        for (Class<?> current = type; current != null && current != Object; current = current.superclass) {
+            fields.addAll(current.declaredFields.findAll { Field field ->
+                !Modifier.isStatic(field.modifiers) && !Modifier.isTransient(field.modifiers) && !field.synthetic
+            })
+        }
+        fields.sort { Field field -> "${field.declaringClass.name}.${field.name}".toString() }
+    }
+
+    private static String describe(Object value) {
+        value instanceof Collection ? ((Collection) value).collect { it.toString() }.sort().toString() : "${value}"
+    }
+
+    private static String sha256(byte[] content) {
+        MessageDigest.getInstance('SHA-256').digest(content).encodeHex().toString()
+    }
+
+    private static final String CACHE_VERSION = '1'
+
+    private final File dir
+}
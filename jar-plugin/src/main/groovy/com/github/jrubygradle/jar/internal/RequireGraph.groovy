@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.jar.internal
+
+import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/**
+ * RequireGraph finds the Ruby files of a GEM installation directory which can
+ * be reached from a set of scripts by following literal {@code require},
+ * {@code require_relative}, {@code load} and {@code autoload} statements.
+ *
+ * Requires are resolved against the {@code require_paths} of every installed
+ * GEM and against the directories of the scripts. Requires which are built at
+ * runtime, such as {@code require "foo/#{name}"}, cannot be followed and the
+ * files they load must be kept by other means.
+ */
+@CompileStatic
+class RequireGraph {
+
+    /**
+     * @param gemHome GEM installation directory
+     */
+    RequireGraph(File gemHome) {
+        this.gemHome = gemHome.canonicalFile
+        this.loadPath = gemLoadPath(this.gemHome)
+    }
+
+    /**
+     * Follow the requires of some scripts.
+     *
+     * @param scripts Ruby files to start from
+     * @param loaded Further files to start from, such as files recorded during
+     *  a run of the scripts. Unlike the scripts, their directories are not
+     *  searched for requires
+     * @return Paths relative to the GEM installation directory of all the files
+     *  which are reached, in sorted order
+     */
+    SortedSet<String> trace(Collection<File> scripts, Collection<File> loaded = []) {
+        List<File> searchPath = []
+        searchPath.addAll(scripts*.canonicalFile*.parentFile.unique())
+        searchPath.addAll(loadPath)
+
+        Set<File> visited = new HashSet<File>()
+        Deque<File> pending = new ArrayDeque<File>()
+        (scripts + loaded).each { File script -> pending.add(script.canonicalFile) }
+
+        while (!pending.empty) {
+            File file = pending.poll()
+            if (!visited.add(file) || !file.name.endsWith(RUBY_EXT)) {
+                continue
+            }
+            references(new String(file.bytes, UTF_8)).each { Reference ref ->
+                File target = ref.relative ? resolveRelative(file, ref.path) : resolve(searchPath, ref.path)
+                if (target != null && !visited.contains(target)) {
+                    pending.add(target)
+                }
+            }
+        }
+
+        SortedSet<String> reached = new TreeSet<String>()
+        visited.each { File file ->
+            String path = relativeToGemHome(file)
+            if (path != null) {
+                reached.add(path)
+            }
+        }
+        reached
+    }
+
+    /**
+     * Convert a path, such as an entry of {@code $LOADED_FEATURES}, to a path
+     * relative to the GEM installation directory.
+     *
+     * @return Relative path or {@code null} if the file is not inside the GEM
+     *  installation directory
+     */
+    String relativeToGemHome(File file) {
+        String root = gemHome.path + File.separator
+        String path = file.canonicalPath
+        path.startsWith(root) ? path.substring(root.length()).replace(File.separatorChar, '/' as char) : null
+    }
+
+    /**
+     * Extract the literal load statements from Ruby source.
+     *
+     * Comment lines and {@code =begin}/{@code =end} blocks are skipped.
+     */
+    static List<Reference> references(String source) {
+        List<Reference> refs = []
+        boolean inComment = false
+        source.eachLine { String line ->
+            if (line.startsWith('=begin')) {
+                inComment = true
+            } else if (line.startsWith('=end')) {
+                inComment = false
+            } else if (!inComment && !line.trim().startsWith('#')) {
+                Matcher require = REQUIRE.matcher(line)
+                while (require.find()) {
+                    refs.add(new Reference(require.group(3), require.group(1) == 'require_relative'))
+                }
+                Matcher autoload = AUTOLOAD.matcher(line)
+                while (autoload.find()) {
+                    refs.add(new Reference(autoload.group(2), false))
+                }
+            }
+        }
+        refs
+    }
+
+    /** A literal path given to a load statement */
+    static class Reference {
+        final String path
+        final boolean relative
+
+        Reference(String path, boolean relative) {
+            this.path = path
+            this.relative = relative
+        }
+    }
+
+    private static File resolve(List<File> searchPath, String feature) {
+        if (new File(feature).absolute) {
+            return null
+        }
+        String name = feature.endsWith(RUBY_EXT) || feature.endsWith('.jar') ? feature : feature + RUBY_EXT
+        for (File dir : searchPath) {
+            File candidate = new File(dir, name)
+            if (candidate.file) {
+                return candidate.canonicalFile
+            }
+        }
+        null
+    }
+
+    private static File resolveRelative(File from, String feature) {
+        String name = feature.endsWith(RUBY_EXT) ? feature : feature + RUBY_EXT
+        File candidate = new File(from.parentFile, name)
+        candidate.file ? candidate.canonicalFile : null
+    }
+
+    /**
+     * The {@code require_paths} of every installed GEM, taken from its
+     * specification and defaulting to {@code lib}.
+     */
+    private static List<File> gemLoadPath(File gemHome) {
+        List<File> dirs = []
+        File[] gems = new File(gemHome, 'gems').listFiles()
+        if (gems == null) {
+            return dirs
+        }
+        gems.findAll { File gem -> gem.directory }.sort { File gem -> gem.name }.each { File gem ->
+            File spec = new File(gemHome, "specifications/${gem.name}.gemspec")
+            requirePaths(spec.file ? spec.getText(UTF_8.name()) : '').each { String path ->
+                dirs.add(new File(gem, path))
+            }
+        }
+        dirs
+    }
+
+    /**
+     * The {@code require_paths} of a GEM specification.
+     *
+     * @param gemspec Content of an installed {@code .gemspec} file
+     * @return Require paths, defaulting to {@code lib}
+     */
+    @PackageScope
+    static List<String> requirePaths(String gemspec) {
+        Matcher matcher = REQUIRE_PATHS.matcher(gemspec)
+        if (!matcher.find()) {
+            return [DEFAULT_REQUIRE_PATH]
+        }
+        List<String> paths = []
+        Matcher quoted = QUOTED.matcher(matcher.group(1))
+        while (quoted.find()) {
+            paths.add(quoted.group(2))
+        }
+        paths ?: [DEFAULT_REQUIRE_PATH]
+    }
+
+    private static final String RUBY_EXT = '.rb'
+    private static final String DEFAULT_REQUIRE_PATH = 'lib'
+    private static final Pattern REQUIRE = ~/\b(require_relative|require|load)\b\s*\(?\s*(['"])([^'"#{}]+)\2/
+    private static final Pattern AUTOLOAD = ~/\bautoload\b\s*\(?\s*:?[\w:]+\s*,\s*(['"])([^'"#{}]+)\1/
+    private static final Pattern REQUIRE_PATHS = ~/\.require_paths\s*=\s*\[([^\]]*)\]/
+    private static final Pattern QUOTED = ~/(['"])([^'"]+)\1/
+
+    private final File gemHome
+    private final List<File> loadPath
+}
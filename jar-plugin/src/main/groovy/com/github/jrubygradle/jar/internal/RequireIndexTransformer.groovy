@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.jar.internal
+
+import com.github.jengelman.gradle.plugins.shadow.transformers.Transformer
+import com.github.jengelman.gradle.plugins.shadow.transformers.TransformerContext
+import groovy.transform.CompileStatic
+import org.gradle.api.file.FileTreeElement
+import shadow.org.apache.tools.zip.ZipEntry
+import shadow.org.apache.tools.zip.ZipOutputStream
+
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+/**
+ * RequireIndexTransformer adds a precomputed require index and a cache of
+ * GEM specifications to the archive, together with a small Ruby bootstrap
+ * which loads them.
+ *
+ * The index maps every feature which can be required from the
+ * {@code require_paths} of a packaged GEM to the file which provides it. When
+ * several versions of a GEM are packaged, only the highest version is
+ * indexed. The bootstrap installs all specifications at once instead of
+ * letting RubyGems read them one by one, next to the default GEMs of JRuby.
+ * When a require is not found on the {@code $LOAD_PATH}, it activates the GEM
+ * which provides the feature instead of letting RubyGems search every GEM.
+ */
+@CompileStatic
+@SuppressWarnings('UnusedMethodParameter')
+class RequireIndexTransformer implements Transformer {
+    static final String INDEX_DIR = 'jruby-gradle'
+    static final String BOOTSTRAP = "${INDEX_DIR}/require_index.rb"
+    static final String INDEX = "${INDEX_DIR}/require_index.txt"
+    static final String SPECIFICATIONS = "${INDEX_DIR}/specifications.rb"
+
+    /**
+     * Record the packaged GEM files and read the GEM specifications.
+     *
+     * @return false, as the files are packaged unchanged
+     */
+    boolean canTransformResource(FileTreeElement element) {
+        if (!element.directory) {
+            String path = element.relativePath.pathString
+            if (SPEC_PATH.matcher(path).matches()) {
+                if (!specs.containsKey(path)) {
+                    specs[path] = element.open().withStream { InputStream is -> new String(is.bytes, UTF_8) }
+                }
+            } else if (path.startsWith('gems/')) {
+                files.add(path)
+            }
+        }
+        return false
+    }
+
+    /** No-op since we don't transform the actual file */
+    void transform(TransformerContext context) {
+        return
+    }
+
+    /**
+     * Confirm that we've done some work so our {@code modifyOutputStream} is called
+     *
+     * @return true
+     */
+    boolean hasTransformedResource() {
+        return true
+    }
+
+    /** Write the bootstrap, the index and the specification cache. */
+    void modifyOutputStream(ZipOutputStream os, boolean preserveFileTimestamps) {
+        long time = preserveFileTimestamps ? System.currentTimeMillis() :
+            JRubyJarCopyAction.CONSTANT_TIME_FOR_ZIP_ENTRIES
+        String bootstrap = this.class.getResource('require_index.rb').getText(UTF_8.name())
+
+        write(os, BOOTSTRAP, bootstrap, time)
+        write(os, INDEX, index().collect { String feature, String path -> "${feature}\t${path}\n" }.join(''), time)
+        write(os, SPECIFICATIONS, specificationCache(), time)
+    }
+
+    /**
+     * Map every requirable feature to the file which provides it.
+     *
+     * @return Features without a {@code .rb} extension and their paths inside the archive
+     */
+    SortedMap<String, String> index() {
+        Map<String, List<String>> requireDirs = [:]
+        specs.each { String path, String content ->
+            String fullName = SPEC_PATH.matcher(path).with { Matcher m -> m.matches(); m.group(1) }
+            requireDirs[fullName] = RequireGraph.requirePaths(content).collect { String dir ->
+                "gems/${fullName}/${dir}/".toString()
+            }
+        }
+
+        Map<String, List<String>> filesByGem = files.groupBy { String file -> file.tokenize('/')[1] }
+
+        SortedMap<String, String> features = new TreeMap<String, String>()
+        Set<String> gemNames = []
+        requireDirs.keySet().toSorted(GEM_ORDER).each { String fullName ->
+            if (!gemNames.add(gemName(fullName))) {
+                return
+            }
+            List<String> gemFiles = (filesByGem[fullName] ?: []).sort()
+            requireDirs[fullName].each { String dir ->
+                gemFiles.findAll { String file -> file.startsWith(dir) }.each { String file ->
+                    String feature = file.substring(dir.length())
+                    if (feature.endsWith(RUBY_EXT)) {
+                        features.putIfAbsent(feature[0..-(RUBY_EXT.length() + 1)], file)
+                    } else if (feature.endsWith('.jar')) {
+                        features.putIfAbsent(feature, file)
+                    }
+                }
+            }
+        }
+        features
+    }
+
+    /**
+     * A Ruby literal listing every GEM specification with its source.
+     *
+     * Each source is a heredoc whose terminator does not appear as a line of that source, as specifications
+     * written by the plugin's GEM installer contain heredocs of their own.
+     */
+    String specificationCache() {
+        StringBuilder cache = new StringBuilder('[\n')
+        specs.keySet().sort().each { String path ->
+            String source = specs[path]
+            String terminator = HEREDOC
+            List<String> lines = source.readLines()
+            while (lines.contains(terminator)) {
+                terminator = "${terminator}_"
+            }
+            cache.append("  ['${path}', <<'${terminator}'],\n")
+            cache.append(source)
+            if (!source.endsWith('\n')) {
+                cache.append('\n')
+            }
+            cache.append(terminator).append('\n')
+        }
+        cache.append(']\n').toString()
+    }
+
+    private static void write(ZipOutputStream os, String path, String content, long time) {
+        ZipEntry entry = new ZipEntry(path)
+        entry.time = time
+        os.putNextEntry(entry)
+        os.write(content.getBytes(UTF_8))
+        os.closeEntry()
+    }
+
+    private static String gemName(String fullName) {
+        Matcher m = FULL_NAME.matcher(fullName)
+        m.matches() ? m.group(1) : fullName
+    }
+
+    /** Orders GEMs by name and then from the highest to the lowest version */
+    private static int compareGems(String left, String right) {
+        Matcher l = FULL_NAME.matcher(left)
+        Matcher r = FULL_NAME.matcher(right)
+        if (!l.matches() || !r.matches() || l.group(1) != r.group(1)) {
+            return left <=> right
+        }
+        List<String> lv = l.group(2).tokenize('.')
+        List<String> rv = r.group(2).tokenize('.')
+        for (int i = 0; i < Math.min(lv.size(), rv.size()); i++) {
+            int cmp = lv[i].isInteger() && rv[i].isInteger() ?
+                lv[i].toInteger() <=> rv[i].toInteger() : lv[i] <=> rv[i]
+            if (cmp != 0) {
+                return -cmp
+            }
+        }
+        rv.size() <=> lv.size()
+    }
+
+    private static final String RUBY_EXT = '.rb'
+    private static final String HEREDOC = 'JRUBY_GRADLE_GEMSPEC'
+    private static final Pattern SPEC_PATH = ~/specifications\/([^\/]+)\.gemspec/
+    private static final Pattern FULL_NAME = ~/(.+?)-(\d[^-]*)(?:-.+)?/
+    private static final Comparator<String> GEM_ORDER = { String left, String right ->
+        compareGems(left, right)
+    } as Comparator<String>
+
+    private final Map<String, String> specs = [:]
+    private final Set<String> files = new HashSet<String>()
+}
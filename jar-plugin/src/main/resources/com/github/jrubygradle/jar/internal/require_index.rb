@@ -0,0 +1,78 @@
+# Generated by the JRuby/Gradle jar plugin.
+#
+# Installs all packaged gem specifications at once and finds the gem which
+# provides a required file through a precomputed index, so that RubyGems does
+# not have to read every specification or probe the require paths of every
+# gem when the jar starts.
+module JRubyGradle
+  module RequireIndex
+    ROOT = File.dirname(File.dirname(__FILE__))
+
+    # Feature => full name of the gem that provides it
+    GEMS = {}
+    File.foreach(File.join(ROOT, 'jruby-gradle', 'require_index.txt')) do |line|
+      feature, path = line.chomp.split("\t", 2)
+      GEMS[feature] = path.split('/')[1]
+    end
+    GEMS.freeze
+
+    def self.full_name(feature)
+      return nil unless feature.is_a?(String)
+      GEMS[feature.end_with?('.rb') ? feature[0..-4] : feature]
+    end
+
+    def self.specifications
+      sources = eval(File.read(File.join(ROOT, 'jruby-gradle', 'specifications.rb')), TOPLEVEL_BINDING)
+      sources.map do |path, source|
+        file = File.join(ROOT, path)
+        spec = eval(source, TOPLEVEL_BINDING, file)
+        spec.loaded_from = file
+        spec
+      end
+    end
+
+    # The packaged specifications are added to the default gems of JRuby,
+    # taking precedence over a default gem with the same full name.
+    def self.install_specifications
+      packaged = specifications
+      names = packaged.map(&:full_name)
+      defaults = Gem::Specification.respond_to?(:default_stubs) ? Gem::Specification.default_stubs.map(&:to_spec) : []
+      Gem::Specification.all = packaged + defaults.reject { |spec| names.include?(spec.full_name) }
+    end
+
+    # The packaged gem which provides a feature, unless another version of
+    # that gem has been activated already.
+    def self.specification_for(feature)
+      name = full_name(feature)
+      return nil unless name
+      spec = Gem::Specification.find { |candidate| candidate.full_name == name }
+      spec unless spec.nil? || Gem.loaded_specs.key?(spec.name)
+    end
+  end
+end
+
+if defined?(Gem::Specification) && Gem::Specification.respond_to?(:all=) && Gem.respond_to?(:try_activate)
+  JRubyGradle::RequireIndex.install_specifications
+
+  class << Gem
+    alias_method :jruby_gradle_unindexed_try_activate, :try_activate
+
+    # RubyGems calls this once a require has not been found on the $LOAD_PATH.
+    # The gem is taken from the index instead of asking every specification
+    # whether it contains the file, and is activated just like RubyGems does,
+    # so that version conflicts are still detected.
+    def try_activate(path)
+      spec = JRubyGradle::RequireIndex.specification_for(path)
+      return jruby_gradle_unindexed_try_activate(path) unless spec
+
+      begin
+        spec.activate
+      rescue Gem::LoadError => e
+        spec_by_name = Gem::Specification.find_by_name(spec.name)
+        raise e if spec_by_name.nil?
+        spec_by_name.activate
+      end
+      true
+    end
+  end
+end
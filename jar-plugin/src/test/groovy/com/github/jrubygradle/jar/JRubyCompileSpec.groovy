@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.jar
+
+import org.gradle.api.GradleException
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class JRubyCompileSpec extends Specification {
+
+    @Rule
+    TemporaryFolder temporaryFolder
+
+    Project project
+    File sourceDir
+    File jrubyJar
+
+    void setup() {
+        project = ProjectBuilder.builder().withGradleUserHomeDir(temporaryFolder.newFolder()).build()
+        project.apply plugin: 'com.github.jruby-gradle.base'
+        sourceDir = new File(project.projectDir, 'app')
+        sourceDir.mkdirs()
+        jrubyJar = new File(loadTestProperties().flatrepo).listFiles().find { File file ->
+            file.name.startsWith('jruby-complete-') && !file.name.startsWith('jruby-complete-1.7.')
+        }
+    }
+
+    void 'Compiled classes are taken from the cache by the next build'() {
+        given:
+        new File(sourceDir, 'hello.rb').text = "puts 'Hello'"
+
+        when: 'the source is not cached yet'
+        JRubyCompile first = compileTask('compileFirst', jrubyJar)
+        first.exec()
+
+        then:
+        new File(first.outputDir, 'hello.class').exists()
+        cachedFiles(first)*.name.every { it.endsWith('.class') }
+        cachedFiles(first).size() == 1
+
+        when: 'the source is cached, a JRuby which cannot compile anything is never started'
+        JRubyCompile second = compileTask('compileSecond', brokenJRuby())
+        second.exec()
+
+        then:
+        new File(second.outputDir, 'hello.class').bytes == new File(first.outputDir, 'hello.class').bytes
+    }
+
+    void 'Sources which cannot be compiled are tried again by the next build'() {
+        given:
+        new File(sourceDir, 'broken.rb').text = 'def ('
+
+        when:
+        JRubyCompile first = compileTask('compileFirst', jrubyJar)
+        first.exec()
+
+        then:
+        !new File(first.outputDir, 'broken.class').exists()
+        cachedFiles(first).empty
+
+        when: 'the next build compiles it again'
+        compileTask('compileSecond', brokenJRuby()).exec()
+
+        then:
+        thrown(GradleException)
+    }
+
+    private JRubyCompile compileTask(String name, File jruby) {
+        JRubyCompile compile = project.task(name, type: JRubyCompile) as JRubyCompile
+        compile.source(sourceDir)
+        compile.jrubyClasspath(jruby)
+        compile
+    }
+
+    private List<File> cachedFiles(JRubyCompile compile) {
+        (new File(compile.cacheDir, jrubyJar.name - '.jar').listFiles() ?: []) as List<File>
+    }
+
+    /** An empty jar with the name of the real JRuby, which fails as soon as it is run */
+    private File brokenJRuby() {
+        File broken = new File(temporaryFolder.newFolder(), jrubyJar.name)
+        broken.bytes = new byte[0]
+        broken
+    }
+
+    private Map<String, String> loadTestProperties() {
+        this.class.getResource('/jruby-gradle-testconfig.properties').withInputStream { strm ->
+            Properties props = new Properties()
+            props.load(strm)
+            props as Map<String, String>
+        }
+    }
+}
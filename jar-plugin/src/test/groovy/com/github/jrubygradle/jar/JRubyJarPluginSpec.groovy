@@ -28,6 +28,8 @@ import org.gradle.api.InvalidUserDataException
 import org.gradle.api.Project
 import org.gradle.api.Task
 import org.gradle.api.file.FileCollection
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.InputFiles
 import org.gradle.testfixtures.ProjectBuilder
 import spock.lang.Specification
 
@@ -205,6 +207,112 @@ class JRubyJarPluginSpec extends Specification {
         e.message == 'can not have mainClass for library'
     }
 
+    void 'Compiling Ruby sources adds a compile task'() {
+        when:
+        jarTask.compileRuby('app')
+        jarTask.applyConfig()
+        JRubyCompile compile = project.tasks.getByName('compileJRubyJarRuby')
+
+        then:
+        jarTask.taskDependencies.getDependencies(jarTask).contains(compile)
+        compile.taskDependencies.getDependencies(compile).contains(project.tasks.getByName('prepareJRubyJar'))
+        jarTask.keepRubySources
+    }
+
+    void 'Ruby sources are not compiled by default'() {
+        when:
+        jarTask.applyConfig()
+
+        then:
+        project.tasks.findByName('compileJRubyJarRuby') == null
+    }
+
+    void 'Minimising GEMs adds a require trace task'() {
+        given:
+        project.file('app.rb').text = "require 'foo'"
+
+        when:
+        jarTask.initScript('app.rb')
+        jarTask.minimizeGems()
+        jarTask.keepGemFiles('gems/foo-1.0/data/**')
+        jarTask.applyConfig()
+        JRubyRequireTrace trace = project.tasks.getByName('traceJRubyJarRequires')
+
+        then:
+        jarTask.taskDependencies.getDependencies(jarTask).contains(trace)
+        trace.scripts.files == [project.file('app.rb')] as Set
+        trace.trainingArgs == null
+        jarTask.keepGemFiles == ['gems/foo-1.0/data/**']
+    }
+
+    void 'The scripts and training arguments of a GEM minimisation are inputs of the jar'() {
+        given:
+        project.file('app.rb').text = "require 'foo'"
+        project.file('extra.rb').text = "require 'bar'"
+
+        when:
+        jarTask.initScript('app.rb')
+        jarTask.minimizeGems('extra.rb')
+        jarTask.traceRequires('--dry-run')
+        jarTask.applyConfig()
+        JRubyRequireTrace trace = project.tasks.getByName('traceJRubyJarRequires')
+
+        then:
+        jarTask.minimizeGemsScripts.files == [project.file('extra.rb')] as Set
+        JRubyJar.getMethod('getMinimizeGemsScripts').getAnnotation(InputFiles)
+        jarTask.traceRequires == ['--dry-run']
+        JRubyJar.getMethod('getTraceRequires').getAnnotation(Input)
+        trace.trainingArgs == ['--dry-run']
+    }
+
+    void 'Minimising GEMs needs a script to trace'() {
+        when:
+        jarTask.minimizeGems()
+        jarTask.applyConfig()
+
+        then:
+        thrown(InvalidUserDataException)
+    }
+
+    void 'A require index is only added on request'() {
+        expect:
+        !jarTask.requireIndex
+
+        when:
+        jarTask.requireIndex()
+
+        then:
+        jarTask.requireIndex
+    }
+
+    void 'A layered jar packs its dependencies with a separate task'() {
+        when:
+        jarTask.layered()
+        jarTask.storeUncompressed('jars/**')
+        jarTask.applyConfig()
+        JRubyJarLayer layer = project.tasks.getByName('packageJRubyJarDependencies')
+
+        then:
+        jarTask.layered
+        jarTask.taskDependencies.getDependencies(jarTask).contains(layer)
+        layer.taskDependencies.getDependencies(layer).contains(project.tasks.getByName('prepareJRubyJar'))
+        layer.storedPatterns == ['jars/**']
+    }
+
+    void 'A layered jar cannot minimise GEMs'() {
+        given:
+        project.file('app.rb').text = "require 'foo'"
+
+        when:
+        jarTask.initScript('app.rb')
+        jarTask.minimizeGems()
+        jarTask.layered()
+        jarTask.applyConfig()
+
+        then:
+        thrown(InvalidUserDataException)
+    }
+
     void "prepareTask should be an instance of JRubyPrepare"() {
         expect:
         jarTask.dependsOn.find { (it instanceof JRubyPrepare) && (it.name == 'prepareJRubyJar') }
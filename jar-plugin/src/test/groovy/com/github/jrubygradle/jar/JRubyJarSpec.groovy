@@ -23,12 +23,19 @@
  */
 package com.github.jrubygradle.jar
 
+import groovy.io.FileType
+import org.gradle.api.InvalidUserDataException
 import org.gradle.api.Project
 import org.gradle.api.artifacts.Configuration
 import org.gradle.testfixtures.ProjectBuilder
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Opcodes
 import spock.lang.Issue
 import spock.lang.Specification
 
+import java.util.zip.ZipFile
+
 /**
  * JRubyJar task's unit tests
  */
@@ -148,4 +155,83 @@ class JRubyJarSpec extends Specification {
         then:
         evaluated
     }
+
+    void 'Classes packed into the jar are relocated and cached in the Gradle user home'() {
+        given:
+        File classes = new File(project.projectDir, 'classes')
+        writeClass(classes, 'org/foo/Hello', 'org/foo/Base')
+        JRubyJar task = project.task('spock-jar', type: JRubyJar) {
+            from classes
+            relocate 'org.foo', 'shaded.org.foo'
+        }
+        File archive = task.outputs.files.singleFile
+        archive.parentFile.mkdirs()
+        List<File> cached = []
+
+        when:
+        task.copy()
+        ZipFile zip = new ZipFile(archive)
+        ClassReader relocated = new ClassReader(zip.getInputStream(zip.getEntry('shaded/org/foo/Hello.class')))
+        new File(project.gradle.gradleUserHomeDir, "jruby-relocation-cache/${task.relocations}")
+            .eachFileRecurse(FileType.FILES) { cached.add(it) }
+
+        then:
+        relocated.className == 'shaded/org/foo/Hello'
+        relocated.superName == 'shaded/org/foo/Base'
+        zip.getEntry('org/foo/Hello.class') == null
+        cached.size() == 1
+
+        cleanup:
+        zip?.close()
+    }
+
+    void 'Relocation can not be combined with a layered jar'() {
+        given:
+        JRubyJar task = project.task('spock-jar', type: JRubyJar) {
+            relocate 'org.foo', 'shaded.org.foo'
+        }
+
+        when:
+        task.addDependencyLayer()
+
+        then:
+        thrown(InvalidUserDataException)
+    }
+
+    void 'The root configuration of a layered jar applies to its dependency layer'() {
+        given:
+        File deps = new File(project.projectDir, 'deps')
+        new File(deps, 'gems/foo-1.0/lib').mkdirs()
+        new File(deps, 'gems/foo-1.0/lib/foo.rb').text = "puts 'foo'"
+        new File(deps, 'gems/foo-1.0/README.md').text = 'foo'
+        JRubyJar task = project.task('spock-jar', type: JRubyJar)
+        task.addDependencyLayer()
+        task.layerTask.from(deps)
+        task.configure {
+            exclude '**/*.md'
+            filter { String line -> line.replace('foo', 'bar') }
+        }
+        File layer = task.layerTask.layerArchive.get()
+        layer.parentFile.mkdirs()
+
+        when:
+        task.layerTask.copy()
+        ZipFile zip = new ZipFile(layer)
+
+        then:
+        zip.getEntry('gems/foo-1.0/README.md') == null
+        zip.getInputStream(zip.getEntry('gems/foo-1.0/lib/foo.rb')).text == "puts 'bar'"
+
+        cleanup:
+        zip?.close()
+    }
+
+    private static void writeClass(File root, String name, String superName) {
+        ClassWriter writer = new ClassWriter(0)
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null)
+        writer.visitEnd()
+        File file = new File(root, "${name}.class")
+        file.parentFile.mkdirs()
+        file.bytes = writer.toByteArray()
+    }
 }
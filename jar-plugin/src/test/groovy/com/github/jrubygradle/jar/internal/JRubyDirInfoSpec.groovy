@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.jar.internal
+
+import spock.lang.Specification
+
+import java.util.function.BiConsumer
+
+class JRubyDirInfoSpec extends Specification {
+
+    JRubyDirInfo info = new JRubyDirInfo()
+
+    void 'Directory listings are sorted and independent of insertion order'() {
+        given:
+        info.add('gems', 'foo-1.0', 'lib', 'foo.rb')
+        info.add('specifications', 'foo-1.0.gemspec')
+        info.add('gems', 'bar-2.0', 'lib', 'bar.rb')
+        info.add('gems', 'foo-1.0', 'lib', 'foo.rb')
+        info.add('gems', 'foo-1.0', 'lib', 'abc.rb')
+
+        when:
+        Map<String, String> files = collect()
+
+        then:
+        files.keySet().toList() == [
+            '.jrubydir',
+            'gems/.jrubydir',
+            'gems/bar-2.0/.jrubydir',
+            'gems/bar-2.0/lib/.jrubydir',
+            'gems/foo-1.0/.jrubydir',
+            'gems/foo-1.0/lib/.jrubydir',
+            'specifications/.jrubydir'
+        ]
+        files['.jrubydir'] == '.\ngems\nspecifications\n'
+        files['gems/.jrubydir'] == '.\n..\nbar-2.0\nfoo-1.0\n'
+        files['gems/foo-1.0/lib/.jrubydir'] == '.\n..\nabc.rb\nfoo.rb\n'
+    }
+
+    void 'Omitted directories and files are not listed'() {
+        given:
+        info.add('META-INF', 'MANIFEST.MF')
+        info.add('jars', 'org', 'foo.jar')
+        info.add('bin', 'rake')
+        info.add('jar-bootstrap.rb')
+        info.add('lib', '.jrubydir')
+        info.add('lib', 'foo.rb')
+
+        expect:
+        collect() == [
+            '.jrubydir'    : '.\nlib\n',
+            'lib/.jrubydir': '.\n..\nfoo.rb\n'
+        ]
+    }
+
+    private Map<String, String> collect() {
+        Map<String, String> files = [:]
+        info.each({ String path, String content -> files[path] = content } as BiConsumer<String, String>)
+        files
+    }
+}
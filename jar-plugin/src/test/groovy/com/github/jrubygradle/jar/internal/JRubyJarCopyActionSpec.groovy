@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.jar.internal
+
+import com.github.jengelman.gradle.plugins.shadow.internal.DefaultZipCompressor
+import com.github.jengelman.gradle.plugins.shadow.transformers.Transformer
+import org.gradle.api.Project
+import org.gradle.api.file.FileVisitDetails
+import org.gradle.api.file.RelativePath
+import org.gradle.api.internal.file.CopyActionProcessingStreamAction
+import org.gradle.api.internal.file.copy.CopyActionProcessingStream
+import org.gradle.api.internal.file.copy.FileCopyDetailsInternal
+import org.gradle.api.tasks.util.PatternSet
+import org.gradle.testfixtures.ProjectBuilder
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import shadow.org.apache.tools.zip.Zip64RequiredException
+import shadow.org.apache.tools.zip.ZipOutputStream
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+
+import static com.github.jrubygradle.jar.internal.JRubyJarCopyAction.CONSTANT_TIME_FOR_ZIP_ENTRIES
+
+class JRubyJarCopyActionSpec extends Specification {
+
+    @Rule
+    TemporaryFolder temporaryFolder
+
+    Project project = ProjectBuilder.builder().build()
+
+    void 'Archives do not depend on the number of compression threads'() {
+        given:
+        List<FileCopyDetailsInternal> sources = sourceTree(
+            'app/main.rb'             : "require 'foo'\n" * 50,
+            'gems/foo-1.0/lib/foo.rb' : "puts 'foo'\n" * 50,
+            'jars/org/foo/foo-1.0.jar': 'not really a jar',
+            'META-INF/MANIFEST.MF'    : 'Manifest-Version: 1.0\n'
+        )
+
+        when:
+        List<Map<String, Object>> single = entries(archive(sources, 1))
+        List<Map<String, Object>> parallel = entries(archive(sources, 4))
+
+        then:
+        single*.name == parallel*.name
+        single*.crc == parallel*.crc
+        single*.size == parallel*.size
+        single*.time == parallel*.time
+        single*.time.every { it == CONSTANT_TIME_FOR_ZIP_ENTRIES }
+        single.findAll { !it.name.endsWith('/') }*.method == parallel.findAll { !it.name.endsWith('/') }*.method
+    }
+
+    @Unroll
+    void 'Matching files are stored uncompressed when using #threads compression threads'() {
+        given:
+        String content = 'not really a jar\n' * 100
+        List<FileCopyDetailsInternal> sources = sourceTree(
+            'jars/org/foo/foo-1.0.jar': content,
+            'app/main.rb'             : "puts 'hi'\n" * 100
+        )
+
+        when:
+        Map<String, Map<String, Object>> byName = entries(archive(sources, threads, ['jars/**'])).collectEntries {
+            [(it.name): it]
+        }
+
+        then:
+        byName['jars/org/foo/foo-1.0.jar'].method == ZipEntry.STORED
+        byName['jars/org/foo/foo-1.0.jar'].size == content.length()
+        byName['jars/org/foo/foo-1.0.jar'].compressedSize == content.length()
+        byName['jars/org/foo/foo-1.0.jar'].crc == crc(content)
+        byName['app/main.rb'].method == ZipEntry.DEFLATED
+
+        where:
+        threads << [1, 4]
+    }
+
+    @Unroll
+    void 'Directory listings are written when using #threads compression threads'() {
+        given:
+        List<FileCopyDetailsInternal> sources = sourceTree(
+            'app/main.rb'            : "puts 'hi'",
+            'gems/foo-1.0/lib/foo.rb': "puts 'foo'"
+        )
+
+        when:
+        ZipFile zip = new ZipFile(archive(sources, threads))
+
+        then:
+        zip.getInputStream(zip.getEntry('.jrubydir')).text == '.\napp\ngems\n'
+        zip.getInputStream(zip.getEntry('gems/foo-1.0/lib/.jrubydir')).text == '.\n..\nfoo.rb\n'
+
+        cleanup:
+        zip?.close()
+
+        where:
+        threads << [1, 4]
+    }
+
+    @Unroll
+    void 'Too many entries without Zip64 are reported when using #threads compression threads'() {
+        given:
+        File file = temporaryFolder.newFile()
+        file.text = 'x'
+        List<FileCopyDetailsInternal> sources = (0..TOO_MANY_ENTRIES).collect { int i ->
+            details("f${i}.txt", file)
+        }
+
+        when:
+        archive(sources, threads, ['**'], false, [])
+
+        then:
+        Zip64RequiredException e = thrown()
+        e.message.contains('please enable the zip64 extension')
+
+        where:
+        threads << [1, 4]
+    }
+
+    @Unroll
+    void 'Filtered files are packed with their filtered content (threads: #threads, layered: #layered)'() {
+        given:
+        File bootstrap = temporaryFolder.newFile()
+        bootstrap.text = "puts '@GREETING@'"
+        List<FileCopyDetailsInternal> sources = sourceTree('app/main.rb': "puts 'hi'")
+        sources.add(filtered('jar-bootstrap.rb', bootstrap) { String content ->
+            content.replace('@GREETING@', 'Hello')
+        })
+        File dependencyLayer = layered ? layer('gems/foo-1.0/lib/foo.rb': "puts 'foo'") : null
+
+        when:
+        ZipFile zip = new ZipFile(archive(sources, threads, [], true, [new JRubyDirInfoTransformer()], dependencyLayer))
+
+        then:
+        zip.getInputStream(zip.getEntry('jar-bootstrap.rb')).text == "puts 'Hello'"
+
+        cleanup:
+        zip?.close()
+
+        where:
+        threads | layered
+        1       | false
+        4       | false
+        1       | true
+    }
+
+    void 'Entries of the dependency layer are copied without compressing them again'() {
+        given:
+        String content = "puts 'foo'\n" * 100
+        File layer = layer(['gems/foo-1.0/lib/foo.rb': content], Deflater.NO_COMPRESSION)
+        Map<String, Object> packed = entries(layer).find { it.name == 'gems/foo-1.0/lib/foo.rb' }
+
+        when:
+        Map<String, Object> copied = entries(archive(sourceTree('app/main.rb': "puts 'hi'"), 1, [], true, [], layer))
+            .find { it.name == 'gems/foo-1.0/lib/foo.rb' }
+
+        then:
+        copied.method == ZipEntry.DEFLATED
+        copied.compressedSize == packed.compressedSize
+        copied.compressedSize > content.length()
+        copied.crc == crc(content)
+    }
+
+    void 'Application files take precedence over files of the dependency layer'() {
+        given:
+        File layer = layer('gems/foo-1.0/lib/foo.rb': 'layer', 'gems/foo-1.0/lib/bar.rb': 'bar')
+        List<FileCopyDetailsInternal> sources = sourceTree('gems/foo-1.0/lib/foo.rb': 'application')
+
+        when:
+        ZipFile zip = new ZipFile(archive(sources, 1, [], true, [], layer))
+        List<String> names = Collections.list(zip.entries())*.name
+
+        then:
+        names.count { it == 'gems/foo-1.0/lib/foo.rb' } == 1
+        zip.getInputStream(zip.getEntry('gems/foo-1.0/lib/foo.rb')).text == 'application'
+        zip.getInputStream(zip.getEntry('gems/foo-1.0/lib/bar.rb')).text == 'bar'
+
+        cleanup:
+        zip?.close()
+    }
+
+    void 'Directory listings and the require index cover the dependency layer'() {
+        given:
+        File layer = layer(
+            'specifications/foo-1.0.gemspec': 's.require_paths = ["lib".freeze]\n',
+            'gems/foo-1.0/lib/foo.rb'       : "puts 'foo'"
+        )
+        List<Transformer> transformers = [new JRubyDirInfoTransformer(), new RequireIndexTransformer()]
+
+        when:
+        ZipFile zip = new ZipFile(archive(sourceTree('app/main.rb': "puts 'hi'"), 1, [], true, transformers, layer))
+
+        then:
+        zip.getInputStream(zip.getEntry('.jrubydir')).text == '.\napp\ngems\nspecifications\n'
+        zip.getInputStream(zip.getEntry('gems/foo-1.0/lib/.jrubydir')).text == '.\n..\nfoo.rb\n'
+        zip.getInputStream(zip.getEntry(RequireIndexTransformer.INDEX)).text == 'foo\tgems/foo-1.0/lib/foo.rb\n'
+        zip.getInputStream(zip.getEntry(RequireIndexTransformer.SPECIFICATIONS)).text
+            .contains('s.require_paths = ["lib".freeze]')
+
+        cleanup:
+        zip?.close()
+    }
+
+    private File archive(
+        List<FileCopyDetailsInternal> sources,
+        int threads,
+        List<String> stored = [],
+        boolean zip64 = true,
+        List<Transformer> transformers = [new JRubyDirInfoTransformer()],
+        File dependencyLayer = null
+    ) {
+        File out = new File(temporaryFolder.newFolder(), 'out.jar')
+        new JRubyJarCopyAction(
+            project.provider { out },
+            new DefaultZipCompressor(zip64, ZipOutputStream.DEFLATED),
+            null,
+            'utf-8',
+            transformers,
+            [],
+            new PatternSet(),
+            false,
+            false,
+            null,
+            zip64,
+            ZipOutputStream.DEFLATED,
+            stored.empty ? null : new PatternSet().include(stored).asSpec,
+            threads,
+            null,
+            dependencyLayer
+        ).execute({ CopyActionProcessingStreamAction action ->
+            sources.each { action.processFile(it) }
+        } as CopyActionProcessingStream)
+        out
+    }
+
+    private File layer(Map<String, String> files, int level = Deflater.DEFAULT_COMPRESSION) {
+        File layer = new File(temporaryFolder.newFolder(), 'layer.zip')
+        new java.util.zip.ZipOutputStream(layer.newOutputStream()).withCloseable { java.util.zip.ZipOutputStream zip ->
+            zip.level = level
+            files.each { String path, String content ->
+                zip.putNextEntry(new ZipEntry(path))
+                zip.write(content.bytes)
+                zip.closeEntry()
+            }
+        }
+        layer
+    }
+
+    private List<FileCopyDetailsInternal> sourceTree(Map<String, String> files) {
+        File root = temporaryFolder.newFolder()
+        files.each { String path, String content ->
+            File file = new File(root, path)
+            file.parentFile.mkdirs()
+            file.text = content
+        }
+        List<FileCopyDetailsInternal> sources = []
+        project.fileTree(root).visit { FileVisitDetails visited ->
+            sources.add(details(visited.path, visited.file))
+        }
+        sources
+    }
+
+    private static FileCopyDetailsInternal details(String path, File file) {
+        RelativePath relativePath = RelativePath.parse(!file.directory, path)
+        [
+            isDirectory    : { -> file.directory },
+            getRelativePath: { -> relativePath },
+            getPath        : { -> path },
+            getName        : { -> relativePath.lastName },
+            getFile        : { -> file },
+            getLastModified: { -> file.lastModified() },
+            getMode        : { -> file.directory ? 0755 : 0644 },
+            open           : { -> file.newInputStream() },
+            copyTo         : { OutputStream os -> file.withInputStream { os << it } }
+        ] as FileCopyDetailsInternal
+    }
+
+    /** Like a filtered file in a Gradle copy specification, the source file cannot be read directly */
+    private static FileCopyDetailsInternal filtered(String path, File file, Closure<String> filter) {
+        RelativePath relativePath = RelativePath.parse(true, path)
+        Closure<byte[]> content = { -> filter.call(file.text).bytes }
+        [
+            isDirectory    : { -> false },
+            getRelativePath: { -> relativePath },
+            getPath        : { -> path },
+            getName        : { -> relativePath.lastName },
+            getFile        : { -> throw new UnsupportedOperationException() },
+            getLastModified: { -> file.lastModified() },
+            getMode        : { -> 0644 },
+            open           : { -> new ByteArrayInputStream(content.call()) },
+            copyTo         : { OutputStream os -> os.write(content.call()) }
+        ] as FileCopyDetailsInternal
+    }
+
+    private static List<Map<String, Object>> entries(File archive) {
+        ZipFile zip = new ZipFile(archive)
+        try {
+            Collections.list(zip.entries()).collect { ZipEntry entry ->
+                [
+                    name          : entry.name,
+                    crc           : entry.crc,
+                    size          : entry.size,
+                    compressedSize: entry.compressedSize,
+                    time          : entry.time,
+                    method        : entry.method
+                ] as Map<String, Object>
+            }
+        } finally {
+            zip.close()
+        }
+    }
+
+    private static long crc(String content) {
+        CRC32 crc = new CRC32()
+        crc.update(content.bytes)
+        crc.value
+    }
+
+    private static final int TOO_MANY_ENTRIES = 0xFFFF
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.jar.internal
+
+import com.github.jengelman.gradle.plugins.shadow.relocation.Relocator
+import com.github.jengelman.gradle.plugins.shadow.relocation.SimpleRelocator
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class RelocationCacheSpec extends Specification {
+
+    @Rule
+    TemporaryFolder tmp = new TemporaryFolder()
+
+    int relocations = 0
+    Closure<byte[]> relocate = { byte[] original ->
+        relocations++
+        (new String(original, 'UTF-8') + '-relocated').getBytes('UTF-8')
+    }
+
+    void 'Unchanged classes are only relocated once'() {
+        given:
+        File cacheDir = tmp.newFolder('cache')
+
+        when:
+        byte[] first = new RelocationCache(cacheDir, relocators('org.foo', 'shadow.org.foo'))
+            .relocate('Foo'.getBytes('UTF-8'), relocate)
+        byte[] second = new RelocationCache(cacheDir, relocators('org.foo', 'shadow.org.foo'))
+            .relocate('Foo'.getBytes('UTF-8'), relocate)
+
+        then:
+        relocations == 1
+        new String(second, 'UTF-8') == 'Foo-relocated'
+        second == first
+    }
+
+    void 'Classes are relocated again when the relocators change'() {
+        given:
+        File cacheDir = tmp.newFolder('cache')
+
+        when:
+        new RelocationCache(cacheDir, relocators('org.foo', 'shadow.org.foo'))
+            .relocate('Foo'.getBytes('UTF-8'), relocate)
+        new RelocationCache(cacheDir, relocators('org.foo', 'other.org.foo'))
+            .relocate('Foo'.getBytes('UTF-8'), relocate)
+
+        then:
+        relocations == 2
+    }
+
+    void 'Every class is relocated without a cache directory'() {
+        given:
+        RelocationCache cache = new RelocationCache(null, relocators('org.foo', 'shadow.org.foo'))
+
+        when:
+        cache.relocate('Foo'.getBytes('UTF-8'), relocate)
+        cache.relocate('Foo'.getBytes('UTF-8'), relocate)
+
+        then:
+        relocations == 2
+    }
+
+    void 'The relocator checksum follows the configuration of the relocators'() {
+        given:
+        List<Relocator> excluding = [
+            new SimpleRelocator('org.foo', 'shadow.org.foo', [], ['org.foo.Bar'])
+        ] as List<Relocator>
+
+        expect:
+        RelocationCache.checksum(relocators('org.foo', 'shadow.org.foo')) ==
+            RelocationCache.checksum(relocators('org.foo', 'shadow.org.foo'))
+        RelocationCache.checksum(relocators('org.foo', 'shadow.org.foo')) != RelocationCache.checksum(excluding)
+    }
+
+    private List<Relocator> relocators(String pattern, String shadedPattern) {
+        [new SimpleRelocator(pattern, shadedPattern, [], [])] as List<Relocator>
+    }
+}
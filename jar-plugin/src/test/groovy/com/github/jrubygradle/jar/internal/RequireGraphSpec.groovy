@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.jar.internal
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class RequireGraphSpec extends Specification {
+
+    @Rule
+    TemporaryFolder tmp = new TemporaryFolder()
+
+    File gemHome
+    File app
+
+    void setup() {
+        gemHome = tmp.newFolder('gems-home')
+        app = tmp.newFolder('app')
+    }
+
+    void 'Literal load statements are found'() {
+        when:
+        List<RequireGraph.Reference> refs = RequireGraph.references('''
+require 'foo'
+require_relative "bar/baz"
+# require 'commented'
+load('helper.rb')
+autoload :Thing, 'foo/thing'
+require "foo/#{name}"
+=begin
+require 'documented'
+=end
+''')
+
+        then:
+        refs*.path == ['foo', 'bar/baz', 'helper.rb', 'foo/thing']
+        refs*.relative == [false, true, false, false]
+    }
+
+    void 'Requires are followed through the require paths of installed GEMs'() {
+        given:
+        write('specifications/bar-2.0.gemspec', 's.require_paths = ["src".freeze]')
+        write('gems/foo-1.0/lib/foo.rb', "require 'foo/util'\nrequire_relative 'foo/rel'")
+        write('gems/foo-1.0/lib/foo/util.rb', '')
+        write('gems/foo-1.0/lib/foo/rel.rb', "require 'bar'")
+        write('gems/foo-1.0/lib/foo/unused.rb', '')
+        write('gems/bar-2.0/src/bar.rb', "require 'json'")
+        File script = new File(app, 'main.rb')
+        script.text = "require 'foo'"
+
+        when:
+        SortedSet<String> required = new RequireGraph(gemHome).trace([script])
+
+        then:
+        required.toList() == [
+            'gems/bar-2.0/src/bar.rb',
+            'gems/foo-1.0/lib/foo.rb',
+            'gems/foo-1.0/lib/foo/rel.rb',
+            'gems/foo-1.0/lib/foo/util.rb'
+        ]
+    }
+
+    void 'Loaded files are traced as well'() {
+        given:
+        write('gems/foo-1.0/lib/foo/plugin.rb', "require 'foo/util'")
+        write('gems/foo-1.0/lib/foo/util.rb', '')
+        File script = new File(app, 'main.rb')
+        script.text = 'require "foo/#{ARGV.first}"'
+
+        when:
+        SortedSet<String> required = new RequireGraph(gemHome).trace(
+            [script], [new File(gemHome, 'gems/foo-1.0/lib/foo/plugin.rb')]
+        )
+
+        then:
+        required.toList() == ['gems/foo-1.0/lib/foo/plugin.rb', 'gems/foo-1.0/lib/foo/util.rb']
+    }
+
+    private void write(String path, String content) {
+        File file = new File(gemHome, path)
+        file.parentFile.mkdirs()
+        file.text = content
+    }
+}
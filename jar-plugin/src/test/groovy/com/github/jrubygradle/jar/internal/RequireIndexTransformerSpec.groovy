@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2014-2023, R. Tyler Croy <rtyler@brokenco.de>,
+ *     Schalk Cronje <ysb33r@gmail.com>, Christian Meier, Lookout, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.github.jrubygradle.jar.internal
+
+import com.github.jrubygradle.internal.gems.GemPackage
+import org.gradle.api.file.FileTreeElement
+import org.gradle.api.file.RelativePath
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+class RequireIndexTransformerSpec extends Specification {
+
+    @Rule
+    TemporaryFolder temporaryFolder
+
+    RequireIndexTransformer transformer = new RequireIndexTransformer()
+
+    void 'Features are indexed from the require paths of the highest GEM version'() {
+        given:
+        visit('specifications/foo-1.9.gemspec', 's.require_paths = ["lib".freeze]')
+        visit('specifications/foo-1.10.gemspec', 's.require_paths = ["lib".freeze]')
+        visit('specifications/bar-2.0.gemspec', 's.require_paths = ["src".freeze]')
+        visit('gems/foo-1.9/lib/foo.rb')
+        visit('gems/foo-1.9/lib/foo/old.rb')
+        visit('gems/foo-1.10/lib/foo.rb')
+        visit('gems/foo-1.10/lib/foo/ext.jar')
+        visit('gems/foo-1.10/README.md')
+        visit('gems/bar-2.0/src/bar.rb')
+        visit('gems/bar-2.0/lib/ignored.rb')
+
+        expect:
+        transformer.index() == [
+            'bar'        : 'gems/bar-2.0/src/bar.rb',
+            'foo'        : 'gems/foo-1.10/lib/foo.rb',
+            'foo/ext.jar': 'gems/foo-1.10/lib/foo/ext.jar'
+        ]
+    }
+
+    void 'Specifications are cached as Ruby heredocs'() {
+        given:
+        visit('specifications/foo-1.0.gemspec', 'Gem::Specification.new do |s|\nend')
+
+        expect:
+        transformer.specificationCache() == """[
+  ['specifications/foo-1.0.gemspec', <<'JRUBY_GRADLE_GEMSPEC'],
+Gem::Specification.new do |s|
+end
+JRUBY_GRADLE_GEMSPEC
+]
+"""
+    }
+
+    void 'Specifications written by the GEM installer are not cut short'() {
+        given:
+        String gemspec = GemPackage.read(createGem('foo', '1.0')).gemspec
+        visit('specifications/foo-1.0.gemspec', gemspec)
+
+        when:
+        List<String> lines = transformer.specificationCache().readLines()
+        String terminator = lines[1].find(/<<'(\w+)'/) { String all, String name -> name }
+
+        then:
+        gemspec.readLines().contains('JRUBY_GRADLE_GEMSPEC')
+        !gemspec.readLines().contains(terminator)
+        lines.indexOf(terminator) == lines.size() - 2
+        lines[2..-3].join('\n') == gemspec.readLines().join('\n')
+    }
+
+    void 'The index is loaded before the first line of code of the init script'() {
+        expect:
+        RequireIndexBootstrap.insertRequire("# frozen_string_literal: true\n\nputs 'hi'\n") ==
+            "# frozen_string_literal: true\n\n${RequireIndexBootstrap.REQUIRE}\nputs 'hi'\n"
+    }
+
+    private File createGem(String name, String version) {
+        File work = temporaryFolder.newFolder()
+        new File(work, 'metadata').text = """--- !ruby/object:Gem::Specification
+name: ${name}
+version: !ruby/object:Gem::Version
+  version: ${version}
+platform: ruby
+require_paths:
+- lib
+"""
+        File gem = new File(temporaryFolder.root, "${name}-${version}.gem")
+        AntBuilder ant = new AntBuilder()
+        ant.gzip(src: new File(work, 'metadata'), destfile: new File(work, 'metadata.gz'))
+        ant.tar(destfile: gem) {
+            tarfileset(dir: work, includes: 'metadata.gz')
+        }
+        gem
+    }
+
+    private void visit(String path, String content = '') {
+        FileTreeElement element = Stub(FileTreeElement) {
+            getRelativePath() >> RelativePath.parse(true, path)
+            isDirectory() >> false
+            open() >> { new ByteArrayInputStream(content.getBytes(UTF_8)) }
+        }
+        transformer.canTransformResource(element)
+    }
+}